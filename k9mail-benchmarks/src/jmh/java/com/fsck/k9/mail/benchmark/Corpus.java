@@ -0,0 +1,161 @@
+package com.fsck.k9.mail.benchmark;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import com.fsck.k9.mail.filter.Base64;
+import com.fsck.k9.mail.internet.BinaryTempFileBody;
+import okio.Buffer;
+import okio.Okio;
+
+
+/**
+ * Access to the messages and IMAP transcripts in {@code src/jmh/resources/corpus}, and generators for inputs that
+ * are too big to check in.
+ */
+public final class Corpus {
+    public static final String MULTIPART_ALTERNATIVE = "multipart-alternative.eml";
+    public static final String MULTIPART_MIXED_ATTACHMENT = "multipart-mixed-attachment.eml";
+    public static final String ISO_2022_JP = "iso-2022-jp.eml";
+    public static final String WINDOWS_1252 = "windows-1252.eml";
+    public static final String KOI8_R = "koi8-r.eml";
+    public static final String QUOTED_REPLY = "quoted-reply.eml";
+    public static final String IMAP_FETCH_TRANSCRIPT = "imap-fetch-transcript.txt";
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+
+    private Corpus() {
+    }
+
+    public static byte[] load(String name) throws IOException {
+        InputStream inputStream = Corpus.class.getResourceAsStream("/corpus/" + name);
+        if (inputStream == null) {
+            throw new IOException("Missing corpus file: " + name);
+        }
+
+        try {
+            return Okio.buffer(Okio.source(inputStream)).readByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * {@link com.fsck.k9.mail.DefaultBodyFactory} stores bodies in temporary files, so parsing needs a temp directory.
+     */
+    public static void setUpTempDirectory() throws IOException {
+        File tempDirectory = File.createTempFile("k9-benchmark", "");
+        if (!tempDirectory.delete() || !tempDirectory.mkdir()) {
+            throw new IOException("Couldn't create temp directory " + tempDirectory);
+        }
+        tempDirectory.deleteOnExit();
+
+        BinaryTempFileBody.setTempDirectory(tempDirectory);
+    }
+
+    /**
+     * Deletes the temporary files created while parsing. Call this between iterations so long runs don't fill up the
+     * disk.
+     */
+    public static void cleanUpTempDirectory() {
+        File[] files = BinaryTempFileBody.getTempDirectory().listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    public static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Creates a {@code multipart/mixed} message with a short text part and a base64-encoded attachment of the given
+     * size.
+     */
+    public static byte[] createMessageWithAttachment(int attachmentSize) {
+        Buffer buffer = new Buffer();
+        buffer.writeString("From: Alice Example <alice@example.org>\r\n" +
+                "To: Bob Example <bob@example.com>\r\n" +
+                "Subject: Large attachment\r\n" +
+                "Date: Tue, 13 Feb 2018 09:12:40 +0100\r\n" +
+                "Message-ID: <large-attachment@example.org>\r\n" +
+                "MIME-Version: 1.0\r\n" +
+                "Content-Type: multipart/mixed; boundary=\"boundary\"\r\n" +
+                "\r\n" +
+                "--boundary\r\n" +
+                "Content-Type: text/plain; charset=UTF-8\r\n" +
+                "\r\n" +
+                "See attachment.\r\n" +
+                "--boundary\r\n" +
+                "Content-Type: application/octet-stream; name=\"data.bin\"\r\n" +
+                "Content-Transfer-Encoding: base64\r\n" +
+                "Content-Disposition: attachment; filename=\"data.bin\"\r\n" +
+                "\r\n", US_ASCII);
+        buffer.write(Base64.encodeBase64Chunked(randomBytes(attachmentSize)));
+        buffer.writeString("--boundary--\r\n", US_ASCII);
+
+        return buffer.readByteArray();
+    }
+
+    /**
+     * Creates a short {@code text/plain} message with {@code count} {@code Received} header fields, like a message
+     * that passed through many relays or mailing lists.
+     */
+    public static byte[] createMessageWithReceivedHeaders(int count) {
+        Buffer buffer = new Buffer();
+        for (int i = 0; i < count; i++) {
+            buffer.writeString("Received: from relay" + i + ".example.org (relay" + i + ".example.org " +
+                    "[192.0.2.1])\r\n\tby mx.example.org with ESMTPS id " + i + "\r\n" +
+                    "\tfor <bob@example.com>; Tue, 13 Feb 2018 09:12:40 +0100\r\n", US_ASCII);
+        }
+        buffer.writeString("From: Alice Example <alice@example.org>\r\n" +
+                "To: Bob Example <bob@example.com>\r\n" +
+                "Subject: Many relays\r\n" +
+                "Message-ID: <many-relays@example.org>\r\n" +
+                "MIME-Version: 1.0\r\n" +
+                "Content-Type: text/plain; charset=UTF-8\r\n" +
+                "\r\n" +
+                "This message passed through many relays.\r\n", US_ASCII);
+
+        return buffer.readByteArray();
+    }
+
+    /**
+     * Creates the server output for a {@code UID FETCH} of {@code count} messages, each returning flags, size and
+     * header fields, terminated by the tagged completion response with tag {@code 1}.
+     */
+    public static byte[] createFetchResponses(int count) {
+        Buffer buffer = new Buffer();
+        for (int i = 1; i <= count; i++) {
+            String header = "Date: Tue, 13 Feb 2018 09:12:40 +0100\r\n" +
+                    "Subject: Message " + i + "\r\n" +
+                    "From: Alice Example <alice@example.org>\r\n" +
+                    "To: Bob Example <bob@example.com>\r\n" +
+                    "Message-ID: <message-" + i + "@example.org>\r\n" +
+                    "Content-Type: text/plain; charset=UTF-8\r\n" +
+                    "\r\n";
+
+            buffer.writeString("* " + i + " FETCH (UID " + (1000 + i) + " RFC822.SIZE " + (1500 + i) +
+                    " FLAGS (\\Seen) BODY[HEADER.FIELDS (date subject from to message-id content-type)] {" +
+                    header.length() + "}\r\n", US_ASCII);
+            buffer.writeString(header, US_ASCII);
+            buffer.writeString(")\r\n", US_ASCII);
+        }
+        buffer.writeString("1 OK UID FETCH completed\r\n", US_ASCII);
+
+        return buffer.readByteArray();
+    }
+}
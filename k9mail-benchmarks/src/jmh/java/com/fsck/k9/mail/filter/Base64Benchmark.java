@@ -0,0 +1,40 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.benchmark.Corpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class Base64Benchmark {
+    @Param({ "1024", "102400", "1048576" })
+    public int size;
+
+    private byte[] data;
+    private byte[] encodedData;
+
+
+    @Setup
+    public void setUp() {
+        data = Corpus.randomBytes(size);
+        encodedData = Base64.encodeBase64Chunked(data);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return Base64.encodeBase64Chunked(data);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return Base64.decodeBase64(encodedData);
+    }
+}
@@ -0,0 +1,44 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CharsetDecodingBenchmark {
+    private static final String SAMPLE_TEXT = "Größe – Résumé « budget » Привет こんにちは\r\n";
+    private static final int SAMPLE_REPETITIONS = 500;
+
+
+    @Param({ "ISO-2022-JP", "windows-1252", "KOI8-R", "UTF-8" })
+    public String charset;
+
+    private byte[] encodedText;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < SAMPLE_REPETITIONS; i++) {
+            text.append(SAMPLE_TEXT);
+        }
+
+        // Characters that can't be represented in the charset are replaced with '?'
+        encodedText = text.toString().getBytes(charset);
+    }
+
+    @Benchmark
+    public String readToString() throws IOException {
+        return CharsetSupport.readToString(new ByteArrayInputStream(encodedText), charset);
+    }
+}
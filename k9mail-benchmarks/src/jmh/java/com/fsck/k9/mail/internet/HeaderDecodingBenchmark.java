@@ -0,0 +1,59 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.benchmark.Corpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HeaderDecodingBenchmark {
+    private static final String[] HEADER_NAMES = { "From", "To", "Cc", "Subject" };
+
+
+    @Param({
+            Corpus.MULTIPART_MIXED_ATTACHMENT,
+            Corpus.ISO_2022_JP,
+            Corpus.WINDOWS_1252,
+            Corpus.KOI8_R
+    })
+    public String message;
+
+    private MimeMessage mimeMessage;
+    private List<String> encodedHeaders;
+
+
+    @Setup
+    public void setUp() throws IOException, MessagingException {
+        Corpus.setUpTempDirectory();
+        byte[] data = Corpus.load(message);
+        mimeMessage = MimeMessage.parseMimeMessage(new ByteArrayInputStream(data), false);
+
+        encodedHeaders = new ArrayList<>();
+        for (String headerName : HEADER_NAMES) {
+            for (String value : mimeMessage.getHeader(headerName)) {
+                encodedHeaders.add(MimeUtility.unfold(value));
+            }
+        }
+    }
+
+    @Benchmark
+    public void decodeEncodedWords(Blackhole blackhole) {
+        for (String header : encodedHeaders) {
+            blackhole.consume(DecoderUtil.decodeEncodedWords(header, mimeMessage));
+        }
+    }
+}
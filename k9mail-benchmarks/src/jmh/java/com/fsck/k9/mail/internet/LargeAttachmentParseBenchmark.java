@@ -0,0 +1,44 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.benchmark.Corpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LargeAttachmentParseBenchmark {
+    @Param({ "102400", "1048576", "10485760" })
+    public int attachmentSize;
+
+    private byte[] data;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        Corpus.setUpTempDirectory();
+        data = Corpus.createMessageWithAttachment(attachmentSize);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        Corpus.cleanUpTempDirectory();
+    }
+
+    @Benchmark
+    public MimeMessage parse() throws IOException, MessagingException {
+        return MimeMessage.parseMimeMessage(new ByteArrayInputStream(data), true);
+    }
+}
@@ -0,0 +1,66 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.ical.ICalPart;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.Part;
+import com.fsck.k9.mail.benchmark.Corpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MessageExtractorBenchmark {
+    @Param({
+            Corpus.MULTIPART_ALTERNATIVE,
+            Corpus.MULTIPART_MIXED_ATTACHMENT,
+            Corpus.ISO_2022_JP,
+            Corpus.WINDOWS_1252,
+            Corpus.KOI8_R
+    })
+    public String message;
+
+    private MimeMessage mimeMessage;
+    private Set<Part> textParts;
+
+
+    @Setup
+    public void setUp() throws IOException, MessagingException {
+        Corpus.setUpTempDirectory();
+        byte[] data = Corpus.load(message);
+        mimeMessage = MimeMessage.parseMimeMessage(new ByteArrayInputStream(data), true);
+        textParts = MessageExtractor.collectTextParts(mimeMessage);
+    }
+
+    @Benchmark
+    public void findViewablesAndAttachments(Blackhole blackhole) throws MessagingException {
+        List<Viewable> viewables = new ArrayList<>();
+        List<Part> attachments = new ArrayList<>();
+        List<ICalPart> iCalendarParts = new ArrayList<>();
+
+        MessageExtractor.findViewablesAndAttachments(mimeMessage, viewables, attachments, iCalendarParts);
+
+        blackhole.consume(viewables);
+        blackhole.consume(attachments);
+    }
+
+    @Benchmark
+    public void getTextFromPart(Blackhole blackhole) {
+        for (Part part : textParts) {
+            blackhole.consume(MessageExtractor.getTextFromPart(part));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.benchmark.Corpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MimeHeaderBenchmark {
+    @Param({ "10", "200" })
+    public int receivedHeaderCount;
+
+    private byte[] data;
+    private MimeMessage message;
+
+
+    @Setup
+    public void setUp() throws IOException, MessagingException {
+        Corpus.setUpTempDirectory();
+        data = Corpus.createMessageWithReceivedHeaders(receivedHeaderCount);
+        message = MimeMessage.parseMimeMessage(new ByteArrayInputStream(data), false);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        Corpus.cleanUpTempDirectory();
+    }
+
+    @Benchmark
+    public void getHeaders(Blackhole blackhole) {
+        blackhole.consume(message.getHeader("From"));
+        blackhole.consume(message.getMessageId());
+        blackhole.consume(message.getContentType());
+        blackhole.consume(message.getHeader("Received"));
+        blackhole.consume(message.getHeader("References"));
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream parseAndSave() throws IOException, MessagingException {
+        MimeMessage message = MimeMessage.parseMimeMessage(new ByteArrayInputStream(data), false);
+        message.getHeader("From");
+        message.getContentType();
+        message.getHeader("Received");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        message.writeTo(out);
+        return out;
+    }
+}
@@ -0,0 +1,50 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.benchmark.Corpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MimeMessageParseBenchmark {
+    @Param({
+            Corpus.MULTIPART_ALTERNATIVE,
+            Corpus.MULTIPART_MIXED_ATTACHMENT,
+            Corpus.ISO_2022_JP,
+            Corpus.WINDOWS_1252,
+            Corpus.KOI8_R
+    })
+    public String message;
+
+    private byte[] data;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        Corpus.setUpTempDirectory();
+        data = Corpus.load(message);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        Corpus.cleanUpTempDirectory();
+    }
+
+    @Benchmark
+    public MimeMessage parse() throws IOException, MessagingException {
+        return MimeMessage.parseMimeMessage(new ByteArrayInputStream(data), true);
+    }
+}
@@ -0,0 +1,65 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.benchmark.Corpus;
+import com.fsck.k9.mail.filter.PeekableInputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ImapResponseParserBenchmark {
+    @Benchmark
+    public void readTranscript(Transcript transcript, Blackhole blackhole) throws IOException {
+        readResponses(transcript.data, blackhole);
+    }
+
+    @Benchmark
+    public void readLargeFetchResponse(LargeFetchResponse fetchResponse, Blackhole blackhole) throws IOException {
+        readResponses(fetchResponse.data, blackhole);
+    }
+
+    private void readResponses(byte[] data, Blackhole blackhole) throws IOException {
+        PeekableInputStream inputStream = new PeekableInputStream(new ByteArrayInputStream(data));
+        ImapResponseParser parser = new ImapResponseParser(inputStream);
+
+        ImapResponse response;
+        do {
+            response = parser.readResponse();
+            blackhole.consume(response);
+        } while (response.getTag() == null);
+    }
+
+
+    @State(Scope.Benchmark)
+    public static class Transcript {
+        byte[] data;
+
+        @Setup
+        public void setUp() throws IOException {
+            data = Corpus.load(Corpus.IMAP_FETCH_TRANSCRIPT);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LargeFetchResponse {
+        @Param({ "1000", "10000" })
+        public int messageCount;
+
+        byte[] data;
+
+        @Setup
+        public void setUp() {
+            data = Corpus.createFetchResponses(messageCount);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.fsck.k9.message.extractors;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.Part;
+import com.fsck.k9.mail.benchmark.Corpus;
+import com.fsck.k9.mail.internet.MessageExtractor;
+import com.fsck.k9.mail.internet.MimeMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import static com.fsck.k9.mail.internet.MimeUtility.isSameMimeType;
+
+
+/**
+ * Compares {@link PreviewTextBuilder} with the regular expressions it replaced, using the text/plain parts of the
+ * corpus messages. HTML parts are left out because converting them to text needs the Android framework.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PreviewTextBenchmark {
+    private static final int MAX_PREVIEW_LENGTH = 512;
+    private static final int MAX_CHARACTERS_CHECKED_FOR_PREVIEW = 8192;
+
+
+    @Param({
+            Corpus.MULTIPART_ALTERNATIVE,
+            Corpus.MULTIPART_MIXED_ATTACHMENT,
+            Corpus.ISO_2022_JP,
+            Corpus.WINDOWS_1252,
+            Corpus.KOI8_R,
+            Corpus.QUOTED_REPLY
+    })
+    public String message;
+
+    private final PreviewTextBuilder previewTextBuilder = new PreviewTextBuilder(MAX_PREVIEW_LENGTH);
+    private final List<String> texts = new ArrayList<>();
+
+
+    @Setup
+    public void setUp() throws IOException, MessagingException {
+        Corpus.setUpTempDirectory();
+        byte[] data = Corpus.load(message);
+        MimeMessage mimeMessage = MimeMessage.parseMimeMessage(new ByteArrayInputStream(data), true);
+        for (Part part : MessageExtractor.collectTextParts(mimeMessage)) {
+            if (isSameMimeType(part.getMimeType(), "text/plain")) {
+                texts.add(MessageExtractor.getTextFromPart(part, MAX_CHARACTERS_CHECKED_FOR_PREVIEW));
+            }
+        }
+        Corpus.cleanUpTempDirectory();
+
+        for (String text : texts) {
+            String expected = stripTextWithRegularExpressions(text);
+            String actual = previewTextBuilder.build(text);
+            if (!expected.equals(actual)) {
+                throw new IllegalStateException("Preview of " + message + " differs: \"" + actual + "\" instead of \"" +
+                        expected + "\"");
+            }
+        }
+    }
+
+    @Benchmark
+    public void regularExpressions(Blackhole blackhole) {
+        for (String text : texts) {
+            blackhole.consume(stripTextWithRegularExpressions(text));
+        }
+    }
+
+    @Benchmark
+    public void previewTextBuilder(Blackhole blackhole) {
+        for (String text : texts) {
+            blackhole.consume(previewTextBuilder.build(text));
+        }
+    }
+
+    /**
+     * The rules as they were implemented before {@link PreviewTextBuilder}.
+     */
+    private static String stripTextWithRegularExpressions(String text) {
+        text = text.replaceAll("(?ms)^-- [\\r\\n]+.*", "");
+        text = text.replaceAll("(?m)^----.*?$", "");
+        text = text.replaceAll("(?m)^[#>].*$", "");
+        text = text.replaceAll("(?m)^On .*wrote.?$", "");
+        text = text.replaceAll("(?m)^.*\\w+:$", "");
+        text = text.replaceAll("\\s*([-=_]{30,}+)\\s*", " ");
+        text = text.replaceAll("https?://\\S+", "...");
+        text = text.replaceAll("(\\r|\\n)+", " ");
+        text = text.replaceAll("\\s+", " ");
+        text = text.trim();
+
+        return (text.length() > MAX_PREVIEW_LENGTH) ? text.substring(0, MAX_PREVIEW_LENGTH - 1) + "…" : text;
+    }
+}
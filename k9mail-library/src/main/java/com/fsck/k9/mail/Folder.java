@@ -160,6 +160,25 @@ public abstract class Folder<T extends Message> {
         return true;
     }
 
+    /**
+     * @return The state of the open folder that can later be passed to {@link #getChangesSince(FolderSyncState)}, or
+     *         {@code null} if the folder doesn't support incremental synchronization.
+     */
+    public FolderSyncState getSyncState() {
+        return null;
+    }
+
+    /**
+     * Retrieve the flag changes and removed messages since the given state was recorded.
+     *
+     * @param syncState The state returned by {@link #getSyncState()} during the last successful synchronization.
+     * @return {@code null} if incremental synchronization isn't possible, e.g. because the server doesn't support it
+     *         or the folder's UIDs are no longer valid. In that case a full synchronization has to be performed.
+     */
+    public FolderChanges<T> getChangesSince(FolderSyncState syncState) throws MessagingException {
+        return null;
+    }
+
     @Override
     public String toString() {
         return getName();
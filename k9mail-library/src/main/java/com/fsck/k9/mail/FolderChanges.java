@@ -0,0 +1,51 @@
+package com.fsck.k9.mail;
+
+
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Changes to a folder since a previously recorded {@link FolderSyncState}.
+ *
+ * @see Folder#getChangesSince(FolderSyncState)
+ */
+public class FolderChanges<T extends Message> {
+    private final List<T> changedMessages;
+    private final List<String> vanishedUids;
+    private final boolean deletionsKnown;
+
+
+    public FolderChanges(List<T> changedMessages, List<String> vanishedUids, boolean deletionsKnown) {
+        this.changedMessages = Collections.unmodifiableList(changedMessages);
+        this.vanishedUids = Collections.unmodifiableList(vanishedUids);
+        this.deletionsKnown = deletionsKnown;
+    }
+
+    /**
+     * @return Messages whose flags changed. Only the UID and the flags of these messages are populated.
+     */
+    public List<T> getChangedMessages() {
+        return changedMessages;
+    }
+
+    /**
+     * @return UIDs of messages that have been removed from the folder. Always empty if {@link #areDeletionsKnown()}
+     *         returns {@code false}.
+     */
+    public List<String> getVanishedUids() {
+        return vanishedUids;
+    }
+
+    /**
+     * @return {@code true} if {@link #getVanishedUids()} is the complete list of removed messages. Otherwise the
+     *         caller needs to find removed messages by other means, e.g. by comparing the list of UIDs.
+     */
+    public boolean areDeletionsKnown() {
+        return deletionsKnown;
+    }
+
+    public boolean isEmpty() {
+        return changedMessages.isEmpty() && vanishedUids.isEmpty();
+    }
+}
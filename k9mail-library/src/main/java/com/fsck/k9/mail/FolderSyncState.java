@@ -0,0 +1,65 @@
+package com.fsck.k9.mail;
+
+
+/**
+ * Snapshot of the server-side state of a folder that allows a later synchronization to only ask for what changed.
+ *
+ * <p>
+ * For IMAP this is the mailbox's UIDVALIDITY, HIGHESTMODSEQ (CONDSTORE, RFC 7162) and UIDNEXT as reported when the
+ * folder was selected.
+ * </p>
+ */
+public class FolderSyncState {
+    private final long uidValidity;
+    private final long highestModSeq;
+    private final long uidNext;
+
+
+    public FolderSyncState(long uidValidity, long highestModSeq, long uidNext) {
+        this.uidValidity = uidValidity;
+        this.highestModSeq = highestModSeq;
+        this.uidNext = uidNext;
+    }
+
+    public long getUidValidity() {
+        return uidValidity;
+    }
+
+    public long getHighestModSeq() {
+        return highestModSeq;
+    }
+
+    /**
+     * @return The predicted UID of the next message added to the folder, or {@code -1} if unknown.
+     */
+    public long getUidNext() {
+        return uidNext;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        FolderSyncState that = (FolderSyncState) o;
+        return uidValidity == that.uidValidity && highestModSeq == that.highestModSeq && uidNext == that.uidNext;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (uidValidity ^ (uidValidity >>> 32));
+        result = 31 * result + (int) (highestModSeq ^ (highestModSeq >>> 32));
+        result = 31 * result + (int) (uidNext ^ (uidNext >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "FolderSyncState{uidValidity=" + uidValidity + ", highestModSeq=" + highestModSeq +
+                ", uidNext=" + uidNext + "}";
+    }
+}
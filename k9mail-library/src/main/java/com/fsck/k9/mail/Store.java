@@ -45,6 +45,19 @@ public abstract class Store {
 
     public void sendMessages(List<? extends Message> messages) throws MessagingException { }
 
+    /**
+     * Opens a connection to the server ahead of time, so the next operation doesn't have to wait for the handshake.
+     */
+    public void prewarmConnection() throws MessagingException { }
+
+    /**
+     * Returns how many folders may be accessed at the same time without exceeding the number of connections this store
+     * opens at the same time.
+     */
+    public int getMaxConcurrentConnections() {
+        return 1;
+    }
+
     public Pusher getPusher(PushReceiver receiver) {
         return null;
     }
@@ -13,4 +13,13 @@ public abstract class Transport {
     public abstract void sendMessage(Message message) throws MessagingException;
 
     public abstract void close();
+
+    /**
+     * Keep the connection open between calls to {@link #sendMessage(Message)} until {@link #endBatch()} is called.
+     */
+    public void beginBatch() {
+    }
+
+    public void endBatch() {
+    }
 }
@@ -0,0 +1,65 @@
+package com.fsck.k9.mail.filter;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A filtering InputStream that stops allowing reads after the given number of lines has been read. Line terminators
+ * are passed through unchanged.
+ *
+ * <p>
+ * To avoid reading byte by byte, bulk reads may consume data past the last allowed line from the wrapped stream.
+ * That data is never returned to the caller.
+ * </p>
+ */
+public class LineLimitInputStream extends InputStream {
+    private final InputStream in;
+    private final int maxLines;
+    private int lineCount = 0;
+
+    public LineLimitInputStream(InputStream in, int maxLines) {
+        this.in = in;
+        this.maxLines = maxLines;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (lineCount >= maxLines) {
+            return -1;
+        }
+
+        int d = in.read();
+        if (d == '\n') {
+            lineCount++;
+        }
+        return d;
+    }
+
+    @Override
+    public int read(byte[] b, int offset, int length) throws IOException {
+        if (lineCount >= maxLines) {
+            return -1;
+        }
+
+        int count = in.read(b, offset, length);
+        for (int i = 0; i < count; i++) {
+            if (b[offset + i] == '\n') {
+                lineCount++;
+                if (lineCount >= maxLines) {
+                    return i + 1;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -7,9 +7,12 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import android.support.annotation.NonNull;
 
@@ -22,29 +25,58 @@ public class MimeHeader implements Cloneable {
     public static final String HEADER_IMPORTANCE = "Importance";
     public static final String HEADER_X_PRIORITY = "X-Priority";
 
+    private static final String[] EMPTY_VALUES = new String[0];
+
+    /**
+     * All fields in the order they were added. This is the order used by {@link #writeTo(OutputStream)}.
+     */
     private List<Field> mFields = new ArrayList<Field>();
+    /**
+     * Case-insensitive index of {@link #mFields}. Looking up a name doesn't allocate any objects.
+     */
+    private Map<String, FieldGroup> mFieldsByName = new TreeMap<String, FieldGroup>(String.CASE_INSENSITIVE_ORDER);
     private String mCharset = null;
 
     public void clear() {
         mFields.clear();
+        mFieldsByName.clear();
     }
 
     public String getFirstHeader(String name) {
-        String[] header = getHeader(name);
-        if (header.length == 0) {
+        FieldGroup fieldGroup = getFieldGroup(name);
+        if (fieldGroup == null) {
             return null;
         }
-        return header[0];
+        return fieldGroup.first.getValue();
     }
 
     public void addHeader(String name, String value) {
         Field field = Field.newNameValueField(name, MimeUtility.foldAndEncode(value));
-        mFields.add(field);
+        add(field);
     }
 
     void addRawHeader(String name, String raw) {
         Field field = Field.newRawField(name, raw);
+        add(field);
+    }
+
+    private void add(Field field) {
         mFields.add(field);
+        addToIndex(field);
+    }
+
+    private void addToIndex(Field field) {
+        FieldGroup fieldGroup = mFieldsByName.get(field.getName());
+        if (fieldGroup == null) {
+            mFieldsByName.put(field.getName(), new FieldGroup(field));
+        } else {
+            fieldGroup.add(field);
+        }
+    }
+
+    private FieldGroup getFieldGroup(String name) {
+        // The case-insensitive comparator doesn't accept null, and no field has a null name
+        return (name == null) ? null : mFieldsByName.get(name);
     }
 
     public void setHeader(String name, String value) {
@@ -66,23 +98,24 @@ public class MimeHeader implements Cloneable {
 
     @NonNull
     public String[] getHeader(String name) {
-        List<String> values = new ArrayList<String>();
-        for (Field field : mFields) {
-            if (field.getName().equalsIgnoreCase(name)) {
-                values.add(field.getValue());
-            }
+        FieldGroup fieldGroup = getFieldGroup(name);
+        if (fieldGroup == null) {
+            return EMPTY_VALUES;
         }
-        return values.toArray(new String[values.size()]);
+        return fieldGroup.getValues();
     }
 
     public void removeHeader(String name) {
-        List<Field> removeFields = new ArrayList<Field>();
-        for (Field field : mFields) {
-            if (field.getName().equalsIgnoreCase(name)) {
-                removeFields.add(field);
+        if (name == null || mFieldsByName.remove(name) == null) {
+            return;
+        }
+
+        Iterator<Field> iterator = mFields.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getName().equalsIgnoreCase(name)) {
+                iterator.remove();
             }
         }
-        mFields.removeAll(removeFields);
     }
 
     public String toString() {
@@ -158,10 +191,44 @@ public class MimeHeader implements Cloneable {
         return false;
     }
 
+    /**
+     * All fields with the same name (ignoring case). Most headers occur only once, so the list for additional fields
+     * is only created when needed.
+     */
+    private static class FieldGroup {
+        private final Field first;
+        private List<Field> others;
+
+        FieldGroup(Field first) {
+            this.first = first;
+        }
+
+        void add(Field field) {
+            if (others == null) {
+                others = new ArrayList<Field>(2);
+            }
+            others.add(field);
+        }
+
+        String[] getValues() {
+            int count = (others == null) ? 1 : others.size() + 1;
+            String[] values = new String[count];
+            values[0] = first.getValue();
+            for (int i = 1; i < count; i++) {
+                values[i] = others.get(i - 1).getValue();
+            }
+            return values;
+        }
+    }
+
     private static class Field {
         private final String name;
-        private final String value;
         private final String raw;
+        /**
+         * For raw fields the value is extracted on first access. Fields are immutable otherwise, so a race here only
+         * means the value is extracted twice.
+         */
+        private String value;
 
         public static Field newNameValueField(String name, String value) {
             if (value == null) {
@@ -194,10 +261,14 @@ public class MimeHeader implements Cloneable {
         }
 
         public String getValue() {
-            if (value != null) {
-                return value;
+            if (value == null) {
+                value = extractValue(raw);
             }
 
+            return value;
+        }
+
+        private static String extractValue(String raw) {
             int delimiterIndex = raw.indexOf(':');
             if (delimiterIndex == raw.length() - 1) {
                 return "";
@@ -229,6 +300,10 @@ public class MimeHeader implements Cloneable {
         try {
             MimeHeader header = (MimeHeader) super.clone();
             header.mFields = new ArrayList<Field>(mFields);
+            header.mFieldsByName = new TreeMap<String, FieldGroup>(String.CASE_INSENSITIVE_ORDER);
+            for (Field field : mFields) {
+                header.addToIndex(field);
+            }
             return header;
         } catch (CloneNotSupportedException e) {
             throw new AssertionError(e);
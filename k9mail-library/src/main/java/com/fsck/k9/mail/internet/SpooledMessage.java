@@ -0,0 +1,83 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.filter.EOLConvertingOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import timber.log.Timber;
+
+
+/**
+ * The wire format of a message, serialized once.
+ *
+ * <p>
+ * Writing a message with attachments is expensive, and sending it used to do that twice: once to calculate its size
+ * and once to transmit it. A spooled message contains the CRLF-normalized output of {@link Message#writeTo(OutputStream)}
+ * and its exact size, so the message can be transmitted without serializing it again. Small messages are kept in
+ * memory, larger ones in a file in {@link BinaryTempFileBody#getTempDirectory()}.
+ * </p>
+ * <p>
+ * Changes made to the message after it was spooled are not reflected. Call {@link #close()} when done to delete the
+ * temporary file.
+ * </p>
+ */
+public class SpooledMessage implements Closeable {
+    private static final int MEMORY_THRESHOLD = 64 * 1024;
+    private static final String TEMP_FILE_PREFIX = "spool";
+
+
+    private final DeferredFileOutputStream data;
+
+
+    public static SpooledMessage spool(Message message) throws IOException, MessagingException {
+        DeferredFileOutputStream data = new DeferredFileOutputStream(MEMORY_THRESHOLD, TEMP_FILE_PREFIX, null,
+                BinaryTempFileBody.getTempDirectory());
+        SpooledMessage spooledMessage = new SpooledMessage(data);
+        try {
+            EOLConvertingOutputStream eolOut = new EOLConvertingOutputStream(data);
+            message.writeTo(eolOut);
+            eolOut.flush();
+            data.close();
+        } catch (IOException | MessagingException | RuntimeException e) {
+            IOUtils.closeQuietly(data);
+            spooledMessage.close();
+            throw e;
+        }
+
+        return spooledMessage;
+    }
+
+    private SpooledMessage(DeferredFileOutputStream data) {
+        this.data = data;
+    }
+
+    /**
+     * Returns the number of bytes written by {@link #writeTo(OutputStream)}.
+     */
+    public long getSize() {
+        return data.getByteCount();
+    }
+
+    /**
+     * Writes the spooled wire format. The output contains only CRLF line endings, so it doesn't need to be sent
+     * through an {@link EOLConvertingOutputStream} again.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        data.writeTo(out);
+    }
+
+    @Override
+    public void close() {
+        File file = data.getFile();
+        if (file != null && file.exists() && !file.delete()) {
+            Timber.w("Unable to delete spooled message %s", file);
+        }
+    }
+}
@@ -4,6 +4,8 @@ package com.fsck.k9.mail.store.imap;
 class Capabilities {
     public static final String IDLE = "IDLE";
     public static final String CONDSTORE = "CONDSTORE";
+    public static final String QRESYNC = "QRESYNC";
+    public static final String ENABLE = "ENABLE";
     public static final String SASL_IR = "SASL-IR";
     public static final String AUTH_XOAUTH2 = "AUTH=XOAUTH2";
     public static final String AUTH_CRAM_MD5 = "AUTH=CRAM-MD5";
@@ -15,4 +17,5 @@ class Capabilities {
     public static final String STARTTLS = "STARTTLS";
     public static final String SPECIAL_USE = "SPECIAL-USE";
     public static final String UID_PLUS = "UIDPLUS";
+    public static final String NOTIFY = "NOTIFY";
 }
@@ -2,6 +2,7 @@ package com.fsck.k9.mail.store.imap;
 
 
 import java.io.IOException;
+import java.util.Locale;
 import java.util.Map;
 
 import com.fsck.k9.mail.Message;
@@ -9,6 +10,14 @@ import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.filter.FixedLengthInputStream;
 
 
+/**
+ * Parses message data literals ({@code BODY[...]}, {@code RFC822...}) of {@code FETCH} responses directly from the
+ * network stream into the corresponding {@link ImapMessage}.
+ *
+ * <p>
+ * Other literals, e.g. inside {@code BODYSTRUCTURE}, are left to the parser.
+ * </p>
+ */
 class FetchBodyCallback implements ImapResponseCallback {
     private Map<String, Message> mMessageMap;
 
@@ -22,9 +31,16 @@ class FetchBodyCallback implements ImapResponseCallback {
         if (response.getTag() == null &&
                 ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
             ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
-            String uid = fetchList.getKeyedString("UID");
+            if (!isMessageDataLiteral(fetchList)) {
+                return null;
+            }
 
+            String uid = fetchList.getKeyedString("UID");
             ImapMessage message = (ImapMessage) mMessageMap.get(uid);
+            if (message == null) {
+                return null;
+            }
+
             message.parse(literal);
 
             // Return placeholder object
@@ -32,4 +48,25 @@ class FetchBodyCallback implements ImapResponseCallback {
         }
         return null;
     }
+
+    /**
+     * The literal currently being read is the value for the key at the end of the list parsed so far, e.g.
+     * {@code BODY [HEADER] <0>} or {@code RFC822}.
+     */
+    private boolean isMessageDataLiteral(ImapList fetchList) {
+        int index = fetchList.size() - 1;
+        if (index >= 0 && fetchList.isString(index) && fetchList.getString(index).startsWith("<")) {
+            index--;
+        }
+        if (index >= 0 && fetchList.isList(index)) {
+            index--;
+        }
+        if (index < 0 || !fetchList.isString(index)) {
+            return false;
+        }
+
+        String key = fetchList.getString(index).toUpperCase(Locale.US);
+        return key.equals("BODY") || key.equals("RFC822") || key.equals("RFC822.HEADER") ||
+                key.equals("RFC822.TEXT");
+    }
 }
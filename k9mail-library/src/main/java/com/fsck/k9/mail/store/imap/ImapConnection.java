@@ -92,6 +92,8 @@ class ImapConnection {
     private Exception stacktraceForClose;
     private boolean open = false;
     private boolean retryXoauth2WithNewToken = true;
+    private boolean qresyncEnabled = false;
+    private boolean usingCachedCapabilities = false;
     private int lineLengthLimit;
 
 
@@ -126,6 +128,8 @@ class ImapConnection {
 
         open = true;
         boolean authSuccess = false;
+        boolean openSuccess = false;
+        usingCachedCapabilities = false;
         nextCommandTag = 1;
 
         adjustDNSCacheTTL();
@@ -146,9 +150,11 @@ class ImapConnection {
             extractOrRequestCapabilities(responses);
 
             enableCompressionIfRequested();
+            enableQresyncIfAvailable();
 
             retrievePathPrefixIfNecessary();
             retrievePathDelimiterIfNecessary();
+            openSuccess = true;
         } catch (SSLException e) {
             handleSslException(e);
         } catch (ConnectException e) {
@@ -159,6 +165,9 @@ class ImapConnection {
             if (!authSuccess) {
                 Timber.e("Failed to login, closing connection for %s", getLogId());
                 close();
+            } else if (!openSuccess && usingCachedCapabilities) {
+                // The server might have changed; don't rely on stale capabilities next time
+                settings.setCachedCapabilities(null);
             }
         }
     }
@@ -284,11 +293,18 @@ class ImapConnection {
             Set<String> receivedCapabilities = capabilityResponse.getCapabilities();
             Timber.d("Saving %s capabilities for %s", receivedCapabilities, getLogId());
             capabilities = receivedCapabilities;
+        } else if (settings.getCachedCapabilities() != null) {
+            Timber.d("Did not get capabilities in post-auth banner, using cached capabilities for %s", getLogId());
+            capabilities = settings.getCachedCapabilities();
+            usingCachedCapabilities = true;
+            return responses;
         } else {
             Timber.i("Did not get capabilities in post-auth banner, requesting CAPABILITY for %s", getLogId());
             requestCapabilities();
         }
 
+        settings.setCachedCapabilities(Collections.unmodifiableSet(new HashSet<>(capabilities)));
+
         return responses;
     }
 
@@ -618,6 +634,34 @@ class ImapConnection {
         }
     }
 
+    private void enableQresyncIfAvailable() throws IOException, MessagingException {
+        if (!hasCapability(Capabilities.QRESYNC) || !hasCapability(Capabilities.ENABLE)) {
+            return;
+        }
+
+        List<ImapResponse> responses;
+        try {
+            responses = executeSimpleCommand(Commands.ENABLE_QRESYNC);
+        } catch (NegativeImapResponseException e) {
+            Timber.d(e, "Unable to enable QRESYNC");
+            return;
+        }
+
+        for (ImapResponse response : responses) {
+            if (response.size() >= 2 && equalsIgnoreCase(response.get(0), Responses.ENABLED)) {
+                for (int i = 1, count = response.size(); i < count; i++) {
+                    if (equalsIgnoreCase(response.get(i), Capabilities.QRESYNC)) {
+                        qresyncEnabled = true;
+                    }
+                }
+            }
+        }
+
+        if (K9MailLib.isDebug()) {
+            Timber.d("QRESYNC enabled for %s: %b", getLogId(), qresyncEnabled);
+        }
+    }
+
     private void retrievePathPrefixIfNecessary() throws IOException, MessagingException {
         if (settings.getPathPrefix() != null) {
             return;
@@ -704,6 +748,14 @@ class ImapConnection {
         return hasCapability(Capabilities.CONDSTORE);
     }
 
+    /**
+     * @return {@code true} if the server confirmed {@code ENABLE QRESYNC}. In that case expunged messages are
+     *         reported using untagged {@code VANISHED} responses instead of {@code EXPUNGE}.
+     */
+    boolean isQresyncEnabled() {
+        return qresyncEnabled;
+    }
+
     protected boolean isIdleCapable() {
         if (K9MailLib.isDebug()) {
             Timber.v("Connection %s has %d capabilities", getLogId(), capabilities.size());
@@ -716,6 +768,10 @@ class ImapConnection {
         return capabilities.contains(Capabilities.UID_PLUS);
     }
 
+    boolean isNotifyCapable() {
+        return capabilities.contains(Capabilities.NOTIFY);
+    }
+
     public void close() {
         if (!open) {
             return;
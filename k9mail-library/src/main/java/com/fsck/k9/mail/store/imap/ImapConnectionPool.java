@@ -0,0 +1,197 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import android.os.SystemClock;
+
+import timber.log.Timber;
+
+
+/**
+ * Hands out {@link ImapConnection}s and keeps authenticated ones around so they can be reused.
+ *
+ * <p>
+ * At most {@code maxConnections} connections, handed out or idle, exist at any time. When that limit is reached
+ * {@link #acquire(long)} waits until a connection is released or discarded, so a burst of parallel folder syncs doesn't
+ * exceed the number of connections the server allows per user.
+ * </p>
+ * <p>
+ * At most {@code maxIdleConnections} connections are kept. Connections that haven't been used for
+ * {@code idleTimeout} milliseconds are closed instead of being handed out, so we don't run into the server's
+ * autologout timer. The most recently released connection is handed out first. That way surplus connections age out
+ * when there's little activity.
+ * </p>
+ */
+class ImapConnectionPool {
+    private final Deque<IdleConnection> idleConnections = new LinkedList<>();
+    private final Set<ImapConnection> leasedConnections = new HashSet<>();
+    private final ConnectionFactory connectionFactory;
+    private final int maxConnections;
+    private final int maxIdleConnections;
+    private final long idleTimeout;
+
+
+    ImapConnectionPool(ConnectionFactory connectionFactory, int maxConnections, int maxIdleConnections,
+            long idleTimeout) {
+        this.connectionFactory = connectionFactory;
+        this.maxConnections = maxConnections;
+        this.maxIdleConnections = maxIdleConnections;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Returns the most recently released connection that hasn't timed out or, if there is none, a new connection that
+     * hasn't been opened yet.
+     *
+     * <p>
+     * Idle connections are not validated. Callers should check that they're still usable before relying on them, and
+     * pass every connection returned by this method to {@link #release(ImapConnection)} or
+     * {@link #discard(ImapConnection)} when done.
+     * </p>
+     *
+     * @param timeout
+     *         The maximum time in milliseconds to wait for a connection if {@code maxConnections} connections are in
+     *         use. {@code 0} means don't wait.
+     *
+     * @return A connection or {@code null} if none became available within {@code timeout}.
+     */
+    ImapConnection acquire(long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        List<ImapConnection> expiredConnections;
+        ImapConnection connection = null;
+        synchronized (idleConnections) {
+            expiredConnections = removeExpiredConnections();
+            while (idleConnections.isEmpty() && getConnectionCount() >= maxConnections) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    break;
+                }
+
+                idleConnections.wait(remaining);
+                expiredConnections.addAll(removeExpiredConnections());
+            }
+
+            IdleConnection idleConnection = idleConnections.pollFirst();
+            if (idleConnection != null) {
+                connection = idleConnection.connection;
+            } else if (getConnectionCount() < maxConnections) {
+                connection = connectionFactory.createConnection();
+            }
+
+            if (connection != null) {
+                leasedConnections.add(connection);
+            }
+        }
+
+        closeConnections(expiredConnections);
+
+        return connection;
+    }
+
+    /**
+     * Returns a connection handed out by {@link #acquire(long)}. It's kept for reuse if it's still connected.
+     */
+    void release(ImapConnection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        List<ImapConnection> surplusConnections;
+        synchronized (idleConnections) {
+            if (!leasedConnections.remove(connection)) {
+                Timber.w("Connection %s wasn't handed out by this pool", connection.getLogId());
+                return;
+            }
+
+            surplusConnections = removeExpiredConnections();
+            if (connection.isConnected()) {
+                idleConnections.addFirst(new IdleConnection(connection, getTime()));
+            }
+
+            while (idleConnections.size() > maxIdleConnections) {
+                surplusConnections.add(idleConnections.pollLast().connection);
+            }
+
+            idleConnections.notifyAll();
+        }
+
+        closeConnections(surplusConnections);
+    }
+
+    /**
+     * Returns a connection handed out by {@link #acquire(long)} that must not be reused. The caller is responsible
+     * for closing it.
+     */
+    void discard(ImapConnection connection) {
+        synchronized (idleConnections) {
+            if (leasedConnections.remove(connection)) {
+                idleConnections.notifyAll();
+            }
+        }
+    }
+
+    int getIdleConnectionCount() {
+        synchronized (idleConnections) {
+            return idleConnections.size();
+        }
+    }
+
+    int getMaxConnections() {
+        return maxConnections;
+    }
+
+    long getTime() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    private int getConnectionCount() {
+        return leasedConnections.size() + idleConnections.size();
+    }
+
+    private List<ImapConnection> removeExpiredConnections() {
+        List<ImapConnection> expiredConnections = new ArrayList<>();
+
+        long now = getTime();
+        Iterator<IdleConnection> iterator = idleConnections.iterator();
+        while (iterator.hasNext()) {
+            IdleConnection idleConnection = iterator.next();
+            if (now - idleConnection.releasedAt >= idleTimeout) {
+                iterator.remove();
+                expiredConnections.add(idleConnection.connection);
+            }
+        }
+
+        return expiredConnections;
+    }
+
+    private void closeConnections(List<ImapConnection> connections) {
+        for (ImapConnection connection : connections) {
+            Timber.d("Closing idle connection %s", connection.getLogId());
+            connection.close();
+        }
+    }
+
+
+    interface ConnectionFactory {
+        ImapConnection createConnection();
+    }
+
+    private static class IdleConnection {
+        final ImapConnection connection;
+        final long releasedAt;
+
+        IdleConnection(ImapConnection connection, long releasedAt) {
+            this.connection = connection;
+            this.releasedAt = releasedAt;
+        }
+    }
+}
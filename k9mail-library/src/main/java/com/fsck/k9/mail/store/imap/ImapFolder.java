@@ -4,13 +4,16 @@ package com.fsck.k9.mail.store.imap;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -24,17 +27,19 @@ import com.fsck.k9.mail.BodyFactory;
 import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.FolderChanges;
+import com.fsck.k9.mail.FolderSyncState;
 import com.fsck.k9.mail.K9MailLib;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Part;
-import com.fsck.k9.mail.filter.EOLConvertingOutputStream;
 import com.fsck.k9.mail.internet.MimeBodyPart;
 import com.fsck.k9.mail.internet.MimeHeader;
 import com.fsck.k9.mail.internet.MimeMessageHelper;
 import com.fsck.k9.mail.internet.MimeMultipart;
 import com.fsck.k9.mail.internet.MimeUtility;
+import com.fsck.k9.mail.internet.SpooledMessage;
 import timber.log.Timber;
 
 import static com.fsck.k9.mail.store.imap.ImapUtility.getLastResponse;
@@ -49,10 +54,13 @@ class ImapFolder extends Folder<ImapMessage> {
     };
     private static final int MORE_MESSAGES_WINDOW_SIZE = 500;
     private static final int FETCH_WINDOW_SIZE = 100;
+    private static final int FETCH_PIPELINE_DEPTH = 4;
 
 
     protected volatile int messageCount = -1;
     protected volatile long uidNext = -1L;
+    protected volatile long uidValidity = -1L;
+    protected volatile long highestModSeq = -1L;
     protected volatile ImapConnection connection;
     protected ImapStore store = null;
     protected Map<Long, String> msgSeqUidMap = new ConcurrentHashMap<Long, String>();
@@ -62,6 +70,8 @@ class ImapFolder extends Folder<ImapMessage> {
     private volatile boolean exists;
     private boolean inSearch = false;
     private boolean canCreateKeywords = false;
+    private int fetchWindowSize = FETCH_WINDOW_SIZE;
+    private int fetchPipelineDepth = FETCH_PIPELINE_DEPTH;
 
 
     ImapFolder(ImapStore store, String name) {
@@ -106,6 +116,13 @@ class ImapFolder extends Folder<ImapMessage> {
         return prefixedName;
     }
 
+    /**
+     * @return The folder name including the path prefix, encoded as modified UTF-7 but not yet quoted.
+     */
+    String getEncodedName() throws MessagingException {
+        return folderNameCodec.encode(getPrefixedName());
+    }
+
     private List<ImapResponse> executeSimpleCommand(String command) throws MessagingException, IOException {
         return handleUntaggedResponses(connection.executeSimpleCommand(command));
     }
@@ -138,11 +155,16 @@ class ImapFolder extends Folder<ImapMessage> {
 
         try {
             msgSeqUidMap.clear();
+            uidValidity = -1L;
+            highestModSeq = -1L;
 
             String openCommand = mode == OPEN_MODE_RW ? "SELECT" : "EXAMINE";
             String encodedFolderName = folderNameCodec.encode(getPrefixedName());
             String escapedFolderName = ImapUtility.encodeString(encodedFolderName);
             String command = String.format("%s %s", openCommand, escapedFolderName);
+            if (connection.isCondstoreCapable()) {
+                command += " (CONDSTORE)";
+            }
             List<ImapResponse> responses = executeSimpleCommand(command);
 
             /*
@@ -214,6 +236,7 @@ class ImapFolder extends Folder<ImapMessage> {
             if (inSearch && connection != null) {
                 Timber.i("IMAP search was aborted, shutting down connection.");
                 connection.close();
+                store.discardConnection(connection);
             } else {
                 store.releaseConnection(connection);
             }
@@ -683,86 +706,116 @@ class ImapFolder extends Folder<ImapMessage> {
 
         String spaceSeparatedFetchFields = ImapUtility.join(" ", fetchFields);
 
-        for (int windowStart = 0; windowStart < messages.size(); windowStart += (FETCH_WINDOW_SIZE)) {
-            int windowEnd = Math.min(windowStart + FETCH_WINDOW_SIZE, messages.size());
-            List<String> uidWindow = uids.subList(windowStart, windowEnd);
+        // Parse header and body literals straight from the network stream instead of materializing them as strings
+        ImapResponseCallback callback = new FetchBodyCallback(messageMap);
 
-            try {
-                String commaSeparatedUids = ImapUtility.join(",", uidWindow);
-                String command = String.format("UID FETCH %s (%s)", commaSeparatedUids, spaceSeparatedFetchFields);
-                connection.sendCommand(command, false);
+        // Keep up to fetchPipelineDepth UID FETCH commands in flight so the server can start on the next window
+        // while we are still reading the responses to the previous one.
+        Deque<String> pendingTags = new LinkedList<>();
+        int windowStart = 0;
+        int messageNumber = 0;
+        try {
+            while (windowStart < messages.size() || !pendingTags.isEmpty()) {
+                while (windowStart < messages.size() && pendingTags.size() < fetchPipelineDepth) {
+                    int windowEnd = Math.min(windowStart + fetchWindowSize, messages.size());
+                    List<String> uidWindow = uids.subList(windowStart, windowEnd);
 
-                ImapResponse response;
-                int messageNumber = 0;
+                    String commaSeparatedUids = ImapUtility.join(",", uidWindow);
+                    String command = String.format("UID FETCH %s (%s)", commaSeparatedUids, spaceSeparatedFetchFields);
+                    pendingTags.add(connection.sendCommand(command, false));
 
-                ImapResponseCallback callback = null;
-                if (fetchProfile.contains(FetchProfile.Item.BODY) ||
-                        fetchProfile.contains(FetchProfile.Item.BODY_SANE)) {
-                    callback = new FetchBodyCallback(messageMap);
+                    windowStart = windowEnd;
                 }
 
-                do {
-                    response = connection.readResponse(callback);
-
-                    if (response.getTag() == null && ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
-                        ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
-                        String uid = fetchList.getKeyedString("UID");
-                        long msgSeq = response.getLong(0);
-                        if (uid != null) {
-                            try {
-                                msgSeqUidMap.put(msgSeq, uid);
-                                if (K9MailLib.isDebug()) {
-                                    Timber.v("Stored uid '%s' for msgSeq %d into map", uid, msgSeq);
-                                }
-                            } catch (Exception e) {
-                                Timber.e("Unable to store uid '%s' for msgSeq %d", uid, msgSeq);
-                            }
-                        }
+                ImapResponse response = connection.readResponse(callback);
 
-                        Message message = messageMap.get(uid);
-                        if (message == null) {
+                if (response.getTag() != null) {
+                    completePipelinedCommand(pendingTags, response.getTag());
+                } else if (ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
+                    ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
+                    String uid = fetchList.getKeyedString("UID");
+                    long msgSeq = response.getLong(0);
+                    if (uid != null) {
+                        try {
+                            msgSeqUidMap.put(msgSeq, uid);
                             if (K9MailLib.isDebug()) {
-                                Timber.d("Do not have message in messageMap for UID %s for %s", uid, getLogId());
+                                Timber.v("Stored uid '%s' for msgSeq %d into map", uid, msgSeq);
                             }
-
-                            handleUntaggedResponse(response);
-                            continue;
+                        } catch (Exception e) {
+                            Timber.e("Unable to store uid '%s' for msgSeq %d", uid, msgSeq);
                         }
+                    }
 
-                        if (listener != null) {
-                            listener.messageStarted(uid, messageNumber++, messageMap.size());
+                    Message message = messageMap.get(uid);
+                    if (message == null) {
+                        if (K9MailLib.isDebug()) {
+                            Timber.d("Do not have message in messageMap for UID %s for %s", uid, getLogId());
                         }
 
-                        ImapMessage imapMessage = (ImapMessage) message;
-                        Object literal = handleFetchResponse(imapMessage, fetchList);
-
-                        if (literal != null) {
-                            if (literal instanceof String) {
-                                String bodyString = (String) literal;
-                                InputStream bodyStream = new ByteArrayInputStream(bodyString.getBytes());
-                                imapMessage.parse(bodyStream);
-                            } else if (literal instanceof Integer) {
-                                // All the work was done in FetchBodyCallback.foundLiteral()
-                            } else {
-                                // This shouldn't happen
-                                throw new MessagingException("Got FETCH response with bogus parameters");
-                            }
-                        }
+                        handleUntaggedResponse(response);
+                        continue;
+                    }
+
+                    if (listener != null) {
+                        listener.messageStarted(uid, messageNumber++, messageMap.size());
+                    }
 
-                        if (listener != null) {
-                            listener.messageFinished(imapMessage, messageNumber, messageMap.size());
+                    ImapMessage imapMessage = (ImapMessage) message;
+                    Object literal = handleFetchResponse(imapMessage, fetchList);
+
+                    if (literal != null) {
+                        if (literal instanceof String) {
+                            String bodyString = (String) literal;
+                            InputStream bodyStream = new ByteArrayInputStream(bodyString.getBytes());
+                            imapMessage.parse(bodyStream);
+                        } else if (literal instanceof Integer) {
+                            // All the work was done in FetchBodyCallback.foundLiteral()
+                        } else {
+                            // This shouldn't happen
+                            throw new MessagingException("Got FETCH response with bogus parameters");
                         }
-                    } else {
-                        handleUntaggedResponse(response);
                     }
 
-                } while (response.getTag() == null);
-            } catch (IOException ioe) {
-                throw ioExceptionHandler(connection, ioe);
+                    if (listener != null) {
+                        listener.messageFinished(imapMessage, messageNumber, messageMap.size());
+                    }
+                } else {
+                    handleUntaggedResponse(response);
+                }
             }
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
         }
     }
 
+    private void completePipelinedCommand(Deque<String> pendingTags, String tag) {
+        // Servers complete pipelined FETCH commands in order. Fall back to the oldest command if the tag is unknown.
+        if (!pendingTags.remove(tag)) {
+            pendingTags.poll();
+        }
+    }
+
+    /**
+     * Sets the maximum number of messages requested by a single {@code UID FETCH} command.
+     */
+    void setFetchWindowSize(int fetchWindowSize) {
+        if (fetchWindowSize < 1) {
+            throw new IllegalArgumentException("fetchWindowSize must be at least 1");
+        }
+        this.fetchWindowSize = fetchWindowSize;
+    }
+
+    /**
+     * Sets the maximum number of {@code UID FETCH} commands that are sent before waiting for their completion.
+     * A value of 1 disables pipelining.
+     */
+    void setFetchPipelineDepth(int fetchPipelineDepth) {
+        if (fetchPipelineDepth < 1) {
+            throw new IllegalArgumentException("fetchPipelineDepth must be at least 1");
+        }
+        this.fetchPipelineDepth = fetchPipelineDepth;
+    }
+
     @Override
     public void fetchPart(Message message, Part part, MessageRetrievalListener<Message> listener,
             BodyFactory bodyFactory) throws MessagingException {
@@ -843,6 +896,68 @@ class ImapFolder extends Folder<ImapMessage> {
         }
     }
 
+    @Override
+    public FolderSyncState getSyncState() {
+        if (!isOpen() || uidValidity == -1L || highestModSeq == -1L) {
+            return null;
+        }
+
+        return new FolderSyncState(uidValidity, highestModSeq, uidNext);
+    }
+
+    @Override
+    public FolderChanges<ImapMessage> getChangesSince(FolderSyncState syncState) throws MessagingException {
+        checkOpen();
+
+        if (syncState == null || highestModSeq == -1L || syncState.getUidValidity() != uidValidity ||
+                syncState.getHighestModSeq() > highestModSeq) {
+            return null;
+        }
+
+        boolean deletionsKnown = connection.isQresyncEnabled();
+        List<ImapMessage> changedMessages = new ArrayList<>();
+        List<String> vanishedUids = new ArrayList<>();
+
+        if (syncState.getHighestModSeq() == highestModSeq) {
+            // HIGHESTMODSEQ from the SELECT/EXAMINE response is enough to tell nothing changed
+            return new FolderChanges<>(changedMessages, vanishedUids, deletionsKnown);
+        }
+
+        String command = String.format(Locale.US, "%s 1:* (UID FLAGS) (CHANGEDSINCE %d%s)", Commands.UID_FETCH,
+                syncState.getHighestModSeq(), deletionsKnown ? " VANISHED" : "");
+
+        try {
+            List<ImapResponse> responses = executeSimpleCommand(command);
+
+            for (ImapResponse response : responses) {
+                VanishedResponse vanishedResponse = VanishedResponse.parse(response);
+                if (vanishedResponse != null) {
+                    vanishedUids.addAll(vanishedResponse.getUids());
+                } else if (response.getTag() == null &&
+                        ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
+                    ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
+                    String uid = fetchList.getKeyedString("UID");
+                    if (uid == null) {
+                        continue;
+                    }
+
+                    ImapMessage message = new ImapMessage(uid, this);
+                    handleFetchResponse(message, fetchList);
+                    changedMessages.add(message);
+                }
+            }
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
+        }
+
+        if (K9MailLib.isDebug()) {
+            Timber.d("Got %d changed and %d vanished messages since modseq %d for %s", changedMessages.size(),
+                    vanishedUids.size(), syncState.getHighestModSeq(), getLogId());
+        }
+
+        return new FolderChanges<>(changedMessages, vanishedUids, deletionsKnown);
+    }
+
     // Returns value of body field
     private Object handleFetchResponse(ImapMessage message, ImapList fetchList) throws MessagingException {
         Object result = null;
@@ -941,6 +1056,33 @@ class ImapFolder extends Folder<ImapMessage> {
         }
     }
 
+    protected void handlePossibleSyncStateResponseCode(ImapResponse response) {
+        if (response.size() < 2 || !ImapResponseParser.equalsIgnoreCase(response.get(0), Responses.OK) ||
+                !response.isList(1)) {
+            return;
+        }
+
+        ImapList bracketed = response.getList(1);
+        if (bracketed.size() == 1 && ImapResponseParser.equalsIgnoreCase(bracketed.get(0), Responses.NOMODSEQ)) {
+            highestModSeq = -1L;
+            if (K9MailLib.isDebug()) {
+                Timber.d("Got NOMODSEQ for %s", getLogId());
+            }
+        } else if (bracketed.size() > 1 && bracketed.isString(1)) {
+            if (ImapResponseParser.equalsIgnoreCase(bracketed.get(0), Responses.UIDVALIDITY)) {
+                uidValidity = bracketed.getLong(1);
+                if (K9MailLib.isDebug()) {
+                    Timber.d("Got UidValidity = %s for %s", uidValidity, getLogId());
+                }
+            } else if (ImapResponseParser.equalsIgnoreCase(bracketed.get(0), Responses.HIGHESTMODSEQ)) {
+                highestModSeq = bracketed.getLong(1);
+                if (K9MailLib.isDebug()) {
+                    Timber.d("Got HighestModSeq = %s for %s", highestModSeq, getLogId());
+                }
+            }
+        }
+    }
+
     /**
      * Handle an untagged response that the caller doesn't care to handle themselves.
      */
@@ -954,6 +1096,7 @@ class ImapFolder extends Folder<ImapMessage> {
             }
 
             handlePossibleUidNext(response);
+            handlePossibleSyncStateResponseCode(response);
 
             if (ImapResponseParser.equalsIgnoreCase(response.get(1), "EXPUNGE") && messageCount > 0) {
                 messageCount--;
@@ -961,6 +1104,14 @@ class ImapFolder extends Folder<ImapMessage> {
                     Timber.d("Got untagged EXPUNGE with messageCount %d for %s", messageCount, getLogId());
                 }
             }
+
+            VanishedResponse vanishedResponse = VanishedResponse.parse(response);
+            if (vanishedResponse != null && !vanishedResponse.isEarlier() && messageCount > 0) {
+                messageCount = Math.max(0, messageCount - vanishedResponse.getUids().size());
+                if (K9MailLib.isDebug()) {
+                    Timber.d("Got untagged VANISHED with messageCount %d for %s", messageCount, getLogId());
+                }
+            }
         }
     }
 
@@ -1136,30 +1287,36 @@ FILENAME*1, ocation - displayware.eml]], NIL]
         try {
             Map<String, String> uidMap = new HashMap<>();
             for (Message message : messages) {
-                long messageSize = message.calculateSize();
+                // Serialize the message only once. The literal size has to match the data sent exactly.
+                SpooledMessage spooledMessage = SpooledMessage.spool(message);
+                ImapResponse response;
+                try {
+                    long messageSize = spooledMessage.getSize();
 
-                String encodeFolderName = folderNameCodec.encode(getPrefixedName());
-                String escapedFolderName = ImapUtility.encodeString(encodeFolderName);
-                String combinedFlags = ImapUtility.combineFlags(message.getFlags(),
-                        canCreateKeywords || store.getPermanentFlagsIndex().contains(Flag.FORWARDED));
-                String command = String.format(Locale.US, "APPEND %s (%s) {%d}", escapedFolderName,
-                        combinedFlags, messageSize);
-                connection.sendCommand(command, false);
+                    String encodeFolderName = folderNameCodec.encode(getPrefixedName());
+                    String escapedFolderName = ImapUtility.encodeString(encodeFolderName);
+                    String combinedFlags = ImapUtility.combineFlags(message.getFlags(),
+                            canCreateKeywords || store.getPermanentFlagsIndex().contains(Flag.FORWARDED));
+                    String command = String.format(Locale.US, "APPEND %s (%s) {%d}", escapedFolderName,
+                            combinedFlags, messageSize);
+                    connection.sendCommand(command, false);
 
-                ImapResponse response;
-                do {
-                    response = connection.readResponse();
+                    do {
+                        response = connection.readResponse();
 
-                    handleUntaggedResponse(response);
+                        handleUntaggedResponse(response);
 
-                    if (response.isContinuationRequested()) {
-                        EOLConvertingOutputStream eolOut = new EOLConvertingOutputStream(connection.getOutputStream());
-                        message.writeTo(eolOut);
-                        eolOut.write('\r');
-                        eolOut.write('\n');
-                        eolOut.flush();
-                    }
-                } while (response.getTag() == null);
+                        if (response.isContinuationRequested()) {
+                            OutputStream out = connection.getOutputStream();
+                            spooledMessage.writeTo(out);
+                            out.write('\r');
+                            out.write('\n');
+                            out.flush();
+                        }
+                    } while (response.getTag() == null);
+                } finally {
+                    spooledMessage.close();
+                }
 
                 if (response.size() > 1) {
                     /*
@@ -7,9 +7,17 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.content.Context;
 import android.os.PowerManager;
@@ -29,11 +37,34 @@ import static com.fsck.k9.mail.K9MailLib.PUSH_WAKE_LOCK_TIMEOUT;
 import static com.fsck.k9.mail.store.imap.ImapResponseParser.equalsIgnoreCase;
 
 
+/**
+ * Pushes one folder using IDLE and watches additional folders of the same account over the same connection.
+ *
+ * <p>
+ * If the server supports NOTIFY (RFC 5465) it reports changes to the watched folders while we're idling. Otherwise
+ * we leave IDLE every {@link #STATUS_POLL_INTERVAL} milliseconds to check the watched folders using {@code STATUS}.
+ * Leaving IDLE is triggered by {@link #refresh()}, which {@link ImapPusher} has scheduled in time by reporting a
+ * shorter refresh interval (see {@link #isPollingWatchedFolders()}). Either way a watched folder is synchronized when
+ * its message count or {@code UIDNEXT} value changes.
+ * </p>
+ */
 class ImapFolderPusher extends ImapFolder {
     private static final int IDLE_READ_TIMEOUT_INCREMENT = 5 * 60 * 1000;
     private static final int IDLE_FAILURE_COUNT_LIMIT = 10;
     private static final int MAX_DELAY_TIME = 5 * 60 * 1000; // 5 minutes
     private static final int NORMAL_DELAY_TIME = 5000;
+    static final int STATUS_POLL_INTERVAL = 5 * 60 * 1000;
+    /**
+     * Refresh alarms don't fire exactly on time. Poll if the interval has almost passed rather than waiting for the
+     * next refresh.
+     */
+    private static final int STATUS_POLL_TOLERANCE = 30 * 1000;
+
+    /**
+     * Threads waiting for push responses are shared by the pushers of all accounts.
+     */
+    private static final ExecutorService PUSH_EXECUTOR = Executors.newCachedThreadPool(
+            new PushThreadFactory("ImapPusher"));
 
 
     private final PushReceiver pushReceiver;
@@ -41,14 +72,21 @@ class ImapFolderPusher extends ImapFolder {
     private final IdleStopper idleStopper = new IdleStopper();
     private final TracingWakeLock wakeLock;
     private final List<ImapResponse> storedUntaggedResponses = new ArrayList<ImapResponse>();
-    private Thread listeningThread;
+    private final List<StatusResponse> storedStatusResponses = new ArrayList<StatusResponse>();
+    private final Map<String, WatchedFolder> watchedFolders = new LinkedHashMap<String, WatchedFolder>();
+    private Future<?> listeningTask;
     private volatile boolean stop = false;
     private volatile boolean idling = false;
+    private volatile boolean notifyEnabled = false;
 
-    ImapFolderPusher(ImapStore store, String name, PushReceiver pushReceiver) {
+    ImapFolderPusher(ImapStore store, String name, List<String> watchedFolderNames, PushReceiver pushReceiver) {
         super(store, name);
         this.pushReceiver = pushReceiver;
 
+        for (String watchedFolderName : watchedFolderNames) {
+            watchedFolders.put(watchedFolderName, new WatchedFolder(new ImapFolder(store, watchedFolderName)));
+        }
+
         Context context = pushReceiver.getContext();
         TracingPowerManager powerManager = TracingPowerManager.getPowerManager(context);
         String tag = "ImapFolderPusher " + store.getStoreConfig().toString() + ":" + getName();
@@ -58,12 +96,11 @@ class ImapFolderPusher extends ImapFolder {
 
     public void start() {
         synchronized (threadLock) {
-            if (listeningThread != null) {
+            if (listeningTask != null) {
                 throw new IllegalStateException("start() called twice");
             }
 
-            listeningThread = new Thread(new PushRunnable());
-            listeningThread.start();
+            listeningTask = PUSH_EXECUTOR.submit(new PushRunnable());
         }
     }
 
@@ -74,16 +111,25 @@ class ImapFolderPusher extends ImapFolder {
         }
     }
 
+    /**
+     * @return {@code true} if the watched folders are checked using {@code STATUS} every
+     *         {@link #STATUS_POLL_INTERVAL} milliseconds, i.e. {@link #refresh()} needs to be called at least that
+     *         often.
+     */
+    boolean isPollingWatchedFolders() {
+        return !watchedFolders.isEmpty() && !notifyEnabled;
+    }
+
     public void stop() {
         synchronized (threadLock) {
-            if (listeningThread == null) {
+            if (listeningTask == null) {
                 throw new IllegalStateException("stop() called twice");
             }
 
             stop = true;
 
-            listeningThread.interrupt();
-            listeningThread = null;
+            listeningTask.cancel(true);
+            listeningTask = null;
         }
 
         ImapConnection conn = connection;
@@ -100,10 +146,18 @@ class ImapFolderPusher extends ImapFolder {
 
     @Override
     protected void handleUntaggedResponse(ImapResponse response) {
+        StatusResponse statusResponse = StatusResponse.parse(response);
+        if (statusResponse != null) {
+            synchronized (storedStatusResponses) {
+                storedStatusResponses.add(statusResponse);
+            }
+            return;
+        }
+
         if (response.getTag() == null && response.size() > 1) {
             Object responseType = response.get(1);
             if (equalsIgnoreCase(responseType, "FETCH") || equalsIgnoreCase(responseType, "EXPUNGE") ||
-                    equalsIgnoreCase(responseType, "EXISTS")) {
+                    equalsIgnoreCase(responseType, "EXISTS") || VanishedResponse.parse(response) != null) {
 
                 if (K9MailLib.isDebug()) {
                     Timber.d("Storing response %s for later processing", response);
@@ -115,9 +169,97 @@ class ImapFolderPusher extends ImapFolder {
             }
 
             handlePossibleUidNext(response);
+            handlePossibleSyncStateResponseCode(response);
+        }
+    }
+
+    /**
+     * Synchronizes the watched folders whose message count or {@code UIDNEXT} value changed.
+     */
+    void processStoredStatusResponses() throws MessagingException {
+        List<StatusResponse> statusResponses;
+        synchronized (storedStatusResponses) {
+            if (storedStatusResponses.isEmpty()) {
+                return;
+            }
+
+            statusResponses = new ArrayList<StatusResponse>(storedStatusResponses);
+            storedStatusResponses.clear();
+        }
+
+        boolean pushPollOnConnect = store.getStoreConfig().isPushPollOnConnect();
+        Set<WatchedFolder> foldersToSync = new LinkedHashSet<WatchedFolder>();
+        for (StatusResponse statusResponse : statusResponses) {
+            WatchedFolder watchedFolder = findWatchedFolder(statusResponse.getMailboxName());
+            if (watchedFolder == null) {
+                continue;
+            }
+
+            long pushStateUidNext = getOldUidNext(watchedFolder.folder.getName());
+            if (watchedFolder.update(statusResponse, pushPollOnConnect, pushStateUidNext)) {
+                foldersToSync.add(watchedFolder);
+            }
+        }
+
+        for (WatchedFolder watchedFolder : foldersToSync) {
+            if (stop) {
+                return;
+            }
+
+            if (K9MailLib.isDebug()) {
+                Timber.i("Watched folder %s changed, syncing for %s", watchedFolder.folder.getName(), getLogId());
+            }
+
+            syncWatchedFolder(watchedFolder.folder);
         }
     }
 
+    /**
+     * Synchronizes a watched folder using its own connection. The folder is opened first because a folder handed to
+     * {@link PushReceiver#syncFolder(com.fsck.k9.mail.Folder)} is expected to be open, just like the pushed folder.
+     */
+    private void syncWatchedFolder(ImapFolder folder) throws MessagingException {
+        try {
+            folder.open(OPEN_MODE_RO);
+        } catch (NegativeImapResponseException e) {
+            Timber.w(e, "Unable to open watched folder %s for %s", folder.getName(), getLogId());
+            return;
+        }
+
+        try {
+            pushReceiver.syncFolder(folder);
+        } finally {
+            folder.close();
+        }
+    }
+
+    private WatchedFolder findWatchedFolder(String encodedName) throws MessagingException {
+        for (WatchedFolder watchedFolder : watchedFolders.values()) {
+            if (watchedFolder.getEncodedName().equals(encodedName)) {
+                return watchedFolder;
+            }
+        }
+
+        return null;
+    }
+
+    private long getOldUidNext(String folderName) {
+        long oldUidNext = -1L;
+        try {
+            String serializedPushState = pushReceiver.getPushState(folderName);
+            ImapPushState pushState = ImapPushState.parse(serializedPushState);
+            oldUidNext = pushState.uidNext;
+
+            if (K9MailLib.isDebug()) {
+                Timber.i("Got oldUidNext %d for %s (%s)", oldUidNext, folderName, getLogId());
+            }
+        } catch (Exception e) {
+            Timber.e(e, "Unable to get oldUidNext for %s (%s)", folderName, getLogId());
+        }
+
+        return oldUidNext;
+    }
+
     private void superHandleUntaggedResponse(ImapResponse response) {
         super.handleUntaggedResponse(response);
     }
@@ -127,6 +269,7 @@ class ImapFolderPusher extends ImapFolder {
         private int delayTime = NORMAL_DELAY_TIME;
         private int idleFailureCount = 0;
         private boolean needsPoll = false;
+        private long lastStatusPoll = 0L;
 
         @Override
         public void run() {
@@ -158,6 +301,10 @@ class ImapFolderPusher extends ImapFolder {
                         break;
                     }
 
+                    if (openedNewConnection) {
+                        startWatchingFolders();
+                    }
+
                     boolean pushPollOnConnect = store.getStoreConfig().isPushPollOnConnect();
                     if (pushPollOnConnect && (openedNewConnection || needsPoll)) {
                         needsPoll = false;
@@ -177,13 +324,22 @@ class ImapFolderPusher extends ImapFolder {
                     } else {
                         processStoredUntaggedResponses();
 
+                        ImapConnection conn = connection;
+                        if (isStatusPollDue()) {
+                            pollWatchedFolders(conn);
+                        }
+                        processStoredStatusResponses();
+
+                        if (stop) {
+                            break;
+                        }
+
                         if (K9MailLib.isDebug()) {
                             Timber.i("About to IDLE for %s", getLogId());
                         }
 
                         prepareForIdle();
 
-                        ImapConnection conn = connection;
                         setReadTimeoutForIdle(conn);
                         sendIdle(conn);
 
@@ -225,7 +381,7 @@ class ImapFolderPusher extends ImapFolder {
                 }
             }
 
-            pushReceiver.setPushActive(getName(), false);
+            setPushActive(false);
 
             try {
                 if (K9MailLib.isDebug()) {
@@ -244,8 +400,9 @@ class ImapFolderPusher extends ImapFolder {
             wakeLock.acquire(PUSH_WAKE_LOCK_TIMEOUT);
 
             clearStoredUntaggedResponses();
+            clearStoredStatusResponses();
             idling = false;
-            pushReceiver.setPushActive(getName(), false);
+            setPushActive(false);
 
             try {
                 connection.close();
@@ -253,6 +410,7 @@ class ImapFolderPusher extends ImapFolder {
                 Timber.e(me, "Got exception while closing for exception for %s", getLogId());
             }
 
+            store.discardConnection(connection);
             connection = null;
         }
 
@@ -296,10 +454,84 @@ class ImapFolderPusher extends ImapFolder {
         }
 
         private void prepareForIdle() {
-            pushReceiver.setPushActive(getName(), true);
+            setPushActive(true);
             idling = true;
         }
 
+        private void setPushActive(boolean enabled) {
+            pushReceiver.setPushActive(getName(), enabled);
+            for (String watchedFolderName : watchedFolders.keySet()) {
+                pushReceiver.setPushActive(watchedFolderName, enabled);
+            }
+        }
+
+        /**
+         * Called for every new connection. Asks the server to notify us about changes to the watched folders, if
+         * possible. Otherwise the watched folders are polled before the next IDLE.
+         */
+        private void startWatchingFolders() throws MessagingException, IOException {
+            notifyEnabled = false;
+            lastStatusPoll = 0L;
+            clearStoredStatusResponses();
+
+            if (watchedFolders.isEmpty()) {
+                return;
+            }
+
+            for (WatchedFolder watchedFolder : watchedFolders.values()) {
+                watchedFolder.reset();
+            }
+
+            ImapConnection conn = connection;
+            if (!conn.isNotifyCapable()) {
+                return;
+            }
+
+            try {
+                // With the STATUS indicator the server reports the current state of all watched folders right away
+                handleUntaggedResponses(conn.executeSimpleCommand(buildNotifyCommand()));
+                notifyEnabled = true;
+            } catch (NegativeImapResponseException e) {
+                Timber.w(e, "NOTIFY failed for %s; polling watched folders instead", getLogId());
+            }
+        }
+
+        private String buildNotifyCommand() throws MessagingException {
+            StringBuilder mailboxes = new StringBuilder();
+            for (WatchedFolder watchedFolder : watchedFolders.values()) {
+                if (mailboxes.length() > 0) {
+                    mailboxes.append(' ');
+                }
+                mailboxes.append(ImapUtility.encodeString(watchedFolder.getEncodedName()));
+            }
+
+            return String.format("%s STATUS (SELECTED (MessageNew MessageExpunge FlagChange)) " +
+                    "(MAILBOXES (%s) (MessageNew MessageExpunge))", Commands.NOTIFY_SET, mailboxes);
+        }
+
+        private boolean isStatusPollDue() {
+            return isPollingWatchedFolders() &&
+                    System.currentTimeMillis() - lastStatusPoll >= STATUS_POLL_INTERVAL - STATUS_POLL_TOLERANCE;
+        }
+
+        private void pollWatchedFolders(ImapConnection conn) throws MessagingException, IOException {
+            if (K9MailLib.isDebug()) {
+                Timber.d("Polling %d watched folders for %s", watchedFolders.size(), getLogId());
+            }
+
+            for (WatchedFolder watchedFolder : watchedFolders.values()) {
+                String escapedFolderName = ImapUtility.encodeString(watchedFolder.getEncodedName());
+                try {
+                    handleUntaggedResponses(conn.executeSimpleCommand(
+                            String.format("STATUS %s (MESSAGES UIDNEXT)", escapedFolderName)));
+                } catch (NegativeImapResponseException e) {
+                    Timber.w(e, "Unable to get status of %s for %s", watchedFolder.folder.getName(), getLogId());
+                }
+            }
+
+            lastStatusPoll = System.currentTimeMillis();
+        }
+
         private void sendIdle(ImapConnection conn) throws MessagingException, IOException {
             String tag = conn.sendCommand(Commands.IDLE, false);
 
@@ -375,10 +607,20 @@ class ImapFolderPusher extends ImapFolder {
                 idleStopper.stopIdle();
             } else {
                 if (response.getTag() == null) {
-                    if (response.size() > 1) {
+                    StatusResponse statusResponse = StatusResponse.parse(response);
+                    if (statusResponse != null) {
+                        wakeLock.acquire(PUSH_WAKE_LOCK_TIMEOUT);
+
+                        if (K9MailLib.isDebug()) {
+                            Timber.d("Got STATUS for watched folder %s for %s", statusResponse.getMailboxName(),
+                                    getLogId());
+                        }
+
+                        idleStopper.stopIdle();
+                    } else if (response.size() > 1) {
                         Object responseType = response.get(1);
                         if (equalsIgnoreCase(responseType, "EXISTS") || equalsIgnoreCase(responseType, "EXPUNGE") ||
-                                equalsIgnoreCase(responseType, "FETCH")) {
+                                equalsIgnoreCase(responseType, "FETCH") || VanishedResponse.parse(response) != null) {
 
                             wakeLock.acquire(PUSH_WAKE_LOCK_TIMEOUT);
 
@@ -406,6 +648,12 @@ class ImapFolderPusher extends ImapFolder {
             }
         }
 
+        private void clearStoredStatusResponses() {
+            synchronized (storedStatusResponses) {
+                storedStatusResponses.clear();
+            }
+        }
+
         private void processStoredUntaggedResponses() throws MessagingException {
             while (true) {
                 List<ImapResponse> untaggedResponses = getAndClearStoredUntaggedResponses();
@@ -548,6 +796,27 @@ class ImapFolderPusher extends ImapFolder {
                             }
                         }
                     }
+
+                    VanishedResponse vanishedResponse = VanishedResponse.parse(response);
+                    if (vanishedResponse != null) {
+                        List<String> vanishedUids = vanishedResponse.getUids();
+                        if (!vanishedResponse.isEarlier()) {
+                            messageCountDelta = -vanishedUids.size();
+                        }
+
+                        if (K9MailLib.isDebug()) {
+                            Timber.d("Got untagged VANISHED for UIDs %s for %s", vanishedUids, getLogId());
+                        }
+
+                        removeMsgUids.addAll(vanishedUids);
+
+                        // VANISHED doesn't tell us which message sequence numbers went away
+                        msgSeqUidMap.clear();
+                        if (!flagSyncMsgSeqs.isEmpty()) {
+                            flagSyncMsgSeqs.clear();
+                            needsPoll = true;
+                        }
+                    }
                 } catch (Exception e) {
                     Timber.e(e, "Could not handle untagged FETCH for %s", getLogId());
                 }
@@ -668,20 +937,75 @@ class ImapFolderPusher extends ImapFolder {
         }
 
         private long getOldUidNext() {
-            long oldUidNext = -1L;
-            try {
-                String serializedPushState = pushReceiver.getPushState(getName());
-                ImapPushState pushState = ImapPushState.parse(serializedPushState);
-                oldUidNext = pushState.uidNext;
+            return ImapFolderPusher.this.getOldUidNext(getName());
+        }
+    }
 
-                if (K9MailLib.isDebug()) {
-                    Timber.i("Got oldUidNext %d for %s", oldUidNext, getLogId());
-                }
-            } catch (Exception e) {
-                Timber.e(e, "Unable to get oldUidNext for %s", getLogId());
+    /**
+     * State of a folder that is watched over the connection of this pusher.
+     */
+    private static class WatchedFolder {
+        final ImapFolder folder;
+        private String encodedName;
+        private long messageCount;
+        private long uidNext;
+
+
+        WatchedFolder(ImapFolder folder) {
+            this.folder = folder;
+            reset();
+        }
+
+        void reset() {
+            messageCount = -1L;
+            uidNext = -1L;
+        }
+
+        String getEncodedName() throws MessagingException {
+            if (encodedName == null) {
+                encodedName = folder.getEncodedName();
+            }
+            return encodedName;
+        }
+
+        /**
+         * @return {@code true} if the folder needs to be synchronized.
+         */
+        boolean update(StatusResponse statusResponse, boolean pushPollOnConnect, long pushStateUidNext) {
+            boolean firstStatus = messageCount == -1L && uidNext == -1L;
+
+            boolean changed = false;
+            if (statusResponse.getMessageCount() != -1L) {
+                changed = statusResponse.getMessageCount() != messageCount;
+                messageCount = statusResponse.getMessageCount();
+            }
+            if (statusResponse.getUidNext() != -1L) {
+                changed |= statusResponse.getUidNext() != uidNext;
+                uidNext = statusResponse.getUidNext();
+            }
+
+            if (firstStatus) {
+                return pushPollOnConnect || (uidNext != -1L && uidNext > pushStateUidNext);
             }
 
-            return oldUidNext;
+            return changed;
+        }
+    }
+
+    private static class PushThreadFactory implements ThreadFactory {
+        private final String namePrefix;
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+
+        PushThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
         }
     }
 
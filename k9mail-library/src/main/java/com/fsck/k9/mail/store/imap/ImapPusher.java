@@ -31,13 +31,31 @@ class ImapPusher implements Pusher {
 
             setLastRefresh(currentTimeMillis());
 
-            for (String folderName : folderNames) {
-                ImapFolderPusher pusher = createImapFolderPusher(folderName);
-                folderPushers.add(pusher);
+            if (folderNames.isEmpty()) {
+                return;
+            }
+
+            // Use a single connection: IDLE on the Inbox (if pushed) and watch all other folders
+            String idleFolderName = selectIdleFolder(folderNames);
+            List<String> watchedFolderNames = new ArrayList<>(folderNames);
+            watchedFolderNames.remove(idleFolderName);
 
-                pusher.start();
+            ImapFolderPusher pusher = createImapFolderPusher(idleFolderName, watchedFolderNames);
+            folderPushers.add(pusher);
+
+            pusher.start();
+        }
+    }
+
+    private String selectIdleFolder(List<String> folderNames) {
+        String inboxFolderName = store.getStoreConfig().getInboxFolderName();
+        for (String folderName : folderNames) {
+            if (folderName.equalsIgnoreCase(inboxFolderName)) {
+                return folderName;
             }
         }
+
+        return folderNames.get(0);
     }
 
     @Override
@@ -78,7 +96,18 @@ class ImapPusher implements Pusher {
 
     @Override
     public int getRefreshInterval() {
-        return (store.getStoreConfig().getIdleRefreshMinutes() * 60 * 1000);
+        int refreshInterval = store.getStoreConfig().getIdleRefreshMinutes() * 60 * 1000;
+
+        // Refreshing is what interrupts IDLE to poll watched folders, so it has to happen at least that often
+        synchronized (folderPushers) {
+            for (ImapFolderPusher folderPusher : folderPushers) {
+                if (folderPusher.isPollingWatchedFolders()) {
+                    return Math.min(refreshInterval, ImapFolderPusher.STATUS_POLL_INTERVAL);
+                }
+            }
+        }
+
+        return refreshInterval;
     }
 
     @Override
@@ -91,8 +120,8 @@ class ImapPusher implements Pusher {
         this.lastRefresh = lastRefresh;
     }
 
-    ImapFolderPusher createImapFolderPusher(String folderName) {
-        return new ImapFolderPusher(store, folderName, pushReceiver);
+    ImapFolderPusher createImapFolderPusher(String folderName, List<String> watchedFolderNames) {
+        return new ImapFolderPusher(store, folderName, watchedFolderNames, pushReceiver);
     }
 
     long currentTimeMillis() {
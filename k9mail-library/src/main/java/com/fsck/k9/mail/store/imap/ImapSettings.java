@@ -1,5 +1,7 @@
 package com.fsck.k9.mail.store.imap;
 
+import java.util.Set;
+
 import com.fsck.k9.mail.AuthType;
 import com.fsck.k9.mail.ConnectionSecurity;
 import com.fsck.k9.mail.NetworkType;
@@ -35,4 +37,12 @@ interface ImapSettings {
     String getCombinedPrefix();
 
     void setCombinedPrefix(String prefix);
+
+    /**
+     * @return The capabilities the server announced after authentication the last time a connection was opened.
+     *         {@code null} if they are not known.
+     */
+    Set<String> getCachedCapabilities();
+
+    void setCachedCapabilities(Set<String> capabilities);
 }
@@ -5,11 +5,9 @@ import java.io.IOException;
 import java.nio.charset.CharacterCodingException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -40,6 +38,11 @@ import timber.log.Timber;
  * </pre>
  */
 public class ImapStore extends RemoteStore {
+    static final int MAX_CONNECTIONS = 5;
+    private static final int MAX_IDLE_CONNECTIONS = 3;
+    private static final long IDLE_CONNECTION_TIMEOUT = 5 * 60 * 1000L;
+    private static final long CONNECTION_WAIT_TIMEOUT = 2 * 60 * 1000L;
+
     private Set<Flag> permanentFlagsIndex = EnumSet.noneOf(Flag.class);
     private ConnectivityManager connectivityManager;
     private OAuth2TokenProvider oauthTokenProvider;
@@ -54,7 +57,14 @@ public class ImapStore extends RemoteStore {
     private String pathPrefix;
     private String combinedPrefix = null;
     private String pathDelimiter = null;
-    private final Deque<ImapConnection> connections = new LinkedList<ImapConnection>();
+    private volatile Set<String> cachedCapabilities = null;
+    private final ImapConnectionPool connectionPool = new ImapConnectionPool(
+            new ImapConnectionPool.ConnectionFactory() {
+                @Override
+                public ImapConnection createConnection() {
+                    return createImapConnection();
+                }
+            }, MAX_CONNECTIONS, MAX_IDLE_CONNECTIONS, IDLE_CONNECTION_TIMEOUT);
     private FolderNameCodec folderNameCodec;
 
     /**
@@ -320,34 +330,70 @@ public class ImapStore extends RemoteStore {
 
     ImapConnection getConnection() throws MessagingException {
         ImapConnection connection;
-        while ((connection = pollConnection()) != null) {
+        while ((connection = acquireConnection(CONNECTION_WAIT_TIMEOUT)) != null) {
+            if (!connection.isConnected()) {
+                // A new connection. It's opened when it's first used.
+                return connection;
+            }
+
             try {
                 connection.executeSimpleCommand(Commands.NOOP);
-                break;
+                return connection;
             } catch (IOException ioe) {
                 connection.close();
+                discardConnection(connection);
             }
         }
 
-        if (connection == null) {
-            connection = createImapConnection();
-        }
-
-        return connection;
+        throw new MessagingException("Timed out waiting for a connection to " + host);
     }
 
-    private ImapConnection pollConnection() {
-        synchronized (connections) {
-            return connections.poll();
+    private ImapConnection acquireConnection(long timeout) throws MessagingException {
+        try {
+            return connectionPool.acquire(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for a connection", e);
         }
     }
 
     void releaseConnection(ImapConnection connection) {
-        if (connection != null && connection.isConnected()) {
-            synchronized (connections) {
-                connections.offer(connection);
-            }
+        connectionPool.release(connection);
+    }
+
+    /**
+     * Returns a connection obtained from {@link #getConnection()} that has been closed and must not be reused.
+     */
+    void discardConnection(ImapConnection connection) {
+        connectionPool.discard(connection);
+    }
+
+    @Override
+    public void prewarmConnection() throws MessagingException {
+        if (connectionPool.getIdleConnectionCount() > 0) {
+            return;
+        }
+
+        // Don't wait if all connections are in use. There's nothing to prewarm then.
+        ImapConnection connection = acquireConnection(0);
+        if (connection == null) {
+            return;
         }
+
+        try {
+            connection.open();
+        } catch (IOException | MessagingException e) {
+            connection.close();
+            discardConnection(connection);
+            throw new MessagingException("Unable to connect", e);
+        }
+
+        releaseConnection(connection);
+    }
+
+    @Override
+    public int getMaxConcurrentConnections() {
+        return connectionPool.getMaxConnections();
     }
 
     ImapConnection createImapConnection() {
@@ -477,5 +523,15 @@ public class ImapStore extends RemoteStore {
         public void setCombinedPrefix(String prefix) {
             combinedPrefix = prefix;
         }
+
+        @Override
+        public Set<String> getCachedCapabilities() {
+            return cachedCapabilities;
+        }
+
+        @Override
+        public void setCachedCapabilities(Set<String> capabilities) {
+            cachedCapabilities = capabilities;
+        }
     }
 }
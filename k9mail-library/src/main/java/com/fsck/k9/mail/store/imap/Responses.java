@@ -16,4 +16,13 @@ class Responses {
     public static final String PERMANENTFLAGS = "PERMANENTFLAGS";
     public static final String COPYUID = "COPYUID";
     public static final String SEARCH = "SEARCH";
+    public static final String ENABLED = "ENABLED";
+    public static final String VANISHED = "VANISHED";
+    public static final String EARLIER = "EARLIER";
+    public static final String UIDVALIDITY = "UIDVALIDITY";
+    public static final String HIGHESTMODSEQ = "HIGHESTMODSEQ";
+    public static final String NOMODSEQ = "NOMODSEQ";
+    public static final String STATUS = "STATUS";
+    public static final String MESSAGES = "MESSAGES";
+    public static final String UIDNEXT = "UIDNEXT";
 }
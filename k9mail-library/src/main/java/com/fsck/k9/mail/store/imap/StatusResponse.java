@@ -0,0 +1,77 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import static com.fsck.k9.mail.store.imap.ImapResponseParser.equalsIgnoreCase;
+
+
+/**
+ * An untagged {@code STATUS} response. Servers supporting NOTIFY (RFC 5465) also send these unsolicited when the
+ * contents of a watched mailbox change.
+ *
+ * <pre>
+ * * STATUS "Lists/k9mail" (MESSAGES 231 UIDNEXT 44292)
+ * </pre>
+ */
+class StatusResponse {
+    private final String mailboxName;
+    private final long messageCount;
+    private final long uidNext;
+
+
+    private StatusResponse(String mailboxName, long messageCount, long uidNext) {
+        this.mailboxName = mailboxName;
+        this.messageCount = messageCount;
+        this.uidNext = uidNext;
+    }
+
+    public static StatusResponse parse(ImapResponse response) {
+        if (response.isTagged() || response.size() < 3 || !equalsIgnoreCase(response.get(0), Responses.STATUS) ||
+                !response.isString(1) || !response.isList(2)) {
+            return null;
+        }
+
+        String mailboxName = response.getString(1);
+        long messageCount = -1L;
+        long uidNext = -1L;
+
+        ImapList attributes = response.getList(2);
+        for (int i = 0, count = attributes.size() - 1; i < count; i += 2) {
+            if (!attributes.isString(i) || !attributes.isString(i + 1)) {
+                return null;
+            }
+
+            try {
+                if (equalsIgnoreCase(attributes.get(i), Responses.MESSAGES)) {
+                    messageCount = Long.parseLong(attributes.getString(i + 1));
+                } else if (equalsIgnoreCase(attributes.get(i), Responses.UIDNEXT)) {
+                    uidNext = Long.parseLong(attributes.getString(i + 1));
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        return new StatusResponse(mailboxName, messageCount, uidNext);
+    }
+
+    /**
+     * @return The mailbox name as sent by the server, i.e. in modified UTF-7 and including the path prefix.
+     */
+    public String getMailboxName() {
+        return mailboxName;
+    }
+
+    /**
+     * @return The value of {@code MESSAGES} or {@code -1} if it wasn't included in the response.
+     */
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * @return The value of {@code UIDNEXT} or {@code -1} if it wasn't included in the response.
+     */
+    public long getUidNext() {
+        return uidNext;
+    }
+}
@@ -0,0 +1,61 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.Collections;
+import java.util.List;
+
+import static com.fsck.k9.mail.store.imap.ImapResponseParser.equalsIgnoreCase;
+
+
+/**
+ * An untagged {@code VANISHED} response as defined by QRESYNC (RFC 7162).
+ *
+ * <pre>
+ * * VANISHED 405,407,410
+ * * VANISHED (EARLIER) 300:310,405,411
+ * </pre>
+ */
+class VanishedResponse {
+    private final boolean earlier;
+    private final List<String> uids;
+
+
+    private VanishedResponse(boolean earlier, List<String> uids) {
+        this.earlier = earlier;
+        this.uids = Collections.unmodifiableList(uids);
+    }
+
+    public static VanishedResponse parse(ImapResponse response) {
+        if (response.isTagged() || response.size() < 2 || !equalsIgnoreCase(response.get(0), Responses.VANISHED)) {
+            return null;
+        }
+
+        boolean earlier = false;
+        int uidSetIndex = 1;
+        if (response.isList(1)) {
+            ImapList tagList = response.getList(1);
+            earlier = tagList.size() == 1 && equalsIgnoreCase(tagList.get(0), Responses.EARLIER);
+            uidSetIndex = 2;
+        }
+
+        if (response.size() <= uidSetIndex || !response.isString(uidSetIndex)) {
+            return null;
+        }
+
+        List<String> uids = ImapUtility.getImapSequenceValues(response.getString(uidSetIndex));
+
+        return new VanishedResponse(earlier, uids);
+    }
+
+    /**
+     * @return {@code true} if the response refers to messages expunged before the mailbox was selected or before the
+     *         command was issued. Those messages are not included in the current message count.
+     */
+    public boolean isEarlier() {
+        return earlier;
+    }
+
+    public List<String> getUids() {
+        return uids;
+    }
+}
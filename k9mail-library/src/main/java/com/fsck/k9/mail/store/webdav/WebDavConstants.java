@@ -12,6 +12,12 @@ class WebDavConstants {
 
     static final String[] EMPTY_STRING_ARRAY = new String[0];
 
+    // Number of messages downloaded in parallel by default, and the upper limit for that setting
+    static final int DEFAULT_MAX_CONCURRENT_FETCHES = 4;
+    static final int MAX_CONNECTIONS_PER_ROUTE = 8;
+    // Milliseconds to wait for a free connection of the connection pool
+    static final long CONNECTION_POOL_TIMEOUT = 30 * 1000;
+
     // These are the ids used from Exchange server to identify the special folders
     // http://social.technet.microsoft.com/Forums/en/exchangesvrdevelopment/thread/1cd2e98c-8a12-44bd-a3e3-9c5ee9e4e14d
     static final String DAV_MAIL_INBOX_FOLDER = "inbox";
@@ -8,21 +8,22 @@ import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.filter.EOLConvertingOutputStream;
+import com.fsck.k9.mail.filter.LineLimitInputStream;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.DefaultedHttpContext;
+import org.apache.http.protocol.HttpContext;
 import timber.log.Timber;
 
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -32,6 +33,12 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import android.annotation.SuppressLint;
 
@@ -331,114 +338,181 @@ class WebDavFolder extends Folder<WebDavMessage> {
 
     /**
      * Fetches the full messages or up to {@param lines} lines and passes them to the message parser.
+     *
+     * <p>
+     * Up to {@link WebDavStore#getMaxConcurrentFetches()} messages are downloaded at the same time. The listener is
+     * only called from the calling thread.
+     * </p>
      */
     private void fetchMessages(List<WebDavMessage> messages, MessageRetrievalListener<WebDavMessage> listener, int lines)
             throws MessagingException {
         WebDavHttpClient httpclient;
         httpclient = store.getHttpClient();
 
-        /**
-         * We can't hand off to processRequest() since we need the stream to parse.
-         */
-        for (int i = 0, count = messages.size(); i < count; i++) {
+        int count = messages.size();
+        int maxConcurrentFetches = Math.min(store.getMaxConcurrentFetches(), count);
+        if (maxConcurrentFetches > 1) {
+            fetchMessagesConcurrently(httpclient, messages, listener, lines, maxConcurrentFetches);
+            return;
+        }
+
+        for (int i = 0; i < count; i++) {
             WebDavMessage wdMessage = messages.get(i);
-            int statusCode = 0;
 
             if (listener != null) {
                 listener.messageStarted(wdMessage.getUid(), i, count);
             }
 
-            /**
-             * If fetch is called outside of the initial list (ie, a locally stored message), it may not have a URL
-             * associated. Verify and fix that
-             */
-            if (wdMessage.getUrl().equals("")) {
-                wdMessage.setUrl(getMessageUrls(new String[]{wdMessage.getUid()}).get(wdMessage.getUid()));
-                Timber.i("Fetching messages with UID = '%s', URL = '%s'", wdMessage.getUid(), wdMessage.getUrl());
-                if (wdMessage.getUrl().equals("")) {
-                    throw new MessagingException("Unable to get URL for message");
-                }
+            ensureMessageUrl(wdMessage);
+            fetchMessage(httpclient, store.getHttpContext(), wdMessage, lines);
+
+            if (listener != null) {
+                listener.messageFinished(wdMessage, i, count);
             }
+        }
+    }
 
-            try {
-                Timber.i("Fetching message with UID = '%s', URL = '%s'", wdMessage.getUid(), wdMessage.getUrl());
-                HttpGet httpget = new HttpGet(new URI(wdMessage.getUrl()));
-                HttpResponse response;
-                HttpEntity entity;
-
-                httpget.setHeader("translate", "f");
-                if (store.getAuthentication() == WebDavConstants.AUTH_TYPE_BASIC) {
-                    httpget.setHeader("Authorization", store.getAuthString());
+    private void fetchMessagesConcurrently(final WebDavHttpClient httpclient, List<WebDavMessage> messages,
+            MessageRetrievalListener<WebDavMessage> listener, final int lines, int maxConcurrentFetches)
+            throws MessagingException {
+        int count = messages.size();
+        ExecutorService executor = Executors.newFixedThreadPool(maxConcurrentFetches);
+        CompletionService<Integer> completionService = new ExecutorCompletionService<>(executor);
+        try {
+            for (int i = 0; i < count; i++) {
+                final WebDavMessage wdMessage = messages.get(i);
+                final int index = i;
+
+                if (listener != null) {
+                    listener.messageStarted(wdMessage.getUid(), i, count);
                 }
-                response = httpclient.executeOverride(httpget, store.getHttpContext());
 
-                statusCode = response.getStatusLine().getStatusCode();
+                ensureMessageUrl(wdMessage);
+                completionService.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws MessagingException {
+                        fetchMessage(httpclient, createRequestContext(), wdMessage, lines);
+                        return index;
+                    }
+                });
+            }
 
-                entity = response.getEntity();
+            for (int i = 0; i < count; i++) {
+                int index = takeFetchedMessageIndex(completionService);
 
-                if (statusCode < 200 ||
-                        statusCode > 300) {
-                    throw new IOException("Error during with code " + statusCode + " during fetch: "
-                            + response.getStatusLine().toString());
+                if (listener != null) {
+                    listener.messageFinished(messages.get(index), index, count);
                 }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-                if (entity != null) {
-                    InputStream istream = null;
-                    StringBuilder buffer = new StringBuilder();
-                    String tempText;
-                    String resultText;
-                    BufferedReader reader = null;
-                    int currentLines = 0;
-
-                    try {
-                        istream = WebDavHttpClient.getUngzippedContent(entity);
-
-                        if (lines != -1) {
-                            //Convert the ungzipped input stream into a StringBuilder
-                            //containing the given line count
-                            reader = new BufferedReader(new InputStreamReader(istream), 8192);
-
-                            tempText = reader.readLine();
-                            while (tempText != null && currentLines < lines) {
-                                buffer.append(tempText).append("\r\n");
-                                currentLines++;
-                                tempText = reader.readLine();
-                            }
-
-                            IOUtils.closeQuietly(istream);
-
-                            resultText = buffer.toString();
-                            istream = new ByteArrayInputStream(resultText.getBytes("UTF-8"));
-                        }
-                        //Parse either the entire message stream, or a stream of the given lines
-                        wdMessage.parse(istream);
-
-                    } catch (IOException ioe) {
-                        Timber.e(ioe, "IOException during message parsing");
-                        throw new MessagingException("I/O Error", ioe);
-                    } finally {
-                        IOUtils.closeQuietly(reader);
-                        IOUtils.closeQuietly(istream);
-                    }
-                } else {
-                    Timber.v("Empty response");
-                }
+    private int takeFetchedMessageIndex(CompletionService<Integer> completionService) throws MessagingException {
+        try {
+            return completionService.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while fetching messages", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MessagingException) {
+                throw (MessagingException) cause;
+            }
+            throw new MessagingException("Error while fetching message", cause);
+        }
+    }
+
+    /**
+     * Requests running at the same time can't share the attributes of one context. The returned context keeps
+     * its own attributes but falls back to the store's context, e.g. for the cookies of form-based authentication.
+     */
+    private HttpContext createRequestContext() {
+        HttpContext storeContext = store.getHttpContext();
+        if (storeContext == null) {
+            return null;
+        }
+
+        return new DefaultedHttpContext(new BasicHttpContext(), storeContext);
+    }
 
-            } catch (IllegalArgumentException iae) {
-                Timber.e(iae, "IllegalArgumentException caught");
-                throw new MessagingException("IllegalArgumentException caught", iae);
-            } catch (URISyntaxException use) {
-                Timber.e(use, "URISyntaxException caught");
-                throw new MessagingException("URISyntaxException caught", use);
-            } catch (IOException ioe) {
-                Timber.e(ioe, "Non-success response code loading message, response code was %d, URL: %s",
-                        statusCode, wdMessage.getUrl());
-                throw new MessagingException("Failure code " + statusCode, ioe);
+    /**
+     * If fetch is called outside of the initial list (ie, a locally stored message), it may not have a URL
+     * associated. Verify and fix that
+     */
+    private void ensureMessageUrl(WebDavMessage wdMessage) throws MessagingException {
+        if (wdMessage.getUrl().equals("")) {
+            wdMessage.setUrl(getMessageUrls(new String[]{wdMessage.getUid()}).get(wdMessage.getUid()));
+            Timber.i("Fetching messages with UID = '%s', URL = '%s'", wdMessage.getUid(), wdMessage.getUrl());
+            if (wdMessage.getUrl().equals("")) {
+                throw new MessagingException("Unable to get URL for message");
             }
+        }
+    }
 
-            if (listener != null) {
-                listener.messageFinished(wdMessage, i, count);
+    /**
+     * We can't hand off to processRequest() since we need the stream to parse.
+     */
+    private void fetchMessage(WebDavHttpClient httpclient, HttpContext httpContext, WebDavMessage wdMessage,
+            int lines) throws MessagingException {
+        int statusCode = 0;
+        try {
+            Timber.i("Fetching message with UID = '%s', URL = '%s'", wdMessage.getUid(), wdMessage.getUrl());
+            HttpGet httpget = new HttpGet(new URI(wdMessage.getUrl()));
+            HttpResponse response;
+            HttpEntity entity;
+
+            httpget.setHeader("translate", "f");
+            if (store.getAuthentication() == WebDavConstants.AUTH_TYPE_BASIC) {
+                httpget.setHeader("Authorization", store.getAuthString());
+            }
+            response = httpclient.executeOverride(httpget, httpContext);
+
+            statusCode = response.getStatusLine().getStatusCode();
+
+            entity = response.getEntity();
+
+            if (statusCode < 200 ||
+                    statusCode > 300) {
+                // Consume the error response to release the connection
+                WebDavHttpClient.consumeContentQuietly(entity);
+                throw new IOException("Error during with code " + statusCode + " during fetch: "
+                        + response.getStatusLine().toString());
             }
+
+            if (entity != null) {
+                InputStream istream = null;
+                try {
+                    istream = WebDavHttpClient.getUngzippedContent(entity);
+
+                    if (lines != -1) {
+                        // Pass the given number of lines straight to the parser
+                        istream = new LineLimitInputStream(istream, lines);
+                    }
+                    //Parse either the entire message stream, or a stream of the given lines
+                    wdMessage.parse(istream);
+
+                } catch (IOException ioe) {
+                    Timber.e(ioe, "IOException during message parsing");
+                    throw new MessagingException("I/O Error", ioe);
+                } finally {
+                    IOUtils.closeQuietly(istream);
+                }
+            } else {
+                Timber.v("Empty response");
+            }
+
+        } catch (IllegalArgumentException iae) {
+            Timber.e(iae, "IllegalArgumentException caught");
+            throw new MessagingException("IllegalArgumentException caught", iae);
+        } catch (URISyntaxException use) {
+            Timber.e(use, "URISyntaxException caught");
+            throw new MessagingException("URISyntaxException caught", use);
+        } catch (IOException ioe) {
+            Timber.e(ioe, "Non-success response code loading message, response code was %d, URL: %s",
+                    statusCode, wdMessage.getUrl());
+            throw new MessagingException("Failure code " + statusCode, ioe);
         }
     }
 
@@ -676,7 +750,8 @@ class WebDavFolder extends Folder<WebDavMessage> {
 
                 Timber.i("Uploading message as %s", messageURL);
 
-                store.sendRequest(messageURL, "PUT", bodyEntity, null, true);
+                // The response isn't needed, but closing it releases the connection
+                IOUtils.closeQuietly(store.sendRequest(messageURL, "PUT", bodyEntity, null, true));
 
                 WebDavMessage retMessage = new WebDavMessage(message.getUid(), this);
 
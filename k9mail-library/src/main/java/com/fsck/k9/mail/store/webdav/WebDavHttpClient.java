@@ -5,7 +5,16 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.HttpContext;
 import timber.log.Timber;
 
@@ -63,6 +72,40 @@ public class WebDavHttpClient extends DefaultHttpClient {
         return responseStream;
     }
 
+    /**
+     * Consumes the remaining content of a response. A pooled connection is only released once its response entity has
+     * been consumed, or the stream returned by {@link HttpEntity#getContent()} has been closed.
+     */
+    public static void consumeContentQuietly(HttpEntity entity) {
+        if (entity == null) {
+            return;
+        }
+
+        try {
+            entity.consumeContent();
+        } catch (IOException e) {
+            Timber.d(e, "Unable to consume response content");
+        }
+    }
+
+    /**
+     * Use a connection pool so {@link WebDavFolder} can download several messages at the same time.
+     */
+    @Override
+    protected ClientConnectionManager createClientConnectionManager() {
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+        HttpParams params = getParams();
+        ConnManagerParams.setTimeout(params, WebDavConstants.CONNECTION_POOL_TIMEOUT);
+        ConnManagerParams.setMaxTotalConnections(params, WebDavConstants.MAX_CONNECTIONS_PER_ROUTE);
+        ConnManagerParams.setMaxConnectionsPerRoute(params,
+                new ConnPerRouteBean(WebDavConstants.MAX_CONNECTIONS_PER_ROUTE));
+
+        return new ThreadSafeClientConnManager(params, registry);
+    }
+
     public HttpResponse executeOverride(HttpUriRequest request, HttpContext context)
             throws IOException {
         modifyRequestToAcceptGzipResponse(request);
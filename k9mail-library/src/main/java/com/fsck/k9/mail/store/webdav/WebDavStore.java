@@ -30,6 +30,7 @@ import javax.net.ssl.SSLException;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import org.apache.commons.io.IOUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
@@ -87,6 +88,7 @@ public class WebDavStore extends RemoteStore {
     private CookieStore authCookies = null;
     private short authenticationType = WebDavConstants.AUTH_TYPE_NONE;
     private String cachedLoginUrl;
+    private int maxConcurrentFetches = WebDavConstants.DEFAULT_MAX_CONCURRENT_FETCHES;
 
     private Folder sendFolder = null;
     private Map<String, WebDavFolder> folderList = new HashMap<>();
@@ -157,6 +159,23 @@ public class WebDavStore extends RemoteStore {
         return httpContext;
     }
 
+    int getMaxConcurrentFetches() {
+        return maxConcurrentFetches;
+    }
+
+    /**
+     * Sets the number of messages that are downloaded at the same time when fetching message bodies. Use {@code 1}
+     * to download messages one after another.
+     */
+    public void setMaxConcurrentFetches(int maxConcurrentFetches) {
+        if (maxConcurrentFetches < 1 || maxConcurrentFetches > WebDavConstants.MAX_CONNECTIONS_PER_ROUTE) {
+            throw new IllegalArgumentException("maxConcurrentFetches must be between 1 and " +
+                    WebDavConstants.MAX_CONNECTIONS_PER_ROUTE);
+        }
+
+        this.maxConcurrentFetches = maxConcurrentFetches;
+    }
+
     short getAuthentication() {
         return authenticationType;
     }
@@ -502,6 +521,7 @@ public class WebDavStore extends RemoteStore {
 
                     WebDavHttpClient httpClient = getHttpClient();
                     HttpResponse response = httpClient.executeOverride(request, httpContext);
+                    WebDavHttpClient.consumeContentQuietly(response.getEntity());
 
                     int statusCode = response.getStatusLine().getStatusCode();
                     if (statusCode >= 200 && statusCode < 300) {
@@ -551,6 +571,7 @@ public class WebDavStore extends RemoteStore {
 
         try {
             HttpResponse response = httpClient.executeOverride(request, httpContext);
+            WebDavHttpClient.consumeContentQuietly(response.getEntity());
             info.statusCode = response.getStatusLine().getStatusCode();
 
             if (info.statusCode == 401) {
@@ -630,9 +651,11 @@ public class WebDavStore extends RemoteStore {
 
         HttpResponse response = httpClient.executeOverride(request, httpContext);
         boolean authenticated = testAuthenticationResponse(response);
-        if (!authenticated) {
+        if (authenticated) {
+            WebDavHttpClient.consumeContentQuietly(response.getEntity());
+        } else {
             // Check the response from the authentication request above for a form action.
-            String formAction = findFormAction(WebDavHttpClient.getUngzippedContent(response.getEntity()));
+            String formAction = readFormAction(response);
             if (formAction == null) {
                 // If there is no form action, try using our redirect URL from the initial connection.
                 if (info != null && info.redirectUrl != null && !info.redirectUrl.equals("")) {
@@ -642,7 +665,7 @@ public class WebDavStore extends RemoteStore {
                     request.setMethod("GET");
 
                     response = httpClient.executeOverride(request, httpContext);
-                    formAction = findFormAction(WebDavHttpClient.getUngzippedContent(response.getEntity()));
+                    formAction = readFormAction(response);
                 }
             }
             if (formAction != null) {
@@ -685,6 +708,7 @@ public class WebDavStore extends RemoteStore {
 
                     response = httpClient.executeOverride(request, httpContext);
                     authenticated = testAuthenticationResponse(response);
+                    WebDavHttpClient.consumeContentQuietly(response.getEntity());
                 } catch (URISyntaxException e) {
                     Timber.e(e, "URISyntaxException caught");
                     throw new MessagingException("URISyntaxException caught", e);
@@ -702,6 +726,15 @@ public class WebDavStore extends RemoteStore {
         }
     }
 
+    private String readFormAction(HttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        try {
+            return findFormAction(WebDavHttpClient.getUngzippedContent(entity));
+        } finally {
+            WebDavHttpClient.consumeContentQuietly(entity);
+        }
+    }
+
     private String findFormAction(InputStream istream)
             throws IOException {
         String formAction = null;
@@ -862,13 +895,18 @@ public class WebDavStore extends RemoteStore {
 
             entity = response.getEntity();
 
+            if (statusCode < 200 || statusCode >= 300) {
+                // The content of error responses isn't used. Consume it to release the connection.
+                WebDavHttpClient.consumeContentQuietly(entity);
+            }
+
             if (statusCode == 401) {
                 throw new MessagingException("Invalid username or password for Basic authentication.");
             } else if (statusCode == 440) {
                 if (tryAuth && authenticationType == WebDavConstants.AUTH_TYPE_FORM_BASED) {
                     // Our cookie expired, re-authenticate.
                     performFormBasedAuthentication(null);
-                    sendRequest(url, method, messageBody, headers, false);
+                    return sendRequest(url, method, messageBody, headers, false);
                 } else {
                     throw new MessagingException("Authentication failure in sendRequest().");
                 }
@@ -941,9 +979,8 @@ public class WebDavStore extends RemoteStore {
                 messageEntity.setContentType("text/xml");
             }
             InputStream istream = sendRequest(url, method, messageEntity, headers, true);
-            if (istream != null &&
-                    needsParsing) {
-                try {
+            try {
+                if (istream != null && needsParsing) {
                     SAXParserFactory spf = SAXParserFactory.newInstance();
                     spf.setNamespaceAware(true); //This should be a no-op on Android, but makes the tests work
                     SAXParser sp = spf.newSAXParser();
@@ -955,15 +992,16 @@ public class WebDavStore extends RemoteStore {
                     xr.parse(new InputSource(istream));
 
                     dataset = myHandler.getDataSet();
-                } catch (SAXException se) {
-                    Timber.e(se, "SAXException in processRequest()");
-                    throw new MessagingException("SAXException in processRequest() ", se);
-                } catch (ParserConfigurationException pce) {
-                    Timber.e(pce, "ParserConfigurationException in processRequest()");
-                    throw new MessagingException("ParserConfigurationException in processRequest() ", pce);
                 }
-
-                istream.close();
+            } catch (SAXException se) {
+                Timber.e(se, "SAXException in processRequest()");
+                throw new MessagingException("SAXException in processRequest() ", se);
+            } catch (ParserConfigurationException pce) {
+                Timber.e(pce, "ParserConfigurationException in processRequest()");
+                throw new MessagingException("ParserConfigurationException in processRequest() ", pce);
+            } finally {
+                // Closing the stream releases the connection, even if the response wasn't parsed
+                IOUtils.closeQuietly(istream);
             }
         } catch (UnsupportedEncodingException uee) {
             Timber.e(uee, "UnsupportedEncodingException: ");
@@ -45,6 +45,7 @@ import com.fsck.k9.mail.filter.LineWrapOutputStream;
 import com.fsck.k9.mail.filter.PeekableInputStream;
 import com.fsck.k9.mail.filter.SmtpDataStuffing;
 import com.fsck.k9.mail.internet.CharsetSupport;
+import com.fsck.k9.mail.internet.SpooledMessage;
 import com.fsck.k9.mail.oauth.OAuth2AuthorizationCodeFlowTokenProvider;
 import com.fsck.k9.mail.oauth.OAuth2TokenProvider;
 import com.fsck.k9.mail.oauth.XOAuth2ChallengeParser;
@@ -60,6 +61,7 @@ import static com.fsck.k9.mail.K9MailLib.DEBUG_PROTOCOL_SMTP;
 public class SmtpTransport extends Transport {
     private static final int SMTP_CONTINUE_REQUEST = 334;
     private static final int SMTP_AUTHENTICATION_FAILURE_ERROR_CODE = 535;
+    private static final int BDAT_CHUNK_SIZE = 64 * 1024;
 
 
     private final TrustedSocketFactory trustedSocketFactory;
@@ -82,7 +84,9 @@ public class SmtpTransport extends Transport {
     private int largestAcceptableMessage;
     private boolean retryXoauthWithNewToken;
     private boolean isPipeliningSupported;
+    private boolean isChunkingSupported;
     private boolean shouldHideHostname;
+    private boolean isBatchActive;
 
 
     public SmtpTransport(StoreConfig storeConfig, TrustedSocketFactory trustedSocketFactory,
@@ -155,6 +159,7 @@ public class SmtpTransport extends Transport {
             is8bitEncodingAllowed = extensions.containsKey("8BITMIME");
             isEnhancedStatusCodesProvided = extensions.containsKey("ENHANCEDSTATUSCODES");
             isPipeliningSupported = extensions.containsKey("PIPELINING");
+            isChunkingSupported = extensions.containsKey("CHUNKING");
 
             if (connectionSecurity == ConnectionSecurity.STARTTLS_REQUIRED) {
                 if (extensions.containsKey("STARTTLS")) {
@@ -421,28 +426,89 @@ public class SmtpTransport extends Transport {
             addressesOfCharset.add(addressString);
         }
 
-        for (Map.Entry<String, List<String>> charsetAddressesMapEntry :
-                charsetAddressesMap.entrySet()) {
-            String charset = charsetAddressesMapEntry.getKey();
-            List<String> addressesOfCharset = charsetAddressesMapEntry.getValue();
-            message.setCharset(charset);
-            sendMessageTo(addressesOfCharset, message);
+        try {
+            for (Map.Entry<String, List<String>> charsetAddressesMapEntry :
+                    charsetAddressesMap.entrySet()) {
+                String charset = charsetAddressesMapEntry.getKey();
+                List<String> addressesOfCharset = charsetAddressesMapEntry.getValue();
+                message.setCharset(charset);
+                sendMessageTo(addressesOfCharset, message);
+            }
+        } finally {
+            if (!isBatchActive) {
+                close();
+            }
         }
     }
 
-    private void sendMessageTo(List<String> addresses, Message message)
-            throws MessagingException {
+    @Override
+    public void beginBatch() {
+        isBatchActive = true;
+    }
+
+    @Override
+    public void endBatch() {
+        isBatchActive = false;
         close();
+    }
+
+    /**
+     * Make sure there's an authenticated session that is ready for a new mail transaction.
+     *
+     * <p>
+     * An existing session is reset using {@code RSET}. This also tells us whether the server has dropped the
+     * connection in the meantime, in which case we reconnect.
+     * </p>
+     */
+    private void openOrResetSession() throws MessagingException {
+        if (socket != null) {
+            try {
+                executeCommand("RSET");
+                return;
+            } catch (IOException | MessagingException e) {
+                Timber.d(e, "Unable to reuse SMTP session. Reconnecting...");
+                close();
+            }
+        }
+
         open();
+    }
+
+    private void sendMessageTo(List<String> addresses, Message message)
+            throws MessagingException {
+        openOrResetSession();
 
         // If the message has attachments and our server has told us about a limit on
-        // the size of messages, count the message's size before sending it
+        // the size of messages, serialize the message once to learn its size. The spooled
+        // copy is then sent, so the message doesn't have to be serialized again.
+        SpooledMessage spooledMessage = null;
         if (largestAcceptableMessage > 0 && message.hasAttachments()) {
-            if (message.calculateSize() > largestAcceptableMessage) {
+            spooledMessage = spoolMessage(message);
+        }
+
+        try {
+            if (spooledMessage != null && spooledMessage.getSize() > largestAcceptableMessage) {
                 throw new MessagingException("Message too large for server", true);
             }
+
+            sendMessageTo(addresses, message, spooledMessage);
+        } finally {
+            if (spooledMessage != null) {
+                spooledMessage.close();
+            }
+        }
+    }
+
+    private static SpooledMessage spoolMessage(Message message) throws MessagingException {
+        try {
+            return SpooledMessage.spool(message);
+        } catch (IOException e) {
+            throw new MessagingException("Unable to spool message", e);
         }
+    }
 
+    private void sendMessageTo(List<String> addresses, Message message, SpooledMessage spooledMessage)
+            throws MessagingException {
         boolean entireMessageSent = false;
 
         try {
@@ -456,7 +522,9 @@ public class SmtpTransport extends Transport {
                     pipelinedCommands.add(String.format("RCPT TO:<%s>", address));
                 }
 
-                pipelinedCommands.add("DATA");
+                if (!isChunkingSupported) {
+                    pipelinedCommands.add("DATA");
+                }
                 executePipelinedCommands(pipelinedCommands);
                 readPipelinedResponse(pipelinedCommands);
             } else {
@@ -466,28 +534,53 @@ public class SmtpTransport extends Transport {
                     executeCommand("RCPT TO:<%s>", address);
                 }
 
-                executeCommand("DATA");
+                if (!isChunkingSupported) {
+                    executeCommand("DATA");
+                }
             }
 
-            EOLConvertingOutputStream msgOut = new EOLConvertingOutputStream(
-                    new LineWrapOutputStream(new SmtpDataStuffing(outputStream), 1000));
+            if (isChunkingSupported) {
+                BdatOutputStream bdatOut = new BdatOutputStream();
+                EOLConvertingOutputStream msgOut = new EOLConvertingOutputStream(
+                        new LineWrapOutputStream(bdatOut, 1000));
 
-            message.writeTo(msgOut);
-            msgOut.endWithCrLfAndFlush();
+                writeMessage(message, spooledMessage, msgOut);
+                msgOut.endWithCrLfAndFlush();
 
-            entireMessageSent = true; // After the "\r\n." is attempted, we may have sent the message
-            executeCommand(".");
+                entireMessageSent = true; // After "BDAT <size> LAST" is attempted, we may have sent the message
+                bdatOut.sendLastChunk();
+            } else {
+                EOLConvertingOutputStream msgOut = new EOLConvertingOutputStream(
+                        new LineWrapOutputStream(new SmtpDataStuffing(outputStream), 1000));
+
+                writeMessage(message, spooledMessage, msgOut);
+                msgOut.endWithCrLfAndFlush();
+
+                entireMessageSent = true; // After the "\r\n." is attempted, we may have sent the message
+                executeCommand(".");
+            }
         } catch (NegativeSmtpReplyException e) {
             throw e;
+        } catch (NegativeChunkReplyException e) {
+            throw e.getReply();
         } catch (Exception e) {
+            // The state of the connection is unknown. Don't reuse it for the next message.
+            close();
+
             MessagingException me = new MessagingException("Unable to send message", e);
             me.setPermanentFailure(entireMessageSent);
 
             throw me;
-        } finally {
-            close();
         }
+    }
 
+    private static void writeMessage(Message message, SpooledMessage spooledMessage, OutputStream out)
+            throws IOException, MessagingException {
+        if (spooledMessage != null) {
+            spooledMessage.writeTo(out);
+        } else {
+            message.writeTo(out);
+        }
     }
 
     private static String constructSmtpMailFromCommand(Address[] from, boolean is8bitEncodingAllowed) {
@@ -683,6 +776,11 @@ public class SmtpTransport extends Transport {
         }
 
         if (negativeRecipient != null) {
+            if (!pipelinedCommands.contains("DATA")) {
+                // With BDAT no message data has been announced yet
+                throw negativeRecipient;
+            }
+
             try {
                 executeCommand(".");
                 throw negativeRecipient;
@@ -837,6 +935,77 @@ public class SmtpTransport extends Transport {
         executeCommand("AUTH EXTERNAL %s", Base64.encode(username));
     }
 
+    /**
+     * Sends the message data using {@code BDAT} commands (RFC 3030).
+     *
+     * <p>
+     * Unlike {@code DATA} this doesn't require dot-stuffing the message. The data is buffered and sent in chunks of
+     * {@link #BDAT_CHUNK_SIZE} bytes. The last chunk is sent by {@link #sendLastChunk()}.
+     * </p>
+     */
+    private class BdatOutputStream extends OutputStream {
+        private final byte[] buffer = new byte[BDAT_CHUNK_SIZE];
+        private int count;
+
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            if (count == buffer.length) {
+                sendChunk(false);
+            }
+            buffer[count++] = (byte) oneByte;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == buffer.length) {
+                    sendChunk(false);
+                }
+
+                int bytesToCopy = Math.min(length, buffer.length - count);
+                System.arraycopy(data, offset, buffer, count, bytesToCopy);
+                count += bytesToCopy;
+                offset += bytesToCopy;
+                length -= bytesToCopy;
+            }
+        }
+
+        void sendLastChunk() throws IOException {
+            sendChunk(true);
+        }
+
+        private void sendChunk(boolean last) throws IOException {
+            writeLine(String.format(Locale.ROOT, last ? "BDAT %d LAST" : "BDAT %d", count), false);
+            outputStream.write(buffer, 0, count);
+            outputStream.flush();
+            count = 0;
+
+            try {
+                executeCommand(null);
+            } catch (MessagingException e) {
+                throw new NegativeChunkReplyException(e);
+            }
+        }
+    }
+
+    /**
+     * Used to pass a negative reply to a {@code BDAT} command through {@link Message#writeTo(OutputStream)}.
+     */
+    private static class NegativeChunkReplyException extends IOException {
+        private final MessagingException reply;
+
+
+        NegativeChunkReplyException(MessagingException reply) {
+            super(reply.getMessage());
+            this.reply = reply;
+        }
+
+        MessagingException getReply() {
+            return reply;
+        }
+    }
+
     @VisibleForTesting
     protected String getCanonicalHostName(InetAddress localAddress) {
         return localAddress.getCanonicalHostName();
@@ -0,0 +1,70 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import okio.Buffer;
+import okio.Okio;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class LineLimitInputStreamTest {
+    @Test
+    public void read_shouldStopAfterLineLimit() throws Exception {
+        InputStream inputStream = new LineLimitInputStream(createInputStream("one\r\ntwo\r\nthree\r\n"), 2);
+
+        assertEquals("one\r\ntwo\r\n", readAll(inputStream));
+    }
+
+    @Test
+    public void read_withLfLineEndings_shouldKeepLineEndings() throws Exception {
+        InputStream inputStream = new LineLimitInputStream(createInputStream("one\ntwo\nthree\n"), 1);
+
+        assertEquals("one\n", readAll(inputStream));
+    }
+
+    @Test
+    public void read_withFewerLinesThanLimit_shouldReturnEverything() throws Exception {
+        InputStream inputStream = new LineLimitInputStream(createInputStream("one\r\ntwo"), 5);
+
+        assertEquals("one\r\ntwo", readAll(inputStream));
+    }
+
+    @Test
+    public void readSingleBytes_shouldStopAfterLineLimit() throws Exception {
+        InputStream inputStream = new LineLimitInputStream(createInputStream("a\nb\nc"), 2);
+
+        StringBuilder result = new StringBuilder();
+        int d;
+        while ((d = inputStream.read()) != -1) {
+            result.append((char) d);
+        }
+
+        assertEquals("a\nb\n", result.toString());
+    }
+
+    @Test
+    public void read_withNonAsciiData_shouldPassBytesThroughUnchanged() throws Exception {
+        byte[] data = { (byte) 0xE4, '\n', (byte) 0xF6, '\n' };
+        InputStream inputStream = new LineLimitInputStream(new ByteArrayInputStream(data), 1);
+
+        Buffer buffer = new Buffer();
+        buffer.writeAll(Okio.source(inputStream));
+
+        assertEquals(2, buffer.size());
+        assertEquals((byte) 0xE4, buffer.getByte(0));
+    }
+
+
+    private static InputStream createInputStream(String data) {
+        return new ByteArrayInputStream(data.getBytes());
+    }
+
+    private static String readAll(InputStream inputStream) throws IOException {
+        return Okio.buffer(Okio.source(inputStream)).readUtf8();
+    }
+}
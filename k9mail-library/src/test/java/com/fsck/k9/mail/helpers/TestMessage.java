@@ -57,7 +57,13 @@ class TestMessage extends MimeMessage {
     @Override
     public void writeTo(OutputStream out) throws IOException, MessagingException {
         BufferedSink bufferedSink = Okio.buffer(Okio.sink(out));
-        bufferedSink.writeUtf8("[message data]");
+        if (messageSize > 0) {
+            for (long i = 0; i < messageSize; i++) {
+                bufferedSink.writeByte('x');
+            }
+        } else {
+            bufferedSink.writeUtf8("[message data]");
+        }
         bufferedSink.emit();
     }
 
@@ -0,0 +1,106 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.ByteArrayOutputStream;
+
+import com.fsck.k9.mail.K9LibRobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+@RunWith(K9LibRobolectricTestRunner.class)
+public class MimeHeaderTest {
+    private MimeHeader header;
+
+
+    @Before
+    public void setUp() throws Exception {
+        header = new MimeHeader();
+    }
+
+    @Test
+    public void getHeader_shouldIgnoreCase() throws Exception {
+        header.addRawHeader("Received", "Received: from a");
+        header.addHeader("Subject", "test");
+        header.addRawHeader("received", "received: from b");
+
+        assertArrayEquals(new String[] { "from a", "from b" }, header.getHeader("RECEIVED"));
+        assertEquals("test", header.getFirstHeader("subject"));
+    }
+
+    @Test
+    public void getHeader_withUnknownName_shouldReturnEmptyArray() throws Exception {
+        header.addHeader("Subject", "test");
+
+        assertEquals(0, header.getHeader("To").length);
+        assertNull(header.getFirstHeader("To"));
+    }
+
+    @Test
+    public void getHeader_withNullName_shouldReturnEmptyArray() throws Exception {
+        header.addHeader("Subject", "test");
+
+        assertEquals(0, header.getHeader(null).length);
+        assertNull(header.getFirstHeader(null));
+    }
+
+    @Test
+    public void removeHeader_withNullName_shouldKeepAllFields() throws Exception {
+        header.addHeader("Subject", "test");
+
+        header.removeHeader(null);
+
+        assertEquals("Subject: test\r\n", header.toString());
+    }
+
+    @Test
+    public void removeHeader_shouldRemoveAllFieldsWithName() throws Exception {
+        header.addHeader("Received", "from a");
+        header.addHeader("Subject", "test");
+        header.addHeader("RECEIVED", "from b");
+
+        header.removeHeader("received");
+
+        assertEquals(0, header.getHeader("Received").length);
+        assertEquals("Subject: test\r\n", header.toString());
+    }
+
+    @Test
+    public void setHeader_shouldMoveFieldToEnd() throws Exception {
+        header.addHeader("Subject", "old");
+        header.addHeader("To", "alice@example.org");
+
+        header.setHeader("subject", "new");
+
+        assertEquals("To: alice@example.org\r\nsubject: new\r\n", header.toString());
+    }
+
+    @Test
+    public void clone_shouldNotShareIndex() throws Exception {
+        header.addHeader("Received", "from a");
+        MimeHeader clone = header.clone();
+
+        header.addHeader("Received", "from b");
+        clone.removeHeader("Received");
+
+        assertArrayEquals(new String[] { "from a", "from b" }, header.getHeader("Received"));
+        assertEquals(0, clone.getHeader("Received").length);
+    }
+
+    @Test
+    public void writeTo_shouldKeepInsertionOrder() throws Exception {
+        header.addRawHeader("Received", "Received: from a");
+        header.addHeader("Subject", "test");
+        header.addRawHeader("Received", "Received: from b");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        header.writeTo(out);
+
+        assertEquals("Received: from a\r\nSubject: test\r\nReceived: from b\r\n", out.toString("US-ASCII"));
+    }
+}
@@ -0,0 +1,97 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import com.fsck.k9.mail.K9LibRobolectricTestRunner;
+import com.fsck.k9.mail.MessagingException;
+import okio.Buffer;
+import org.apache.commons.io.FileUtils;
+import org.apache.james.mime4j.util.MimeUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9LibRobolectricTestRunner.class)
+public class SpooledMessageTest {
+    private File tempDirectory;
+
+
+    @Before
+    public void setUp() throws Exception {
+        tempDirectory = File.createTempFile("spool", "");
+        assertTrue(tempDirectory.delete());
+        assertTrue(tempDirectory.mkdir());
+        BinaryTempFileBody.setTempDirectory(tempDirectory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDirectory);
+    }
+
+    @Test
+    public void spool_shouldNormalizeLineEndings() throws Exception {
+        MimeMessage message = createMessage("line 1\nline 2\rline 3\r\n");
+
+        SpooledMessage spooledMessage = SpooledMessage.spool(message);
+
+        String wireFormat = writeToString(spooledMessage);
+        assertTrue(wireFormat.endsWith("\r\n\r\nline 1\r\nline 2\r\nline 3\r\n"));
+        assertEquals(wireFormat.length(), spooledMessage.getSize());
+        assertEquals(message.calculateSize(), spooledMessage.getSize());
+    }
+
+    @Test
+    public void spool_withLargeMessage_shouldMatchCalculatedSize() throws Exception {
+        MimeMessage message = createMessage(createLargeText());
+
+        SpooledMessage spooledMessage = SpooledMessage.spool(message);
+
+        assertEquals(message.calculateSize(), spooledMessage.getSize());
+        assertEquals(spooledMessage.getSize(), writeToString(spooledMessage).length());
+    }
+
+    @Test
+    public void close_withLargeMessage_shouldDeleteTemporaryFile() throws Exception {
+        SpooledMessage spooledMessage = SpooledMessage.spool(createMessage(createLargeText()));
+        assertEquals(1, tempDirectory.list().length);
+
+        spooledMessage.close();
+
+        assertEquals(0, tempDirectory.list().length);
+    }
+
+
+    private MimeMessage createMessage(String text) throws MessagingException {
+        MimeMessage message = new MimeMessage();
+        message.setSubject("Test");
+        MimeMessageHelper.setBody(message, new TextBody(text));
+        MimeMessageHelper.setEncoding(message, MimeUtil.ENC_8BIT);
+
+        return message;
+    }
+
+    private String createLargeText() {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 256 * 1024) {
+            text.append("All work and no play makes Jack a dull boy.\n");
+        }
+
+        return text.toString();
+    }
+
+    private String writeToString(SpooledMessage spooledMessage) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        spooledMessage.writeTo(out);
+
+        return new Buffer().write(out.toByteArray()).readUtf8();
+    }
+}
@@ -0,0 +1,131 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+
+import com.fsck.k9.mail.K9LibRobolectricTestRunner;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.filter.PeekableInputStream;
+import okio.Okio;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+
+@RunWith(K9LibRobolectricTestRunner.class)
+public class FetchBodyCallbackTest {
+    private ImapMessage message;
+    private FetchBodyCallback callback;
+    private byte[] parsedData;
+
+
+    @Before
+    public void setUp() throws Exception {
+        message = mock(ImapMessage.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                InputStream inputStream = (InputStream) invocation.getArguments()[0];
+                parsedData = Okio.buffer(Okio.source(inputStream)).readByteArray();
+                return null;
+            }
+        }).when(message).parse(any(InputStream.class));
+
+        Map<String, Message> messageMap = Collections.<String, Message>singletonMap("1", message);
+        callback = new FetchBodyCallback(messageMap);
+    }
+
+    @Test
+    public void foundLiteral_withHeaderFieldsLiteral_shouldParseMessageFromStream() throws Exception {
+        readResponse("* 1 FETCH (UID 1 BODY[HEADER.FIELDS (SUBJECT)] {13}\r\nSubject: Hi\r\n)");
+
+        assertArrayEquals("Subject: Hi\r\n".getBytes("US-ASCII"), parsedData);
+    }
+
+    @Test
+    public void foundLiteral_withPartialBodyLiteral_shouldParseMessageFromStream() throws Exception {
+        readResponse("* 1 FETCH (UID 1 BODY[]<0> {4}\r\nBody)");
+
+        assertArrayEquals("Body".getBytes("US-ASCII"), parsedData);
+    }
+
+    @Test
+    public void foundLiteral_with8bitData_shouldPassBytesUnchanged() throws Exception {
+        byte[] prefix = "* 1 FETCH (UID 1 BODY[] {2}\r\n".getBytes("US-ASCII");
+        byte[] data = { (byte) 0xC3, (byte) 0xA4 };
+        byte[] suffix = ")\r\n".getBytes("US-ASCII");
+
+        readResponse(concat(prefix, data, suffix));
+
+        assertArrayEquals(data, parsedData);
+    }
+
+    @Test
+    public void foundLiteral_withLiteralInBodyStructure_shouldNotParseMessage() throws Exception {
+        ImapResponse response = readResponse("* 1 FETCH (UID 1 BODYSTRUCTURE (\"TEXT\" \"PLAIN\" (\"NAME\" {3}\r\n" +
+                "abc) NIL NIL \"7BIT\" 3 1))");
+
+        verify(message, never()).parse(any(InputStream.class));
+        ImapList bodyStructure = ((ImapList) response.getKeyedValue("FETCH")).getKeyedList("BODYSTRUCTURE");
+        assertEquals("abc", bodyStructure.getList(2).getString(1));
+    }
+
+    @Test
+    public void foundLiteral_withUnknownUid_shouldNotParseMessage() throws Exception {
+        ImapResponse response = readResponse("* 2 FETCH (UID 2 BODY[] {4}\r\nBody)");
+
+        verify(message, never()).parse(any(InputStream.class));
+        assertEquals("Body", ((ImapList) response.getKeyedValue("FETCH")).getString(4));
+    }
+
+    @Test
+    public void foundLiteral_withTaggedResponse_shouldReturnNull() throws Exception {
+        ImapResponse response = ImapResponseHelper.createImapResponse("x OK");
+
+        Object result = callback.foundLiteral(response, null);
+
+        assertNull(result);
+    }
+
+
+    private ImapResponse readResponse(String response) throws Exception {
+        return readResponse((response + "\r\n").getBytes("US-ASCII"));
+    }
+
+    private ImapResponse readResponse(byte[] data) throws Exception {
+        PeekableInputStream inputStream = new PeekableInputStream(new ByteArrayInputStream(data));
+        ImapResponseParser parser = new ImapResponseParser(inputStream);
+
+        return parser.readResponse(callback);
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        int length = 0;
+        for (byte[] array : arrays) {
+            length += array.length;
+        }
+
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (byte[] array : arrays) {
+            System.arraycopy(array, 0, result, offset, array.length);
+            offset += array.length;
+        }
+
+        return result;
+    }
+}
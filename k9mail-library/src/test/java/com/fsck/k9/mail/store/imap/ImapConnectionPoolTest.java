@@ -0,0 +1,214 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.fsck.k9.mail.K9LibRobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9LibRobolectricTestRunner.class)
+public class ImapConnectionPoolTest {
+    private static final int MAX_CONNECTIONS = 3;
+    private static final int MAX_IDLE_CONNECTIONS = 2;
+    private static final long IDLE_TIMEOUT = 1000L;
+    private static final long NO_WAIT = 0L;
+
+
+    private TestImapConnectionPool pool;
+
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new TestImapConnectionPool();
+    }
+
+    @Test
+    public void acquire_withEmptyPool_shouldCreateConnection() throws Exception {
+        ImapConnection connection = pool.acquire(NO_WAIT);
+
+        assertNotNull(connection);
+        assertFalse(connection.isConnected());
+    }
+
+    @Test
+    public void acquire_shouldReturnMostRecentlyReleasedConnection() throws Exception {
+        ImapConnection connectionOne = acquireConnectedConnection();
+        ImapConnection connectionTwo = acquireConnectedConnection();
+        pool.release(connectionOne);
+        pool.release(connectionTwo);
+
+        assertSame(connectionTwo, pool.acquire(NO_WAIT));
+        assertSame(connectionOne, pool.acquire(NO_WAIT));
+    }
+
+    @Test
+    public void release_withDisconnectedConnection_shouldNotPoolConnection() throws Exception {
+        ImapConnection connection = pool.acquire(NO_WAIT);
+
+        pool.release(connection);
+
+        assertEquals(0, pool.getIdleConnectionCount());
+    }
+
+    @Test
+    public void release_withConnectionNotHandedOutByPool_shouldNotPoolConnection() throws Exception {
+        ImapConnection connection = createConnectedImapConnection();
+
+        pool.release(connection);
+
+        assertEquals(0, pool.getIdleConnectionCount());
+    }
+
+    @Test
+    public void release_withFullPool_shouldCloseOldestConnection() throws Exception {
+        ImapConnection connectionOne = acquireConnectedConnection();
+        ImapConnection connectionTwo = acquireConnectedConnection();
+        ImapConnection connectionThree = acquireConnectedConnection();
+        pool.release(connectionOne);
+        pool.release(connectionTwo);
+
+        pool.release(connectionThree);
+
+        verify(connectionOne).close();
+        verify(connectionTwo, never()).close();
+        assertEquals(MAX_IDLE_CONNECTIONS, pool.getIdleConnectionCount());
+    }
+
+    @Test
+    public void acquire_withExpiredConnection_shouldCloseConnectionAndCreateNewOne() throws Exception {
+        ImapConnection connection = acquireConnectedConnection();
+        pool.release(connection);
+        pool.time += IDLE_TIMEOUT;
+
+        ImapConnection result = pool.acquire(NO_WAIT);
+
+        assertNotSame(connection, result);
+        verify(connection).close();
+    }
+
+    @Test
+    public void acquire_withConnectionIdleForLessThanTimeout_shouldReturnConnection() throws Exception {
+        ImapConnection connection = acquireConnectedConnection();
+        pool.release(connection);
+        pool.time += IDLE_TIMEOUT - 1;
+
+        ImapConnection result = pool.acquire(NO_WAIT);
+
+        assertSame(connection, result);
+        verify(connection, never()).close();
+    }
+
+    @Test
+    public void acquire_withAllConnectionsInUse_shouldReturnNullAfterTimeout() throws Exception {
+        acquireAllConnections();
+
+        ImapConnection result = pool.acquire(10L);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void acquire_withIdleConnectionsCountingTowardsLimit_shouldReturnIdleConnection() throws Exception {
+        ImapConnection[] connections = acquireAllConnections();
+        pool.release(connections[0]);
+
+        ImapConnection result = pool.acquire(NO_WAIT);
+
+        assertSame(connections[0], result);
+    }
+
+    @Test
+    public void acquire_withAllConnectionsInUse_shouldReturnConnectionAfterDiscard() throws Exception {
+        ImapConnection[] connections = acquireAllConnections();
+        pool.discard(connections[0]);
+
+        ImapConnection result = pool.acquire(NO_WAIT);
+
+        assertNotNull(result);
+        assertNotSame(connections[0], result);
+    }
+
+    @Test
+    public void acquire_withAllConnectionsInUse_shouldWaitForRelease() throws Exception {
+        ImapConnection[] connections = acquireAllConnections();
+        final AtomicReference<ImapConnection> result = new AtomicReference<>();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(pool.acquire(TimeUnit.SECONDS.toMillis(10)));
+                } catch (InterruptedException ignored) {
+                }
+                acquired.countDown();
+            }
+        });
+        thread.start();
+
+        assertFalse(acquired.await(50, TimeUnit.MILLISECONDS));
+        pool.release(connections[1]);
+
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+        assertSame(connections[1], result.get());
+    }
+
+
+    private ImapConnection[] acquireAllConnections() throws InterruptedException {
+        ImapConnection[] connections = new ImapConnection[MAX_CONNECTIONS];
+        for (int i = 0; i < MAX_CONNECTIONS; i++) {
+            connections[i] = acquireConnectedConnection();
+        }
+
+        return connections;
+    }
+
+    private ImapConnection acquireConnectedConnection() throws InterruptedException {
+        ImapConnection connection = pool.acquire(NO_WAIT);
+        when(connection.isConnected()).thenReturn(true);
+
+        return connection;
+    }
+
+    private static ImapConnection createConnectedImapConnection() {
+        ImapConnection connection = mock(ImapConnection.class);
+        when(connection.isConnected()).thenReturn(true);
+
+        return connection;
+    }
+
+
+    static class TestImapConnectionPool extends ImapConnectionPool {
+        long time = 0L;
+
+        TestImapConnectionPool() {
+            super(new ConnectionFactory() {
+                @Override
+                public ImapConnection createConnection() {
+                    return mock(ImapConnection.class);
+                }
+            }, MAX_CONNECTIONS, MAX_IDLE_CONNECTIONS, IDLE_TIMEOUT);
+        }
+
+        @Override
+        long getTime() {
+            return time;
+        }
+    }
+}
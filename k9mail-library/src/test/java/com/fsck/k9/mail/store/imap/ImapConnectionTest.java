@@ -3,6 +3,9 @@ package com.fsck.k9.mail.store.imap;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 
 import android.net.ConnectivityManager;
@@ -153,6 +156,40 @@ public class ImapConnectionTest {
         }
     }
 
+    @Test
+    public void open_withoutCapabilitiesInLoginResponse_shouldCacheRequestedCapabilities() throws Exception {
+        settings.setAuthType(AuthType.PLAIN);
+        MockImapServer server = new MockImapServer();
+        preAuthenticationDialog(server);
+        server.expect("2 LOGIN \"" + USERNAME + "\" \"" + PASSWORD + "\"");
+        server.output("2 OK LOGIN completed");
+        postAuthenticationDialogRequestingCapabilities(server);
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+
+        imapConnection.open();
+
+        server.verifyInteractionCompleted();
+        assertEquals(new HashSet<>(Arrays.asList("IMAP4", "IMAP4REV1")), settings.getCachedCapabilities());
+    }
+
+    @Test
+    public void open_withCachedCapabilities_shouldNotRequestCapabilitiesAfterLogin() throws Exception {
+        settings.setAuthType(AuthType.PLAIN);
+        settings.setCachedCapabilities(Collections.singleton("IDLE"));
+        MockImapServer server = new MockImapServer();
+        preAuthenticationDialog(server);
+        server.expect("2 LOGIN \"" + USERNAME + "\" \"" + PASSWORD + "\"");
+        server.output("2 OK LOGIN completed");
+        simplePostAuthenticationDialog(server, 3);
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+
+        imapConnection.open();
+
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+        assertTrue(imapConnection.isIdleCapable());
+    }
+
     @Test
     public void open_authPlainWithLoginDisabled_shouldThrow() throws Exception {
         settings.setAuthType(AuthType.PLAIN);
@@ -0,0 +1,194 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.net.ConnectivityManager;
+
+import com.fsck.k9.mail.AuthType;
+import com.fsck.k9.mail.FetchProfile;
+import com.fsck.k9.mail.FetchProfile.Item;
+import com.fsck.k9.mail.Flag;
+import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.K9LibRobolectricTestRunner;
+import com.fsck.k9.mail.helpers.TestTrustedSocketFactory;
+import com.fsck.k9.mail.oauth.OAuth2TokenProvider;
+import com.fsck.k9.mail.store.StoreConfig;
+import com.fsck.k9.mail.store.imap.mockserver.MockImapServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+/**
+ * Runs {@link ImapFolder#fetch(List, FetchProfile, com.fsck.k9.mail.MessageRetrievalListener)} against a scripted
+ * server.
+ *
+ * <p>
+ * The server only sends a response after it has read all commands that precede it in the script. A client that
+ * waits for each {@code UID FETCH} to complete before sending the next one would time out on scripts that expect
+ * several commands in a row. Every {@code expect()} block followed by {@code output()} lines is one round trip.
+ * </p>
+ */
+@RunWith(K9LibRobolectricTestRunner.class)
+public class ImapFolderFetchPipeliningTest {
+    private static final String USERNAME = "user";
+    private static final String PASSWORD = "123456";
+    private static final int SOCKET_CONNECT_TIMEOUT = 10000;
+    private static final int SOCKET_READ_TIMEOUT = 2000;
+    private static final int FIRST_FETCH_TAG = 5;
+
+
+    private MockImapServer server;
+    private ImapStore imapStore;
+
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockImapServer();
+
+        StoreConfig storeConfig = mock(StoreConfig.class);
+        when(storeConfig.getInboxFolderName()).thenReturn("INBOX");
+        imapStore = mock(ImapStore.class);
+        when(imapStore.getCombinedPrefix()).thenReturn("");
+        when(imapStore.getStoreConfig()).thenReturn(storeConfig);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void fetch_withPipelineDepthCoveringAllWindows_shouldNeedOneRoundTrip() throws Exception {
+        openDialog();
+        server.expect(FIRST_FETCH_TAG + " UID FETCH 1,2 (UID FLAGS)");
+        server.expect((FIRST_FETCH_TAG + 1) + " UID FETCH 3,4 (UID FLAGS)");
+        server.expect((FIRST_FETCH_TAG + 2) + " UID FETCH 5 (UID FLAGS)");
+        outputFetchResponses(FIRST_FETCH_TAG, 1, 2);
+        outputFetchResponses(FIRST_FETCH_TAG + 1, 3, 4);
+        outputFetchResponses(FIRST_FETCH_TAG + 2, 5);
+        ImapFolder folder = startServerAndOpenFolder();
+        folder.setFetchWindowSize(2);
+        folder.setFetchPipelineDepth(3);
+        List<ImapMessage> messages = createImapMessages(5);
+
+        folder.fetch(messages, createFlagsFetchProfile(), null);
+
+        server.verifyInteractionCompleted();
+        assertAllMessagesSeen(messages);
+    }
+
+    @Test
+    public void fetch_withPipelineDepthTwo_shouldSendNextWindowWhenOldestCompletes() throws Exception {
+        openDialog();
+        server.expect(FIRST_FETCH_TAG + " UID FETCH 1,2 (UID FLAGS)");
+        server.expect((FIRST_FETCH_TAG + 1) + " UID FETCH 3,4 (UID FLAGS)");
+        outputFetchResponses(FIRST_FETCH_TAG, 1, 2);
+        server.expect((FIRST_FETCH_TAG + 2) + " UID FETCH 5 (UID FLAGS)");
+        outputFetchResponses(FIRST_FETCH_TAG + 1, 3, 4);
+        outputFetchResponses(FIRST_FETCH_TAG + 2, 5);
+        ImapFolder folder = startServerAndOpenFolder();
+        folder.setFetchWindowSize(2);
+        folder.setFetchPipelineDepth(2);
+        List<ImapMessage> messages = createImapMessages(5);
+
+        folder.fetch(messages, createFlagsFetchProfile(), null);
+
+        server.verifyInteractionCompleted();
+        assertAllMessagesSeen(messages);
+    }
+
+    @Test
+    public void fetch_withPipelineDepthOne_shouldNeedOneRoundTripPerWindow() throws Exception {
+        openDialog();
+        server.expect(FIRST_FETCH_TAG + " UID FETCH 1,2 (UID FLAGS)");
+        outputFetchResponses(FIRST_FETCH_TAG, 1, 2);
+        server.expect((FIRST_FETCH_TAG + 1) + " UID FETCH 3,4 (UID FLAGS)");
+        outputFetchResponses(FIRST_FETCH_TAG + 1, 3, 4);
+        server.expect((FIRST_FETCH_TAG + 2) + " UID FETCH 5 (UID FLAGS)");
+        outputFetchResponses(FIRST_FETCH_TAG + 2, 5);
+        ImapFolder folder = startServerAndOpenFolder();
+        folder.setFetchWindowSize(2);
+        folder.setFetchPipelineDepth(1);
+        List<ImapMessage> messages = createImapMessages(5);
+
+        folder.fetch(messages, createFlagsFetchProfile(), null);
+
+        server.verifyInteractionCompleted();
+        assertAllMessagesSeen(messages);
+    }
+
+
+    private void openDialog() {
+        server.output("* OK IMAP4rev1 Service Ready");
+        server.expect("1 CAPABILITY");
+        server.output("* CAPABILITY IMAP4 IMAP4REV1");
+        server.output("1 OK CAPABILITY");
+        server.expect("2 LOGIN \"" + USERNAME + "\" \"" + PASSWORD + "\"");
+        server.output("2 OK [CAPABILITY IMAP4 IMAP4REV1] LOGIN completed");
+        server.expect("3 LIST \"\" \"\"");
+        server.output("* LIST () \"/\" foo/bar");
+        server.output("3 OK");
+        server.expect("4 EXAMINE \"Folder\"");
+        server.output("* 5 EXISTS");
+        server.output("4 OK [READ-ONLY] EXAMINE completed");
+    }
+
+    private void outputFetchResponses(int tag, int... uids) {
+        for (int uid : uids) {
+            server.output("* " + uid + " FETCH (UID " + uid + " FLAGS (\\Seen))");
+        }
+        server.output(tag + " OK FETCH completed");
+    }
+
+    private ImapFolder startServerAndOpenFolder() throws Exception {
+        server.start();
+
+        SimpleImapSettings settings = new SimpleImapSettings();
+        settings.setHost(server.getHost());
+        settings.setPort(server.getPort());
+        settings.setAuthType(AuthType.PLAIN);
+        settings.setUsername(USERNAME);
+        settings.setPassword(PASSWORD);
+
+        ImapConnection connection = new ImapConnection(settings, TestTrustedSocketFactory.newInstance(),
+                mock(ConnectivityManager.class), mock(OAuth2TokenProvider.class), SOCKET_CONNECT_TIMEOUT,
+                SOCKET_READ_TIMEOUT);
+        connection.open();
+        when(imapStore.getConnection()).thenReturn(connection);
+
+        ImapFolder folder = new ImapFolder(imapStore, "Folder", FolderNameCodec.newInstance());
+        folder.open(Folder.OPEN_MODE_RO);
+
+        return folder;
+    }
+
+    private List<ImapMessage> createImapMessages(int count) {
+        List<ImapMessage> messages = new ArrayList<>(count);
+        for (int uid = 1; uid <= count; uid++) {
+            messages.add(new ImapMessage(String.valueOf(uid), null));
+        }
+
+        return messages;
+    }
+
+    private FetchProfile createFlagsFetchProfile() {
+        FetchProfile fetchProfile = new FetchProfile();
+        fetchProfile.add(Item.FLAGS);
+
+        return fetchProfile;
+    }
+
+    private void assertAllMessagesSeen(List<ImapMessage> messages) {
+        for (ImapMessage message : messages) {
+            assertTrue(message.isSet(Flag.SEEN));
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.fsck.k9.mail.store.imap;
 
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -18,6 +19,8 @@ import com.fsck.k9.mail.FetchProfile.Item;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
 import com.fsck.k9.mail.Folder.FolderType;
+import com.fsck.k9.mail.FolderChanges;
+import com.fsck.k9.mail.FolderSyncState;
 import com.fsck.k9.mail.K9LibRobolectricTestRunner;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessageRetrievalListener;
@@ -54,8 +57,10 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -973,6 +978,33 @@ public class ImapFolderTest {
         verify(imapConnection).sendCommand("APPEND \"Folder\" () {0}", false);
     }
 
+    @Test
+    public void appendMessages_shouldSendCrLfNormalizedMessageMatchingLiteralSize() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        folder.open(OPEN_MODE_RW);
+        ImapMessage message = createImapMessage("1");
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                OutputStream out = (OutputStream) invocation.getArguments()[0];
+                out.write("Subject: Test\nbody".getBytes("UTF-8"));
+                return null;
+            }
+        }).when(message).writeTo(any(OutputStream.class));
+        Buffer output = new Buffer();
+        when(imapConnection.getOutputStream()).thenReturn(output.outputStream());
+        when(imapConnection.readResponse()).thenReturn(
+                createImapResponse("+ Ready for literal data"),
+                createImapResponse("x OK [APPENDUID 1 23]"));
+
+        folder.appendMessages(Collections.singletonList(message));
+
+        verify(imapConnection).sendCommand("APPEND \"Folder\" () {19}", false);
+        verify(message).writeTo(any(OutputStream.class));
+        assertEquals("Subject: Test\r\nbody\r\n", output.readUtf8());
+    }
+
     @Test
     public void getUidFromMessageId_withoutMessageIdHeader_shouldReturnNull() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -1132,6 +1164,108 @@ public class ImapFolderTest {
         assertEquals(folder, message.getFolder());
     }
 
+    @Test
+    public void open_withCondstoreCapableServer_shouldEnableCondstore() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpenWithCondstore();
+
+        folder.open(OPEN_MODE_RO);
+
+        assertCommandIssued("EXAMINE \"Folder\" (CONDSTORE)");
+    }
+
+    @Test
+    public void getSyncState_withCondstoreCapableServer_shouldReturnSelectState() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpenWithCondstore();
+        folder.open(OPEN_MODE_RO);
+
+        FolderSyncState syncState = folder.getSyncState();
+
+        assertEquals(new FolderSyncState(1125022061L, 715194045007L, 57576L), syncState);
+    }
+
+    @Test
+    public void getSyncState_withoutCondstore_shouldReturnNull() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+
+        FolderSyncState syncState = folder.getSyncState();
+
+        assertNull(syncState);
+    }
+
+    @Test
+    public void getChangesSince_withUnchangedModSeq_shouldNotIssueCommand() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpenWithCondstore();
+        when(imapConnection.isQresyncEnabled()).thenReturn(true);
+        folder.open(OPEN_MODE_RO);
+
+        FolderChanges<ImapMessage> changes =
+                folder.getChangesSince(new FolderSyncState(1125022061L, 715194045007L, 57576L));
+
+        assertNotNull(changes);
+        assertTrue(changes.isEmpty());
+        assertTrue(changes.areDeletionsKnown());
+        verify(imapConnection, never()).executeSimpleCommand(startsWith("UID FETCH"));
+    }
+
+    @Test
+    public void getChangesSince_withDifferentUidValidity_shouldReturnNull() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpenWithCondstore();
+        folder.open(OPEN_MODE_RO);
+
+        FolderChanges<ImapMessage> changes = folder.getChangesSince(new FolderSyncState(1L, 715194045007L, 57576L));
+
+        assertNull(changes);
+    }
+
+    @Test
+    public void getChangesSince_withQresync_shouldReturnChangedFlagsAndVanishedUids() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpenWithCondstore();
+        when(imapConnection.isQresyncEnabled()).thenReturn(true);
+        folder.open(OPEN_MODE_RO);
+        when(imapConnection.executeSimpleCommand("UID FETCH 1:* (UID FLAGS) (CHANGEDSINCE 715194000000 VANISHED)"))
+                .thenReturn(asList(
+                        createImapResponse("* VANISHED (EARLIER) 300:302,405"),
+                        createImapResponse("* 1 FETCH (UID 410 FLAGS (\\Seen \\Flagged) MODSEQ (715194045000))"),
+                        createImapResponse("4 OK Fetch completed")));
+
+        FolderChanges<ImapMessage> changes =
+                folder.getChangesSince(new FolderSyncState(1125022061L, 715194000000L, 57576L));
+
+        assertNotNull(changes);
+        assertTrue(changes.areDeletionsKnown());
+        assertEquals(asList("300", "301", "302", "405"), changes.getVanishedUids());
+        assertEquals(1, changes.getChangedMessages().size());
+        ImapMessage message = changes.getChangedMessages().get(0);
+        assertEquals("410", message.getUid());
+        assertTrue(message.isSet(Flag.SEEN));
+        assertTrue(message.isSet(Flag.FLAGGED));
+        assertFalse(message.isSet(Flag.ANSWERED));
+        assertEquals(23, folder.getMessageCount());
+    }
+
+    @Test
+    public void getChangesSince_withoutQresync_shouldNotRequestVanished() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpenWithCondstore();
+        folder.open(OPEN_MODE_RO);
+        when(imapConnection.executeSimpleCommand(startsWith("UID FETCH")))
+                .thenReturn(singletonList(createImapResponse("4 OK Fetch completed")));
+
+        FolderChanges<ImapMessage> changes =
+                folder.getChangesSince(new FolderSyncState(1125022061L, 715194000000L, 57576L));
+
+        assertNotNull(changes);
+        assertFalse(changes.areDeletionsKnown());
+        assertCommandIssued("UID FETCH 1:* (UID FLAGS) (CHANGEDSINCE 715194000000)");
+    }
+
     private Part createPlainTextPart(String serverExtra) {
         Part part = createPart(serverExtra);
         when(part.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING)).thenReturn(
@@ -1247,6 +1381,21 @@ public class ImapFolderTest {
         }
     }
 
+    private void prepareImapFolderForOpenWithCondstore() throws MessagingException, IOException {
+        when(imapStore.getConnection()).thenReturn(imapConnection);
+        when(imapConnection.isCondstoreCapable()).thenReturn(true);
+        List<ImapResponse> imapResponses = asList(
+                createImapResponse("* FLAGS (\\Answered \\Flagged \\Deleted \\Seen \\Draft)"),
+                createImapResponse("* 23 EXISTS"),
+                createImapResponse("* OK [UIDVALIDITY 1125022061] UIDs valid"),
+                createImapResponse("* OK [UIDNEXT 57576] Predicted next UID"),
+                createImapResponse("* OK [HIGHESTMODSEQ 715194045007] Highest"),
+                createImapResponse("2 OK [READ-ONLY] Examine completed.")
+        );
+
+        when(imapConnection.executeSimpleCommand("EXAMINE \"Folder\" (CONDSTORE)")).thenReturn(imapResponses);
+    }
+
     private void assertCheckOpenErrorMessage(String folderName, MessagingException e) {
         assertEquals("Folder " + folderName + " is not open.", e.getMessage());
     }
@@ -29,6 +29,9 @@ public class ImapPusherTest {
     @Before
     public void setUp() throws Exception {
         imapStore = mock(ImapStore.class);
+        StoreConfig storeConfig = mock(StoreConfig.class);
+        when(storeConfig.getInboxFolderName()).thenReturn("INBOX");
+        when(imapStore.getStoreConfig()).thenReturn(storeConfig);
 
         PushReceiver pushReceiver = mock(PushReceiver.class);
         imapPusher = new TestImapPusher(imapStore, pushReceiver);
@@ -66,17 +69,33 @@ public class ImapPusherTest {
     }
 
     @Test
-    public void start_withTwoFolderNames_shouldCreateTwoImapFolderPushersAndCallStart() throws Exception {
+    public void start_withTwoFolderNames_shouldCreateSingleImapFolderPusherWatchingSecondFolder() throws Exception {
         List<String> folderNames = Arrays.asList("Important", "Drafts");
 
         imapPusher.start(folderNames);
 
         List<ImapFolderPusher> imapFolderPushers = imapPusher.getImapFolderPushers();
-        assertEquals(2, imapFolderPushers.size());
-        ImapFolderPusher imapFolderPusherOne = imapFolderPushers.get(0);
-        ImapFolderPusher imapFolderPusherTwo = imapFolderPushers.get(1);
-        verify(imapFolderPusherOne).start();
-        verify(imapFolderPusherTwo).start();
+        assertEquals(1, imapFolderPushers.size());
+        verify(imapFolderPushers.get(0)).start();
+        assertEquals("Important", imapPusher.getIdleFolderName());
+        assertEquals(Collections.singletonList("Drafts"), imapPusher.getWatchedFolderNames());
+    }
+
+    @Test
+    public void start_withInboxAmongFolderNames_shouldIdleOnInbox() throws Exception {
+        List<String> folderNames = Arrays.asList("Important", "Inbox", "Drafts");
+
+        imapPusher.start(folderNames);
+
+        assertEquals("Inbox", imapPusher.getIdleFolderName());
+        assertEquals(Arrays.asList("Important", "Drafts"), imapPusher.getWatchedFolderNames());
+    }
+
+    @Test
+    public void start_withoutFolderNames_shouldNotCreateImapFolderPusher() throws Exception {
+        imapPusher.start(Collections.<String>emptyList());
+
+        assertEquals(0, imapPusher.getImapFolderPushers().size());
     }
 
     @Test
@@ -144,6 +163,20 @@ public class ImapPusherTest {
         assertEquals(23 * 60 * 1000, result);
     }
 
+    @Test
+    public void getRefreshInterval_withFolderPusherPollingWatchedFolders_shouldReturnStatusPollInterval()
+            throws Exception {
+        StoreConfig storeConfig = mock(StoreConfig.class);
+        when(storeConfig.getIdleRefreshMinutes()).thenReturn(23);
+        when(imapStore.getStoreConfig()).thenReturn(storeConfig);
+        imapPusher.start(Arrays.asList("INBOX", "Drafts"));
+        when(imapPusher.getImapFolderPushers().get(0).isPollingWatchedFolders()).thenReturn(true);
+
+        int result = imapPusher.getRefreshInterval();
+
+        assertEquals(ImapFolderPusher.STATUS_POLL_INTERVAL, result);
+    }
+
     @Test
     public void getLastRefresh_shouldBeMinusOneInitially() throws Exception {
         long result = imapPusher.getLastRefresh();
@@ -157,6 +190,8 @@ public class ImapPusherTest {
 
 
         private final List<ImapFolderPusher> imapFolderPushers = new ArrayList<>();
+        private String idleFolderName;
+        private List<String> watchedFolderNames;
 
 
         public TestImapPusher(ImapStore store, PushReceiver receiver) {
@@ -164,7 +199,10 @@ public class ImapPusherTest {
         }
 
         @Override
-        ImapFolderPusher createImapFolderPusher(String folderName) {
+        ImapFolderPusher createImapFolderPusher(String folderName, List<String> watchedFolderNames) {
+            idleFolderName = folderName;
+            this.watchedFolderNames = watchedFolderNames;
+
             ImapFolderPusher imapFolderPusher = mock(ImapFolderPusher.class);
             imapFolderPushers.add(imapFolderPusher);
             return imapFolderPusher;
@@ -174,6 +212,14 @@ public class ImapPusherTest {
             return imapFolderPushers;
         }
 
+        public String getIdleFolderName() {
+            return idleFolderName;
+        }
+
+        public List<String> getWatchedFolderNames() {
+            return watchedFolderNames;
+        }
+
         @Override
         long currentTimeMillis() {
             return CURRENT_TIME_MILLIS;
@@ -360,6 +360,46 @@ public class ImapStoreTest {
         assertSame(imapConnectionTwo, result);
     }
 
+    @Test
+    public void prewarmConnection_shouldOpenConnectionAndAddItToPool() throws Exception {
+        ImapConnection imapConnection = mock(ImapConnection.class);
+        when(imapConnection.isConnected()).thenReturn(true);
+        imapStore.enqueueImapConnection(imapConnection);
+
+        imapStore.prewarmConnection();
+        ImapConnection result = imapStore.getConnection();
+
+        verify(imapConnection).open();
+        assertSame(imapConnection, result);
+    }
+
+    @Test
+    public void prewarmConnection_withIdleConnectionInPool_shouldNotCreateConnection() throws Exception {
+        ImapConnection imapConnection = mock(ImapConnection.class);
+        when(imapConnection.isConnected()).thenReturn(true);
+        imapStore.enqueueImapConnection(imapConnection);
+        imapStore.releaseConnection(imapStore.getConnection());
+
+        imapStore.prewarmConnection();
+    }
+
+    @Test
+    public void prewarmConnection_withAllConnectionsInUse_shouldNotCreateConnection() throws Exception {
+        for (int i = 0; i < ImapStore.MAX_CONNECTIONS; i++) {
+            imapStore.enqueueImapConnection(mock(ImapConnection.class));
+            imapStore.getConnection();
+        }
+
+        imapStore.prewarmConnection();
+    }
+
+    @Test
+    public void getMaxConcurrentConnections_shouldReturnConnectionLimit() throws Exception {
+        int result = imapStore.getMaxConcurrentConnections();
+
+        assertEquals(ImapStore.MAX_CONNECTIONS, result);
+    }
+
     private StoreConfig createStoreConfig() {
         StoreConfig storeConfig = mock(StoreConfig.class);
         when(storeConfig.getInboxFolderName()).thenReturn("INBOX");
@@ -1,6 +1,8 @@
 package com.fsck.k9.mail.store.imap;
 
 
+import java.util.Set;
+
 import com.fsck.k9.mail.AuthType;
 import com.fsck.k9.mail.ConnectionSecurity;
 import com.fsck.k9.mail.NetworkType;
@@ -17,6 +19,7 @@ class SimpleImapSettings implements ImapSettings {
     private String pathDelimiter;
     private String combinedPrefix;
     private boolean useCompression = false;
+    private Set<String> cachedCapabilities;
 
 
     @Override
@@ -89,6 +92,16 @@ class SimpleImapSettings implements ImapSettings {
         combinedPrefix = prefix;
     }
 
+    @Override
+    public Set<String> getCachedCapabilities() {
+        return cachedCapabilities;
+    }
+
+    @Override
+    public void setCachedCapabilities(Set<String> capabilities) {
+        cachedCapabilities = capabilities;
+    }
+
     void setHost(String host) {
         this.host = host;
     }
@@ -0,0 +1,63 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import org.junit.Test;
+
+import static com.fsck.k9.mail.store.imap.ImapResponseHelper.createImapResponse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+
+public class StatusResponseTest {
+    @Test
+    public void parse_withStatusResponse_shouldExtractValues() throws Exception {
+        ImapResponse response = createImapResponse("* STATUS \"Lists/k9mail\" (MESSAGES 231 UIDNEXT 44292)");
+
+        StatusResponse result = StatusResponse.parse(response);
+
+        assertNotNull(result);
+        assertEquals("Lists/k9mail", result.getMailboxName());
+        assertEquals(231L, result.getMessageCount());
+        assertEquals(44292L, result.getUidNext());
+    }
+
+    @Test
+    public void parse_withoutUidNext_shouldReturnMinusOne() throws Exception {
+        ImapResponse response = createImapResponse("* STATUS Archive (MESSAGES 12 UIDVALIDITY 3)");
+
+        StatusResponse result = StatusResponse.parse(response);
+
+        assertNotNull(result);
+        assertEquals("Archive", result.getMailboxName());
+        assertEquals(12L, result.getMessageCount());
+        assertEquals(-1L, result.getUidNext());
+    }
+
+    @Test
+    public void parse_withTaggedResponse_shouldReturnNull() throws Exception {
+        ImapResponse response = createImapResponse("x STATUS Archive (MESSAGES 12)");
+
+        StatusResponse result = StatusResponse.parse(response);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withExistsResponse_shouldReturnNull() throws Exception {
+        ImapResponse response = createImapResponse("* 23 EXISTS");
+
+        StatusResponse result = StatusResponse.parse(response);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withInvalidNumber_shouldReturnNull() throws Exception {
+        ImapResponse response = createImapResponse("* STATUS Archive (MESSAGES many)");
+
+        StatusResponse result = StatusResponse.parse(response);
+
+        assertNull(result);
+    }
+}
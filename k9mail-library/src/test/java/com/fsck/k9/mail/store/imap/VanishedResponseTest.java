@@ -0,0 +1,64 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import org.junit.Test;
+
+import static com.fsck.k9.mail.store.imap.ImapResponseHelper.createImapResponse;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class VanishedResponseTest {
+    @Test
+    public void parse_withVanishedResponse_shouldExtractUids() throws Exception {
+        ImapResponse response = createImapResponse("* VANISHED 405,407,410:412");
+
+        VanishedResponse result = VanishedResponse.parse(response);
+
+        assertNotNull(result);
+        assertFalse(result.isEarlier());
+        assertEquals(asList("405", "407", "410", "411", "412"), result.getUids());
+    }
+
+    @Test
+    public void parse_withVanishedEarlierResponse_shouldSetEarlier() throws Exception {
+        ImapResponse response = createImapResponse("* VANISHED (EARLIER) 300:302,405");
+
+        VanishedResponse result = VanishedResponse.parse(response);
+
+        assertNotNull(result);
+        assertTrue(result.isEarlier());
+        assertEquals(asList("300", "301", "302", "405"), result.getUids());
+    }
+
+    @Test
+    public void parse_withTaggedResponse_shouldReturnNull() throws Exception {
+        ImapResponse response = createImapResponse("x VANISHED 405");
+
+        VanishedResponse result = VanishedResponse.parse(response);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withExpungeResponse_shouldReturnNull() throws Exception {
+        ImapResponse response = createImapResponse("* 23 EXPUNGE");
+
+        VanishedResponse result = VanishedResponse.parse(response);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withoutUidSet_shouldReturnNull() throws Exception {
+        ImapResponse response = createImapResponse("* VANISHED (EARLIER)");
+
+        VanishedResponse result = VanishedResponse.parse(response);
+
+        assertNull(result);
+    }
+}
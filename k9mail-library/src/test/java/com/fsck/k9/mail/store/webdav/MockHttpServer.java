@@ -0,0 +1,128 @@
+package com.fsck.k9.mail.store.webdav;
+
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+import org.apache.commons.io.IOUtils;
+
+
+/**
+ * Minimal HTTP/1.1 server that keeps connections alive. Used to check that {@link WebDavStore} releases the
+ * connections of {@link WebDavHttpClient}'s connection pool.
+ *
+ * <p>
+ * Requests without an {@code Authorization} header get a 401 response, requests for the error path a 500 response,
+ * and all other requests a 200 response. Every response has a body.
+ * </p>
+ */
+class MockHttpServer {
+    static final String ERROR_PATH = "/error";
+    private static final String RESPONSE_BODY = "<html><body>Response body</body></html>";
+
+
+    private final AtomicInteger errorRequestCount = new AtomicInteger();
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+
+
+    void start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        executor = Executors.newCachedThreadPool();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    void shutdown() {
+        IOUtils.closeQuietly(serverSocket);
+        executor.shutdownNow();
+    }
+
+    String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    int getErrorRequestCount() {
+        return errorRequestCount.get();
+    }
+
+    private void acceptConnections() {
+        try {
+            while (true) {
+                final Socket socket = serverSocket.accept();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleConnection(socket);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            // Server socket was closed
+        }
+    }
+
+    private void handleConnection(Socket socket) {
+        try {
+            BufferedSource input = Okio.buffer(Okio.source(socket));
+            BufferedSink output = Okio.buffer(Okio.sink(socket));
+            while (true) {
+                String requestLine = input.readUtf8LineStrict();
+                String path = requestLine.split(" ")[1];
+
+                boolean authorized = false;
+                long contentLength = 0;
+                String header;
+                while (!(header = input.readUtf8LineStrict()).isEmpty()) {
+                    String name = header.substring(0, header.indexOf(':')).toLowerCase(Locale.US);
+                    String value = header.substring(header.indexOf(':') + 1).trim();
+                    if (name.equals("authorization")) {
+                        authorized = true;
+                    } else if (name.equals("content-length")) {
+                        contentLength = Long.parseLong(value);
+                    }
+                }
+                input.skip(contentLength);
+
+                if (!authorized) {
+                    writeResponse(output, "401 Unauthorized");
+                } else if (path.endsWith(ERROR_PATH)) {
+                    errorRequestCount.incrementAndGet();
+                    writeResponse(output, "500 Internal Server Error");
+                } else {
+                    writeResponse(output, "200 OK");
+                }
+            }
+        } catch (IOException e) {
+            // Client closed the connection
+        } finally {
+            IOUtils.closeQuietly(socket);
+        }
+    }
+
+    private void writeResponse(BufferedSink output, String status) throws IOException {
+        output.writeUtf8("HTTP/1.1 " + status + "\r\n");
+        output.writeUtf8("Content-Type: text/html\r\n");
+        output.writeUtf8("Content-Length: " + RESPONSE_BODY.length() + "\r\n");
+        output.writeUtf8("\r\n");
+        output.writeUtf8(RESPONSE_BODY);
+        output.flush();
+    }
+}
@@ -6,13 +6,16 @@ import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.internet.BinaryTempFileBody;
+import com.fsck.k9.mail.internet.MessageExtractor;
 import com.fsck.k9.mail.store.StoreConfig;
 
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
 import org.apache.http.StatusLine;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.BasicHttpEntity;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.protocol.HttpContext;
 import org.junit.Before;
 import org.junit.Test;
@@ -56,6 +59,9 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @SuppressWarnings("deprecation")
 @RunWith(K9LibRobolectricTestRunner.class)
@@ -273,6 +279,102 @@ public class WebDavFolderTest {
         verify(listener, times(25)).messageFinished(any(WebDavMessage.class), anyInt(), anyInt());
     }
 
+    @Test
+    public void folder_fetches_bodies_concurrently_up_to_configured_limit() throws Exception {
+        setupStoreForMessageFetching();
+        when(mockStore.getMaxConcurrentFetches()).thenReturn(4);
+        List<WebDavMessage> messages = setup25MessagesToFetch();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final CountDownLatch allStarted = new CountDownLatch(4);
+
+        when(mockHttpClient.executeOverride(any(HttpUriRequest.class), any(HttpContext.class))).thenAnswer(
+                new Answer<HttpResponse>() {
+                    @Override
+                    public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                        int current = inFlight.incrementAndGet();
+                        updateMaximum(maxInFlight, current);
+                        allStarted.countDown();
+                        allStarted.await(5, TimeUnit.SECONDS);
+                        inFlight.decrementAndGet();
+
+                        return createMessageResponse("Subject: Test\r\n\r\nBody\r\n");
+                    }
+                });
+
+        FetchProfile profile = new FetchProfile();
+        profile.add(FetchProfile.Item.BODY);
+        folder.fetch(messages, profile, listener);
+
+        assertEquals(4, maxInFlight.get());
+        verify(listener, times(25)).messageStarted(any(String.class), anyInt(), eq(25));
+        verify(listener, times(25)).messageFinished(any(WebDavMessage.class), anyInt(), eq(25));
+        for (WebDavMessage message : messages) {
+            assertEquals("Test", message.getSubject());
+        }
+    }
+
+    @Test
+    public void folder_truncates_concurrently_fetched_sane_bodies() throws Exception {
+        setupStoreForMessageFetching();
+        when(mockStore.getMaxConcurrentFetches()).thenReturn(4);
+        List<WebDavMessage> messages = setup25MessagesToFetch();
+        final StringBuilder body = new StringBuilder("Subject: Test\r\n\r\n");
+        for (int i = 0; i < 100; i++) {
+            body.append("line ").append(i).append("\r\n");
+        }
+
+        when(mockHttpClient.executeOverride(any(HttpUriRequest.class), any(HttpContext.class))).thenAnswer(
+                new Answer<HttpResponse>() {
+                    @Override
+                    public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                        return createMessageResponse(body.toString());
+                    }
+                });
+
+        FetchProfile profile = new FetchProfile();
+        profile.add(FetchProfile.Item.BODY_SANE);
+        folder.fetch(messages, profile, listener);
+
+        String text = MessageExtractor.getTextFromPart(messages.get(0));
+        assertTrue(text.contains("line 22\r\n"));
+        assertFalse(text.contains("line 23"));
+    }
+
+    @Test(expected = MessagingException.class)
+    public void folder_reports_failed_concurrent_fetch() throws Exception {
+        setupStoreForMessageFetching();
+        when(mockStore.getMaxConcurrentFetches()).thenReturn(4);
+        List<WebDavMessage> messages = setup25MessagesToFetch();
+
+        when(mockHttpClient.executeOverride(any(HttpUriRequest.class), any(HttpContext.class))).thenAnswer(
+                new Answer<HttpResponse>() {
+                    @Override
+                    public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                        return new BasicHttpResponse(HttpVersion.HTTP_1_1, 500, "Internal Server Error");
+                    }
+                });
+
+        FetchProfile profile = new FetchProfile();
+        profile.add(FetchProfile.Item.BODY);
+        folder.fetch(messages, profile, listener);
+    }
+
+    private static void updateMaximum(AtomicInteger maximum, int value) {
+        int current;
+        do {
+            current = maximum.get();
+        } while (value > current && !maximum.compareAndSet(current, value));
+    }
+
+    private static HttpResponse createMessageResponse(String message) throws IOException {
+        HttpResponse httpResponse = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        BasicHttpEntity httpEntity = new BasicHttpEntity();
+        httpEntity.setContent(new ByteArrayInputStream(message.getBytes("UTF-8")));
+        httpResponse.setEntity(httpEntity);
+        return httpResponse;
+    }
+
     private void setupStoreForMessageFetching() {
         String authString = "authString";
         when(mockStoreConfig.getMaximumAutoDownloadMessageSize()).thenReturn(1900);
@@ -725,6 +725,32 @@ public class SmtpTransportTest {
         //server.verifyConnectionClosed();
     }
 
+    @Test
+    public void sendMessage_withAttachmentsAndSizeLimit_shouldSendMessageData() throws Exception {
+        Message message = getDefaultMessageBuilder()
+                .setHasAttachments(true)
+                .build();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication("SIZE 1000");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("DATA");
+        server.output("354 End data with <CR><LF>.<CR><LF>");
+        server.expect("[message data]");
+        server.expect(".");
+        server.output("250 OK: queued as 12345");
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        transport.sendMessage(message);
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
     @Test
     public void sendMessage_withNegativeReply_shouldThrow() throws Exception {
         Message message = getDefaultMessage();
@@ -923,6 +949,154 @@ public class SmtpTransportTest {
     }
 
 
+    @Test
+    public void sendMessage_withChunking_shouldUseBdat() throws Exception {
+        Message message = getDefaultMessage();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication("CHUNKING");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("BDAT 16 LAST");
+        server.expect("[message data]");
+        server.output("250 OK: queued as 12345");
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        transport.sendMessage(message);
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void sendMessage_withChunkingAndPipelining_shouldNotSendData() throws Exception {
+        Message message = getDefaultMessage();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication("PIPELINING", "CHUNKING");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.output("250 OK");
+        server.expect("BDAT 16 LAST");
+        server.expect("[message data]");
+        server.output("250 OK: queued as 12345");
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        transport.sendMessage(message);
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void sendMessage_withChunkingAndNegativeReply_shouldThrow() throws Exception {
+        Message message = getDefaultMessage();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication("CHUNKING");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("BDAT 16 LAST");
+        server.expect("[message data]");
+        server.output("554 Message rejected");
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        try {
+            transport.sendMessage(message);
+            fail("Expected exception");
+        } catch (NegativeSmtpReplyException e) {
+            assertEquals(554, e.getReplyCode());
+            assertEquals("Message rejected", e.getReplyText());
+        }
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void sendMessage_withinBatch_shouldReuseSession() throws Exception {
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication();
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("DATA");
+        server.output("354 End data with <CR><LF>.<CR><LF>");
+        server.expect("[message data]");
+        server.expect(".");
+        server.output("250 OK: queued as 12345");
+        server.expect("RSET");
+        server.output("250 OK");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("DATA");
+        server.output("354 End data with <CR><LF>.<CR><LF>");
+        server.expect("[message data]");
+        server.expect(".");
+        server.output("250 OK: queued as 12346");
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        transport.beginBatch();
+        transport.sendMessage(getDefaultMessage());
+        server.verifyConnectionStillOpen();
+        transport.sendMessage(getDefaultMessage());
+        transport.endBatch();
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void sendMessage_withinBatchAfterNegativeReply_shouldResetAndContinue() throws Exception {
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication();
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("550 remote mail to <user2@localhost> not allowed");
+        server.expect("RSET");
+        server.output("250 OK");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("DATA");
+        server.output("354 End data with <CR><LF>.<CR><LF>");
+        server.expect("[message data]");
+        server.expect(".");
+        server.output("250 OK: queued as 12345");
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        transport.beginBatch();
+        try {
+            transport.sendMessage(getDefaultMessage());
+            fail("Expected exception");
+        } catch (NegativeSmtpReplyException e) {
+            assertEquals(550, e.getReplyCode());
+        }
+        transport.sendMessage(getDefaultMessage());
+        transport.endBatch();
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+
     private SmtpTransport startServerAndCreateSmtpTransport(MockSmtpServer server) throws IOException,
             MessagingException {
         return startServerAndCreateSmtpTransport(server, AuthType.PLAIN, ConnectionSecurity.NONE);
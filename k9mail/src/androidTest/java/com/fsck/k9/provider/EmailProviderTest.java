@@ -14,6 +14,7 @@ import android.test.ProviderTestCase2;
 
 import com.fsck.k9.Account;
 import com.fsck.k9.Preferences;
+import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.internet.MimeMessage;
@@ -200,6 +201,98 @@ public class EmailProviderTest extends ProviderTestCase2<EmailProvider> {
         assertEquals(message.getSubject(), cursor.getString(3));
     }
 
+    @Test
+    public void query_forMessagesWithLimit_returnsFirstRows() throws MessagingException {
+        Account account = Preferences.getPreferences(getContext()).newAccount();
+        account.getLocalStore().getFolder("Inbox").appendMessages(Arrays.asList(message, laterMessage));
+
+        Cursor cursor = getProvider().query(
+                Uri.parse("content://" + EmailProvider.AUTHORITY + "/account/" + account.getUuid() + "/messages")
+                        .buildUpon().appendQueryParameter(EmailProvider.QUERY_PARAMETER_LIMIT, "1").build(),
+                new String[] {
+                        EmailProvider.MessageColumns.ID,
+                        EmailProvider.MessageColumns.FOLDER_ID,
+                        EmailProvider.ThreadColumns.ROOT,
+                        EmailProvider.MessageColumns.SUBJECT
+                },
+                "",
+                new String[] {},
+                EmailProvider.MessageColumns.DATE + " DESC");
+
+        assertNotNull(cursor);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(laterMessage.getSubject(), cursor.getString(3));
+    }
+
+    @Test
+    public void query_forMessagesWithFolderColumnsAndLimit_returnsFirstRows() throws MessagingException {
+        Account account = Preferences.getPreferences(getContext()).newAccount();
+        account.getLocalStore().getFolder("Inbox").appendMessages(Arrays.asList(message, laterMessage));
+
+        Cursor cursor = getProvider().query(
+                Uri.parse("content://" + EmailProvider.AUTHORITY + "/account/" + account.getUuid() + "/messages")
+                        .buildUpon().appendQueryParameter(EmailProvider.QUERY_PARAMETER_LIMIT, "1").build(),
+                new String[] {
+                        EmailProvider.MessageColumns.ID,
+                        EmailProvider.MessageColumns.FOLDER_ID,
+                        EmailProvider.ThreadColumns.ROOT,
+                        EmailProvider.MessageColumns.SUBJECT,
+                        EmailProvider.SpecialColumns.FOLDER_NAME
+                },
+                "",
+                new String[] {},
+                EmailProvider.MessageColumns.DATE + " DESC");
+
+        assertNotNull(cursor);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(laterMessage.getSubject(), cursor.getString(3));
+    }
+
+    @Test
+    public void query_forThreadedMessagesWithLimit_returnsFirstThreads() throws MessagingException {
+        Account account = Preferences.getPreferences(getContext()).newAccount();
+        account.getLocalStore().getFolder("Inbox").appendMessages(Arrays.asList(message, laterMessage));
+
+        Cursor cursor = getProvider().query(
+                Uri.parse("content://" + EmailProvider.AUTHORITY + "/account/" + account.getUuid() +
+                        "/messages/threaded")
+                        .buildUpon().appendQueryParameter(EmailProvider.QUERY_PARAMETER_LIMIT, "1").build(),
+                new String[] {
+                        EmailProvider.MessageColumns.ID,
+                        EmailProvider.MessageColumns.FOLDER_ID,
+                        EmailProvider.ThreadColumns.ROOT,
+                        EmailProvider.MessageColumns.SUBJECT,
+                        EmailProvider.MessageColumns.DATE
+                },
+                "",
+                new String[] {},
+                EmailProvider.MessageColumns.DATE + " DESC");
+
+        assertNotNull(cursor);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(laterMessage.getSubject(), cursor.getString(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void query_forMessagesWithInvalidLimit_throwsIllegalArgumentException() {
+        Account account = Preferences.getPreferences(getContext()).newAccount();
+
+        getProvider().query(
+                Uri.parse("content://" + EmailProvider.AUTHORITY + "/account/" + account.getUuid() + "/messages")
+                        .buildUpon().appendQueryParameter(EmailProvider.QUERY_PARAMETER_LIMIT, "1; DROP").build(),
+                new String[] {
+                        EmailProvider.MessageColumns.ID,
+                        EmailProvider.MessageColumns.FOLDER_ID,
+                        EmailProvider.ThreadColumns.ROOT
+                },
+                "",
+                new String[] {},
+                EmailProvider.MessageColumns.DATE);
+    }
+
     @Test
     public void query_forThreadedMessages_sortsCorrectly() throws MessagingException {
         Account account = Preferences.getPreferences(getContext()).newAccount();
@@ -282,6 +375,66 @@ public class EmailProviderTest extends ProviderTestCase2<EmailProvider> {
         assertFalse(cursor.moveToNext());
     }
 
+    @Test
+    public void query_forThreadedMessagesWithUnreadFilter_showsNewestUnreadMessage() throws MessagingException {
+        Account account = Preferences.getPreferences(getContext()).newAccount();
+        reply.setFlag(Flag.SEEN, true);
+        account.getLocalStore().getFolder("Inbox").appendMessages(Collections.singletonList(message));
+        account.getLocalStore().getFolder("Inbox").appendMessages(Collections.singletonList(reply));
+
+        Cursor cursor = getProvider().query(
+                Uri.parse("content://" + EmailProvider.AUTHORITY + "/account/" + account.getUuid() +
+                        "/messages/threaded"),
+                new String[] {
+                        EmailProvider.MessageColumns.ID,
+                        EmailProvider.MessageColumns.FOLDER_ID,
+                        EmailProvider.ThreadColumns.ROOT,
+                        EmailProvider.MessageColumns.SUBJECT,
+                        EmailProvider.MessageColumns.DATE,
+                        EmailProvider.MessageColumns.READ,
+                        EmailProvider.SpecialColumns.THREAD_COUNT
+                },
+                EmailProvider.MessageColumns.READ + " = ?",
+                new String[] { "0" },
+                EmailProvider.MessageColumns.DATE + " DESC");
+
+        assertNotNull(cursor);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(message.getSubject(), cursor.getString(3));
+        assertEquals(0, cursor.getInt(5));
+        assertEquals(1, cursor.getInt(6));
+        assertFalse(cursor.moveToNext());
+    }
+
+    @Test
+    public void query_forThreadedMessagesWithFolderColumnsAndSortById_sortsCorrectly() throws MessagingException {
+        Account account = Preferences.getPreferences(getContext()).newAccount();
+        account.getLocalStore().getFolder("Inbox").appendMessages(Arrays.asList(message, laterMessage));
+
+        Cursor cursor = getProvider().query(
+                Uri.parse("content://" + EmailProvider.AUTHORITY + "/account/" + account.getUuid() +
+                        "/messages/threaded"),
+                new String[] {
+                        EmailProvider.MessageColumns.ID,
+                        EmailProvider.MessageColumns.FOLDER_ID,
+                        EmailProvider.ThreadColumns.ROOT,
+                        EmailProvider.MessageColumns.SUBJECT,
+                        EmailProvider.MessageColumns.DATE,
+                        EmailProvider.SpecialColumns.FOLDER_NAME
+                },
+                "",
+                new String[] {},
+                EmailProvider.MessageColumns.SUBJECT + " COLLATE NOCASE DESC, " +
+                        EmailProvider.MessageColumns.ID + " DESC");
+
+        assertNotNull(cursor);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(laterMessage.getSubject(), cursor.getString(3));
+        assertEquals("Inbox", cursor.getString(5));
+        cursor.moveToNext();
+        assertEquals(message.getSubject(), cursor.getString(3));
+    }
+
     @Test
     public void query_forAThreadOfMessages_returnsMessage() throws MessagingException {
         Account account = Preferences.getPreferences(getContext()).newAccount();
@@ -620,6 +620,8 @@ public class Account implements BaseAccount, AccountConfig {
         editor.remove(accountUuid + ".messageFormat");
         editor.remove(accountUuid + ".messageReadReceipt");
         editor.remove(accountUuid + ".notifyMailCheck");
+        editor.remove(accountUuid + ".attachmentStorageSize");
+        editor.remove(accountUuid + ".attachmentStorageSizeReconciled");
         for (NetworkType type : NetworkType.values()) {
             editor.remove(accountUuid + ".useCompression." + type.name());
         }
@@ -835,7 +837,7 @@ public class Account implements BaseAccount, AccountConfig {
         ContentResolver cr = context.getContentResolver();
 
         Uri uri = Uri.withAppendedPath(EmailProvider.CONTENT_URI,
-                "account/" + getUuid() + "/stats");
+                "account/" + getUuid() + "/stats/folders");
 
         String[] projection = {
                 StatsColumns.UNREAD_COUNT,
@@ -848,7 +850,8 @@ public class Account implements BaseAccount, AccountConfig {
         excludeSpecialFolders(search);
         limitToDisplayableFolders(search);
 
-        // Use the LocalSearch instance to create a WHERE clause to query the content provider
+        // Use the LocalSearch instance to create a WHERE clause to query the content provider. The conditions only
+        // refer to folders, so the counts stored per folder can be used.
         StringBuilder query = new StringBuilder();
         List<String> queryArgs = new ArrayList<>();
         ConditionsTreeNode conditions = search.getConditions();
@@ -898,7 +901,7 @@ public class Account implements BaseAccount, AccountConfig {
         ContentResolver cr = context.getContentResolver();
 
         Uri uri = Uri.withAppendedPath(EmailProvider.CONTENT_URI,
-                "account/" + getUuid() + "/stats");
+                "account/" + getUuid() + "/stats/folders");
 
         String[] projection = {
                 StatsColumns.UNREAD_COUNT,
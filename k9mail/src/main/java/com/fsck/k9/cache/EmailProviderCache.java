@@ -3,28 +3,57 @@ package com.fsck.k9.cache;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.content.LocalBroadcastManager;
 
 import com.fsck.k9.fragment.MessageListFragment;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mailstore.LocalMessage;
 import com.fsck.k9.provider.EmailProvider;
+import com.fsck.k9.provider.EmailProvider.MessageColumns;
 
 /**
  * Cache to bridge the time needed to write (user-initiated) changes to the database.
+ *
+ * <p>
+ * Entries are spread over a fixed number of shards, each with its own lock, so bulk updates don't block readers of
+ * other messages for long. The boolean flag columns are stored as bits in a primitive map. Other columns fall back
+ * to a map of strings.
+ * </p>
  */
 public class EmailProviderCache {
     public static final String ACTION_CACHE_UPDATED = "EmailProviderCache.ACTION_CACHE_UPDATED";
 
-    private static Context sContext;
-    private static Map<String, EmailProviderCache> sInstances =
-            new HashMap<String, EmailProviderCache>();
+    /**
+     * Columns that are stored as bits when set to {@code "0"} or {@code "1"}.
+     */
+    private static final String[] FLAG_COLUMNS = {
+            MessageColumns.READ,
+            MessageColumns.FLAGGED,
+            MessageColumns.ANSWERED,
+            MessageColumns.FORWARDED
+    };
+    private static final String FLAG_VALUE_SET = "1";
+    private static final String FLAG_VALUE_UNSET = "0";
+
+    /**
+     * Number of shards per cache. Must be a power of two.
+     */
+    private static final int SHARD_COUNT = 16;
+
+    private static volatile Context sContext;
+    private static final ConcurrentMap<String, EmailProviderCache> sInstances =
+            new ConcurrentHashMap<String, EmailProviderCache>();
 
-    public static synchronized EmailProviderCache getCache(String accountUuid, Context context) {
+    public static EmailProviderCache getCache(String accountUuid, Context context) {
 
         if (sContext == null) {
             sContext = context.getApplicationContext();
@@ -32,124 +61,95 @@ public class EmailProviderCache {
 
         EmailProviderCache instance = sInstances.get(accountUuid);
         if (instance == null) {
-            instance = new EmailProviderCache(accountUuid);
-            sInstances.put(accountUuid, instance);
+            EmailProviderCache newInstance = new EmailProviderCache(accountUuid);
+            instance = sInstances.putIfAbsent(accountUuid, newInstance);
+            if (instance == null) {
+                instance = newInstance;
+            }
         }
 
         return instance;
     }
 
 
-    private String mAccountUuid;
-    private final Map<Long, Map<String, String>> mMessageCache = new HashMap<Long, Map<String, String>>();
-    private final Map<Long, Map<String, String>> mThreadCache = new HashMap<Long, Map<String, String>>();
-    private final Map<Long, Long> mHiddenMessageCache = new HashMap<Long, Long>();
+    private final String mAccountUuid;
+    private final ColumnValueCache mMessageCache = new ColumnValueCache();
+    private final ColumnValueCache mThreadCache = new ColumnValueCache();
+    private final LongLongHashMap[] mHiddenMessageShards = createShards();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean mNotificationPending = new AtomicBoolean(false);
+    private final Runnable mNotifyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mNotificationPending.set(false);
+            sendChangeNotification();
+        }
+    };
 
 
     private EmailProviderCache(String accountUuid) {
         mAccountUuid = accountUuid;
     }
 
-    public String getValueForMessage(Long messageId, String columnName) {
-        synchronized (mMessageCache) {
-            Map<String, String> map = mMessageCache.get(messageId);
-            return (map == null) ? null : map.get(columnName);
-        }
+    public String getValueForMessage(long messageId, String columnName) {
+        return mMessageCache.get(messageId, columnName);
     }
 
-    public String getValueForThread(Long threadRootId, String columnName) {
-        synchronized (mThreadCache) {
-            Map<String, String> map = mThreadCache.get(threadRootId);
-            return (map == null) ? null : map.get(columnName);
-        }
+    public String getValueForThread(long threadRootId, String columnName) {
+        return mThreadCache.get(threadRootId, columnName);
     }
 
     public void setValueForMessages(List<Long> messageIds, String columnName, String value) {
-        synchronized (mMessageCache) {
-            for (Long messageId : messageIds) {
-                Map<String, String> map = mMessageCache.get(messageId);
-                if (map == null) {
-                    map = new HashMap<String, String>();
-                    mMessageCache.put(messageId, map);
-                }
-                map.put(columnName, value);
-            }
-        }
+        mMessageCache.set(messageIds, columnName, value);
 
         notifyChange();
     }
 
     public void setValueForThreads(List<Long> threadRootIds, String columnName, String value) {
-        synchronized (mThreadCache) {
-            for (Long threadRootId : threadRootIds) {
-                Map<String, String> map = mThreadCache.get(threadRootId);
-                if (map == null) {
-                    map = new HashMap<String, String>();
-                    mThreadCache.put(threadRootId, map);
-                }
-                map.put(columnName, value);
-            }
-        }
+        mThreadCache.set(threadRootIds, columnName, value);
 
         notifyChange();
     }
 
     public void removeValueForMessages(List<Long> messageIds, String columnName) {
-        synchronized (mMessageCache) {
-            for (Long messageId : messageIds) {
-                Map<String, String> map = mMessageCache.get(messageId);
-                if (map != null) {
-                    map.remove(columnName);
-                    if (map.isEmpty()) {
-                        mMessageCache.remove(messageId);
-                    }
-                }
-            }
-        }
+        mMessageCache.remove(messageIds, columnName);
     }
 
     public void removeValueForThreads(List<Long> threadRootIds, String columnName) {
-        synchronized (mThreadCache) {
-            for (Long threadRootId : threadRootIds) {
-                Map<String, String> map = mThreadCache.get(threadRootId);
-                if (map != null) {
-                    map.remove(columnName);
-                    if (map.isEmpty()) {
-                        mThreadCache.remove(threadRootId);
-                    }
-                }
-            }
-        }
+        mThreadCache.remove(threadRootIds, columnName);
     }
 
     public void hideMessages(List<LocalMessage> messages) {
-        synchronized (mHiddenMessageCache) {
-            for (LocalMessage message : messages) {
-                long messageId = message.getDatabaseId();
-                mHiddenMessageCache.put(messageId, message.getFolder().getDatabaseId());
+        for (LocalMessage message : messages) {
+            long messageId = message.getDatabaseId();
+            long folderId = message.getFolder().getDatabaseId();
+
+            LongLongHashMap shard = mHiddenMessageShards[getShardIndex(messageId)];
+            synchronized (shard) {
+                shard.put(messageId, folderId);
             }
         }
 
         notifyChange();
     }
 
-    public boolean isMessageHidden(Long messageId, long folderId) {
-        synchronized (mHiddenMessageCache) {
-            Long hiddenInFolder = mHiddenMessageCache.get(messageId);
-            return (hiddenInFolder != null && hiddenInFolder == folderId);
+    public boolean isMessageHidden(long messageId, long folderId) {
+        LongLongHashMap shard = mHiddenMessageShards[getShardIndex(messageId)];
+        synchronized (shard) {
+            return shard.containsKey(messageId) && shard.get(messageId, 0L) == folderId;
         }
     }
 
     public void unhideMessages(List<? extends Message> messages) {
-        synchronized (mHiddenMessageCache) {
-            for (Message message : messages) {
-                LocalMessage localMessage = (LocalMessage) message;
-                long messageId = localMessage.getDatabaseId();
-                long folderId = localMessage.getFolder().getDatabaseId();
-                Long hiddenInFolder = mHiddenMessageCache.get(messageId);
-
-                if (hiddenInFolder != null && hiddenInFolder == folderId) {
-                    mHiddenMessageCache.remove(messageId);
+        for (Message message : messages) {
+            LocalMessage localMessage = (LocalMessage) message;
+            long messageId = localMessage.getDatabaseId();
+            long folderId = localMessage.getFolder().getDatabaseId();
+
+            LongLongHashMap shard = mHiddenMessageShards[getShardIndex(messageId)];
+            synchronized (shard) {
+                if (shard.containsKey(messageId) && shard.get(messageId, 0L) == folderId) {
+                    shard.remove(messageId);
                 }
             }
         }
@@ -165,12 +165,169 @@ public class EmailProviderCache {
      * {@link LocalBroadcastManager} to send a {@link #ACTION_CACHE_UPDATED} broadcast. This way
      * {@code MessageListFragment} can update the view without reloading the cursor.
      * </p>
+     * <p>
+     * The notifications are sent from the main thread. Changes made before a pending notification has been sent
+     * are covered by that notification.
+     * </p>
      */
     private void notifyChange() {
+        if (mNotificationPending.compareAndSet(false, true)) {
+            mHandler.post(mNotifyRunnable);
+        }
+    }
+
+    private void sendChangeNotification() {
         LocalBroadcastManager.getInstance(sContext).sendBroadcast(new Intent(ACTION_CACHE_UPDATED));
 
         Uri uri = Uri.withAppendedPath(EmailProvider.CONTENT_URI, "account/" + mAccountUuid +
                 "/messages");
         sContext.getContentResolver().notifyChange(uri, null);
     }
+
+    private static LongLongHashMap[] createShards() {
+        LongLongHashMap[] shards = new LongLongHashMap[SHARD_COUNT];
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards[i] = new LongLongHashMap();
+        }
+        return shards;
+    }
+
+    private static int getShardIndex(long id) {
+        return (int) (id ^ (id >>> 32)) & (SHARD_COUNT - 1);
+    }
+
+    private static int getFlagIndex(String columnName) {
+        for (int i = 0; i < FLAG_COLUMNS.length; i++) {
+            if (FLAG_COLUMNS[i].equals(columnName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Column values for message or thread IDs.
+     *
+     * <p>
+     * For every ID the flag columns are packed into a {@code long}: the lower 32 bits record which flags have a cached
+     * value, the upper 32 bits hold the values.
+     * </p>
+     */
+    private static class ColumnValueCache {
+        private final LongLongHashMap[] mFlagShards = createShards();
+        @SuppressWarnings("unchecked")
+        private final Map<Long, Map<String, String>>[] mOtherValueShards = new Map[SHARD_COUNT];
+
+
+        String get(long id, String columnName) {
+            int shardIndex = getShardIndex(id);
+            int flagIndex = getFlagIndex(columnName);
+
+            LongLongHashMap flagShard = mFlagShards[shardIndex];
+            synchronized (flagShard) {
+                if (flagIndex != -1) {
+                    long flags = flagShard.get(id, 0L);
+                    if ((flags & presentBit(flagIndex)) != 0) {
+                        return ((flags & valueBit(flagIndex)) != 0) ? FLAG_VALUE_SET : FLAG_VALUE_UNSET;
+                    }
+                }
+
+                Map<Long, Map<String, String>> otherValues = mOtherValueShards[shardIndex];
+                if (otherValues == null) {
+                    return null;
+                }
+
+                Map<String, String> map = otherValues.get(id);
+                return (map == null) ? null : map.get(columnName);
+            }
+        }
+
+        void set(List<Long> ids, String columnName, String value) {
+            int flagIndex = getFlagIndex(columnName);
+            boolean storeAsFlag = flagIndex != -1 &&
+                    (FLAG_VALUE_SET.equals(value) || FLAG_VALUE_UNSET.equals(value));
+
+            for (Long id : ids) {
+                int shardIndex = getShardIndex(id);
+                LongLongHashMap flagShard = mFlagShards[shardIndex];
+                synchronized (flagShard) {
+                    if (storeAsFlag) {
+                        long flags = flagShard.get(id, 0L) | presentBit(flagIndex);
+                        flags = FLAG_VALUE_SET.equals(value) ? flags | valueBit(flagIndex) :
+                                flags & ~valueBit(flagIndex);
+                        flagShard.put(id, flags);
+                        removeOtherValue(shardIndex, id, columnName);
+                    } else {
+                        if (flagIndex != -1) {
+                            removeFlag(flagShard, id, flagIndex);
+                        }
+                        putOtherValue(shardIndex, id, columnName, value);
+                    }
+                }
+            }
+        }
+
+        void remove(List<Long> ids, String columnName) {
+            int flagIndex = getFlagIndex(columnName);
+
+            for (Long id : ids) {
+                int shardIndex = getShardIndex(id);
+                LongLongHashMap flagShard = mFlagShards[shardIndex];
+                synchronized (flagShard) {
+                    if (flagIndex != -1) {
+                        removeFlag(flagShard, id, flagIndex);
+                    }
+                    removeOtherValue(shardIndex, id, columnName);
+                }
+            }
+        }
+
+        private void removeFlag(LongLongHashMap flagShard, long id, int flagIndex) {
+            long flags = flagShard.get(id, 0L) & ~presentBit(flagIndex) & ~valueBit(flagIndex);
+            if (flags == 0L) {
+                flagShard.remove(id);
+            } else {
+                flagShard.put(id, flags);
+            }
+        }
+
+        private void putOtherValue(int shardIndex, long id, String columnName, String value) {
+            Map<Long, Map<String, String>> otherValues = mOtherValueShards[shardIndex];
+            if (otherValues == null) {
+                otherValues = new HashMap<Long, Map<String, String>>();
+                mOtherValueShards[shardIndex] = otherValues;
+            }
+
+            Map<String, String> map = otherValues.get(id);
+            if (map == null) {
+                map = new HashMap<String, String>();
+                otherValues.put(id, map);
+            }
+            map.put(columnName, value);
+        }
+
+        private void removeOtherValue(int shardIndex, long id, String columnName) {
+            Map<Long, Map<String, String>> otherValues = mOtherValueShards[shardIndex];
+            if (otherValues == null) {
+                return;
+            }
+
+            Map<String, String> map = otherValues.get(id);
+            if (map != null) {
+                map.remove(columnName);
+                if (map.isEmpty()) {
+                    otherValues.remove(id);
+                }
+            }
+        }
+
+        private static long presentBit(int flagIndex) {
+            return 1L << flagIndex;
+        }
+
+        private static long valueBit(int flagIndex) {
+            return 1L << (flagIndex + 32);
+        }
+    }
 }
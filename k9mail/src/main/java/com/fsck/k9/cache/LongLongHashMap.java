@@ -0,0 +1,144 @@
+package com.fsck.k9.cache;
+
+
+import java.util.Arrays;
+
+
+/**
+ * Hash map with primitive {@code long} keys and values using open addressing.
+ *
+ * <p>
+ * Avoids allocating a boxed key, a boxed value and an entry object for every mapping. This class is not thread-safe.
+ * </p>
+ */
+class LongLongHashMap {
+    private static final int INITIAL_CAPACITY = 16;
+
+
+    private long[] keys;
+    private long[] values;
+    private boolean[] used;
+    private int size;
+
+
+    LongLongHashMap() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    long get(long key, long defaultValue) {
+        int index = indexOf(key);
+        return (index >= 0) ? values[index] : defaultValue;
+    }
+
+    void put(long key, long value) {
+        if ((size + 1) * 4 > keys.length * 3) {
+            resize(keys.length * 2);
+        }
+
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (used[index]) {
+            if (keys[index] == key) {
+                values[index] = value;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+
+        used[index] = true;
+        keys[index] = key;
+        values[index] = value;
+        size++;
+    }
+
+    boolean remove(long key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return false;
+        }
+
+        // Move following entries of the same probe sequence into the gap so lookups don't stop early
+        int mask = keys.length - 1;
+        int hole = index;
+        int current = index;
+        while (true) {
+            current = (current + 1) & mask;
+            if (!used[current]) {
+                break;
+            }
+
+            int home = hash(keys[current]) & mask;
+            boolean canMove = (current > hole) ? (home <= hole || home > current) : (home <= hole && home > current);
+            if (canMove) {
+                keys[hole] = keys[current];
+                values[hole] = values[current];
+                hole = current;
+            }
+        }
+
+        used[hole] = false;
+        size--;
+
+        if (size == 0 && keys.length > INITIAL_CAPACITY) {
+            // Give back the memory used by bulk operations
+            allocate(INITIAL_CAPACITY);
+        }
+
+        return true;
+    }
+
+    void clear() {
+        if (keys.length > INITIAL_CAPACITY) {
+            allocate(INITIAL_CAPACITY);
+        } else {
+            Arrays.fill(used, false);
+        }
+        size = 0;
+    }
+
+    private int indexOf(long key) {
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (used[index]) {
+            if (keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        used = new boolean[capacity];
+    }
+
+    private static int hash(long key) {
+        int hash = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,53 @@
+package com.fsck.k9.controller;
+
+
+/**
+ * Snapshot of the command queue of an account.
+ *
+ * @see MessagingController#getCommandQueueStats(com.fsck.k9.Account)
+ */
+public class CommandQueueStats {
+    private final int queueDepth;
+    private final int completedCommands;
+    private final long averageWaitTime;
+    private final long maxWaitTime;
+
+
+    CommandQueueStats(int queueDepth, int completedCommands, long averageWaitTime, long maxWaitTime) {
+        this.queueDepth = queueDepth;
+        this.completedCommands = completedCommands;
+        this.averageWaitTime = averageWaitTime;
+        this.maxWaitTime = maxWaitTime;
+    }
+
+    /**
+     * @return The number of commands waiting to be executed.
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getCompletedCommands() {
+        return completedCommands;
+    }
+
+    /**
+     * @return The average time in milliseconds a command spent in the queue before it was started.
+     */
+    public long getAverageWaitTime() {
+        return averageWaitTime;
+    }
+
+    /**
+     * @return The longest time in milliseconds a command spent in the queue before it was started.
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    @Override
+    public String toString() {
+        return "CommandQueueStats{queueDepth=" + queueDepth + ", completedCommands=" + completedCommands +
+                ", averageWaitTime=" + averageWaitTime + ", maxWaitTime=" + maxWaitTime + "}";
+    }
+}
@@ -0,0 +1,232 @@
+package com.fsck.k9.controller;
+
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import timber.log.Timber;
+
+
+/**
+ * Runs {@link MessagingController} commands on a bounded number of worker threads.
+ *
+ * <p>
+ * Commands are grouped into lanes, usually one per account. Commands in the same lane are executed one at a time in
+ * submission order, with foreground commands moving ahead of queued background commands. Different lanes run in
+ * parallel, so a slow account doesn't hold up the others.
+ * </p>
+ * <p>
+ * Because commands of different accounts run at the same time, state they share has to be safe for concurrent use.
+ * {@link MessagingController} keeps its listeners in a {@link java.util.concurrent.CopyOnWriteArraySet}, and
+ * processes and clears an account's pending commands while holding that account's pending commands lock.
+ * {@link com.fsck.k9.mailstore.LocalFolder} doesn't synchronize {@code open()} and {@code close()}, so a command must
+ * not close a folder instance that another command is using. Commands get their own instance from
+ * {@code LocalStore.getFolder()} instead.
+ * </p>
+ */
+class CommandScheduler {
+    static final String GLOBAL_LANE = "";
+
+    private static final long UNAVAILABLE_ACCOUNT_RETRY_DELAY = 30 * 1000;
+
+
+    private final Map<String, Lane> lanes = new HashMap<>();
+    private final BlockingDeque<Lane> readyLanes = new LinkedBlockingDeque<>();
+    private final Thread[] workers;
+    private volatile boolean stopped = false;
+
+
+    CommandScheduler(String name, int workerCount) {
+        workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runWorker();
+                }
+            });
+            worker.setName(name + "-" + i);
+            worker.start();
+
+            workers[i] = worker;
+        }
+    }
+
+    void stop() throws InterruptedException {
+        stopped = true;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            worker.join(1000L);
+        }
+    }
+
+    void put(String laneKey, Command command) {
+        String key = laneKey != null ? laneKey : GLOBAL_LANE;
+        command.enqueuedAt = SystemClock.elapsedRealtime();
+
+        Lane lane;
+        boolean scheduleLane;
+        synchronized (lanes) {
+            lane = lanes.get(key);
+            if (lane == null) {
+                lane = new Lane(key);
+                lanes.put(key, lane);
+            }
+
+            lane.queue.add(command);
+            scheduleLane = !lane.scheduled;
+            lane.scheduled = true;
+        }
+
+        if (scheduleLane) {
+            scheduleLane(lane, command.isForegroundPriority);
+        } else if (command.isForegroundPriority && readyLanes.remove(lane)) {
+            // The lane is waiting for a worker behind lanes with only background work; move it to the front
+            readyLanes.addFirst(lane);
+        }
+    }
+
+    CommandQueueStats getStats(String laneKey) {
+        String key = laneKey != null ? laneKey : GLOBAL_LANE;
+        synchronized (lanes) {
+            Lane lane = lanes.get(key);
+            if (lane == null) {
+                return new CommandQueueStats(0, 0, 0, 0);
+            }
+
+            long averageWaitTime = lane.completedCommands > 0 ? lane.totalWaitTime / lane.completedCommands : 0;
+            return new CommandQueueStats(lane.queue.size(), lane.completedCommands, averageWaitTime,
+                    lane.maxWaitTime);
+        }
+    }
+
+    private void scheduleLane(Lane lane, boolean isForegroundPriority) {
+        if (isForegroundPriority) {
+            readyLanes.addFirst(lane);
+        } else {
+            readyLanes.addLast(lane);
+        }
+    }
+
+    private void runWorker() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        while (!stopped) {
+            Lane lane;
+            try {
+                lane = readyLanes.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+
+            Command command;
+            synchronized (lanes) {
+                command = lane.queue.poll();
+            }
+
+            if (command != null) {
+                runCommand(lane, command);
+            }
+
+            Command nextCommand;
+            synchronized (lanes) {
+                nextCommand = lane.queue.peek();
+                if (nextCommand == null) {
+                    lane.scheduled = false;
+                }
+            }
+
+            // Go to the back of the line so other lanes get their turn
+            if (nextCommand != null) {
+                scheduleLane(lane, nextCommand.isForegroundPriority);
+            }
+        }
+    }
+
+    private void runCommand(final Lane lane, final Command command) {
+        long waitTime = SystemClock.elapsedRealtime() - command.enqueuedAt;
+
+        Timber.i("Running command '%s', seq = %s (%s priority, waited %d ms)",
+                command.description,
+                command.sequence,
+                command.isForegroundPriority ? "foreground" : "background",
+                waitTime);
+
+        try {
+            command.runnable.run();
+        } catch (UnavailableAccountException e) {
+            // retry later
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        sleep(UNAVAILABLE_ACCOUNT_RETRY_DELAY);
+                        put(lane.key, command);
+                    } catch (InterruptedException e) {
+                        Timber.e("Interrupted while putting a pending command for an unavailable account " +
+                                "back into the queue. THIS SHOULD NEVER HAPPEN.");
+                    }
+                }
+            }.start();
+
+            Timber.i(" Command '%s' postponed", command.description);
+            return;
+        } catch (Exception e) {
+            Timber.e(e, "Error running command '%s'", command.description);
+        }
+
+        synchronized (lanes) {
+            lane.completedCommands++;
+            lane.totalWaitTime += waitTime;
+            lane.maxWaitTime = Math.max(lane.maxWaitTime, waitTime);
+        }
+
+        Timber.i(" Command '%s' completed", command.description);
+    }
+
+
+    private static class Lane {
+        final String key;
+        final PriorityQueue<Command> queue = new PriorityQueue<>();
+        boolean scheduled;
+        int completedCommands;
+        long totalWaitTime;
+        long maxWaitTime;
+
+        Lane(String key) {
+            this.key = key;
+        }
+    }
+
+    static class Command implements Comparable<Command> {
+        private static final AtomicInteger sequencing = new AtomicInteger(0);
+
+        public Runnable runnable;
+        public MessagingListener listener;
+        public String description;
+        boolean isForegroundPriority;
+
+        int sequence = sequencing.getAndIncrement();
+        long enqueuedAt;
+
+        @Override
+        public int compareTo(@NonNull Command other) {
+            if (other.isForegroundPriority && !isForegroundPriority) {
+                return 1;
+            } else if (!other.isForegroundPriority && isForegroundPriority) {
+                return -1;
+            } else {
+                return (sequence - other.sequence);
+            }
+        }
+    }
+}
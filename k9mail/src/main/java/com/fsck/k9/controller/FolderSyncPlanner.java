@@ -0,0 +1,120 @@
+package com.fsck.k9.controller;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mailstore.LocalFolder;
+import timber.log.Timber;
+
+
+/**
+ * Synchronizes the folders of an account during a mail check.
+ *
+ * <p>
+ * Folders are ordered by priority: the Inbox first, then folders in the top group, then all other folders starting
+ * with the one that received a message most recently. Up to {@code maxParallelSyncs} folders are synchronized at the
+ * same time, so an account with many folders doesn't have to wait for one SELECT/SEARCH/FETCH cycle after the other.
+ * The caller's thread takes part in the work, so with a limit of 1 everything runs on that thread in priority order.
+ * </p>
+ */
+class FolderSyncPlanner {
+    private final Executor executor;
+
+
+    FolderSyncPlanner(Executor executor) {
+        this.executor = executor;
+    }
+
+    static List<LocalFolder> sortByPriority(List<LocalFolder> folders, final String inboxFolderName) {
+        final Map<LocalFolder, Long> newestMessageDates = new HashMap<>();
+        for (LocalFolder folder : folders) {
+            try {
+                newestMessageDates.put(folder, folder.getNewestMessageDate());
+            } catch (MessagingException e) {
+                Timber.w(e, "Unable to get date of newest message in folder %s", folder.getName());
+                newestMessageDates.put(folder, 0L);
+            }
+        }
+
+        List<LocalFolder> sortedFolders = new ArrayList<>(folders);
+        Collections.sort(sortedFolders, new Comparator<LocalFolder>() {
+            @Override
+            public int compare(LocalFolder lhs, LocalFolder rhs) {
+                boolean lhsInbox = lhs.getName().equals(inboxFolderName);
+                boolean rhsInbox = rhs.getName().equals(inboxFolderName);
+                if (lhsInbox != rhsInbox) {
+                    return lhsInbox ? -1 : 1;
+                }
+
+                if (lhs.isInTopGroup() != rhs.isInTopGroup()) {
+                    return lhs.isInTopGroup() ? -1 : 1;
+                }
+
+                long lhsDate = newestMessageDates.get(lhs);
+                long rhsDate = newestMessageDates.get(rhs);
+                return lhsDate > rhsDate ? -1 : (lhsDate == rhsDate ? 0 : 1);
+            }
+        });
+
+        return sortedFolders;
+    }
+
+    /**
+     * Runs {@code folderSync} for all folders and returns once all of them are done.
+     *
+     * @param folders
+     *         The folders in the order they should be started in.
+     * @param maxParallelSyncs
+     *         The maximum number of folders synchronized at the same time.
+     */
+    void synchronize(List<LocalFolder> folders, int maxParallelSyncs, final FolderSync folderSync) {
+        final Queue<LocalFolder> pendingFolders = new ConcurrentLinkedQueue<>(folders);
+        int workerCount = Math.max(1, Math.min(maxParallelSyncs, folders.size()));
+        final CountDownLatch remainingWorkers = new CountDownLatch(workerCount);
+
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    LocalFolder folder;
+                    while ((folder = pendingFolders.poll()) != null) {
+                        try {
+                            folderSync.synchronizeFolder(folder);
+                        } catch (Exception e) {
+                            Timber.e(e, "Exception while synchronizing folder %s", folder.getName());
+                        }
+                    }
+                } finally {
+                    remainingWorkers.countDown();
+                }
+            }
+        };
+
+        for (int i = 1; i < workerCount; i++) {
+            executor.execute(worker);
+        }
+        worker.run();
+
+        try {
+            remainingWorkers.await();
+        } catch (InterruptedException e) {
+            Timber.w("Interrupted while waiting for folder synchronization to finish");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    interface FolderSync {
+        void synchronizeFolder(LocalFolder folder);
+    }
+}
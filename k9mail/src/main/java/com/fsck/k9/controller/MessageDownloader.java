@@ -34,6 +34,23 @@ import timber.log.Timber;
 
 
 public class MessageDownloader {
+    static final int DEFAULT_SMALL_MESSAGE_BATCH_SIZE = 50;
+
+
+    private final int smallMessageBatchSize;
+
+
+    public MessageDownloader() {
+        this(DEFAULT_SMALL_MESSAGE_BATCH_SIZE);
+    }
+
+    /**
+     * @param smallMessageBatchSize
+     *         The number of downloaded small messages that are written to the database in one transaction.
+     */
+    public MessageDownloader(int smallMessageBatchSize) {
+        this.smallMessageBatchSize = smallMessageBatchSize;
+    }
 
     /**
      * Fetches the messages described by inputMessages from the remote store and writes them to
@@ -378,6 +395,63 @@ public class MessageDownloader {
             });
     }
 
+    /**
+     * Stores a batch of downloaded small messages and reports every stored message to the listeners and, if
+     * necessary, as new mail notification. Messages that couldn't be stored are skipped, so they are downloaded again
+     * by the next sync.
+     */
+    public static <T extends Message> void storeSmallMessageBatch(
+            NotificationController notificationController,
+            Set<MessagingListener> listeners,
+            Account account, String folder,
+            LocalFolder localFolder,
+            List<T> messages,
+            AtomicInteger progress,
+            int unreadBeforeStart,
+            AtomicInteger newMessages,
+            int todo,
+            IMessageController controller) {
+        try {
+            // Store the updated messages locally
+            List<LocalMessage> localMessages = localFolder.storeSmallMessages(messages);
+
+            for (int i = 0, count = messages.size(); i < count; i++) {
+                Message message = messages.get(i);
+                LocalMessage localMessage = localMessages.get(i);
+                if (localMessage == null) {
+                    continue;
+                }
+
+                progress.incrementAndGet();
+
+                // Increment the number of "new messages" if the newly downloaded message is
+                // not marked as read.
+                if (!localMessage.isSet(Flag.SEEN)) {
+                    newMessages.incrementAndGet();
+                }
+
+                Timber.v("About to notify listeners that we got a new small message %s:%s:%s",
+                        account, folder, message.getUid());
+
+                // Update the listener with what we've found
+                for (MessagingListener l : listeners) {
+                    l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
+                    if (!localMessage.isSet(Flag.SEEN)) {
+                        l.synchronizeMailboxNewMessage(account, folder, localMessage);
+                    }
+                }
+                // Send a notification of this message
+
+                if (controller.shouldNotifyForMessage(account, localFolder, message)) {
+                    // Notify with the localMessage so that we don't have to recalculate the content preview.
+                    notificationController.addNewMailNotification(account, localMessage, unreadBeforeStart);
+                }
+            }
+        } catch (MessagingException me) {
+            Timber.e(me, "SYNC: fetch small messages");
+        }
+    }
+
     private <T extends Message> void downloadSmallMessages(
             final NotificationController notificationController,
             final Set<MessagingListener> listeners,
@@ -394,45 +468,16 @@ public class MessageDownloader {
 
         Timber.d("SYNC: Fetching %d small messages for folder %s", smallRemoteMessages.size(), folder);
 
+        final List<T> batch = new ArrayList<>(smallMessageBatchSize);
         remoteFolder.fetch(smallRemoteMessages,
                 fp, new MessageRetrievalListener<T>() {
                     @Override
                     public void messageFinished(final T message, int number, int ofTotal) {
-                        try {
-
-                            // Store the updated message locally
-                            final LocalMessage localMessage = localFolder.storeSmallMessage(message, new Runnable() {
-                                @Override
-                                public void run() {
-                                    progress.incrementAndGet();
-                                }
-                            });
-
-                            // Increment the number of "new messages" if the newly downloaded message is
-                            // not marked as read.
-                            if (!localMessage.isSet(Flag.SEEN)) {
-                                newMessages.incrementAndGet();
-                            }
-
-                            Timber.v("About to notify listeners that we got a new small message %s:%s:%s",
-                                    account, folder, message.getUid());
-
-                            // Update the listener with what we've found
-                            for (MessagingListener l : listeners) {
-                                l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
-                                if (!localMessage.isSet(Flag.SEEN)) {
-                                    l.synchronizeMailboxNewMessage(account, folder, localMessage);
-                                }
-                            }
-                            // Send a notification of this message
-
-                            if (controller.shouldNotifyForMessage(account, localFolder, message)) {
-                                // Notify with the localMessage so that we don't have to recalculate the content preview.
-                                notificationController.addNewMailNotification(account, localMessage, unreadBeforeStart);
-                            }
-
-                        } catch (MessagingException me) {
-                            Timber.e(me, "SYNC: fetch small messages");
+                        batch.add(message);
+                        if (batch.size() >= smallMessageBatchSize) {
+                            storeSmallMessageBatch(notificationController, listeners, account, folder, localFolder,
+                                    batch, progress, unreadBeforeStart, newMessages, todo, controller);
+                            batch.clear();
                         }
                     }
 
@@ -445,6 +490,11 @@ public class MessageDownloader {
                     }
                 });
 
+        if (!batch.isEmpty()) {
+            storeSmallMessageBatch(notificationController, listeners, account, folder, localFolder,
+                    batch, progress, unreadBeforeStart, newMessages, todo, controller);
+        }
+
         Timber.d("SYNC: Done fetching small messages for folder %s", folder);
     }
 
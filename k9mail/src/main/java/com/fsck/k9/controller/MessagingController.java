@@ -16,14 +16,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import android.annotation.SuppressLint;
@@ -33,8 +31,6 @@ import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.PowerManager;
-import android.os.Process;
-import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
@@ -52,6 +48,7 @@ import com.fsck.k9.activity.ActivityListener;
 import com.fsck.k9.activity.MessageReference;
 import com.fsck.k9.activity.setup.CheckDirection;
 import com.fsck.k9.cache.EmailProviderCache;
+import com.fsck.k9.controller.CommandScheduler.Command;
 import com.fsck.k9.controller.MessagingControllerCommands.PendingAppend;
 import com.fsck.k9.controller.MessagingControllerCommands.PendingCommand;
 import com.fsck.k9.controller.MessagingControllerCommands.PendingEmptyTrash;
@@ -127,6 +124,11 @@ public class MessagingController implements IMessageController {
 
     public static final Set<Flag> SYNC_FLAGS = EnumSet.of(Flag.SEEN, Flag.FLAGGED, Flag.ANSWERED, Flag.FORWARDED);
 
+    /**
+     * Maximum number of accounts whose commands are executed at the same time.
+     */
+    private static final int COMMAND_WORKER_COUNT = 3;
+
 
     private static MessagingController inst = null;
 
@@ -135,12 +137,13 @@ public class MessagingController implements IMessageController {
     private final Contacts contacts;
     private final NotificationController notificationController;
 
-    private final Thread controllerThread;
-
-    private final BlockingQueue<Command> queuedCommands = new PriorityBlockingQueue<>();
+    private final CommandScheduler commandScheduler;
+    // Commands of different accounts run in parallel, so listeners are added, removed and notified concurrently
     private final Set<MessagingListener> listeners = new CopyOnWriteArraySet<>();
     private final ConcurrentHashMap<String, AtomicInteger> sendCount = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<Account, Pusher> pushers = new ConcurrentHashMap<>();
+    // Guards processing and removal of an account's pending commands
+    private final ConcurrentHashMap<String, Object> pendingCommandsLocks = new ConcurrentHashMap<>();
     private final ExecutorService threadPool = Executors.newCachedThreadPool();
     private final MemorizingMessagingListener memorizingMessagingListener = new MemorizingMessagingListener();
     private final TransportProvider transportProvider;
@@ -151,7 +154,6 @@ public class MessagingController implements IMessageController {
 
 
     private MessagingListener checkMailListener = null;
-    private volatile boolean stopped = false;
 
 
     public static synchronized MessagingController getInstance(Context context) {
@@ -178,99 +180,72 @@ public class MessagingController implements IMessageController {
         this.searchResultsLoader = searchResultsLoader;
         this.messageDownloader = messageDownloader;
 
-        controllerThread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                runInBackground();
-            }
-        });
-        controllerThread.setName("MessagingController");
-        controllerThread.start();
+        commandScheduler = new CommandScheduler("MessagingController", COMMAND_WORKER_COUNT);
         addListener(memorizingMessagingListener);
     }
 
     @VisibleForTesting
     void stop() throws InterruptedException {
-        stopped = true;
-        controllerThread.interrupt();
-        controllerThread.join(1000L);
+        commandScheduler.stop();
     }
 
-    private void runInBackground() {
-        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-        while (!stopped) {
-            String commandDescription = null;
-            try {
-                final Command command = queuedCommands.take();
-
-                if (command != null) {
-                    commandDescription = command.description;
+    private void put(Account account, String description, MessagingListener listener, Runnable runnable) {
+        putCommand(account, description, listener, runnable, true);
+    }
 
-                    Timber.i("Running command '%s', seq = %s (%s priority)",
-                            command.description,
-                            command.sequence,
-                            command.isForegroundPriority ? "foreground" : "background");
+    private void putBackground(Account account, String description, MessagingListener listener,
+            Runnable runnable) {
+        putCommand(account, description, listener, runnable, false);
+    }
 
-                    try {
-                        command.runnable.run();
-                    } catch (UnavailableAccountException e) {
-                        // retry later
-                        new Thread() {
-                            @Override
-                            public void run() {
-                                try {
-                                    sleep(30 * 1000);
-                                    queuedCommands.put(command);
-                                } catch (InterruptedException e) {
-                                    Timber.e("Interrupted while putting a pending command for an unavailable account " +
-                                            "back into the queue. THIS SHOULD NEVER HAPPEN.");
-                                }
-                            }
-                        }.start();
-                    }
+    private void putCommand(Account account, String description, MessagingListener listener,
+            Runnable runnable, boolean isForeground) {
+        Command command = new Command();
+        command.listener = listener;
+        command.runnable = runnable;
+        command.description = description;
+        command.isForegroundPriority = isForeground;
 
-                    Timber.i(" Command '%s' completed", command.description);
-                }
-            } catch (Exception e) {
-                Timber.e(e, "Error running command '%s'", commandDescription);
-            }
-        }
+        String laneKey = account != null ? account.getUuid() : CommandScheduler.GLOBAL_LANE;
+        commandScheduler.put(laneKey, command);
     }
 
-    private void put(String description, MessagingListener listener, Runnable runnable) {
-        putCommand(queuedCommands, description, listener, runnable, true);
-    }
+    /**
+     * Runs the given command in the background once the commands currently queued for the given accounts have been
+     * executed.
+     */
+    private void putBackgroundAfter(Collection<Account> accounts, final String description,
+            final Runnable runnable) {
+        if (accounts.isEmpty()) {
+            putBackground(null, description, null, runnable);
+            return;
+        }
 
-    private void putBackground(String description, MessagingListener listener, Runnable runnable) {
-        putCommand(queuedCommands, description, listener, runnable, false);
+        final AtomicInteger remainingAccounts = new AtomicInteger(accounts.size());
+        for (Account account : accounts) {
+            putBackground(account, description, null, new Runnable() {
+                @Override
+                public void run() {
+                    if (remainingAccounts.decrementAndGet() == 0) {
+                        runnable.run();
+                    }
+                }
+            });
+        }
     }
 
-    private void putCommand(BlockingQueue<Command> queue, String description, MessagingListener listener,
-            Runnable runnable, boolean isForeground) {
-        int retries = 10;
-        Exception e = null;
-        while (retries-- > 0) {
-            try {
-                Command command = new Command();
-                command.listener = listener;
-                command.runnable = runnable;
-                command.description = description;
-                command.isForegroundPriority = isForeground;
-                queue.put(command);
-                return;
-            } catch (InterruptedException ie) {
-                SystemClock.sleep(200);
-                e = ie;
-            }
-        }
-        throw new Error(e);
+    /**
+     * Returns queue depth and wait time statistics for the commands of the given account.
+     */
+    public CommandQueueStats getCommandQueueStats(Account account) {
+        return commandScheduler.getStats(account.getUuid());
     }
 
     private RemoteMessageStore getRemoteMessageStore(Account account) {
         return account.getStoreUri().startsWith("imap") ? getImapMessageStore() : null;
     }
 
-    private ImapMessageStore getImapMessageStore() {
+    private synchronized ImapMessageStore getImapMessageStore() {
         if (imapMessageStore == null) {
             imapMessageStore = new ImapMessageStore(notificationController, this, context);
         }
@@ -382,7 +357,7 @@ public class MessagingController implements IMessageController {
 
     @Override
     public void doRefreshRemote(final Account account, final MessagingListener listener) {
-        put("doRefreshRemote", listener,
+        put(account, "doRefreshRemote", listener,
                 new RefreshRemoteTask(account, listener, listeners));
     }
 
@@ -518,7 +493,7 @@ public class MessagingController implements IMessageController {
     @Override
     public void synchronizeMailbox(final Account account, final String folder, final MessagingListener listener,
             final Folder providedRemoteFolder) {
-        putBackground("synchronizeMailbox", listener, new Runnable() {
+        putBackground(account, "synchronizeMailbox", listener, new Runnable() {
             @Override
             public void run() {
                 synchronizeMailboxSynchronous(account, folder, listener, providedRemoteFolder);
@@ -866,7 +841,7 @@ public class MessagingController implements IMessageController {
 
     //TODO: Visible for send task
     public void processPendingCommands(final Account account) {
-        putBackground("processPendingCommands", null, new Runnable() {
+        putBackground(account, "processPendingCommands", null, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -888,6 +863,26 @@ public class MessagingController implements IMessageController {
     }
 
     public void processPendingCommandsSynchronous(Account account) throws MessagingException {
+        // Folders of an account are synchronized in parallel; make sure each pending command is only executed once
+        synchronized (getPendingCommandsLock(account)) {
+            processPendingCommandsLocked(account);
+        }
+    }
+
+    private Object getPendingCommandsLock(Account account) {
+        Object lock = pendingCommandsLocks.get(account.getUuid());
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = pendingCommandsLocks.putIfAbsent(account.getUuid(), newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+
+        return lock;
+    }
+
+    private void processPendingCommandsLocked(Account account) throws MessagingException {
         LocalStore localStore = account.getLocalStore();
         List<PendingCommand> commands = localStore.getPendingCommands();
 
@@ -1186,7 +1181,7 @@ public class MessagingController implements IMessageController {
 
     private void queueSetFlag(final Account account, final String folderName,
             final boolean newState, final Flag flag, final List<String> uids) {
-        putBackground("queueSetFlag " + account.getDescription() + ":" + folderName, null, new Runnable() {
+        putBackground(account, "queueSetFlag " + account.getDescription() + ":" + folderName, null, new Runnable() {
             @Override
             public void run() {
                 PendingCommand command = PendingSetFlag.create(folderName, newState, flag, uids);
@@ -1233,7 +1228,7 @@ public class MessagingController implements IMessageController {
     }
 
     private void queueExpunge(final Account account, final String folderName) {
-        putBackground("queueExpunge " + account.getDescription() + ":" + folderName, null, new Runnable() {
+        putBackground(account, "queueExpunge " + account.getDescription() + ":" + folderName, null, new Runnable() {
             @Override
             public void run() {
                 PendingCommand command = PendingExpunge.create(folderName);
@@ -1504,7 +1499,9 @@ public class MessagingController implements IMessageController {
         try {
             Timber.w("Clearing pending commands!");
             LocalStore localStore = account.getLocalStore();
-            localStore.removePendingCommands();
+            synchronized (getPendingCommandsLock(account)) {
+                localStore.removePendingCommands();
+            }
         } catch (MessagingException me) {
             Timber.e(me, "Unable to clear pending command");
         }
@@ -1513,7 +1510,7 @@ public class MessagingController implements IMessageController {
     @Override
     public void loadMessageRemotePartial(final Account account, final String folder,
             final String uid, final MessagingListener listener) {
-        put("loadMessageRemotePartial", listener, new LoadMessageRemoteTask(this, context, notificationController,
+        put(account, "loadMessageRemotePartial", listener, new LoadMessageRemoteTask(this, context, notificationController,
                 listeners, messageDownloader, account, folder, uid, listener, true));
     }
 
@@ -1521,7 +1518,7 @@ public class MessagingController implements IMessageController {
     @Override
     public void loadMessageRemote(final Account account, final String folder,
             final String uid, final MessagingListener listener) {
-        put("loadMessageRemote", listener, new LoadMessageRemoteTask(this, context, notificationController,
+        put(account, "loadMessageRemote", listener, new LoadMessageRemoteTask(this, context, notificationController,
                 listeners, messageDownloader, account, folder, uid, listener, false));
     }
 
@@ -1580,7 +1577,7 @@ public class MessagingController implements IMessageController {
     public void loadAttachment(final Account account, final LocalMessage message, final Part part,
             final MessagingListener listener) {
 
-        put("loadAttachment", listener, new Runnable() {
+        put(account, "loadAttachment", listener, new Runnable() {
             @Override
             public void run() {
                 Folder remoteFolder = null;
@@ -1663,7 +1660,7 @@ public class MessagingController implements IMessageController {
     @Override
     public void sendPendingMessages(final Account account,
             MessagingListener listener) {
-        putBackground("sendPendingMessages", listener,
+        putBackground(account, "sendPendingMessages", listener,
                 new SendPendingMessagesTask(this, context,
                         notificationController, transportProvider,
                         sendCount, account, listeners));
@@ -1787,7 +1784,7 @@ public class MessagingController implements IMessageController {
         };
 
 
-        put("getFolderUnread:" + account.getDescription() + ":" + folderName, l, unreadRunnable);
+        put(account, "getFolderUnread:" + account.getDescription() + ":" + folderName, l, unreadRunnable);
     }
 
     @Override
@@ -1833,7 +1830,7 @@ public class MessagingController implements IMessageController {
             public void act(final Account account, LocalFolder messageFolder, final List<LocalMessage> messages) {
                 suppressMessages(account, messages);
 
-                putBackground("moveMessages", null, new Runnable() {
+                putBackground(account, "moveMessages", null, new Runnable() {
                     @Override
                     public void run() {
                         moveOrCopyMessageSynchronous(account, srcFolder, messages, destFolder, false);
@@ -1851,7 +1848,7 @@ public class MessagingController implements IMessageController {
             public void act(final Account account, LocalFolder messageFolder, final List<LocalMessage> messages) {
                 suppressMessages(account, messages);
 
-                putBackground("moveMessagesInThread", null, new Runnable() {
+                putBackground(account, "moveMessagesInThread", null, new Runnable() {
                     @Override
                     public void run() {
                         try {
@@ -1878,7 +1875,7 @@ public class MessagingController implements IMessageController {
         actOnMessageGroup(srcAccount, srcFolder, messageReferences, new MessageActor() {
             @Override
             public void act(final Account account, LocalFolder messageFolder, final List<LocalMessage> messages) {
-                putBackground("copyMessages", null, new Runnable() {
+                putBackground(account, "copyMessages", null, new Runnable() {
                     @Override
                     public void run() {
                         moveOrCopyMessageSynchronous(srcAccount, srcFolder, messages, destFolder, true);
@@ -1894,7 +1891,7 @@ public class MessagingController implements IMessageController {
         actOnMessageGroup(srcAccount, srcFolder, messageReferences, new MessageActor() {
             @Override
             public void act(final Account account, LocalFolder messageFolder, final List<LocalMessage> messages) {
-                putBackground("copyMessagesInThread", null, new Runnable() {
+                putBackground(account, "copyMessagesInThread", null, new Runnable() {
                     @Override
                     public void run() {
                         try {
@@ -2012,7 +2009,7 @@ public class MessagingController implements IMessageController {
 
     @Override
     public void expunge(final Account account, final String folder) {
-        putBackground("expunge", null, new Runnable() {
+        putBackground(account, "expunge", null, new Runnable() {
             @Override
             public void run() {
                 queueExpunge(account, folder);
@@ -2048,7 +2045,7 @@ public class MessagingController implements IMessageController {
                     final List<LocalMessage> accountMessages) {
                 suppressMessages(account, accountMessages);
 
-                putBackground("deleteThreads", null, new Runnable() {
+                putBackground(account, "deleteThreads", null, new Runnable() {
                     @Override
                     public void run() {
                         deleteThreadsSynchronous(account, messageFolder.getName(), accountMessages);
@@ -2102,7 +2099,7 @@ public class MessagingController implements IMessageController {
                     final List<LocalMessage> accountMessages) {
                 suppressMessages(account, accountMessages);
 
-                putBackground("deleteMessages", null, new Runnable() {
+                putBackground(account, "deleteMessages", null, new Runnable() {
                     @Override
                     public void run() {
                         deleteMessagesSynchronous(account, messageFolder.getName(), accountMessages, listener);
@@ -2126,7 +2123,7 @@ public class MessagingController implements IMessageController {
             public void act(final Account account, final LocalFolder messageFolder,
                     final List<LocalMessage> accountMessages) {
 
-                putBackground("debugClearLocalMessages", null, new Runnable() {
+                putBackground(account, "debugClearLocalMessages", null, new Runnable() {
                     @Override
                     public void run() {
                         for (LocalMessage message : accountMessages) {
@@ -2243,7 +2240,8 @@ public class MessagingController implements IMessageController {
 
                 // When we empty trash, we need to actually synchronize the folder
                 // or local deletes will never get cleaned up
-                synchronizeFolder(account, remoteFolder, true, 0, null);
+                LocalFolder localTrashFolder = account.getLocalStore().getFolder(account.getTrashFolderName());
+                synchronizeFolders(account, Collections.singletonList(localTrashFolder), true, 0, null);
                 compact(account, null);
 
 
@@ -2255,7 +2253,7 @@ public class MessagingController implements IMessageController {
 
     @Override
     public void emptyTrash(final Account account, MessagingListener listener) {
-        putBackground("emptyTrash", listener, new Runnable() {
+        putBackground(account, "emptyTrash", listener, new Runnable() {
             @Override
             public void run() {
                 LocalFolder localFolder = null;
@@ -2294,7 +2292,7 @@ public class MessagingController implements IMessageController {
 
     @Override
     public void clearFolder(final Account account, final String folderName, final ActivityListener listener) {
-        putBackground("clearFolder", listener,
+        putBackground(account, "clearFolder", listener,
                 new ClearFolderTask(this, context, account, folderName, listener, listeners));
     }
 
@@ -2381,18 +2379,16 @@ public class MessagingController implements IMessageController {
         for (MessagingListener l : getListeners()) {
             l.checkMailStarted(context, account);
         }
-        putBackground("checkMail", listener, new Runnable() {
+        putBackground(account, "checkMail", listener, new Runnable() {
             @Override
             public void run() {
-
+                Collection<Account> accounts = new ArrayList<>(1);
                 try {
                     Timber.i("Starting mail check");
 
                     Preferences prefs = Preferences.getPreferences(context);
 
-                    Collection<Account> accounts;
                     if (account != null) {
-                        accounts = new ArrayList<>(1);
                         accounts.add(account);
                     } else {
                         accounts = prefs.getAvailableAccounts();
@@ -2405,7 +2401,8 @@ public class MessagingController implements IMessageController {
                 } catch (Exception e) {
                     Timber.e(e, "Unable to synchronize mail");
                 }
-                putBackground("finalize sync", null, new Runnable() {
+                // Sync commands run on the accounts' own lanes, so wait for them to finish
+                putBackgroundAfter(accounts, "finalize sync", new Runnable() {
                             @Override
                             public void run() {
 
@@ -2426,6 +2423,62 @@ public class MessagingController implements IMessageController {
     }
 
 
+    /**
+     * Opens a connection to the incoming server in the background while the sync command is being queued, so the
+     * first folder sync doesn't have to wait for the handshake. Only call this when at least one folder is going to be
+     * synchronized, otherwise the connection is opened for nothing.
+     */
+    private void prewarmRemoteConnection(final Account account) {
+        threadPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    account.getRemoteStore().prewarmConnection();
+                } catch (Exception e) {
+                    Timber.w(e, "Unable to prewarm connection for account %s", account.getDescription());
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds messages that aren't in the fulltext index yet. This is a no-op once the backlog created by the database
+     * upgrade has been processed.
+     */
+    private void indexPendingFulltextMessages(final Account account) {
+        threadPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    account.getLocalStore().indexPendingFulltextMessages();
+                } catch (Exception e) {
+                    Timber.w(e, "Unable to update fulltext index for account %s", account.getDescription());
+                }
+            }
+        });
+    }
+
+    /**
+     * Recalculates the storage used by message part files, correcting any drift of the running total.
+     * {@link LocalStore} limits this to once a day.
+     */
+    private void reconcileAttachmentSize(final Account account) {
+        if (!K9.measureAccounts()) {
+            return;
+        }
+
+        threadPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    account.getLocalStore().reconcileAttachmentSizeIfDue();
+                } catch (Exception e) {
+                    Timber.w(e, "Unable to update storage size for account %s", account.getDescription());
+                }
+            }
+        });
+    }
+
     private void checkMailForAccount(final Context context, final Account account,
             final boolean ignoreLastCheckedTime,
             final MessagingListener listener) {
@@ -2443,14 +2496,17 @@ public class MessagingController implements IMessageController {
 
         account.setRingNotified(false);
 
+        indexPendingFulltextMessages(account);
+        reconcileAttachmentSize(account);
         sendPendingMessages(account, listener);
 
         try {
             Account.FolderMode aDisplayMode = account.getFolderDisplayMode();
             Account.FolderMode aSyncMode = account.getFolderSyncMode();
 
-            Store localStore = account.getLocalStore();
-            for (final Folder folder : localStore.getPersonalNamespaces(false)) {
+            LocalStore localStore = account.getLocalStore();
+            List<LocalFolder> foldersToSync = new ArrayList<>();
+            for (final LocalFolder folder : localStore.getPersonalNamespaces(false)) {
                 folder.open(Folder.OPEN_MODE_RW);
 
                 Folder.FolderClass fDisplayClass = folder.getDisplayClass();
@@ -2479,12 +2535,20 @@ public class MessagingController implements IMessageController {
 
                     continue;
                 }
-                synchronizeFolder(account, folder, ignoreLastCheckedTime, accountInterval, listener);
+
+                if (isFolderSyncDue(folder, ignoreLastCheckedTime, accountInterval)) {
+                    foldersToSync.add(folder);
+                }
             }
+
+            if (!foldersToSync.isEmpty()) {
+                prewarmRemoteConnection(account);
+            }
+            synchronizeFolders(account, foldersToSync, ignoreLastCheckedTime, accountInterval, listener);
         } catch (MessagingException e) {
             Timber.e(e, "Unable to synchronize account %s", account.getName());
         } finally {
-            putBackground("clear notification flag for " + account.getDescription(), null, new Runnable() {
+            putBackground(account, "clear notification flag for " + account.getDescription(), null, new Runnable() {
                         @Override
                         public void run() {
                             Timber.v("Clearing notification flag for %s", account.getDescription());
@@ -2507,56 +2571,90 @@ public class MessagingController implements IMessageController {
     }
 
 
-    private void synchronizeFolder(
-            final Account account,
-            final Folder folder,
-            final boolean ignoreLastCheckedTime,
-            final long accountInterval,
-            final MessagingListener listener) {
-
+    private boolean isFolderSyncDue(Folder folder, boolean ignoreLastCheckedTime, long accountInterval) {
         Timber.v("Folder %s was last synced @ %tc", folder.getName(), folder.getLastChecked());
 
         if (!ignoreLastCheckedTime && folder.getLastChecked() > System.currentTimeMillis() - accountInterval) {
             Timber.v("Not syncing folder %s, previously synced @ %tc which would be too recent for the account " +
                     "period", folder.getName(), folder.getLastChecked());
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Synchronizes the given folders with one background command. Up to
+     * {@link Store#getMaxConcurrentConnections()} folders are synchronized in parallel, in the order determined by
+     * {@link FolderSyncPlanner}.
+     */
+    private void synchronizeFolders(
+            final Account account,
+            final List<LocalFolder> folders,
+            final boolean ignoreLastCheckedTime,
+            final long accountInterval,
+            final MessagingListener listener) {
+
+        if (folders.isEmpty()) {
             return;
         }
 
-        putBackground("sync" + folder.getName(), null, new Runnable() {
+        putBackground(account, "sync folders of " + account.getDescription(), null, new Runnable() {
                     @Override
                     public void run() {
-                        LocalFolder tLocalFolder = null;
+                        int maxParallelSyncs = 1;
                         try {
-                            // In case multiple Commands get enqueued, don't run more than
-                            // once
-                            final LocalStore localStore = account.getLocalStore();
-                            tLocalFolder = localStore.getFolder(folder.getName());
-                            tLocalFolder.open(Folder.OPEN_MODE_RW);
-
-                            if (!ignoreLastCheckedTime && tLocalFolder.getLastChecked() >
-                                    (System.currentTimeMillis() - accountInterval)) {
-                                Timber.v("Not running Command for folder %s, previously synced @ %tc which would " +
-                                        "be too recent for the account period",
-                                        folder.getName(), folder.getLastChecked());
-                                return;
-                            }
-                            showFetchingMailNotificationIfNecessary(account, folder);
-                            try {
-                                synchronizeMailboxSynchronous(account, folder.getName(), listener, null);
-                            } finally {
-                                clearFetchingMailNotificationIfNecessary(account);
-                            }
-                        } catch (Exception e) {
-                            Timber.e(e, "Exception while processing folder %s:%s",
-                                    account.getDescription(), folder.getName());
+                            maxParallelSyncs = account.getRemoteStore().getMaxConcurrentConnections();
+                        } catch (MessagingException e) {
+                            Timber.w(e, "Unable to get remote store for account %s", account.getDescription());
+                        }
+
+                        List<LocalFolder> sortedFolders =
+                                FolderSyncPlanner.sortByPriority(folders, account.getInboxFolderName());
+                        Timber.d("Synchronizing %d folders of account %s, up to %d at a time",
+                                sortedFolders.size(), account.getDescription(), maxParallelSyncs);
+
+                        try {
+                            new FolderSyncPlanner(threadPool).synchronize(sortedFolders, maxParallelSyncs,
+                                    new FolderSyncPlanner.FolderSync() {
+                                        @Override
+                                        public void synchronizeFolder(LocalFolder folder) {
+                                            synchronizeFolderIfDue(account, folder.getName(), ignoreLastCheckedTime,
+                                                    accountInterval, listener);
+                                        }
+                                    });
                         } finally {
-                            closeFolder(tLocalFolder);
+                            clearFetchingMailNotificationIfNecessary(account);
                         }
                     }
                 }
         );
+    }
 
-
+    private void synchronizeFolderIfDue(Account account, String folderName, boolean ignoreLastCheckedTime,
+            long accountInterval, MessagingListener listener) {
+        LocalFolder tLocalFolder = null;
+        try {
+            // In case multiple Commands get enqueued, don't run more than
+            // once
+            final LocalStore localStore = account.getLocalStore();
+            tLocalFolder = localStore.getFolder(folderName);
+            tLocalFolder.open(Folder.OPEN_MODE_RW);
+
+            if (!ignoreLastCheckedTime && tLocalFolder.getLastChecked() >
+                    (System.currentTimeMillis() - accountInterval)) {
+                Timber.v("Not running Command for folder %s, previously synced @ %tc which would " +
+                        "be too recent for the account period",
+                        folderName, tLocalFolder.getLastChecked());
+                return;
+            }
+            showFetchingMailNotificationIfNecessary(account, tLocalFolder);
+            synchronizeMailboxSynchronous(account, folderName, listener, null);
+        } catch (Exception e) {
+            Timber.e(e, "Exception while processing folder %s:%s", account.getDescription(), folderName);
+        } finally {
+            closeFolder(tLocalFolder);
+        }
     }
 
     private void showFetchingMailNotificationIfNecessary(Account account, Folder folder) {
@@ -2573,7 +2671,7 @@ public class MessagingController implements IMessageController {
 
     @Override
     public void compact(final Account account, final MessagingListener ml) {
-        putBackground("compact:" + account.getDescription(), ml, new Runnable() {
+        putBackground(account, "compact:" + account.getDescription(), ml, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -2596,7 +2694,7 @@ public class MessagingController implements IMessageController {
 
     @Override
     public void clear(final Account account, final MessagingListener ml) {
-        putBackground("clear:" + account.getDescription(), ml, new Runnable() {
+        putBackground(account, "clear:" + account.getDescription(), ml, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -2625,7 +2723,7 @@ public class MessagingController implements IMessageController {
 
     @Override
     public void recreate(final Account account, final MessagingListener ml) {
-        putBackground("recreate:" + account.getDescription(), ml, new Runnable() {
+        putBackground(account, "recreate:" + account.getDescription(), ml, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -2790,28 +2888,6 @@ public class MessagingController implements IMessageController {
                 fMode == Folder.FolderClass.SECOND_CLASS);
     }
 
-    private static AtomicInteger sequencing = new AtomicInteger(0);
-
-    private static class Command implements Comparable<Command> {
-        public Runnable runnable;
-        public MessagingListener listener;
-        public String description;
-        boolean isForegroundPriority;
-
-        int sequence = sequencing.getAndIncrement();
-
-        @Override
-        public int compareTo(@NonNull Command other) {
-            if (other.isForegroundPriority && !isForegroundPriority) {
-                return 1;
-            } else if (!other.isForegroundPriority && isForegroundPriority) {
-                return -1;
-            } else {
-                return (sequence - other.sequence);
-            }
-        }
-    }
-
     @Override
     public MessagingListener getCheckMailListener() {
         return checkMailListener;
@@ -2946,7 +3022,7 @@ public class MessagingController implements IMessageController {
                 account.getDescription(), remoteFolder.getName());
 
         final CountDownLatch latch = new CountDownLatch(1);
-        putBackground("Push messageArrived of account " + account.getDescription()
+        putBackground(account, "Push messageArrived of account " + account.getDescription()
                 + ", folder " + remoteFolder.getName(), null, new Runnable() {
             @Override
             public void run() {
@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -19,6 +20,7 @@ import com.fsck.k9.Account.Expunge;
 import com.fsck.k9.AccountStats;
 import com.fsck.k9.K9;
 import com.fsck.k9.activity.MessageReference;
+import com.fsck.k9.controller.MessageDownloader;
 import com.fsck.k9.controller.MessagingController;
 import com.fsck.k9.controller.MessagingListener;
 import com.fsck.k9.controller.UidReverseComparator;
@@ -29,6 +31,8 @@ import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
 import com.fsck.k9.mail.Folder.FolderType;
+import com.fsck.k9.mail.FolderChanges;
+import com.fsck.k9.mail.FolderSyncState;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
@@ -47,16 +51,26 @@ import static com.fsck.k9.helper.ExceptionHelper.getRootCauseMessage;
 
 
 class ImapSync {
+    private static final int DEFAULT_SMALL_MESSAGE_BATCH_SIZE = 50;
+
+
     private final NotificationController notificationController;
     private final MessagingController controller;
     private final Context context;
+    private final int smallMessageBatchSize;
 
 
     // TODO: Replace all of these dependencies with one or more interfaces
     ImapSync(NotificationController notificationController, MessagingController controller, Context context) {
+        this(notificationController, controller, context, DEFAULT_SMALL_MESSAGE_BATCH_SIZE);
+    }
+
+    ImapSync(NotificationController notificationController, MessagingController controller, Context context,
+            int smallMessageBatchSize) {
         this.notificationController = notificationController;
         this.controller = controller;
         this.context = context;
+        this.smallMessageBatchSize = smallMessageBatchSize;
     }
 
     void sync(Account account, String folder, MessagingListener listener, Folder providedRemoteFolder) {
@@ -174,16 +188,43 @@ class ImapSync {
             final Date earliestDate = account.getEarliestPollDate();
             long earliestTimestamp = earliestDate != null ? earliestDate.getTime() : 0L;
 
+            /*
+             * If the server supports CONDSTORE/QRESYNC, ask only for the changes since the last successful sync.
+             * When deletions are reported (QRESYNC), no new messages arrived and the window isn't bounded by date,
+             * we don't need the remote message list at all.
+             */
+            FolderSyncState lastSyncState = localFolder.getLastSyncState();
+            FolderSyncState remoteSyncState = providedRemoteFolder == null ? remoteFolder.getSyncState() : null;
+            FolderChanges<?> remoteChanges = null;
+            if (remoteSyncState != null) {
+                remoteChanges = remoteFolder.getChangesSince(lastSyncState);
+            }
+
+            boolean skipMessageList = remoteChanges != null && remoteChanges.areDeletionsKnown() &&
+                    earliestDate == null && remoteSyncState.getUidNext() != -1 &&
+                    remoteSyncState.getUidNext() == lastSyncState.getUidNext();
 
             int remoteStart = 1;
-            if (remoteMessageCount > 0) {
-                /* Message numbers start at 1.  */
-                if (visibleLimit > 0) {
-                    remoteStart = Math.max(0, remoteMessageCount - visibleLimit) + 1;
-                } else {
-                    remoteStart = 1;
-                }
+            /* Message numbers start at 1.  */
+            if (remoteMessageCount > 0 && visibleLimit > 0) {
+                remoteStart = Math.max(0, remoteMessageCount - visibleLimit) + 1;
+            }
 
+            if (skipMessageList) {
+                Timber.v("SYNC: No new messages in folder %s, only applying %d flag changes and %d deletions",
+                        folder, remoteChanges.getChangedMessages().size(), remoteChanges.getVanishedUids().size());
+
+                // Retry downloading messages whose download failed during an earlier sync
+                Set<String> vanishedUids = new HashSet<>(remoteChanges.getVanishedUids());
+                for (String uid : localFolder.getIncompleteMessageUids()) {
+                    if (!vanishedUids.contains(uid)) {
+                        Message message = remoteFolder.getMessage(uid);
+                        remoteMessages.add(message);
+                        remoteUidMap.put(uid, message);
+                    }
+                }
+                Timber.v("SYNC: Retrying download of %d messages in folder %s", remoteMessages.size(), folder);
+            } else if (remoteMessageCount > 0) {
                 Timber.v("SYNC: About to get messages %d through %d for folder %s",
                         remoteStart, remoteMessageCount, folder);
 
@@ -226,9 +267,17 @@ class ImapSync {
             MoreMessages moreMessages = localFolder.getMoreMessages();
             if (account.syncRemoteDeletions()) {
                 List<String> destroyMessageUids = new ArrayList<>();
-                for (String localMessageUid : localUidMap.keySet()) {
-                    if (remoteUidMap.get(localMessageUid) == null) {
-                        destroyMessageUids.add(localMessageUid);
+                if (skipMessageList) {
+                    for (String vanishedUid : remoteChanges.getVanishedUids()) {
+                        if (localUidMap.containsKey(vanishedUid)) {
+                            destroyMessageUids.add(vanishedUid);
+                        }
+                    }
+                } else {
+                    for (String localMessageUid : localUidMap.keySet()) {
+                        if (remoteUidMap.get(localMessageUid) == null) {
+                            destroyMessageUids.add(localMessageUid);
+                        }
                     }
                 }
 
@@ -255,7 +304,17 @@ class ImapSync {
             /*
              * Now we download the actual content of messages.
              */
-            int newMessages = downloadMessages(account, remoteFolder, localFolder, remoteMessages, false, true);
+            boolean refreshFlags = remoteChanges == null;
+            int newMessages = downloadMessages(account, remoteFolder, localFolder, remoteMessages, false, true,
+                    refreshFlags);
+
+            if (remoteChanges != null) {
+                applyRemoteFlagChanges(account, localFolder, folder, remoteChanges.getChangedMessages());
+            }
+
+            if (providedRemoteFolder == null) {
+                localFolder.setLastSyncState(remoteSyncState);
+            }
 
             int unreadMessageCount = localFolder.getUnreadMessageCount();
             for (MessagingListener l : getListeners()) {
@@ -376,6 +435,13 @@ class ImapSync {
     int downloadMessages(final Account account, final Folder remoteFolder,
             final LocalFolder localFolder, List<Message> inputMessages,
             boolean flagSyncOnly, boolean purgeToVisibleLimit) throws MessagingException {
+        return downloadMessages(account, remoteFolder, localFolder, inputMessages, flagSyncOnly, purgeToVisibleLimit,
+                true);
+    }
+
+    private int downloadMessages(final Account account, final Folder remoteFolder,
+            final LocalFolder localFolder, List<Message> inputMessages,
+            boolean flagSyncOnly, boolean purgeToVisibleLimit, boolean refreshFlags) throws MessagingException {
 
         final Date earliestDate = account.getEarliestPollDate();
         Date downloadStarted = new Date(); // now
@@ -474,10 +540,12 @@ class ImapSync {
 
         /*
          * Refresh the flags for any messages in the local store that we didn't just
-         * download.
+         * download. Not necessary if the caller applies flag changes reported by the server.
          */
 
-        refreshLocalMessageFlags(account, remoteFolder, localFolder, syncFlagMessages, progress, todo);
+        if (refreshFlags) {
+            refreshLocalMessageFlags(account, remoteFolder, localFolder, syncFlagMessages, progress, todo);
+        }
 
         Timber.d("SYNC: Synced remote messages for folder %s, %d new messages", folder, newMessages.get());
 
@@ -625,51 +693,22 @@ class ImapSync {
 
         Timber.d("SYNC: Fetching %d small messages for folder %s", smallMessages.size(), folder);
 
+        final List<T> batch = new ArrayList<>(smallMessageBatchSize);
         remoteFolder.fetch(smallMessages,
                 fp, new MessageRetrievalListener<T>() {
                     @Override
                     public void messageFinished(final T message, int number, int ofTotal) {
-                        try {
-
-                            if (!shouldImportMessage(message, earliestDate)) {
-                                progress.incrementAndGet();
-
-                                return;
-                            }
-
-                            // Store the updated message locally
-                            final LocalMessage localMessage = localFolder.storeSmallMessage(message, new Runnable() {
-                                @Override
-                                public void run() {
-                                    progress.incrementAndGet();
-                                }
-                            });
+                        if (!shouldImportMessage(message, earliestDate)) {
+                            progress.incrementAndGet();
 
-                            // Increment the number of "new messages" if the newly downloaded message is
-                            // not marked as read.
-                            if (!localMessage.isSet(Flag.SEEN)) {
-                                newMessages.incrementAndGet();
-                            }
-
-                            Timber.v("About to notify listeners that we got a new small message %s:%s:%s",
-                                    account, folder, message.getUid());
-
-                            // Update the listener with what we've found
-                            for (MessagingListener l : getListeners()) {
-                                l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
-                                if (!localMessage.isSet(Flag.SEEN)) {
-                                    l.synchronizeMailboxNewMessage(account, folder, localMessage);
-                                }
-                            }
-                            // Send a notification of this message
-
-                            if (shouldNotifyForMessage(account, localFolder, message)) {
-                                // Notify with the localMessage so that we don't have to recalculate the content preview.
-                                notificationController.addNewMailNotification(account, localMessage, unreadBeforeStart);
-                            }
+                            return;
+                        }
 
-                        } catch (MessagingException me) {
-                            Timber.e(me, "SYNC: fetch small messages");
+                        batch.add(message);
+                        if (batch.size() >= smallMessageBatchSize) {
+                            storeSmallMessageBatch(account, folder, localFolder, batch, progress, unreadBeforeStart,
+                                    newMessages, todo);
+                            batch.clear();
                         }
                     }
 
@@ -682,9 +721,20 @@ class ImapSync {
                     }
                 });
 
+        if (!batch.isEmpty()) {
+            storeSmallMessageBatch(account, folder, localFolder, batch, progress, unreadBeforeStart, newMessages,
+                    todo);
+        }
+
         Timber.d("SYNC: Done fetching small messages for folder %s", folder);
     }
 
+    private <T extends Message> void storeSmallMessageBatch(Account account, String folder, LocalFolder localFolder,
+            List<T> messages, AtomicInteger progress, int unreadBeforeStart, AtomicInteger newMessages, int todo) {
+        MessageDownloader.storeSmallMessageBatch(notificationController, getListeners(), account, folder, localFolder,
+                messages, progress, unreadBeforeStart, newMessages, todo, controller);
+    }
+
     private <T extends Message> void downloadLargeMessages(final Account account, final Folder<T> remoteFolder,
             final LocalFolder localFolder,
             List<T> largeMessages,
@@ -762,26 +812,7 @@ class ImapSync {
 
         remoteFolder.fetch(undeletedMessages, fp, null);
         for (Message remoteMessage : syncFlagMessages) {
-            LocalMessage localMessage = localFolder.getMessage(remoteMessage.getUid());
-            boolean messageChanged = syncFlags(localMessage, remoteMessage);
-            if (messageChanged) {
-                boolean shouldBeNotifiedOf = false;
-                if (localMessage.isSet(Flag.DELETED) || isMessageSuppressed(localMessage)) {
-                    for (MessagingListener l : getListeners()) {
-                        l.synchronizeMailboxRemovedMessage(account, folder, localMessage);
-                    }
-                } else {
-                    if (shouldNotifyForMessage(account, localFolder, localMessage)) {
-                        shouldBeNotifiedOf = true;
-                    }
-                }
-
-                // we're only interested in messages that need removing
-                if (!shouldBeNotifiedOf) {
-                    MessageReference messageReference = localMessage.makeMessageReference();
-                    notificationController.removeNewMailNotification(account, messageReference);
-                }
-            }
+            applyRemoteFlags(account, localFolder, folder, remoteMessage);
             progress.incrementAndGet();
             for (MessagingListener l : getListeners()) {
                 l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
@@ -789,6 +820,40 @@ class ImapSync {
         }
     }
 
+    private void applyRemoteFlagChanges(Account account, LocalFolder localFolder, String folder,
+            List<? extends Message> changedMessages) throws MessagingException {
+        Timber.d("SYNC: About to apply flag changes for %d remote messages for folder %s", changedMessages.size(),
+                folder);
+
+        for (Message remoteMessage : changedMessages) {
+            applyRemoteFlags(account, localFolder, folder, remoteMessage);
+        }
+    }
+
+    private void applyRemoteFlags(Account account, LocalFolder localFolder, String folder, Message remoteMessage)
+            throws MessagingException {
+        LocalMessage localMessage = localFolder.getMessage(remoteMessage.getUid());
+        boolean messageChanged = syncFlags(localMessage, remoteMessage);
+        if (messageChanged) {
+            boolean shouldBeNotifiedOf = false;
+            if (localMessage.isSet(Flag.DELETED) || isMessageSuppressed(localMessage)) {
+                for (MessagingListener l : getListeners()) {
+                    l.synchronizeMailboxRemovedMessage(account, folder, localMessage);
+                }
+            } else {
+                if (shouldNotifyForMessage(account, localFolder, localMessage)) {
+                    shouldBeNotifiedOf = true;
+                }
+            }
+
+            // we're only interested in messages that need removing
+            if (!shouldBeNotifiedOf) {
+                MessageReference messageReference = localMessage.makeMessageReference();
+                notificationController.removeNewMailNotification(account, messageReference);
+            }
+        }
+    }
+
     private void downloadSaneBody(Account account, Folder remoteFolder, LocalFolder localFolder, Message message)
             throws MessagingException {
         /*
@@ -116,6 +116,7 @@ public class SendPendingMessagesTask implements Runnable {
     @VisibleForTesting
     void sendPendingMessagesSynchronous() {
         LocalFolder localFolder = null;
+        Transport transport = null;
         Exception lastFailure = null;
         boolean wasPermanentFailure = false;
         try {
@@ -148,7 +149,9 @@ public class SendPendingMessagesTask implements Runnable {
             Timber.i("Scanning folder '%s' (%d) for messages to send",
                     account.getOutboxFolderName(), localFolder.getDatabaseId());
 
-            Transport transport = transportProvider.getTransport(K9.app, account);
+            transport = transportProvider.getTransport(K9.app, account);
+            // Send all messages using the same connection
+            transport.beginBatch();
 
             for (LocalMessage message : localMessages) {
                 if (message.isSet(Flag.DELETED)) {
@@ -244,6 +247,9 @@ public class SendPendingMessagesTask implements Runnable {
                 l.sendPendingMessagesFailed(account);
             }
         } finally {
+            if (transport != null) {
+                transport.endBatch();
+            }
             if (lastFailure == null) {
                 notificationController.clearSendFailedNotification(account);
             }
@@ -43,6 +43,8 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.Window;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView;
 import android.widget.AdapterView.AdapterContextMenuInfo;
 import android.widget.AdapterView.OnItemClickListener;
@@ -132,6 +134,22 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
     private static final String STATE_ACTIVE_MESSAGE = "activeMessage";
     private static final String STATE_REMOTE_SEARCH_PERFORMED = "remoteSearchPerformed";
     private static final String STATE_MESSAGE_LIST = "listState";
+    private static final String STATE_WINDOW_SIZE = "windowSize";
+
+    /**
+     * Number of messages per account added to the message list window at a time.
+     */
+    private static final int WINDOW_PAGE_SIZE = 200;
+
+    /**
+     * Load the next page once the last visible item is this close to the end of the loaded messages.
+     */
+    private static final int WINDOW_PREFETCH_DISTANCE = 50;
+
+    /**
+     * Window size used to load all messages, e.g. to select all of them.
+     */
+    private static final int WINDOW_SIZE_UNLIMITED = Integer.MAX_VALUE;
 
     /**
      * Maps a {@link SortType} to a {@link Comparator} implementation.
@@ -174,6 +192,20 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
 
     private Cursor[] cursors;
     private boolean[] cursorValid;
+    /**
+     * The maximum number of messages in the list. Every account's query and the merged list of all accounts are
+     * limited to this size. Grows by {@link #WINDOW_PAGE_SIZE} when the user scrolls close to the end of the list,
+     * so changes to a large folder only re-read the part of it that has been shown.
+     */
+    private int windowSize = WINDOW_PAGE_SIZE;
+    /**
+     * {@code true} while the window is being extended to all messages, so they can be selected once loaded.
+     */
+    private boolean selectAllPending = false;
+    /**
+     * {@code true} while the window is being extended because selected messages were missing from a full window.
+     */
+    private boolean selectionReloadPending = false;
     int uniqueIdColumn;
 
     /**
@@ -504,6 +536,7 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         saveListState(outState);
 
         outState.putBoolean(STATE_REMOTE_SEARCH_PERFORMED, remoteSearchPerformed);
+        outState.putInt(STATE_WINDOW_SIZE, windowSize);
         if (activeMessage != null) {
             outState.putString(STATE_ACTIVE_MESSAGE, activeMessage.toIdentityString());
         }
@@ -522,6 +555,7 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         restoreSelectedMessages(savedInstanceState);
 
         remoteSearchPerformed = savedInstanceState.getBoolean(STATE_REMOTE_SEARCH_PERFORMED);
+        windowSize = savedInstanceState.getInt(STATE_WINDOW_SIZE, WINDOW_PAGE_SIZE);
         savedListState = savedInstanceState.getParcelable(STATE_MESSAGE_LIST);
         String messageReferenceString = savedInstanceState.getString(STATE_ACTIVE_MESSAGE);
         activeMessage = MessageReference.parse(messageReferenceString);
@@ -726,6 +760,46 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         }
     }
 
+    /**
+     * Grows the message list window when {@code visibleEnd} gets close to the end of the loaded messages and at
+     * least one account might have more messages than the current window.
+     */
+    private void loadMoreIfNecessary(int visibleEnd) {
+        if (adapter == null || !isLoadFinished() || !isWindowFull()) {
+            return;
+        }
+
+        if (visibleEnd + WINDOW_PREFETCH_DISTANCE < adapter.getCount()) {
+            return;
+        }
+
+        growWindow();
+    }
+
+    void growWindow() {
+        windowSize += WINDOW_PAGE_SIZE;
+        restartLoader();
+    }
+
+    /**
+     * Returns {@code true} if the loaded messages might have been cut off by the window size, i.e. if the cursors
+     * contain at least as many messages as the window.
+     */
+    private boolean isWindowFull() {
+        if (windowSize == WINDOW_SIZE_UNLIMITED) {
+            return false;
+        }
+
+        int count = 0;
+        for (Cursor cursor : cursors) {
+            if (cursor != null && !cursor.isClosed()) {
+                count += cursor.getCount();
+            }
+        }
+
+        return count >= windowSize;
+    }
+
     private void initializePullToRefresh(View layout) {
         swipeRefreshLayout = (SwipeRefreshLayout) layout.findViewById(R.id.swiperefresh);
         listView = (ListView) layout.findViewById(R.id.message_list);
@@ -760,6 +834,17 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         listView.setFastScrollEnabled(true);
         listView.setScrollingCacheEnabled(false);
         listView.setOnItemClickListener(this);
+        listView.setOnScrollListener(new OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                // Do nothing
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                loadMoreIfNecessary(firstVisibleItem + visibleItemCount);
+            }
+        });
 
         registerForContextMenu(listView);
     }
@@ -878,6 +963,8 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         Toast toast = Toast.makeText(getActivity(), toastString, Toast.LENGTH_SHORT);
         toast.show();
 
+        windowSize = WINDOW_PAGE_SIZE;
+
         LoaderManager loaderManager = getLoaderManager();
         for (int i = 0, len = accountUuids.length; i < len; i++) {
             loaderManager.restartLoader(i, null, this);
@@ -1493,6 +1580,14 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
                 return;
             }
 
+            if (isWindowFull()) {
+                // Not all messages are loaded. Load all of them and select them once they are available.
+                selectAllPending = true;
+                windowSize = WINDOW_SIZE_UNLIMITED;
+                restartLoader();
+                return;
+            }
+
             selectedCount = 0;
             for (int i = 0, end = adapter.getCount(); i < end; i++) {
                 Cursor cursor = (Cursor) adapter.getItem(i);
@@ -2602,6 +2697,12 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
             needConditions = true;
         }
 
+        if (needConditions && windowSize != WINDOW_SIZE_UNLIMITED) {
+            uri = uri.buildUpon()
+                    .appendQueryParameter(EmailProvider.QUERY_PARAMETER_LIMIT, Integer.toString(windowSize))
+                    .build();
+        }
+
         StringBuilder query = new StringBuilder();
         List<String> queryArgs = new ArrayList<>();
         if (needConditions) {
@@ -2701,7 +2802,9 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
 
         Cursor cursor;
         if (cursors.length > 1) {
-            cursor = new MergeCursorWithUniqueId(cursors, getComparator());
+            // Every account's cursor contains the first messages of that account. Only the first messages of the
+            // merged list are complete, the messages after them might be missing messages of other accounts.
+            cursor = new MergeCursorWithUniqueId(cursors, getComparator(), windowSize);
             uniqueIdColumn = cursor.getColumnIndex("_id");
         } else {
             cursor = data;
@@ -2736,6 +2839,11 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
                 handler.restoreListPosition();
             }
 
+            if (selectAllPending) {
+                selectAllPending = false;
+                setSelectionState(true);
+            }
+
             fragmentListener.updateMenu();
         }
     }
@@ -2792,6 +2900,11 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
             return;
         }
 
+        // Other accounts' cursors might still contain old results
+        if (!isLoadFinished()) {
+            return;
+        }
+
         Set<Long> selected = new HashSet<>();
         for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
             long uniqueId = cursor.getLong(uniqueIdColumn);
@@ -2800,6 +2913,15 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
             }
         }
 
+        if (selected.size() < this.selected.size() && !selectionReloadPending && isWindowFull()) {
+            // Selected messages might have been pushed out of the full window by new messages. Keep the selection
+            // and load another page. Selected messages that are still missing after that have been removed.
+            selectionReloadPending = true;
+            handler.growWindow();
+            return;
+        }
+
+        selectionReloadPending = false;
         this.selected = selected;
     }
 
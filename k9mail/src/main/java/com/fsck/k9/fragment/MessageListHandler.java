@@ -26,6 +26,7 @@ public class MessageListHandler extends Handler {
     private static final int ACTION_GO_BACK = 5;
     private static final int ACTION_RESTORE_LIST_POSITION = 6;
     private static final int ACTION_OPEN_MESSAGE = 7;
+    private static final int ACTION_GROW_WINDOW = 8;
 
     private WeakReference<MessageListFragment> mFragment;
 
@@ -87,6 +88,11 @@ public class MessageListHandler extends Handler {
         sendMessage(msg);
     }
 
+    public void growWindow() {
+        android.os.Message msg = android.os.Message.obtain(this, ACTION_GROW_WINDOW);
+        sendMessage(msg);
+    }
+
     @Override
     public void handleMessage(android.os.Message msg) {
         MessageListFragment fragment = mFragment.get();
@@ -137,6 +143,10 @@ public class MessageListHandler extends Handler {
                 fragment.fragmentListener.openMessage(messageReference);
                 break;
             }
+            case ACTION_GROW_WINDOW: {
+                fragment.growWindow();
+                break;
+            }
         }
     }
 }
@@ -17,6 +17,7 @@
 
 package com.fsck.k9.helper;
 
+import java.util.Arrays;
 import java.util.Comparator;
 
 import android.annotation.TargetApi;
@@ -34,6 +35,8 @@ import android.os.Bundle;
  * This class can be used to combine multiple {@link Cursor}s into one.
  */
 public class MergeCursor implements Cursor {
+    private static final int MIN_MERGE_INDEX_CAPACITY = 64;
+
     /**
      * List of the cursors combined in this object.
      */
@@ -66,6 +69,33 @@ public class MergeCursor implements Cursor {
      */
     private final Comparator<Cursor> mComparator;
 
+    /**
+     * The maximum number of rows of the merged result.
+     */
+    private final int mLimit;
+
+    /**
+     * Index of the cursor that provides the row at a given merged position.
+     *
+     * @see #extendMergeIndex(int)
+     */
+    private int[] mMergeIndexCursors = new int[0];
+
+    /**
+     * Row in the cursor referenced by {@link #mMergeIndexCursors} for a given merged position.
+     */
+    private int[] mMergeIndexRows = new int[0];
+
+    /**
+     * Number of merged positions that have already been indexed.
+     */
+    private int mMergeIndexSize = 0;
+
+    /**
+     * For every cursor the first row that hasn't been added to the merge index yet.
+     */
+    private final int[] mNextRows;
+
 
     /**
      * Constructor
@@ -76,8 +106,25 @@ public class MergeCursor implements Cursor {
      *         A comparator that is used to decide in what order the individual cursors are merged.
      */
     public MergeCursor(Cursor[] cursors, Comparator<Cursor> comparator) {
+        this(cursors, comparator, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param cursors
+     *         The list of cursors this {@code MultiCursor} should combine.
+     * @param comparator
+     *         A comparator that is used to decide in what order the individual cursors are merged.
+     * @param limit
+     *         The maximum number of rows of the merged result. If every cursor contains the first {@code limit}
+     *         rows of its query, the merged result contains the first {@code limit} rows of all queries combined.
+     */
+    public MergeCursor(Cursor[] cursors, Comparator<Cursor> comparator, int limit) {
         mCursors = cursors.clone();
         mComparator = comparator;
+        mLimit = limit;
+        mNextRows = new int[mCursors.length];
 
         resetCursors();
     }
@@ -164,7 +211,7 @@ public class MergeCursor implements Cursor {
                 }
             }
 
-            mCount = count;
+            mCount = Math.min(count, mLimit);
         }
 
         return mCount;
@@ -291,45 +338,7 @@ public class MergeCursor implements Cursor {
             return false;
         }
 
-        if (mPosition == count - 1) {
-            mActiveCursor.moveToNext();
-            mPosition++;
-            return false;
-        }
-
-        int smallest = -1;
-        for (int i = 0, len = mCursors.length; i < len; i++) {
-            if (mCursors[i] == null || mCursors[i].getCount() == 0 || mCursors[i].isLast()) {
-                continue;
-            }
-
-            if (smallest == -1) {
-                smallest = i;
-                mCursors[smallest].moveToNext();
-                continue;
-            }
-
-            Cursor left = mCursors[smallest];
-            Cursor right = mCursors[i];
-
-            right.moveToNext();
-
-            int result = mComparator.compare(left, right);
-            if (result > 0) {
-                smallest = i;
-                left.moveToPrevious();
-            } else {
-                right.moveToPrevious();
-            }
-        }
-
-        mPosition++;
-        if (smallest != -1) {
-            mActiveCursorIndex = smallest;
-            mActiveCursor = mCursors[mActiveCursorIndex];
-        }
-
-        return true;
+        return moveToPosition(mPosition + 1);
     }
 
     @Override
@@ -337,12 +346,18 @@ public class MergeCursor implements Cursor {
         // Make sure position isn't past the end of the cursor
         final int count = getCount();
         if (position >= count) {
+            if (mActiveCursor != null && mPosition != count) {
+                mActiveCursor.moveToPosition(mActiveCursor.getCount());
+            }
             mPosition = count;
             return false;
         }
 
         // Make sure position isn't before the beginning of the cursor
         if (position < 0) {
+            if (mActiveCursor != null && mPosition != -1) {
+                mActiveCursor.moveToPosition(-1);
+            }
             mPosition = -1;
             return false;
         }
@@ -352,19 +367,12 @@ public class MergeCursor implements Cursor {
             return true;
         }
 
-        if (position > mPosition) {
-            for (int i = 0, end = position - mPosition; i < end; i++) {
-                if (!moveToNext()) {
-                    return false;
-                }
-            }
-        } else {
-            for (int i = 0, end = mPosition - position; i < end; i++) {
-                if (!moveToPrevious()) {
-                    return false;
-                }
-            }
-        }
+        extendMergeIndex(position);
+
+        mActiveCursorIndex = mMergeIndexCursors[position];
+        mActiveCursor = mCursors[mActiveCursorIndex];
+        mActiveCursor.moveToPosition(mMergeIndexRows[position]);
+        mPosition = position;
 
         return true;
     }
@@ -375,40 +383,56 @@ public class MergeCursor implements Cursor {
             return false;
         }
 
-        mActiveCursor.moveToPrevious();
+        return moveToPosition(mPosition - 1);
+    }
 
-        if (mPosition == 0) {
-            mPosition = -1;
-            return false;
+    /**
+     * Makes sure the merge order is known up to and including {@code position}.
+     *
+     * <p>
+     * The merge order is computed once and stored as (cursor index, row) pairs so that moving to an arbitrary
+     * position doesn't have to run the comparator against all cursors for every step between the old and the new
+     * position.
+     * </p>
+     */
+    private void extendMergeIndex(int position) {
+        if (position < mMergeIndexSize) {
+            return;
         }
 
-        int greatest = -1;
-        for (int i = 0, len = mCursors.length; i < len; i++) {
-            if (mCursors[i] == null || mCursors[i].isBeforeFirst()) {
-                continue;
-            }
+        if (position >= mMergeIndexRows.length) {
+            int capacity = Math.max(position + 1, Math.max(mMergeIndexRows.length * 2, MIN_MERGE_INDEX_CAPACITY));
+            capacity = Math.min(capacity, getCount());
+            mMergeIndexCursors = Arrays.copyOf(mMergeIndexCursors, capacity);
+            mMergeIndexRows = Arrays.copyOf(mMergeIndexRows, capacity);
+        }
 
-            if (greatest == -1) {
-                greatest = i;
-                continue;
+        // Position all cursors on the first row that hasn't been merged yet
+        for (int i = 0, len = mCursors.length; i < len; i++) {
+            if (mCursors[i] != null) {
+                mCursors[i].moveToPosition(mNextRows[i]);
             }
+        }
 
-            Cursor left = mCursors[greatest];
-            Cursor right = mCursors[i];
+        while (mMergeIndexSize <= position) {
+            int smallest = -1;
+            for (int i = 0, len = mCursors.length; i < len; i++) {
+                if (mCursors[i] == null || mCursors[i].isAfterLast()) {
+                    continue;
+                }
 
-            int result = mComparator.compare(left, right);
-            if (result <= 0) {
-                greatest = i;
+                if (smallest == -1 || mComparator.compare(mCursors[smallest], mCursors[i]) > 0) {
+                    smallest = i;
+                }
             }
-        }
 
-        mPosition--;
-        if (greatest != -1) {
-            mActiveCursorIndex = greatest;
-            mActiveCursor = mCursors[mActiveCursorIndex];
-        }
+            mMergeIndexCursors[mMergeIndexSize] = smallest;
+            mMergeIndexRows[mMergeIndexSize] = mNextRows[smallest];
+            mMergeIndexSize++;
 
-        return true;
+            mNextRows[smallest]++;
+            mCursors[smallest].moveToNext();
+        }
     }
 
     @Override
@@ -433,6 +457,12 @@ public class MergeCursor implements Cursor {
             success &= cursor.requery();
         }
 
+        // The underlying data might have changed
+        mCount = -1;
+        mMergeIndexSize = 0;
+        Arrays.fill(mNextRows, 0);
+        resetCursors();
+
         return success;
     }
 
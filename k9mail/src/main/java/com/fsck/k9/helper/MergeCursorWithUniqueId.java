@@ -15,7 +15,11 @@ public class MergeCursorWithUniqueId extends MergeCursor {
 
 
     public MergeCursorWithUniqueId(Cursor[] cursors, Comparator<Cursor> comparator) {
-        super(cursors, comparator);
+        this(cursors, comparator, Integer.MAX_VALUE);
+    }
+
+    public MergeCursorWithUniqueId(Cursor[] cursors, Comparator<Cursor> comparator, int limit) {
+        super(cursors, comparator, limit);
 
         if (cursors.length > MAX_CURSORS) {
             throw new IllegalArgumentException("This class only supports up to " +
@@ -0,0 +1,130 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fsck.k9.Clock;
+import com.fsck.k9.preferences.Storage;
+import com.fsck.k9.preferences.StorageEditor;
+import timber.log.Timber;
+
+
+/**
+ * Keeps track of the number of bytes used by the message part files of an account.
+ *
+ * <p>
+ * Summing up the sizes of all files means one file system call per file. Instead the size is updated whenever
+ * {@link LocalFolder} or {@link LocalStore} add or remove a file. The value is saved with the account settings and
+ * recalculated once a day by {@link #reconcile()} to correct any drift, e.g. caused by files that couldn't be deleted.
+ * </p>
+ */
+class AttachmentSizeTracker {
+    static final long RECONCILE_INTERVAL_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long UNKNOWN = -1L;
+
+
+    private final Storage storage;
+    private final Clock clock;
+    private final SizeCalculator sizeCalculator;
+    private final String sizeKey;
+    private final String reconciledKey;
+    private final AtomicLong size;
+    private long savedSize;
+    private long lastReconciled;
+
+
+    AttachmentSizeTracker(Storage storage, Clock clock, String accountUuid, SizeCalculator sizeCalculator) {
+        this.storage = storage;
+        this.clock = clock;
+        this.sizeCalculator = sizeCalculator;
+        sizeKey = getSizeKey(accountUuid);
+        reconciledKey = getReconciledKey(accountUuid);
+
+        savedSize = storage.getLong(sizeKey, UNKNOWN);
+        lastReconciled = storage.getLong(reconciledKey, 0L);
+        size = new AtomicLong(savedSize);
+    }
+
+    static String getSizeKey(String accountUuid) {
+        return accountUuid + ".attachmentStorageSize";
+    }
+
+    static String getReconciledKey(String accountUuid) {
+        return accountUuid + ".attachmentStorageSizeReconciled";
+    }
+
+    void fileAdded(long length) {
+        add(length);
+    }
+
+    void fileRemoved(long length) {
+        add(-length);
+    }
+
+    /**
+     * Forget the current size, e.g. because all files have been deleted. The next call to {@link #getSize()}
+     * calculates it again.
+     */
+    void invalidate() {
+        size.set(UNKNOWN);
+    }
+
+    long getSize() {
+        long currentSize = size.get();
+        if (currentSize == UNKNOWN) {
+            return reconcile();
+        }
+
+        saveIfChanged(currentSize);
+
+        return currentSize;
+    }
+
+    synchronized boolean isReconcileDue() {
+        return clock.getTime() - lastReconciled >= RECONCILE_INTERVAL_MILLIS;
+    }
+
+    synchronized long reconcile() {
+        long calculatedSize = sizeCalculator.calculateSize();
+        long previousSize = size.getAndSet(calculatedSize);
+        if (previousSize != UNKNOWN && previousSize != calculatedSize) {
+            Timber.d("Attachment storage size was off by %d bytes", previousSize - calculatedSize);
+        }
+
+        lastReconciled = clock.getTime();
+        save(calculatedSize);
+
+        return calculatedSize;
+    }
+
+    private void add(long delta) {
+        long currentSize;
+        do {
+            currentSize = size.get();
+            if (currentSize == UNKNOWN) {
+                // The size will be calculated the next time it's needed
+                return;
+            }
+        } while (!size.compareAndSet(currentSize, Math.max(0L, currentSize + delta)));
+    }
+
+    private synchronized void saveIfChanged(long currentSize) {
+        if (currentSize != savedSize) {
+            save(currentSize);
+        }
+    }
+
+    private synchronized void save(long currentSize) {
+        StorageEditor editor = storage.edit();
+        editor.putLong(sizeKey, currentSize);
+        editor.putLong(reconciledKey, lastReconciled);
+        editor.commit();
+
+        savedSize = currentSize;
+    }
+
+
+    interface SizeCalculator {
+        long calculateSize();
+    }
+}
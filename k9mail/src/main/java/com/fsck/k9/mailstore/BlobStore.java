@@ -0,0 +1,230 @@
+package com.fsck.k9.mailstore;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import android.content.Context;
+import android.support.annotation.VisibleForTesting;
+
+import com.fsck.k9.helper.FileHelper;
+import com.fsck.k9.mail.filter.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import timber.log.Timber;
+
+
+/**
+ * Content-addressed store for message part files, shared by all accounts using the same storage provider.
+ *
+ * <p>
+ * Every blob is kept in a directory named after the SHA-256 hash of its contents. Next to the data file this
+ * directory contains an empty marker file for each account referencing the blob. Within an account the references
+ * are the rows in {@code message_parts} with the blob's hash in {@code content_hash}. The account's marker is removed
+ * once the last of these rows is gone, and the blob is deleted when no marker is left.
+ * </p>
+ * <p>
+ * The data is stored exactly as it was received, i.e. still using the part's transfer encoding.
+ * </p>
+ */
+class BlobStore {
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final String DATA_FILE_NAME = "data";
+    private static final String TEMP_FILE_NAME = "data.tmp";
+
+    private static final ConcurrentMap<String, BlobStore> instances = new ConcurrentHashMap<>();
+
+
+    private final File blobDirectory;
+
+
+    static BlobStore getInstance(Context context, String storageProviderId) {
+        BlobStore blobStore = instances.get(storageProviderId);
+        if (blobStore == null) {
+            File blobDirectory = StorageManager.getInstance(context).getBlobDirectory(storageProviderId);
+            instances.putIfAbsent(storageProviderId, new BlobStore(blobDirectory));
+            blobStore = instances.get(storageProviderId);
+        }
+
+        return blobStore;
+    }
+
+    @VisibleForTesting
+    BlobStore(File blobDirectory) {
+        this.blobDirectory = blobDirectory;
+    }
+
+    static String computeHash(File file) throws IOException {
+        MessageDigest digest = createMessageDigest();
+        byte[] buffer = new byte[8192];
+
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+
+        return Hex.encodeHex(digest.digest());
+    }
+
+    File getFile(String hash) {
+        return new File(new File(blobDirectory, hash), DATA_FILE_NAME);
+    }
+
+    /**
+     * Adds a reference to the blob with the given hash. If the store doesn't contain the blob yet, {@code file} is
+     * moved into the store. Otherwise it is deleted.
+     *
+     * @return {@code true} if this is the first reference of the account to this blob.
+     */
+    synchronized boolean add(File file, String hash, String accountUuid) throws IOException {
+        File directory = new File(blobDirectory, hash);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create blob directory: " + directory.getAbsolutePath());
+        }
+
+        File dataFile = new File(directory, DATA_FILE_NAME);
+        if (dataFile.exists()) {
+            if (!file.delete()) {
+                Timber.d("Unable to delete duplicate of blob %s", hash);
+            }
+        } else {
+            // Only a complete file may be found under the data file name
+            File tempFile = new File(directory, TEMP_FILE_NAME);
+            FileHelper.renameOrMoveByCopying(file, tempFile);
+            if (!tempFile.renameTo(dataFile)) {
+                throw new IOException("Unable to rename blob file: " + tempFile.getAbsolutePath());
+            }
+        }
+
+        File marker = new File(directory, accountUuid);
+        return marker.createNewFile();
+    }
+
+    /**
+     * Removes the reference of the account to the blob with the given hash. The blob is deleted if no other account
+     * references it.
+     *
+     * @return The number of bytes no longer used by the account.
+     */
+    synchronized long release(String hash, String accountUuid) {
+        File directory = new File(blobDirectory, hash);
+        File marker = new File(directory, accountUuid);
+        if (!marker.delete()) {
+            return 0L;
+        }
+
+        long length = new File(directory, DATA_FILE_NAME).length();
+        deleteIfUnreferenced(directory);
+
+        return length;
+    }
+
+    synchronized List<String> getReferencedHashes(String accountUuid) {
+        List<String> hashes = new ArrayList<>();
+
+        File[] directories = blobDirectory.listFiles();
+        if (directories == null) {
+            return hashes;
+        }
+
+        for (File directory : directories) {
+            if (new File(directory, accountUuid).exists()) {
+                hashes.add(directory.getName());
+            }
+        }
+
+        return hashes;
+    }
+
+    long getReferencedSize(String accountUuid) {
+        long size = 0L;
+        for (String hash : getReferencedHashes(accountUuid)) {
+            size += getFile(hash).length();
+        }
+
+        return size;
+    }
+
+    void releaseAll(String accountUuid) {
+        for (String hash : getReferencedHashes(accountUuid)) {
+            release(hash, accountUuid);
+        }
+    }
+
+    /**
+     * Moves all references of the account to {@code target}, copying blobs that {@code target} doesn't contain yet.
+     */
+    void moveReferences(String accountUuid, BlobStore target) throws IOException {
+        for (String hash : getReferencedHashes(accountUuid)) {
+            if (!target.addReference(hash, accountUuid)) {
+                File file = target.createTempFile();
+                FileUtils.copyFile(getFile(hash), file);
+                target.add(file, hash, accountUuid);
+            }
+
+            release(hash, accountUuid);
+        }
+    }
+
+    private synchronized boolean addReference(String hash, String accountUuid) throws IOException {
+        File directory = new File(blobDirectory, hash);
+        if (!new File(directory, DATA_FILE_NAME).exists()) {
+            return false;
+        }
+
+        new File(directory, accountUuid).createNewFile();
+        return true;
+    }
+
+    private File createTempFile() throws IOException {
+        if (!blobDirectory.isDirectory() && !blobDirectory.mkdirs()) {
+            throw new IOException("Unable to create blob directory: " + blobDirectory.getAbsolutePath());
+        }
+
+        return File.createTempFile("blob", null, blobDirectory);
+    }
+
+    private void deleteIfUnreferenced(File directory) {
+        String[] names = directory.list();
+        if (names == null) {
+            return;
+        }
+
+        for (String name : names) {
+            if (!DATA_FILE_NAME.equals(name) && !TEMP_FILE_NAME.equals(name)) {
+                return;
+            }
+        }
+
+        for (String name : names) {
+            File file = new File(directory, name);
+            if (!file.delete()) {
+                Timber.d("Unable to delete blob file: %s", file.getAbsolutePath());
+            }
+        }
+        if (!directory.delete()) {
+            Timber.d("Unable to delete blob directory: %s", directory.getAbsolutePath());
+        }
+    }
+
+    private static MessageDigest createMessageDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.helper.Utility;
+import com.fsck.k9.mail.FetchProfile;
+import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import com.fsck.k9.mailstore.LockableDatabase.WrappedException;
+import com.fsck.k9.message.extractors.MessageFulltextCreator;
+import timber.log.Timber;
+
+
+/**
+ * Maintains the {@code messages_fulltext} search index.
+ *
+ * <p>
+ * Messages are indexed when they are saved. Messages that were stored before the index existed are queued in
+ * {@code fulltext_pending} and indexed by {@link #indexPendingMessages()}, newest first and in small transactions. So
+ * indexing can be interrupted at any time and will continue where it left off the next time it's started.
+ * </p>
+ */
+class FulltextIndexer {
+    private static final int BATCH_SIZE = 50;
+
+
+    private final LocalStore localStore;
+    private final MessageFulltextCreator fulltextCreator;
+    private final AtomicBoolean indexing = new AtomicBoolean(false);
+
+
+    FulltextIndexer(LocalStore localStore, MessageFulltextCreator fulltextCreator) {
+        this.localStore = localStore;
+        this.fulltextCreator = fulltextCreator;
+    }
+
+    static void indexMessage(SQLiteDatabase db, long messageId, ContentValues messageValues, String fulltext) {
+        ContentValues cv = new ContentValues();
+        cv.put("docid", messageId);
+        cv.put("subject", messageValues.getAsString("subject"));
+        cv.put("sender_list", messageValues.getAsString("sender_list"));
+        cv.put("to_list", messageValues.getAsString("to_list"));
+        cv.put("cc_list", messageValues.getAsString("cc_list"));
+        cv.put("fulltext", fulltext);
+        db.replace("messages_fulltext", null, cv);
+
+        db.delete("fulltext_pending", "message_id = ?", new String[] { Long.toString(messageId) });
+    }
+
+    /**
+     * Indexes all messages in {@code fulltext_pending}.
+     *
+     * @return The number of queue entries that were processed. {@code 0} if another thread is already indexing.
+     */
+    int indexPendingMessages() throws MessagingException {
+        if (!indexing.compareAndSet(false, true)) {
+            return 0;
+        }
+
+        try {
+            int processed = 0;
+            int batchSize;
+            do {
+                batchSize = indexNextBatch();
+                processed += batchSize;
+            } while (batchSize > 0);
+
+            if (processed > 0) {
+                Timber.d("Added %d messages to the fulltext index", processed);
+            }
+
+            return processed;
+        } finally {
+            indexing.set(false);
+        }
+    }
+
+    private int indexNextBatch() throws MessagingException {
+        final List<PendingMessage> pendingMessages = loadNextBatch();
+        if (pendingMessages.isEmpty()) {
+            return 0;
+        }
+
+        // Extracting the text needs the message body, which is loaded with separate database calls. So do this before
+        // starting the write transaction.
+        for (PendingMessage pendingMessage : pendingMessages) {
+            if (pendingMessage.uid != null) {
+                pendingMessage.fulltext = createFulltext(pendingMessage);
+            }
+        }
+
+        localStore.getDatabase().execute(true, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) throws WrappedException {
+                for (PendingMessage pendingMessage : pendingMessages) {
+                    String[] idArg = { Long.toString(pendingMessage.messageId) };
+                    if (pendingMessage.uid != null && isMessageStillPresent(db, idArg)) {
+                        indexMessage(db, pendingMessage.messageId, pendingMessage.values, pendingMessage.fulltext);
+                    } else {
+                        db.delete("fulltext_pending", "message_id = ?", idArg);
+                    }
+                }
+                return null;
+            }
+        });
+
+        return pendingMessages.size();
+    }
+
+    private List<PendingMessage> loadNextBatch() throws MessagingException {
+        return localStore.getDatabase().execute(false, new DbCallback<List<PendingMessage>>() {
+            @Override
+            public List<PendingMessage> doDbWork(SQLiteDatabase db) throws WrappedException {
+                List<PendingMessage> pendingMessages = new ArrayList<>();
+                Cursor cursor = db.rawQuery("SELECT p.message_id, f.name, m.uid, m.subject, m.sender_list, " +
+                                "m.to_list, m.cc_list " +
+                                "FROM fulltext_pending p " +
+                                "LEFT JOIN messages m ON (m.id = p.message_id AND m.deleted = 0 AND m.empty = 0) " +
+                                "LEFT JOIN folders f ON (f.id = m.folder_id) " +
+                                "ORDER BY p.message_id DESC LIMIT " + BATCH_SIZE, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        PendingMessage pendingMessage = new PendingMessage(cursor.getLong(0));
+                        if (!cursor.isNull(1) && !cursor.isNull(2)) {
+                            pendingMessage.folderName = cursor.getString(1);
+                            pendingMessage.uid = cursor.getString(2);
+                            pendingMessage.values.put("subject", cursor.getString(3));
+                            pendingMessage.values.put("sender_list", cursor.getString(4));
+                            pendingMessage.values.put("to_list", cursor.getString(5));
+                            pendingMessage.values.put("cc_list", cursor.getString(6));
+                        }
+                        pendingMessages.add(pendingMessage);
+                    }
+                } finally {
+                    Utility.closeQuietly(cursor);
+                }
+
+                return pendingMessages;
+            }
+        });
+    }
+
+    private String createFulltext(PendingMessage pendingMessage) {
+        try {
+            LocalFolder folder = localStore.getFolder(pendingMessage.folderName);
+            folder.open(Folder.OPEN_MODE_RO);
+            LocalMessage message = folder.getMessage(pendingMessage.uid);
+            if (message == null) {
+                return null;
+            }
+
+            FetchProfile fetchProfile = new FetchProfile();
+            fetchProfile.add(FetchProfile.Item.BODY);
+            folder.fetch(Collections.singletonList(message), fetchProfile, null);
+
+            return fulltextCreator.createFulltext(message);
+        } catch (Exception e) {
+            // Still index the header fields
+            Timber.w(e, "Couldn't extract text of message %d for the fulltext index", pendingMessage.messageId);
+            return null;
+        }
+    }
+
+    private static boolean isMessageStillPresent(SQLiteDatabase db, String[] idArg) {
+        Cursor cursor = db.rawQuery("SELECT 1 FROM messages WHERE id = ? AND deleted = 0 AND empty = 0", idArg);
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+    private static class PendingMessage {
+        final long messageId;
+        final ContentValues values = new ContentValues();
+        String folderName;
+        String uid;
+        String fulltext;
+
+        PendingMessage(long messageId) {
+            this.messageId = messageId;
+        }
+    }
+}
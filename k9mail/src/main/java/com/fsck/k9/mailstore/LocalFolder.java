@@ -30,7 +30,6 @@ import com.fsck.k9.Account;
 import com.fsck.k9.K9;
 import com.fsck.k9.activity.MessageReference;
 import com.fsck.k9.activity.Search;
-import com.fsck.k9.helper.FileHelper;
 import com.fsck.k9.helper.Utility;
 import com.fsck.k9.mail.Address;
 import com.fsck.k9.mail.Body;
@@ -39,6 +38,7 @@ import com.fsck.k9.mail.BoundaryGenerator;
 import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.FolderSyncState;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.Message.RecipientType;
 import com.fsck.k9.mail.MessageRetrievalListener;
@@ -71,6 +71,12 @@ import timber.log.Timber;
 public class LocalFolder extends Folder<LocalMessage> {
     private static final int MAX_BODY_SIZE_FOR_DATABASE = 16 * 1024;
     private static final long INVALID_MESSAGE_PART_ID = -1;
+    /**
+     * Columns of the {@code messages} table that are {@code NULL} for an empty message.
+     */
+    private static final String[] MESSAGE_CONTENT_COLUMNS = { "uid", "subject", "date", "flags", "sender_list",
+            "to_list", "cc_list", "bcc_list", "reply_to_list", "attachment_count", "internal_date", "preview",
+            "mime_type", "normalized_subject_hash", "message_part_id" };
 
 
     private final LocalStore localStore;
@@ -95,6 +101,7 @@ public class LocalFolder extends Folder<LocalMessage> {
     // know whether or not an unread message added to the local folder is actually "new" or not.
     private Integer lastUid = null;
     private MoreMessages moreMessages = MoreMessages.UNKNOWN;
+    private FolderSyncState lastSyncState = null;
 
 
     public LocalFolder(LocalStore localStore, String name) {
@@ -209,6 +216,21 @@ public class LocalFolder extends Folder<LocalMessage> {
         this.syncClass = Folder.FolderClass.valueOf((syncClass == null) ? noClass : syncClass);
         String moreMessagesValue = cursor.getString(LocalStore.MORE_MESSAGES_INDEX);
         moreMessages = MoreMessages.fromDatabaseName(moreMessagesValue);
+        lastSyncState = readLastSyncState(cursor);
+    }
+
+    private static FolderSyncState readLastSyncState(Cursor cursor) {
+        if (cursor.isNull(LocalStore.FOLDER_UID_VALIDITY_INDEX) ||
+                cursor.isNull(LocalStore.FOLDER_HIGHEST_MOD_SEQ_INDEX)) {
+            return null;
+        }
+
+        long uidValidity = cursor.getLong(LocalStore.FOLDER_UID_VALIDITY_INDEX);
+        long highestModSeq = cursor.getLong(LocalStore.FOLDER_HIGHEST_MOD_SEQ_INDEX);
+        long uidNext = cursor.isNull(LocalStore.FOLDER_UID_NEXT_INDEX) ?
+                -1L : cursor.getLong(LocalStore.FOLDER_UID_NEXT_INDEX);
+
+        return new FolderSyncState(uidValidity, highestModSeq, uidNext);
     }
 
     @Override
@@ -308,6 +330,38 @@ public class LocalFolder extends Folder<LocalMessage> {
         }
     }
 
+    /**
+     * Returns the internal date of the newest message in this folder, or {@code 0} if the folder is empty.
+     */
+    public long getNewestMessageDate() throws MessagingException {
+        try {
+            return this.localStore.getDatabase().execute(false, new DbCallback<Long>() {
+                @Override
+                public Long doDbWork(final SQLiteDatabase db) throws WrappedException {
+                    try {
+                        open(OPEN_MODE_RW);
+                    } catch (MessagingException e) {
+                        throw new WrappedException(e);
+                    }
+                    Cursor cursor = null;
+                    try {
+                        // Uses the msg_folder_id_deleted_date index
+                        cursor = db.rawQuery(
+                                "SELECT MAX(internal_date) FROM messages " +
+                                "WHERE folder_id = ? AND deleted = 0",
+                                new String[] { Long.toString(databaseId) });
+                        cursor.moveToFirst();
+                        return cursor.isNull(0) ? 0L : cursor.getLong(0);
+                    } finally {
+                        Utility.closeQuietly(cursor);
+                    }
+                }
+            });
+        } catch (WrappedException e) {
+            throw (MessagingException) e.getCause();
+        }
+    }
+
     @Override
     public int getUnreadMessageCount() throws MessagingException {
         if (databaseId == -1) {
@@ -319,8 +373,8 @@ public class LocalFolder extends Folder<LocalMessage> {
                 @Override
                 public Integer doDbWork(final SQLiteDatabase db) throws WrappedException {
                     int unreadMessageCount = 0;
-                    Cursor cursor = db.query("messages", new String[] { "COUNT(id)" },
-                            "folder_id = ? AND empty = 0 AND deleted = 0 AND read=0",
+                    // Maintained by triggers on the messages table, see LocalStore.checkFolderCounts()
+                    Cursor cursor = db.query("folders", new String[] { "unread_count" }, "id = ?",
                             new String[] { Long.toString(databaseId) }, null, null, null);
 
                     try {
@@ -350,8 +404,8 @@ public class LocalFolder extends Folder<LocalMessage> {
                 @Override
                 public Integer doDbWork(final SQLiteDatabase db) throws WrappedException {
                     int flaggedMessageCount = 0;
-                    Cursor cursor = db.query("messages", new String[] { "COUNT(id)" },
-                            "folder_id = ? AND empty = 0 AND deleted = 0 AND flagged = 1",
+                    // Maintained by triggers on the messages table, see LocalStore.checkFolderCounts()
+                    Cursor cursor = db.query("folders", new String[] { "flagged_count" }, "id = ?",
                             new String[] { Long.toString(databaseId) }, null, null, null);
 
                     try {
@@ -441,6 +495,11 @@ public class LocalFolder extends Folder<LocalMessage> {
     public void setVisibleLimit(final int visibleLimit) throws MessagingException {
         updateMoreMessagesOnVisibleLimitChange(visibleLimit, this.visibleLimit);
 
+        if (visibleLimit > this.visibleLimit) {
+            // The next sync has to look at the full message list to pick up the additional messages
+            setLastSyncState(null);
+        }
+
         this.visibleLimit = visibleLimit;
         updateFolderColumn("visible_limit", this.visibleLimit);
     }
@@ -467,6 +526,47 @@ public class LocalFolder extends Folder<LocalMessage> {
         updateFolderColumn("push_state", pushState);
     }
 
+    /**
+     * @return The remote folder's state at the end of the last successful synchronization, or {@code null} if the
+     *         next synchronization can't be incremental.
+     */
+    public FolderSyncState getLastSyncState() throws MessagingException {
+        open(OPEN_MODE_RW);
+        return lastSyncState;
+    }
+
+    public void setLastSyncState(final FolderSyncState syncState) throws MessagingException {
+        lastSyncState = syncState;
+
+        final ContentValues cv = new ContentValues();
+        if (syncState != null) {
+            cv.put("uid_validity", syncState.getUidValidity());
+            cv.put("highest_mod_seq", syncState.getHighestModSeq());
+            cv.put("uid_next", syncState.getUidNext());
+        } else {
+            cv.putNull("uid_validity");
+            cv.putNull("highest_mod_seq");
+            cv.putNull("uid_next");
+        }
+
+        try {
+            this.localStore.getDatabase().execute(false, new DbCallback<Void>() {
+                @Override
+                public Void doDbWork(final SQLiteDatabase db) throws WrappedException {
+                    try {
+                        open(OPEN_MODE_RW);
+                    } catch (MessagingException e) {
+                        throw new WrappedException(e);
+                    }
+                    db.update("folders", cv, "id = ?", new String[] { Long.toString(databaseId) });
+                    return null;
+                }
+            });
+        } catch (WrappedException e) {
+            throw(MessagingException) e.getCause();
+        }
+    }
+
     private void updateFolderColumn(final String column, final Object value) throws MessagingException {
         try {
             this.localStore.getDatabase().execute(false, new DbCallback<Void>() {
@@ -725,6 +825,7 @@ public class LocalFolder extends Folder<LocalMessage> {
                 "boundary",             // 13
                 "content_id",           // 14
                 "server_extra",         // 15
+                "content_hash",         // 16
         };
         Cursor cursor = db.query("message_parts", columns, "root = ?",
                 new String[] { String.valueOf(message.getMessagePartId()) }, null, null, "seq");
@@ -798,7 +899,9 @@ public class LocalFolder extends Folder<LocalMessage> {
         } else if (dataLocation == DataLocation.ON_DISK) {
             String encoding = cursor.getString(7);
 
-            File file = localStore.getAttachmentFile(Long.toString(id));
+            String contentHash = cursor.getString(16);
+
+            File file = localStore.getPartFile(Long.toString(id), contentHash);
             if (file.exists()) {
                 Body body = new FileBackedBody(file, encoding);
                 part.setBody(body);
@@ -997,6 +1100,48 @@ public class LocalFolder extends Folder<LocalMessage> {
         }
     }
 
+    /**
+     * Returns the UIDs of messages that have been neither fully nor partially downloaded, e.g. because the download
+     * failed during an earlier synchronization.
+     */
+    public List<String> getIncompleteMessageUids() throws MessagingException {
+        try {
+            return localStore.getDatabase().execute(false, new DbCallback<List<String>>() {
+                @Override
+                public List<String> doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
+                    Cursor cursor = null;
+                    ArrayList<String> result = new ArrayList<>();
+
+                    try {
+                        open(OPEN_MODE_RO);
+
+                        cursor = db.rawQuery(
+                                "SELECT uid " +
+                                    "FROM messages " +
+                                        "WHERE empty = 0 AND deleted = 0 AND " +
+                                        "(flags IS NULL OR (flags NOT LIKE ? AND flags NOT LIKE ?)) AND " +
+                                        "folder_id = ? ORDER BY date DESC",
+                                new String[] { "%" + Flag.X_DOWNLOADED_FULL.name() + "%",
+                                        "%" + Flag.X_DOWNLOADED_PARTIAL.name() + "%", Long.toString(databaseId) });
+
+                        while (cursor.moveToNext()) {
+                            String uid = cursor.getString(0);
+                            result.add(uid);
+                        }
+                    } catch (MessagingException e) {
+                        throw new WrappedException(e);
+                    } finally {
+                        Utility.closeQuietly(cursor);
+                    }
+
+                    return result;
+                }
+            });
+        } catch (WrappedException e) {
+            throw(MessagingException) e.getCause();
+        }
+    }
+
     public List<LocalMessage> getMessagesByUids(@NonNull List<String> uids) throws MessagingException {
         open(OPEN_MODE_RW);
         List<LocalMessage> messages = new ArrayList<>();
@@ -1075,7 +1220,8 @@ public class LocalFolder extends Folder<LocalMessage> {
                             uidMap.put(oldUID, newUid);
 
                             // Message threading in the target folder
-                            ThreadInfo threadInfo = lDestFolder.doMessageThreading(db, message);
+                            ThreadInfo threadInfo = lDestFolder.doMessageThreading(db, message,
+                                    new ThreadInfoCache());
 
                             /*
                              * "Move" the message into the new folder
@@ -1196,6 +1342,83 @@ public class LocalFolder extends Folder<LocalMessage> {
         });
     }
 
+    /**
+     * Stores a batch of fully downloaded messages in a single transaction.
+     *
+     * <p>
+     * This has the same effect as calling {@link #storeSmallMessage(Message, Runnable)} for every message. But the
+     * transaction is only committed once and observers are only notified once for the whole batch.
+     * </p>
+     * <p>
+     * If the batch can't be stored, e.g. because one of the messages is malformed, the messages are stored one at a
+     * time. That way only the messages that fail are skipped, and the others don't have to be downloaded again.
+     * </p>
+     *
+     * @param messages Messages to store. Never <code>null</code>.
+     * @return The local versions of the messages, in the same order as {@code messages}. The entry of a message that
+     *         couldn't be stored is {@code null}.
+     */
+    public List<LocalMessage> storeSmallMessages(final List<? extends Message> messages) throws MessagingException {
+        open(OPEN_MODE_RW);
+
+        List<LocalMessage> localMessages;
+        try {
+            localMessages = saveFullyDownloadedMessages(messages);
+        } catch (UnavailableStorageException e) {
+            throw e;
+        } catch (MessagingException | RuntimeException e) {
+            Timber.w(e, "Unable to store batch of %d messages, storing them one at a time", messages.size());
+
+            localMessages = new ArrayList<>(messages.size());
+            for (Message message : messages) {
+                localMessages.add(saveFullyDownloadedMessageIfPossible(message));
+            }
+        }
+
+        this.localStore.notifyChange();
+
+        return localMessages;
+    }
+
+    private LocalMessage saveFullyDownloadedMessageIfPossible(Message message) throws UnavailableStorageException {
+        try {
+            return saveFullyDownloadedMessages(Collections.singletonList(message)).get(0);
+        } catch (UnavailableStorageException e) {
+            throw e;
+        } catch (MessagingException | RuntimeException e) {
+            Timber.e(e, "Unable to store message %s", message.getUid());
+            return null;
+        }
+    }
+
+    private List<LocalMessage> saveFullyDownloadedMessages(final List<? extends Message> messages)
+            throws MessagingException {
+        try {
+            return this.localStore.getDatabase().execute(true, new DbCallback<List<LocalMessage>>() {
+                @Override
+                public List<LocalMessage> doDbWork(final SQLiteDatabase db) throws WrappedException,
+                        UnavailableStorageException {
+                    try {
+                        Map<String, String> uidMap = new HashMap<>();
+                        ThreadInfoCache threadInfoCache = new ThreadInfoCache();
+                        List<LocalMessage> result = new ArrayList<>(messages.size());
+                        for (Message message : messages) {
+                            // Saved along with the other flags so we don't need a separate update per message
+                            message.setFlag(Flag.X_DOWNLOADED_FULL, true);
+                            saveMessage(db, message, false, uidMap, threadInfoCache);
+                            result.add(getMessage(message.getUid()));
+                        }
+                        return result;
+                    } catch (MessagingException e) {
+                        throw new WrappedException(e);
+                    }
+                }
+            });
+        } catch (WrappedException e) {
+            throw (MessagingException) e.getCause();
+        }
+    }
+
     /**
      * The method differs slightly from the contract; If an incoming message already has a uid
      * assigned and it matches the uid of an existing message then this message will replace the
@@ -1286,8 +1509,9 @@ public class LocalFolder extends Folder<LocalMessage> {
                 @Override
                 public Void doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
                     try {
+                        ThreadInfoCache threadInfoCache = new ThreadInfoCache();
                         for (Message message : messages) {
-                            saveMessage(db, message, copy, uidMap);
+                            saveMessage(db, message, copy, uidMap, threadInfoCache);
                         }
                     } catch (MessagingException e) {
                         throw new WrappedException(e);
@@ -1304,8 +1528,8 @@ public class LocalFolder extends Folder<LocalMessage> {
         }
     }
 
-    private void saveMessage(SQLiteDatabase db, Message message, boolean copy, Map<String, String> uidMap)
-            throws MessagingException {
+    private void saveMessage(SQLiteDatabase db, Message message, boolean copy, Map<String, String> uidMap,
+            ThreadInfoCache threadInfoCache) throws MessagingException {
         if (!(message instanceof MimeMessage)) {
             throw new Error("LocalStore can only store Messages that extend MimeMessage");
         }
@@ -1343,7 +1567,7 @@ public class LocalFolder extends Folder<LocalMessage> {
 
         if (oldMessageId == -1) {
             // This is a new message. Do the message threading.
-            ThreadInfo threadInfo = doMessageThreading(db, message);
+            ThreadInfo threadInfo = doMessageThreading(db, message, threadInfoCache);
             oldMessageId = threadInfo.msgId;
             rootId = threadInfo.rootId;
             parentId = threadInfo.parentId;
@@ -1403,28 +1627,23 @@ public class LocalFolder extends Folder<LocalMessage> {
                 msgId = db.insert("messages", "uid", cv);
 
                 // Create entry in 'threads' table
-                cv.clear();
-                cv.put("message_id", msgId);
+                ContentValues threadValues = new ContentValues();
+                threadValues.put("message_id", msgId);
 
                 if (rootId != -1) {
-                    cv.put("root", rootId);
+                    threadValues.put("root", rootId);
                 }
                 if (parentId != -1) {
-                    cv.put("parent", parentId);
+                    threadValues.put("parent", parentId);
                 }
 
-                db.insert("threads", null, cv);
+                db.insert("threads", null, threadValues);
             } else {
                 msgId = oldMessageId;
                 db.update("messages", cv, "id = ?", new String[] { Long.toString(oldMessageId) });
             }
 
-            if (fulltext != null) {
-                cv.clear();
-                cv.put("docid", msgId);
-                cv.put("fulltext", fulltext);
-                db.replace("messages_fulltext", null, cv);
-            }
+            FulltextIndexer.indexMessage(db, msgId, cv, fulltext);
         } catch (Exception e) {
             throw new MessagingException("Error appending message: " + message.getSubject(), e);
         }
@@ -1464,11 +1683,6 @@ public class LocalFolder extends Folder<LocalMessage> {
         return updateOrInsertMessagePart(db, cv, part, INVALID_MESSAGE_PART_ID);
     }
 
-    private void moveTemporaryFile(File tempFile, String messagePartId) throws IOException {
-        File destinationFile = localStore.getAttachmentFile(messagePartId);
-        FileHelper.renameOrMoveByCopying(tempFile, destinationFile);
-    }
-
     private long updateOrInsertMessagePart(SQLiteDatabase db, ContentValues cv, Part part, long existingMessagePartId)
             throws IOException, MessagingException {
         byte[] headerBytes = getHeaderBytes(part);
@@ -1476,6 +1690,7 @@ public class LocalFolder extends Folder<LocalMessage> {
         cv.put("mime_type", part.getMimeType());
         cv.put("header", headerBytes);
         cv.put("type", MessagePartType.UNKNOWN);
+        cv.putNull("content_hash");
 
         File file = null;
         Body body = part.getBody();
@@ -1489,18 +1704,24 @@ public class LocalFolder extends Folder<LocalMessage> {
             file = leafPartToContentValues(cv, part, body);
         }
 
+        if (file != null) {
+            localStore.addBlob(file, cv.getAsString("content_hash"));
+        }
+
         long messagePartId;
         if (existingMessagePartId != INVALID_MESSAGE_PART_ID) {
             messagePartId = existingMessagePartId;
+            String oldContentHash = getContentHash(db, messagePartId);
+
             db.update("message_parts", cv, "id = ?", new String[] { Long.toString(messagePartId) });
+
+            if (oldContentHash != null) {
+                localStore.releaseBlobsIfUnreferenced(Collections.singleton(oldContentHash));
+            }
         } else {
             messagePartId = db.insertOrThrow("message_parts", null, cv);
         }
 
-        if (file != null) {
-            moveTemporaryFile(file, Long.toString(messagePartId));
-        }
-
         return messagePartId;
     }
 
@@ -1549,6 +1770,7 @@ public class LocalFolder extends Folder<LocalMessage> {
 
             long size = decodeAndCountBytes(file, encoding, fileSize);
             cv.put("decoded_body_size", size);
+            cv.put("content_hash", BlobStore.computeHash(file));
         } else {
             dataLocation = DataLocation.IN_DATABASE;
 
@@ -1667,7 +1889,8 @@ public class LocalFolder extends Folder<LocalMessage> {
     public void addPartToMessage(final LocalMessage message, final Part part) throws MessagingException {
         open(OPEN_MODE_RW);
 
-        localStore.getDatabase().execute(false, new DbCallback<Void>() {
+        // The blob added for the part's data is only kept if the transaction updating the part is committed
+        localStore.getDatabase().execute(true, new DbCallback<Void>() {
             @Override
             public Void doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
                 long messagePartId;
@@ -1789,13 +2012,14 @@ public class LocalFolder extends Folder<LocalMessage> {
                 @Override
                 public Void doDbWork(final SQLiteDatabase db) throws WrappedException {
                     try {
+                        Set<String> contentHashes = new HashSet<>();
                         Cursor cursor = db.query("messages", new String[] { "message_part_id" },
                                 "folder_id = ? AND empty = 0",
                                 folderIdArg, null, null, null);
                         try {
                             while (cursor.moveToNext()) {
                                 long messagePartId = cursor.getLong(0);
-                                deleteMessageDataFromDisk(messagePartId);
+                                deleteMessagePartsFromDisk(db, messagePartId, contentHashes);
                             }
                         } finally {
                             cursor.close();
@@ -1804,6 +2028,8 @@ public class LocalFolder extends Folder<LocalMessage> {
                         db.execSQL("DELETE FROM threads WHERE message_id IN " +
                                 "(SELECT id FROM messages WHERE folder_id = ?)", folderIdArg);
                         db.execSQL("DELETE FROM messages WHERE folder_id = ?", folderIdArg);
+                        localStore.releaseBlobsIfUnreferenced(contentHashes);
+                        localStore.removeCachedMessageViews(name);
 
                         setMoreMessages(MoreMessages.UNKNOWN);
 
@@ -1820,6 +2046,7 @@ public class LocalFolder extends Folder<LocalMessage> {
         this.localStore.notifyChange();
 
         setPushState(null);
+        setLastSyncState(null);
         setLastPush(0);
         setLastChecked(0);
         setVisibleLimit(getAccount().getDisplayCount());
@@ -1831,18 +2058,21 @@ public class LocalFolder extends Folder<LocalMessage> {
             this.localStore.getDatabase().execute(false, new DbCallback<Void>() {
                 @Override
                 public Void doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
+                    Set<String> contentHashes = new HashSet<>();
                     try {
                         // We need to open the folder first to make sure we've got it's id
                         open(OPEN_MODE_RO);
                         List<LocalMessage> messages = getMessages(null);
                         for (LocalMessage message : messages) {
-                            deleteMessageDataFromDisk(message.getMessagePartId());
+                            deleteMessagePartsFromDisk(db, message.getMessagePartId(), contentHashes);
                         }
                     } catch (MessagingException e) {
                         throw new WrappedException(e);
                     }
                     db.execSQL("DELETE FROM folders WHERE id = ?", new Object[]
                                { Long.toString(databaseId), });
+                    localStore.releaseBlobsIfUnreferenced(contentHashes);
+                    localStore.removeCachedMessageViews(name);
                     return null;
                 }
             });
@@ -1865,11 +2095,12 @@ public class LocalFolder extends Folder<LocalMessage> {
     }
 
     void destroyMessage(LocalMessage localMessage) throws MessagingException {
-        destroyMessage(localMessage.getDatabaseId(), localMessage.getMessagePartId(), localMessage.getMessageId());
+        destroyMessage(localMessage.getDatabaseId(), localMessage.getMessagePartId(), localMessage.getMessageId(),
+                localMessage.getUid());
     }
 
-    private void destroyMessage(final long messageId, final long messagePartId, final String messageIdHeader)
-            throws MessagingException {
+    private void destroyMessage(final long messageId, final long messagePartId, final String messageIdHeader,
+            final String uid) throws MessagingException {
         try {
             localStore.getDatabase().execute(true, new DbCallback<Void>() {
                 @Override
@@ -1877,20 +2108,16 @@ public class LocalFolder extends Folder<LocalMessage> {
                         UnavailableStorageException {
                     try {
                         deleteMessagePartsAndDataFromDisk(messagePartId);
+                        if (uid != null) {
+                            localStore.removeCachedMessageView(name, uid);
+                        }
 
                         deleteFulltextIndexEntry(db, messageId);
 
                         if (hasThreadChildren(db, messageId)) {
                             // This message has children in the thread structure so we need to
                             // make it an empty message.
-                            ContentValues cv = new ContentValues();
-                            cv.put("id", messageId);
-                            cv.put("folder_id", getDatabaseId());
-                            cv.put("deleted", 0);
-                            cv.put("message_id", messageIdHeader);
-                            cv.put("empty", 1);
-
-                            db.replace("messages", null, cv);
+                            makeMessageEmpty(db, messageId, messageIdHeader);
 
                             // Nothing else to do
                             return null;
@@ -1934,6 +2161,31 @@ public class LocalFolder extends Folder<LocalMessage> {
         localStore.notifyChange();
     }
 
+    /**
+     * Turns a message into an empty placeholder that only keeps its place in the thread structure.
+     *
+     * <p>
+     * This updates the existing row rather than replacing it. {@code REPLACE} deletes the old row without running the
+     * delete triggers, so the folder's unread and flagged counts would still include the message.
+     * </p>
+     */
+    private void makeMessageEmpty(SQLiteDatabase db, long messageId, String messageIdHeader) {
+        ContentValues cv = new ContentValues();
+        cv.put("deleted", 0);
+        cv.put("empty", 1);
+        cv.put("message_id", messageIdHeader);
+        cv.put("read", 0);
+        cv.put("flagged", 0);
+        cv.put("answered", 0);
+        cv.put("forwarded", 0);
+        cv.put("preview_type", DatabasePreviewType.NONE.getDatabaseValue());
+        for (String column : MESSAGE_CONTENT_COLUMNS) {
+            cv.putNull(column);
+        }
+
+        db.update("messages", cv, "id = ?", new String[] { Long.toString(messageId) });
+    }
+
     /**
      * Check whether or not a message has child messages in the thread structure.
      *
@@ -2011,40 +2263,41 @@ public class LocalFolder extends Folder<LocalMessage> {
     }
 
     void deleteMessagePartsAndDataFromDisk(final long rootMessagePartId) throws MessagingException {
-        deleteMessageDataFromDisk(rootMessagePartId);
-        deleteMessageParts(rootMessagePartId);
-    }
-
-    private void deleteMessageParts(final long rootMessagePartId) throws MessagingException {
-        localStore.getDatabase().execute(false, new DbCallback<Void>() {
+        localStore.getDatabase().execute(true, new DbCallback<Void>() {
             @Override
             public Void doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
+                Set<String> contentHashes = new HashSet<>();
+                deleteMessagePartsFromDisk(db, rootMessagePartId, contentHashes);
                 db.delete("message_parts", "root = ?", new String[] { Long.toString(rootMessagePartId) });
+                localStore.releaseBlobsIfUnreferenced(contentHashes);
                 return null;
             }
         });
     }
 
-    private void deleteMessageDataFromDisk(final long rootMessagePartId) throws MessagingException {
-        localStore.getDatabase().execute(false, new DbCallback<Void>() {
-            @Override
-            public Void doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
-                deleteMessagePartsFromDisk(db, rootMessagePartId);
-                return null;
-            }
-        });
-    }
-
-    private void deleteMessagePartsFromDisk(SQLiteDatabase db, long rootMessagePartId) {
-        Cursor cursor = db.query("message_parts", new String[] { "id" },
+    /**
+     * Deletes the files of message parts stored outside the {@link BlobStore}. The hashes of parts stored in the blob
+     * store are added to {@code contentHashes}, so the blobs can be released once the message parts are gone.
+     */
+    private void deleteMessagePartsFromDisk(SQLiteDatabase db, long rootMessagePartId, Set<String> contentHashes) {
+        Cursor cursor = db.query("message_parts", new String[] { "id", "content_hash" },
                 "root = ? AND data_location = " + DataLocation.ON_DISK,
                 new String[] { Long.toString(rootMessagePartId) }, null, null, null);
         try {
             while (cursor.moveToNext()) {
+                String contentHash = cursor.getString(1);
+                if (contentHash != null) {
+                    contentHashes.add(contentHash);
+                    continue;
+                }
+
                 String messagePartId = cursor.getString(0);
                 File file = localStore.getAttachmentFile(messagePartId);
                 if (file.exists()) {
-                    if (!file.delete() && K9.isDebug()) {
+                    long length = file.length();
+                    if (file.delete()) {
+                        localStore.attachmentFileRemoved(length);
+                    } else if (K9.isDebug()) {
                         Timber.d("Couldn't delete message part file: %s", file.getAbsolutePath());
                     }
                 }
@@ -2054,6 +2307,16 @@ public class LocalFolder extends Folder<LocalMessage> {
         }
     }
 
+    private String getContentHash(SQLiteDatabase db, long messagePartId) {
+        Cursor cursor = db.query("message_parts", new String[] { "content_hash" }, "id = ?",
+                new String[] { Long.toString(messagePartId) }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
     @Override
     public boolean isInTopGroup() {
         return isInTopGroup;
@@ -2132,7 +2395,7 @@ public class LocalFolder extends Folder<LocalMessage> {
         });
     }
 
-    private ThreadInfo doMessageThreading(SQLiteDatabase db, Message message) {
+    private ThreadInfo doMessageThreading(SQLiteDatabase db, Message message, ThreadInfoCache threadInfoCache) {
         long rootId = -1;
         long parentId = -1;
 
@@ -2170,7 +2433,13 @@ public class LocalFolder extends Folder<LocalMessage> {
         }
 
         for (String reference : messageIds) {
-            ThreadInfo threadInfo = getThreadInfo(db, reference, false);
+            ThreadInfo threadInfo = threadInfoCache.get(reference);
+            if (threadInfo == null) {
+                threadInfo = getThreadInfo(db, reference, false);
+                if (threadInfo != null) {
+                    threadInfoCache.put(threadInfo);
+                }
+            }
 
             if (threadInfo == null) {
                 // Create placeholder message in 'messages' table
@@ -2191,7 +2460,10 @@ public class LocalFolder extends Folder<LocalMessage> {
                     cv.put("parent", parentId);
                 }
 
-                parentId = db.insert("threads", null, cv);
+                long newThreadId = db.insert("threads", null, cv);
+                threadInfoCache.put(new ThreadInfo(newThreadId, newMsgId, reference, rootId, parentId));
+
+                parentId = newThreadId;
                 if (rootId == -1) {
                     rootId = parentId;
                 }
@@ -2211,6 +2483,9 @@ public class LocalFolder extends Folder<LocalMessage> {
                     cv.put("parent", parentId);
                     db.update("threads", cv, "id = ?",
                             new String[] { Long.toString(threadInfo.threadId) });
+
+                    // Cached entries may still point to the old root
+                    threadInfoCache.clear();
                 } else {
                     rootId = (threadInfo.rootId == -1) ?
                             threadInfo.threadId : threadInfo.rootId;
@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -31,6 +32,7 @@ import android.text.TextUtils;
 import timber.log.Timber;
 
 import com.fsck.k9.Account;
+import com.fsck.k9.Clock;
 import com.fsck.k9.K9;
 import com.fsck.k9.Preferences;
 import com.fsck.k9.controller.PendingCommandSerializer;
@@ -80,6 +82,10 @@ public class LocalStore extends Store {
     private static final String INSERT_QUERY =
             "INSERT INTO folders (name, visible_limit, top_group, display_class, " +
                     "poll_class, notify_class, push_class, integrate) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UNREAD_COUNT_QUERY = "(SELECT COUNT(*) FROM messages " +
+            "WHERE messages.folder_id = folders.id AND deleted = 0 AND empty = 0 AND read = 0)";
+    private static final String FLAGGED_COUNT_QUERY = "(SELECT COUNT(*) FROM messages " +
+            "WHERE messages.folder_id = folders.id AND deleted = 0 AND empty = 0 AND flagged = 1)";
 
     /**
      * Lock objects indexed by account UUID.
@@ -132,7 +138,8 @@ public class LocalStore extends Store {
 
     static final String GET_FOLDER_COLS =
         "folders.id, name, visible_limit, last_updated, status, push_state, last_pushed, " +
-        "integrate, top_group, poll_class, push_class, display_class, notify_class, more_messages";
+        "integrate, top_group, poll_class, push_class, display_class, notify_class, more_messages, " +
+        "uid_validity, highest_mod_seq, uid_next";
 
     static final int FOLDER_ID_INDEX = 0;
     static final int FOLDER_NAME_INDEX = 1;
@@ -148,16 +155,21 @@ public class LocalStore extends Store {
     static final int FOLDER_DISPLAY_CLASS_INDEX = 11;
     static final int FOLDER_NOTIFY_CLASS_INDEX = 12;
     static final int MORE_MESSAGES_INDEX = 13;
+    static final int FOLDER_UID_VALIDITY_INDEX = 14;
+    static final int FOLDER_HIGHEST_MOD_SEQ_INDEX = 15;
+    static final int FOLDER_UID_NEXT_INDEX = 16;
 
     static final String[] UID_CHECK_PROJECTION = { "uid" };
 
-    private static final String[] GET_ATTACHMENT_COLS = new String[] { "id", "root", "data_location", "encoding", "data" };
+    private static final String[] GET_ATTACHMENT_COLS =
+            new String[] { "id", "root", "data_location", "encoding", "data", "content_hash" };
 
     private static final int ATTACH_PART_ID_INDEX = 0;
     private static final int ATTACH_ROOT_INDEX = 1;
     private static final int ATTACH_LOCATION_INDEX = 2;
     private static final int ATTACH_ENCODING_INDEX = 3;
     private static final int ATTACH_DATA_INDEX = 4;
+    private static final int ATTACH_CONTENT_HASH_INDEX = 5;
 
     /**
      * Maximum number of UIDs to check for existence at once.
@@ -180,7 +192,7 @@ public class LocalStore extends Store {
      */
     private static final int THREAD_FLAG_UPDATE_BATCH_SIZE = 500;
 
-    public static final int DB_VERSION = 61;
+    public static final int DB_VERSION = 67;
 
     private final Context context;
     private final ContentResolver contentResolver;
@@ -189,6 +201,8 @@ public class LocalStore extends Store {
     private final AttachmentCounter attachmentCounter;
     private final PendingCommandSerializer pendingCommandSerializer;
     private final AttachmentInfoExtractor attachmentInfoExtractor;
+    private final FulltextIndexer fulltextIndexer;
+    private final AttachmentSizeTracker attachmentSizeTracker;
 
     private final Account account;
     private final LockableDatabase database;
@@ -207,8 +221,16 @@ public class LocalStore extends Store {
         attachmentCounter = AttachmentCounter.newInstance();
         pendingCommandSerializer = PendingCommandSerializer.getInstance();
         attachmentInfoExtractor = AttachmentInfoExtractor.getInstance();
+        fulltextIndexer = new FulltextIndexer(this, messageFulltextCreator);
 
         this.account = account;
+        attachmentSizeTracker = new AttachmentSizeTracker(getStorage(), Clock.INSTANCE, account.getUuid(),
+                new AttachmentSizeTracker.SizeCalculator() {
+                    @Override
+                    public long calculateSize() {
+                        return calculateAttachmentSize();
+                    }
+                });
 
         database = new LockableDatabase(context, account.getUuid(), new StoreSchemaDefinition(this));
         database.setStorageProviderId(account.getLocalStorageProviderId());
@@ -260,7 +282,14 @@ public class LocalStore extends Store {
     }
 
     public void switchLocalStorage(final String newStorageProviderId) throws MessagingException {
+        BlobStore oldBlobStore = getBlobStore();
         database.switchProvider(newStorageProviderId);
+
+        try {
+            oldBlobStore.moveReferences(account.getUuid(), getBlobStore());
+        } catch (IOException e) {
+            throw new MessagingException("Unable to move message part files", e);
+        }
     }
 
     Context getContext() {
@@ -275,32 +304,167 @@ public class LocalStore extends Store {
         return Preferences.getPreferences(context).getStorage();
     }
 
+    /**
+     * Returns the number of bytes used by this account's database and message part files.
+     *
+     * <p>
+     * The size of the message part files is tracked as they are written and deleted, so this doesn't need to look at
+     * every single file. See {@link AttachmentSizeTracker}.
+     * </p>
+     */
     public long getSize() throws MessagingException {
+        long attachmentLength = attachmentSizeTracker.getSize();
 
-        final StorageManager storageManager = StorageManager.getInstance(context);
+        StorageManager storageManager = StorageManager.getInstance(context);
+        File dbFile = storageManager.getDatabase(account.getUuid(), database.getStorageProviderId());
+        return dbFile.length() + attachmentLength;
+    }
+
+    /**
+     * Recalculates the size of the message part files if that hasn't been done in a while. Blobs that are no longer
+     * used by any message part of this account, e.g. because a transaction was rolled back, are released first.
+     */
+    public void reconcileAttachmentSizeIfDue() throws MessagingException {
+        if (!attachmentSizeTracker.isReconcileDue()) {
+            return;
+        }
 
-        final File attachmentDirectory = storageManager.getAttachmentDirectory(account.getUuid(),
-                                         database.getStorageProviderId());
+        releaseUnusedBlobs();
+        attachmentSizeTracker.reconcile();
+    }
 
-        return database.execute(false, new DbCallback<Long>() {
-            @Override
-            public Long doDbWork(final SQLiteDatabase db) {
-                final File[] files = attachmentDirectory.listFiles();
-                long attachmentLength = 0;
-                if (files != null) {
-                    for (File file : files) {
-                        if (file.exists()) {
-                            attachmentLength += file.length();
-                        }
+    private long calculateAttachmentSize() {
+        StorageManager storageManager = StorageManager.getInstance(context);
+        File attachmentDirectory = storageManager.getAttachmentDirectory(
+                account.getUuid(), database.getStorageProviderId());
+
+        long attachmentLength = 0;
+        File[] files = attachmentDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                attachmentLength += file.length();
+            }
+        }
+
+        return attachmentLength + getBlobStore().getReferencedSize(account.getUuid());
+    }
+
+    private void releaseUnusedBlobs() throws MessagingException {
+        releaseUnreferencedBlobs(getBlobStore().getReferencedHashes(account.getUuid()));
+    }
+
+    private void releaseUnreferencedBlobs(Collection<String> contentHashes) throws MessagingException {
+        for (final String contentHash : contentHashes) {
+            database.execute(true, new DbCallback<Void>() {
+                @Override
+                public Void doDbWork(final SQLiteDatabase db) throws WrappedException {
+                    if (!isBlobReferenced(db, contentHash)) {
+                        releaseBlob(contentHash);
                     }
+                    return null;
                 }
+            });
+        }
+    }
+
+    BlobStore getBlobStore() {
+        return BlobStore.getInstance(context, database.getStorageProviderId());
+    }
+
+    /**
+     * Moves {@code file} into the {@link BlobStore}, or deletes it if the store already contains the same data.
+     * Needs to be called inside the database transaction that stores the message part referencing the blob. If that
+     * transaction is rolled back, the blob is released again.
+     */
+    void addBlob(File file, String contentHash) throws IOException {
+        BlobStore blobStore = getBlobStore();
+        if (blobStore.add(file, contentHash, account.getUuid())) {
+            attachmentSizeTracker.fileAdded(blobStore.getFile(contentHash).length());
+        }
+
+        releaseBlobsIfUnreferenced(Collections.singleton(contentHash));
+    }
+
+    /**
+     * Releases the blobs with the given hashes that are no longer referenced by any message part once the current
+     * database transaction has ended. Until then the blobs are kept, so a rolled back transaction doesn't leave
+     * message parts pointing to missing files.
+     */
+    void releaseBlobsIfUnreferenced(Collection<String> contentHashes) {
+        if (contentHashes.isEmpty()) {
+            return;
+        }
 
-                final File dbFile = storageManager.getDatabase(account.getUuid(), database.getStorageProviderId());
-                return dbFile.length() + attachmentLength;
+        final List<String> hashes = new ArrayList<>(contentHashes);
+        database.runAfterTransaction(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    releaseUnreferencedBlobs(hashes);
+                } catch (MessagingException e) {
+                    Timber.e(e, "Unable to release blobs");
+                }
             }
         });
     }
 
+    /**
+     * Releases the reference of this account to a blob. Needs to be called inside a database transaction that made
+     * sure no message part references the blob.
+     */
+    private void releaseBlob(String contentHash) {
+        long length = getBlobStore().release(contentHash, account.getUuid());
+        attachmentSizeTracker.fileRemoved(length);
+    }
+
+    /**
+     * Removes the cached view of a deleted message from the {@link MessageViewCache} once the current database
+     * transaction has ended.
+     */
+    void removeCachedMessageView(final String folderName, final String uid) {
+        database.runAfterTransaction(new Runnable() {
+            @Override
+            public void run() {
+                getMessageViewCache().removeMessage(account.getUuid(), folderName, uid);
+            }
+        });
+    }
+
+    /**
+     * Removes the cached views of all messages in a folder from the {@link MessageViewCache} once the current
+     * database transaction has ended.
+     */
+    void removeCachedMessageViews(final String folderName) {
+        database.runAfterTransaction(new Runnable() {
+            @Override
+            public void run() {
+                getMessageViewCache().removeFolder(account.getUuid(), folderName);
+            }
+        });
+    }
+
+    private MessageViewCache getMessageViewCache() {
+        return MessageViewCache.getInstance(context);
+    }
+
+    static boolean isBlobReferenced(SQLiteDatabase db, String contentHash) {
+        Cursor cursor = db.query("message_parts", new String[] { "id" }, "content_hash = ?",
+                new String[] { contentHash }, null, null, null, "1");
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    File getPartFile(String partId, @Nullable String contentHash) {
+        return (contentHash != null) ? getBlobStore().getFile(contentHash) : getAttachmentFile(partId);
+    }
+
+    void attachmentFileRemoved(long length) {
+        attachmentSizeTracker.fileRemoved(length);
+    }
+
     public void compact() throws MessagingException {
         if (K9.isDebug()) {
             Timber.i("Before compaction size = %d", getSize());
@@ -317,6 +481,48 @@ public class LocalStore extends Store {
         if (K9.isDebug()) {
             Timber.i("After compaction size = %d", getSize());
         }
+
+        checkFolderCounts();
+    }
+
+    /**
+     * Compares the unread and flagged counts stored in the {@code folders} table with the messages they are
+     * counting, and recalculates them if they don't match.
+     *
+     * <p>
+     * The counts are maintained by triggers on the {@code messages} table, so this should only find something after
+     * the database has been modified outside of SQLite, e.g. by restoring a backup of the database file.
+     * </p>
+     *
+     * @return {@code true} if the counts were correct. {@code false} if they had to be recalculated.
+     */
+    public boolean checkFolderCounts() throws MessagingException {
+        return database.execute(true, new DbCallback<Boolean>() {
+            @Override
+            public Boolean doDbWork(final SQLiteDatabase db) {
+                Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM folders WHERE " +
+                        "IFNULL(unread_count, 0) != " + UNREAD_COUNT_QUERY + " OR " +
+                        "IFNULL(flagged_count, 0) != " + FLAGGED_COUNT_QUERY, null);
+                int inconsistentFolderCount;
+                try {
+                    cursor.moveToFirst();
+                    inconsistentFolderCount = cursor.getInt(0);
+                } finally {
+                    cursor.close();
+                }
+
+                if (inconsistentFolderCount == 0) {
+                    return true;
+                }
+
+                Timber.w("Recalculating message counts of %d folders", inconsistentFolderCount);
+                db.execSQL("UPDATE folders SET " +
+                        "unread_count = " + UNREAD_COUNT_QUERY + ", " +
+                        "flagged_count = " + FLAGGED_COUNT_QUERY);
+
+                return false;
+            }
+        });
     }
 
 
@@ -326,6 +532,7 @@ public class LocalStore extends Store {
         }
 
         deleteAllMessageDataFromDisk();
+        getMessageViewCache().removeAccount(account.getUuid());
 
         if (K9.isDebug()) {
             Timber.i("After prune / before compaction size = %d", getSize());
@@ -346,6 +553,7 @@ public class LocalStore extends Store {
 
                 // We don't need the search data now either
                 db.delete("messages_fulltext", null, null);
+                db.delete("fulltext_pending", null, null);
 
                 return null;
             }
@@ -438,11 +646,16 @@ public class LocalStore extends Store {
     }
 
     public void delete() throws UnavailableStorageException {
+        getMessageViewCache().removeAccount(account.getUuid());
+        getBlobStore().releaseAll(account.getUuid());
         database.delete();
     }
 
     public void recreate() throws UnavailableStorageException {
+        getMessageViewCache().removeAccount(account.getUuid());
+        getBlobStore().releaseAll(account.getUuid());
         database.recreate();
+        attachmentSizeTracker.invalidate();
     }
 
     private void deleteAllMessageDataFromDisk() throws MessagingException {
@@ -456,6 +669,7 @@ public class LocalStore extends Store {
             public Void doDbWork(final SQLiteDatabase db) throws WrappedException {
                 ContentValues cv = new ContentValues();
                 cv.put("data_location", DataLocation.MISSING);
+                cv.putNull("content_hash");
                 db.update("message_parts", cv, null, null);
 
                 return null;
@@ -463,7 +677,9 @@ public class LocalStore extends Store {
         });
     }
 
-    private void deleteAllMessagePartsDataFromDisk() {
+    private void deleteAllMessagePartsDataFromDisk() throws MessagingException {
+        releaseUnusedBlobs();
+
         final StorageManager storageManager = StorageManager.getInstance(context);
         File attachmentDirectory = storageManager.getAttachmentDirectory(
                 account.getUuid(), database.getStorageProviderId());
@@ -473,7 +689,10 @@ public class LocalStore extends Store {
         }
 
         for (File file : files) {
-            if (file.exists() && !file.delete()) {
+            long length = file.length();
+            if (file.delete()) {
+                attachmentSizeTracker.fileRemoved(length);
+            } else if (file.exists()) {
                 file.deleteOnExit();
             }
         }
@@ -862,7 +1081,8 @@ public class LocalStore extends Store {
                 return new ByteArrayInputStream(data);
             }
             case DataLocation.ON_DISK: {
-                File file = getAttachmentFile(partId);
+                String contentHash = cursor.getString(ATTACH_CONTENT_HASH_INDEX);
+                File file = getPartFile(partId, contentHash);
                 return new FileInputStream(file);
             }
             default:
@@ -989,6 +1209,17 @@ public class LocalStore extends Store {
         return messageFulltextCreator;
     }
 
+    /**
+     * Adds messages that were stored before the fulltext index was created to the index.
+     *
+     * <p>
+     * This can take a long time and should be called from a background thread.
+     * </p>
+     */
+    public void indexPendingFulltextMessages() throws MessagingException {
+        fulltextIndexer.indexPendingMessages();
+    }
+
     AttachmentCounter getAttachmentCounter() {
         return attachmentCounter;
     }
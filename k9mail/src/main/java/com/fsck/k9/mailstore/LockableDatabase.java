@@ -1,6 +1,8 @@
 package com.fsck.k9.mailstore;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -136,6 +138,13 @@ public class LockableDatabase {
      */
     private ThreadLocal<Boolean> inTransaction = new ThreadLocal<>();
 
+    /**
+     * Actions to run once the DB transaction of the current {@link Thread} has ended.
+     *
+     * @see #runAfterTransaction(Runnable)
+     */
+    private ThreadLocal<List<Runnable>> transactionEndActions = new ThreadLocal<>();
+
     private SchemaDefinition mSchemaDefinition;
 
     private String uUid;
@@ -294,10 +303,46 @@ public class LockableDatabase {
                 }
             }
         } finally {
+            List<Runnable> endActions = null;
             if (doTransaction) {
                 inTransaction.set(null);
+                endActions = transactionEndActions.get();
+                transactionEndActions.set(null);
             }
             unlockRead();
+
+            if (endActions != null) {
+                runTransactionEndActions(endActions);
+            }
+        }
+    }
+
+    /**
+     * Runs {@code action} once the DB transaction of the current {@link Thread} has ended, no matter whether it was
+     * committed or rolled back. Use this for changes outside the database that must only be made if the state of the
+     * database, as seen after the transaction, calls for them. Without a transaction the action is run immediately.
+     */
+    public void runAfterTransaction(final Runnable action) {
+        if (inTransaction.get() == null) {
+            action.run();
+            return;
+        }
+
+        List<Runnable> endActions = transactionEndActions.get();
+        if (endActions == null) {
+            endActions = new ArrayList<>();
+            transactionEndActions.set(endActions);
+        }
+        endActions.add(action);
+    }
+
+    private void runTransactionEndActions(List<Runnable> endActions) {
+        for (Runnable action : endActions) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                Timber.e(e, "LockableDatabase: Error running action after transaction");
+            }
         }
     }
 
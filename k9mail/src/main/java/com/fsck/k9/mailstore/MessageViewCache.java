@@ -0,0 +1,362 @@
+package com.fsck.k9.mailstore;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Stack;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+
+import com.fsck.k9.K9;
+import com.fsck.k9.mail.Body;
+import com.fsck.k9.mail.BodyPart;
+import com.fsck.k9.mail.Flag;
+import com.fsck.k9.mail.Multipart;
+import com.fsck.k9.mail.Part;
+import com.fsck.k9.mail.filter.Hex;
+import com.fsck.k9.mail.internet.MimeHeader;
+import com.fsck.k9.mail.internet.MimeUtility;
+import org.apache.commons.io.IOUtils;
+import timber.log.Timber;
+
+
+/**
+ * Disk-backed LRU cache for the sanitized HTML displayed in the message view.
+ *
+ * <p>
+ * Every entry is stored in a file named after its key. The least recently used entries are deleted once the total
+ * size exceeds the limit. The key identifies the message by account, folder name, and UID. Database IDs are not used
+ * because SQLite reuses them for new rows after a message was deleted. The key also contains a fingerprint of the
+ * message's Message-ID, its part structure, and the settings used to render the HTML. It changes whenever a part is
+ * added, replaced, or downloaded, so outdated entries are never returned. {@link #put(LocalMessage, String)} also
+ * removes older entries of the same message.
+ * </p>
+ * <p>
+ * Entries of deleted messages, folders, and accounts are removed by {@link LocalStore}, so their content doesn't stay
+ * on disk.
+ * </p>
+ * <p>
+ * Only messages without encrypted or signed parts may be cached, so decrypted content never ends up on disk.
+ * </p>
+ */
+public class MessageViewCache {
+    private static final String CACHE_DIRECTORY = "message_view";
+    private static final long MAX_CACHE_SIZE = 8 * 1024 * 1024;
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String HASH_ALGORITHM = "SHA-1";
+    /**
+     * Increase this whenever the HTML created for the message view changes.
+     */
+    private static final int FORMAT_VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static MessageViewCache instance;
+
+
+    private final File directory;
+    private final long maxSize;
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+    private Map<String, Long> entries;
+    private long size;
+
+
+    public static synchronized MessageViewCache getInstance(Context context) {
+        if (instance == null) {
+            File directory = new File(context.getCacheDir(), CACHE_DIRECTORY);
+            instance = new MessageViewCache(directory, MAX_CACHE_SIZE);
+        }
+
+        return instance;
+    }
+
+    @VisibleForTesting
+    MessageViewCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    @Nullable
+    @WorkerThread
+    public synchronized String get(LocalMessage message) {
+        loadEntries();
+
+        String key = createKey(message);
+        if (!entries.containsKey(key)) {
+            missCount.incrementAndGet();
+            logStatistics("Miss");
+            return null;
+        }
+
+        File file = new File(directory, key);
+        try {
+            String html = readFile(file);
+            hitCount.incrementAndGet();
+            logStatistics("Hit");
+
+            // Persist the access order across restarts
+            if (!file.setLastModified(System.currentTimeMillis())) {
+                Timber.d("Unable to update access time of %s", file);
+            }
+
+            return html;
+        } catch (IOException e) {
+            Timber.w(e, "Unable to read message view cache entry");
+            remove(key);
+            missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the HTML created for {@code message}, replacing entries created for older versions of the message.
+     */
+    @WorkerThread
+    public synchronized void put(LocalMessage message, String html) {
+        loadEntries();
+        removeEntriesWithPrefix(getMessagePrefix(message));
+
+        String key = createKey(message);
+        File file = new File(directory, key);
+        File tempFile = new File(directory, key + TEMP_FILE_SUFFIX);
+        try {
+            writeFile(tempFile, html);
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Unable to rename " + tempFile);
+            }
+        } catch (IOException e) {
+            Timber.w(e, "Unable to write message view cache entry");
+            deleteFile(tempFile);
+            return;
+        }
+
+        long length = file.length();
+        entries.put(key, length);
+        size += length;
+
+        trimToSize();
+    }
+
+    @WorkerThread
+    public synchronized void removeMessage(String accountUuid, String folderName, String uid) {
+        loadEntries();
+        removeEntriesWithPrefix(getMessagePrefix(accountUuid, folderName, uid));
+    }
+
+    @WorkerThread
+    public synchronized void removeFolder(String accountUuid, String folderName) {
+        loadEntries();
+        removeEntriesWithPrefix(getFolderPrefix(accountUuid, folderName));
+    }
+
+    @WorkerThread
+    public synchronized void removeAccount(String accountUuid) {
+        loadEntries();
+        removeEntriesWithPrefix(getAccountPrefix(accountUuid));
+    }
+
+    public synchronized void clear() {
+        loadEntries();
+        for (String key : entries.keySet()) {
+            deleteFile(new File(directory, key));
+        }
+        entries.clear();
+        size = 0;
+    }
+
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    @VisibleForTesting
+    synchronized long getSize() {
+        loadEntries();
+        return size;
+    }
+
+    private static String getAccountPrefix(String accountUuid) {
+        return accountUuid + "_";
+    }
+
+    private static String getFolderPrefix(String accountUuid, String folderName) {
+        return getAccountPrefix(accountUuid) + hash(folderName) + "_";
+    }
+
+    private static String getMessagePrefix(String accountUuid, String folderName, String uid) {
+        return getFolderPrefix(accountUuid, folderName) + hash(uid) + "_";
+    }
+
+    private static String getMessagePrefix(LocalMessage message) {
+        return getMessagePrefix(message.getAccount().getUuid(), message.getFolder().getName(), message.getUid());
+    }
+
+    @VisibleForTesting
+    static String createKey(LocalMessage message) {
+        StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append(FORMAT_VERSION).append(';')
+                .append(K9.getK9MessageViewTheme()).append(';')
+                .append(K9.messageViewFixedWidthFont()).append(';')
+                .append(Locale.getDefault()).append(';')
+                .append(message.isSet(Flag.X_DOWNLOADED_FULL)).append(';')
+                .append(message.getMessageId()).append(';');
+
+        Stack<Part> partStack = new Stack<>();
+        partStack.push(message);
+        while (!partStack.isEmpty()) {
+            Part part = partStack.pop();
+            fingerprint.append(part.getMimeType()).append(':')
+                    .append(MimeUtility.getHeaderParameter(part.getContentType(), "charset")).append(':')
+                    .append(Arrays.toString(part.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING)));
+            if (part instanceof LocalPart) {
+                fingerprint.append(':').append(((LocalPart) part).getSize());
+            }
+
+            Body body = part.getBody();
+            if (body == null) {
+                fingerprint.append('m');
+            } else if (body instanceof Multipart) {
+                for (BodyPart bodyPart : ((Multipart) body).getBodyParts()) {
+                    partStack.push(bodyPart);
+                }
+            } else if (body instanceof Part) {
+                partStack.push((Part) body);
+            }
+            fingerprint.append(',');
+        }
+
+        return getMessagePrefix(message) + hash(fingerprint.toString());
+    }
+
+    private static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+            return Hex.encodeHex(digest.digest(text.getBytes(UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void loadEntries() {
+        if (entries != null) {
+            return;
+        }
+
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        size = 0;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Timber.e("Error creating directory: %s", directory.getAbsolutePath());
+            return;
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsLastModified = lhs.lastModified();
+                long rhsLastModified = rhs.lastModified();
+                return lhsLastModified < rhsLastModified ? -1 : (lhsLastModified == rhsLastModified ? 0 : 1);
+            }
+        });
+
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                deleteFile(file);
+                continue;
+            }
+
+            long length = file.length();
+            entries.put(file.getName(), length);
+            size += length;
+        }
+
+        trimToSize();
+    }
+
+    private void removeEntriesWithPrefix(String prefix) {
+        Iterator<Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry<String, Long> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                deleteFile(new File(directory, entry.getKey()));
+                size -= entry.getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    private void remove(String key) {
+        Long length = entries.remove(key);
+        if (length != null) {
+            size -= length;
+        }
+        deleteFile(new File(directory, key));
+    }
+
+    private void trimToSize() {
+        Iterator<Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Entry<String, Long> eldest = iterator.next();
+            deleteFile(new File(directory, eldest.getKey()));
+            size -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private void logStatistics(String result) {
+        if (K9.isDebug()) {
+            Timber.d("Message view cache: %s (hits: %d, misses: %d, size: %d bytes)", result, hitCount.get(),
+                    missCount.get(), size);
+        }
+    }
+
+    private static String readFile(File file) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            return IOUtils.toString(inputStream, UTF_8);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    private static void writeFile(File file, String html) throws IOException {
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(html.getBytes(UTF_8));
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Timber.d("Unable to delete %s", file);
+        }
+    }
+}
@@ -55,6 +55,8 @@ public class MessageViewInfoExtractor {
     private final AttachmentInfoExtractor attachmentInfoExtractor;
     private final HtmlProcessor htmlProcessor;
     private final ICalendarInfoExtractor iCalendarInfoExtractor;
+    @Nullable
+    private final MessageViewCache messageViewCache;
 
 
     public static MessageViewInfoExtractor getInstance() {
@@ -62,16 +64,20 @@ public class MessageViewInfoExtractor {
         AttachmentInfoExtractor attachmentInfoExtractor = AttachmentInfoExtractor.getInstance();
         ICalendarInfoExtractor iCalendarInfoExtractor = ICalendarInfoExtractor.getInstance();
         HtmlProcessor htmlProcessor = HtmlProcessor.newInstance();
-        return new MessageViewInfoExtractor(context, attachmentInfoExtractor, iCalendarInfoExtractor, htmlProcessor);
+        MessageViewCache messageViewCache = MessageViewCache.getInstance(context);
+        return new MessageViewInfoExtractor(context, attachmentInfoExtractor, iCalendarInfoExtractor, htmlProcessor,
+                messageViewCache);
     }
 
     @VisibleForTesting
     MessageViewInfoExtractor(Context context, AttachmentInfoExtractor attachmentInfoExtractor,
-            ICalendarInfoExtractor iCalendarInfoExtractor, HtmlProcessor htmlProcessor) {
+            ICalendarInfoExtractor iCalendarInfoExtractor, HtmlProcessor htmlProcessor,
+            @Nullable MessageViewCache messageViewCache) {
         this.context = context;
         this.attachmentInfoExtractor = attachmentInfoExtractor;
         this.iCalendarInfoExtractor = iCalendarInfoExtractor;
         this.htmlProcessor = htmlProcessor;
+        this.messageViewCache = messageViewCache;
     }
 
     @WorkerThread
@@ -84,7 +90,7 @@ public class MessageViewInfoExtractor {
             if (cryptoAnnotations != null && !cryptoAnnotations.isEmpty()) {
                 Timber.e("Got crypto message cryptoContentAnnotations but no crypto root part!");
             }
-            return extractSimpleMessageForView(message, message);
+            return extractSimpleMessageForView(message, message, true);
         }
 
         boolean isOpenPgpEncrypted = (MessageCryptoStructureDetector.isPartMultipartEncrypted(cryptoContentPart) &&
@@ -103,7 +109,7 @@ public class MessageViewInfoExtractor {
             return extractCryptoMessageForView(message, extraParts, cryptoContentPart, cryptoContentPartAnnotation);
         }
 
-        return extractSimpleMessageForView(message, message);
+        return extractSimpleMessageForView(message, message, false);
     }
 
     private MessageViewInfo extractCryptoMessageForView(Message message,
@@ -117,27 +123,54 @@ public class MessageViewInfoExtractor {
         List<ICalendarViewInfo> extraCalendarInfos = new ArrayList<>();
         ViewableExtractedText extraViewable = extractViewableAndAttachments(extraParts, extraAttachmentInfos, extraCalendarInfos);
 
-        MessageViewInfo messageViewInfo = extractSimpleMessageForView(message, cryptoContentPart);
+        MessageViewInfo messageViewInfo = extractSimpleMessageForView(message, cryptoContentPart, false);
         return messageViewInfo.withCryptoData(cryptoContentPartAnnotation, extraViewable.text,
                 extraAttachmentInfos, extraCalendarInfos);
     }
 
-    private MessageViewInfo extractSimpleMessageForView(Message message, Part contentPart) throws MessagingException {
+    /**
+     * @param cacheable
+     *         {@code true} if the HTML may be stored in the {@link MessageViewCache}. This must only be the case for
+     *         messages without encrypted or signed parts.
+     */
+    private MessageViewInfo extractSimpleMessageForView(Message message, Part contentPart, boolean cacheable)
+            throws MessagingException {
         List<AttachmentViewInfo> attachmentInfos = new ArrayList<>();
         List<ICalendarViewInfo> calendarInfos = new ArrayList<>();
-        ViewableExtractedText viewable = extractViewableAndAttachments(
+        List<Viewable> viewableParts = findViewablesAndAttachments(
                 Collections.singletonList(contentPart), attachmentInfos, calendarInfos);
+
+        String html;
+        LocalMessage cacheableMessage = (cacheable && messageViewCache != null && message instanceof LocalMessage) ?
+                (LocalMessage) message : null;
+        String cachedHtml = (cacheableMessage != null) ? messageViewCache.get(cacheableMessage) : null;
+        if (cachedHtml != null) {
+            html = cachedHtml;
+        } else {
+            html = extractTextFromViewables(viewableParts).html;
+            if (cacheableMessage != null) {
+                messageViewCache.put(cacheableMessage, html);
+            }
+        }
+
         AttachmentResolver attachmentResolver = AttachmentResolver.createFromPart(contentPart);
         boolean isMessageIncomplete =
                 !message.isSet(Flag.X_DOWNLOADED_FULL) || MessageExtractor.hasMissingParts(message);
 
         return MessageViewInfo.createWithExtractedContent(
-                message, contentPart, isMessageIncomplete, viewable.html, attachmentInfos, attachmentResolver, calendarInfos);
+                message, contentPart, isMessageIncomplete, html, attachmentInfos, attachmentResolver, calendarInfos);
     }
 
     private ViewableExtractedText extractViewableAndAttachments(List<Part> parts,
             List<AttachmentViewInfo> attachmentInfos, List<ICalendarViewInfo> iCalendarViewInfos)
             throws MessagingException {
+        List<Viewable> viewableParts = findViewablesAndAttachments(parts, attachmentInfos, iCalendarViewInfos);
+        return extractTextFromViewables(viewableParts);
+    }
+
+    private List<Viewable> findViewablesAndAttachments(List<Part> parts,
+            List<AttachmentViewInfo> attachmentInfos, List<ICalendarViewInfo> iCalendarViewInfos)
+            throws MessagingException {
         ArrayList<Viewable> viewableParts = new ArrayList<>();
         ArrayList<Part> attachments = new ArrayList<>();
         ArrayList<ICalPart> iCalendars = new ArrayList<>();
@@ -148,7 +181,7 @@ public class MessageViewInfoExtractor {
 
         attachmentInfos.addAll(attachmentInfoExtractor.extractAttachmentInfoForView(attachments));
         iCalendarViewInfos.addAll(iCalendarInfoExtractor.extractICalendarInfoForView(iCalendars));
-        return extractTextFromViewables(viewableParts);
+        return viewableParts;
     }
 
     /**
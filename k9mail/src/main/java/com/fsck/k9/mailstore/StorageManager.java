@@ -110,6 +110,19 @@ public class StorageManager {
          */
         File getAttachmentDirectory(Context context, String id);
 
+        /**
+         * Return the {@link File} to the directory containing the message part
+         * files shared by all accounts using this provider. The resulting
+         * {@link File} doesn't necessarily match an existing directory on the
+         * filesystem.
+         *
+         * @param context
+         *            Never <code>null</code>.
+         * @return Never <code>null</code>.
+         * @see BlobStore
+         */
+        File getBlobDirectory(Context context);
+
         /**
          * Check for the underlying storage availability.
          *
@@ -224,6 +237,11 @@ public class StorageManager {
             return new File(mApplicationDir, id + ".db_att");
         }
 
+        @Override
+        public File getBlobDirectory(Context context) {
+            return new File(mApplicationDir, "blobs");
+        }
+
         @Override
         public final File getRoot(Context context) {
             return mRoot;
@@ -291,6 +309,11 @@ public class StorageManager {
             return context.getDatabasePath(id + ".db_att");
         }
 
+        @Override
+        public File getBlobDirectory(Context context) {
+            return context.getDatabasePath("blobs");
+        }
+
         @Override
         public boolean isReady(Context context) {
             return true;
@@ -366,6 +389,11 @@ public class StorageManager {
             return new File(mApplicationDirectory, id + ".db_att");
         }
 
+        @Override
+        public File getBlobDirectory(Context context) {
+            return new File(mApplicationDirectory, "blobs");
+        }
+
         @Override
         public boolean isReady(Context context) {
             return Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState());
@@ -600,6 +628,17 @@ public class StorageManager {
         return provider.getAttachmentDirectory(context, dbName);
     }
 
+    /**
+     * @param providerId
+     *            Never <code>null</code>.
+     * @return The resolved directory of the blob store for the given provider ID.
+     */
+    public File getBlobDirectory(final String providerId) {
+        StorageProvider provider = getProvider(providerId);
+        // TODO fallback to internal storage if no provider
+        return provider.getBlobDirectory(context);
+    }
+
     /**
      * @param providerId
      *            Never <code>null</code>.
@@ -90,7 +90,10 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
                 "push_class TEXT, " +
                 "display_class TEXT, " +
                 "notify_class TEXT default '" + Folder.FolderClass.INHERITED.name() + "', " +
-                "more_messages TEXT default \"unknown\"" +
+                "more_messages TEXT default \"unknown\", " +
+                "uid_validity INTEGER, " +
+                "highest_mod_seq INTEGER, " +
+                "uid_next INTEGER" +
                 ")");
 
         db.execSQL("CREATE INDEX IF NOT EXISTS folder_name ON folders (name)");
@@ -142,7 +145,8 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
                 "epilogue TEXT, " +
                 "boundary TEXT, " +
                 "content_id TEXT, " +
-                "server_extra TEXT" +
+                "server_extra TEXT, " +
+                "content_hash TEXT" +
                 ")");
 
         db.execSQL("CREATE TRIGGER set_message_part_root " +
@@ -151,7 +155,10 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
                 "UPDATE message_parts SET root=id WHERE root IS NULL AND ROWID = NEW.ROWID; " +
                 "END");
 
+        db.execSQL("CREATE INDEX IF NOT EXISTS message_parts_content_hash ON message_parts (content_hash)");
+
         db.execSQL("CREATE INDEX IF NOT EXISTS msg_uid ON messages (uid, folder_id)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS msg_folder_id_message_id ON messages (folder_id, message_id)");
         db.execSQL("DROP INDEX IF EXISTS msg_folder_id");
         db.execSQL("DROP INDEX IF EXISTS msg_folder_id_date");
         db.execSQL("CREATE INDEX IF NOT EXISTS msg_folder_id_deleted_date ON messages (folder_id,deleted,internal_date)");
@@ -208,8 +215,133 @@ class StoreSchemaDefinition implements LockableDatabase.SchemaDefinition {
                 "DELETE FROM messages_fulltext WHERE docid = OLD.id; " +
                 "END");
 
+        // Keep folders.unread_count and folders.flagged_count up to date
+        db.execSQL("DROP TRIGGER IF EXISTS insert_message_folder_counts");
+        db.execSQL("CREATE TRIGGER insert_message_folder_counts " +
+                "AFTER INSERT ON messages " +
+                "BEGIN " +
+                "UPDATE folders SET " +
+                "unread_count = IFNULL(unread_count, 0) + " +
+                "IFNULL(NEW.deleted = 0 AND NEW.empty = 0 AND NEW.read = 0, 0), " +
+                "flagged_count = IFNULL(flagged_count, 0) + " +
+                "IFNULL(NEW.deleted = 0 AND NEW.empty = 0 AND NEW.flagged = 1, 0) " +
+                "WHERE id = NEW.folder_id; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS update_message_folder_counts");
+        db.execSQL("CREATE TRIGGER update_message_folder_counts " +
+                "AFTER UPDATE OF folder_id, deleted, empty, read, flagged ON messages " +
+                "WHEN OLD.folder_id IS NOT NEW.folder_id OR OLD.deleted IS NOT NEW.deleted OR " +
+                "OLD.empty IS NOT NEW.empty OR OLD.read IS NOT NEW.read OR OLD.flagged IS NOT NEW.flagged " +
+                "BEGIN " +
+                "UPDATE folders SET " +
+                "unread_count = IFNULL(unread_count, 0) - " +
+                "IFNULL(OLD.deleted = 0 AND OLD.empty = 0 AND OLD.read = 0, 0), " +
+                "flagged_count = IFNULL(flagged_count, 0) - " +
+                "IFNULL(OLD.deleted = 0 AND OLD.empty = 0 AND OLD.flagged = 1, 0) " +
+                "WHERE id = OLD.folder_id; " +
+                "UPDATE folders SET " +
+                "unread_count = IFNULL(unread_count, 0) + " +
+                "IFNULL(NEW.deleted = 0 AND NEW.empty = 0 AND NEW.read = 0, 0), " +
+                "flagged_count = IFNULL(flagged_count, 0) + " +
+                "IFNULL(NEW.deleted = 0 AND NEW.empty = 0 AND NEW.flagged = 1, 0) " +
+                "WHERE id = NEW.folder_id; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS delete_message_folder_counts");
+        db.execSQL("CREATE TRIGGER delete_message_folder_counts " +
+                "AFTER DELETE ON messages " +
+                "BEGIN " +
+                "UPDATE folders SET " +
+                "unread_count = IFNULL(unread_count, 0) - " +
+                "IFNULL(OLD.deleted = 0 AND OLD.empty = 0 AND OLD.read = 0, 0), " +
+                "flagged_count = IFNULL(flagged_count, 0) - " +
+                "IFNULL(OLD.deleted = 0 AND OLD.empty = 0 AND OLD.flagged = 1, 0) " +
+                "WHERE id = OLD.folder_id; " +
+                "END");
+
+        // Aggregated values of all threads, used by the threaded message list
+        db.execSQL("DROP TABLE IF EXISTS thread_summaries");
+        db.execSQL("CREATE TABLE thread_summaries (" +
+                "root INTEGER PRIMARY KEY, " +
+                "message_count INTEGER, " +
+                "read INTEGER, " +
+                "flagged INTEGER, " +
+                "answered INTEGER, " +
+                "forwarded INTEGER, " +
+                "attachment_count INTEGER, " +
+                "date INTEGER, " +
+                "internal_date INTEGER, " +
+                "newest_message_id INTEGER" +
+                ")");
+
+        db.execSQL("DROP TRIGGER IF EXISTS insert_thread_summary");
+        db.execSQL("CREATE TRIGGER insert_thread_summary " +
+                "AFTER INSERT ON threads " +
+                "BEGIN " +
+                refreshThreadSummary("IFNULL(NEW.root, NEW.id)") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS update_thread_summary");
+        db.execSQL("CREATE TRIGGER update_thread_summary " +
+                "AFTER UPDATE OF root, message_id ON threads " +
+                "BEGIN " +
+                refreshThreadSummary("OLD.root") +
+                refreshThreadSummary("NEW.root") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS delete_thread_summary");
+        db.execSQL("CREATE TRIGGER delete_thread_summary " +
+                "AFTER DELETE ON threads " +
+                "BEGIN " +
+                refreshThreadSummary("OLD.root") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS update_message_thread_summary");
+        db.execSQL("CREATE TRIGGER update_message_thread_summary " +
+                "AFTER UPDATE OF deleted, empty, read, flagged, answered, forwarded, attachment_count, date, " +
+                "internal_date ON messages " +
+                "WHEN OLD.deleted IS NOT NEW.deleted OR OLD.empty IS NOT NEW.empty OR " +
+                "OLD.read IS NOT NEW.read OR OLD.flagged IS NOT NEW.flagged OR " +
+                "OLD.answered IS NOT NEW.answered OR OLD.forwarded IS NOT NEW.forwarded OR " +
+                "OLD.attachment_count IS NOT NEW.attachment_count OR OLD.date IS NOT NEW.date OR " +
+                "OLD.internal_date IS NOT NEW.internal_date " +
+                "BEGIN " +
+                refreshThreadSummary("(SELECT root FROM threads WHERE message_id = NEW.id)") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS delete_message_thread_summary");
+        db.execSQL("CREATE TRIGGER delete_message_thread_summary " +
+                "AFTER DELETE ON messages " +
+                "BEGIN " +
+                refreshThreadSummary("(SELECT root FROM threads WHERE message_id = OLD.id)") +
+                "END");
+
         db.execSQL("DROP TABLE IF EXISTS messages_fulltext");
-        db.execSQL("CREATE VIRTUAL TABLE messages_fulltext USING fts4 (fulltext)");
+        db.execSQL("CREATE VIRTUAL TABLE messages_fulltext USING fts4 " +
+                "(subject, sender_list, to_list, cc_list, fulltext)");
+
+        db.execSQL("DROP TABLE IF EXISTS fulltext_pending");
+        db.execSQL("CREATE TABLE fulltext_pending (message_id INTEGER PRIMARY KEY)");
+    }
+
+
+    /**
+     * Returns the statements that recalculate the row of {@code thread_summaries} for the thread with the given root.
+     * Only the messages of that thread are read, so this is cheap enough to run from a trigger.
+     */
+    private static String refreshThreadSummary(String root) {
+        return "DELETE FROM thread_summaries WHERE root = " + root + "; " +
+                "INSERT INTO thread_summaries (root, message_count, read, flagged, answered, " +
+                "forwarded, attachment_count, date, internal_date, newest_message_id) " +
+                "SELECT t.root, COUNT(*), MIN(m.read), MAX(m.flagged), MIN(m.answered), MIN(m.forwarded), " +
+                "SUM(m.attachment_count), MAX(m.date), MAX(m.internal_date), " +
+                "(SELECT m2.id FROM threads t2 JOIN messages m2 ON (m2.id = t2.message_id) " +
+                "WHERE t2.root = t.root AND m2.deleted = 0 AND m2.empty = 0 " +
+                "ORDER BY m2.date DESC, m2.id DESC LIMIT 1) " +
+                "FROM threads t JOIN messages m ON (m.id = t.message_id) " +
+                "WHERE t.root = " + root + " AND m.deleted = 0 AND m.empty = 0 " +
+                "GROUP BY t.root; ";
     }
 
 
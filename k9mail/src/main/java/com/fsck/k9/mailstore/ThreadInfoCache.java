@@ -0,0 +1,41 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Remembers the thread entries looked up by Message-ID while a batch of messages is stored in a folder.
+ *
+ * <p>
+ * Messages of the same mailing list thread usually share most of their {@code References} header. Without this cache
+ * every one of those Message-IDs would be looked up in the database again for every message of the batch. Only use an
+ * instance for a single folder and for the duration of a single transaction. Call {@link #clear()} whenever existing
+ * entries of the {@code threads} table are modified.
+ * </p>
+ */
+class ThreadInfoCache {
+    private static final int MAX_ENTRIES = 500;
+
+
+    private final Map<String, ThreadInfo> entries = new LinkedHashMap<String, ThreadInfo>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ThreadInfo> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+
+    ThreadInfo get(String messageId) {
+        return entries.get(messageId);
+    }
+
+    void put(ThreadInfo threadInfo) {
+        entries.put(threadInfo.messageId, threadInfo);
+    }
+
+    void clear() {
+        entries.clear();
+    }
+}
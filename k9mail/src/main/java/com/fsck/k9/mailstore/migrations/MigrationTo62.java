@@ -0,0 +1,13 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo62 {
+    public static void addFolderSyncStateColumns(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE folders ADD uid_validity INTEGER");
+        db.execSQL("ALTER TABLE folders ADD highest_mod_seq INTEGER");
+        db.execSQL("ALTER TABLE folders ADD uid_next INTEGER");
+    }
+}
@@ -0,0 +1,18 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo63 {
+    public static void createHeaderFulltextIndex(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS messages_fulltext");
+        db.execSQL("CREATE VIRTUAL TABLE messages_fulltext USING fts4 " +
+                "(subject, sender_list, to_list, cc_list, fulltext)");
+
+        // Rebuilding the index for all messages would block the upgrade for too long on big accounts. Queue the
+        // messages instead and let LocalStore.indexPendingFulltextMessages() add them in the background.
+        db.execSQL("CREATE TABLE fulltext_pending (message_id INTEGER PRIMARY KEY)");
+        db.execSQL("INSERT INTO fulltext_pending (message_id) SELECT id FROM messages WHERE deleted = 0 AND empty = 0");
+    }
+}
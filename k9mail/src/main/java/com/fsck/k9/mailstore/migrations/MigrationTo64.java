@@ -0,0 +1,60 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo64 {
+    public static void addFolderCountTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS insert_message_folder_counts");
+        db.execSQL("CREATE TRIGGER insert_message_folder_counts " +
+                "AFTER INSERT ON messages " +
+                "BEGIN " +
+                "UPDATE folders SET " +
+                "unread_count = IFNULL(unread_count, 0) + " +
+                "IFNULL(NEW.deleted = 0 AND NEW.empty = 0 AND NEW.read = 0, 0), " +
+                "flagged_count = IFNULL(flagged_count, 0) + " +
+                "IFNULL(NEW.deleted = 0 AND NEW.empty = 0 AND NEW.flagged = 1, 0) " +
+                "WHERE id = NEW.folder_id; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS update_message_folder_counts");
+        db.execSQL("CREATE TRIGGER update_message_folder_counts " +
+                "AFTER UPDATE OF folder_id, deleted, empty, read, flagged ON messages " +
+                "WHEN OLD.folder_id IS NOT NEW.folder_id OR OLD.deleted IS NOT NEW.deleted OR " +
+                "OLD.empty IS NOT NEW.empty OR OLD.read IS NOT NEW.read OR OLD.flagged IS NOT NEW.flagged " +
+                "BEGIN " +
+                "UPDATE folders SET " +
+                "unread_count = IFNULL(unread_count, 0) - " +
+                "IFNULL(OLD.deleted = 0 AND OLD.empty = 0 AND OLD.read = 0, 0), " +
+                "flagged_count = IFNULL(flagged_count, 0) - " +
+                "IFNULL(OLD.deleted = 0 AND OLD.empty = 0 AND OLD.flagged = 1, 0) " +
+                "WHERE id = OLD.folder_id; " +
+                "UPDATE folders SET " +
+                "unread_count = IFNULL(unread_count, 0) + " +
+                "IFNULL(NEW.deleted = 0 AND NEW.empty = 0 AND NEW.read = 0, 0), " +
+                "flagged_count = IFNULL(flagged_count, 0) + " +
+                "IFNULL(NEW.deleted = 0 AND NEW.empty = 0 AND NEW.flagged = 1, 0) " +
+                "WHERE id = NEW.folder_id; " +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS delete_message_folder_counts");
+        db.execSQL("CREATE TRIGGER delete_message_folder_counts " +
+                "AFTER DELETE ON messages " +
+                "BEGIN " +
+                "UPDATE folders SET " +
+                "unread_count = IFNULL(unread_count, 0) - " +
+                "IFNULL(OLD.deleted = 0 AND OLD.empty = 0 AND OLD.read = 0, 0), " +
+                "flagged_count = IFNULL(flagged_count, 0) - " +
+                "IFNULL(OLD.deleted = 0 AND OLD.empty = 0 AND OLD.flagged = 1, 0) " +
+                "WHERE id = OLD.folder_id; " +
+                "END");
+
+        // The columns haven't been maintained for a long time. Calculate them from scratch.
+        db.execSQL("UPDATE folders SET " +
+                "unread_count = (SELECT COUNT(*) FROM messages WHERE messages.folder_id = folders.id AND " +
+                "deleted = 0 AND empty = 0 AND read = 0), " +
+                "flagged_count = (SELECT COUNT(*) FROM messages WHERE messages.folder_id = folders.id AND " +
+                "deleted = 0 AND empty = 0 AND flagged = 1)");
+    }
+}
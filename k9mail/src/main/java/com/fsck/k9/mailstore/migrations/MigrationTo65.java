@@ -0,0 +1,12 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo65 {
+    public static void addMessagePartContentHash(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE message_parts ADD content_hash TEXT");
+        db.execSQL("CREATE INDEX IF NOT EXISTS message_parts_content_hash ON message_parts (content_hash)");
+    }
+}
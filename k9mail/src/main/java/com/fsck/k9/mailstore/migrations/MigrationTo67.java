@@ -0,0 +1,90 @@
+package com.fsck.k9.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo67 {
+    public static void createThreadSummaries(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS thread_summaries");
+        db.execSQL("CREATE TABLE thread_summaries (" +
+                "root INTEGER PRIMARY KEY, " +
+                "message_count INTEGER, " +
+                "read INTEGER, " +
+                "flagged INTEGER, " +
+                "answered INTEGER, " +
+                "forwarded INTEGER, " +
+                "attachment_count INTEGER, " +
+                "date INTEGER, " +
+                "internal_date INTEGER, " +
+                "newest_message_id INTEGER" +
+                ")");
+
+        db.execSQL("DROP TRIGGER IF EXISTS insert_thread_summary");
+        db.execSQL("CREATE TRIGGER insert_thread_summary " +
+                "AFTER INSERT ON threads " +
+                "BEGIN " +
+                refreshThreadSummary("IFNULL(NEW.root, NEW.id)") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS update_thread_summary");
+        db.execSQL("CREATE TRIGGER update_thread_summary " +
+                "AFTER UPDATE OF root, message_id ON threads " +
+                "BEGIN " +
+                refreshThreadSummary("OLD.root") +
+                refreshThreadSummary("NEW.root") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS delete_thread_summary");
+        db.execSQL("CREATE TRIGGER delete_thread_summary " +
+                "AFTER DELETE ON threads " +
+                "BEGIN " +
+                refreshThreadSummary("OLD.root") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS update_message_thread_summary");
+        db.execSQL("CREATE TRIGGER update_message_thread_summary " +
+                "AFTER UPDATE OF deleted, empty, read, flagged, answered, forwarded, attachment_count, date, " +
+                "internal_date ON messages " +
+                "WHEN OLD.deleted IS NOT NEW.deleted OR OLD.empty IS NOT NEW.empty OR " +
+                "OLD.read IS NOT NEW.read OR OLD.flagged IS NOT NEW.flagged OR " +
+                "OLD.answered IS NOT NEW.answered OR OLD.forwarded IS NOT NEW.forwarded OR " +
+                "OLD.attachment_count IS NOT NEW.attachment_count OR OLD.date IS NOT NEW.date OR " +
+                "OLD.internal_date IS NOT NEW.internal_date " +
+                "BEGIN " +
+                refreshThreadSummary("(SELECT root FROM threads WHERE message_id = NEW.id)") +
+                "END");
+
+        db.execSQL("DROP TRIGGER IF EXISTS delete_message_thread_summary");
+        db.execSQL("CREATE TRIGGER delete_message_thread_summary " +
+                "AFTER DELETE ON messages " +
+                "BEGIN " +
+                refreshThreadSummary("(SELECT root FROM threads WHERE message_id = OLD.id)") +
+                "END");
+
+        db.execSQL("INSERT INTO thread_summaries (root, message_count, read, flagged, answered, " +
+                "forwarded, attachment_count, date, internal_date, newest_message_id) " +
+                "SELECT t.root, COUNT(*), MIN(m.read), MAX(m.flagged), MIN(m.answered), MIN(m.forwarded), " +
+                "SUM(m.attachment_count), MAX(m.date), MAX(m.internal_date), " +
+                "(SELECT m2.id FROM threads t2 JOIN messages m2 ON (m2.id = t2.message_id) " +
+                "WHERE t2.root = t.root AND m2.deleted = 0 AND m2.empty = 0 " +
+                "ORDER BY m2.date DESC, m2.id DESC LIMIT 1) " +
+                "FROM threads t JOIN messages m ON (m.id = t.message_id) " +
+                "WHERE t.root IS NOT NULL AND m.deleted = 0 AND m.empty = 0 " +
+                "GROUP BY t.root");
+    }
+
+    private static String refreshThreadSummary(String root) {
+        return "DELETE FROM thread_summaries WHERE root = " + root + "; " +
+                "INSERT INTO thread_summaries (root, message_count, read, flagged, answered, " +
+                "forwarded, attachment_count, date, internal_date, newest_message_id) " +
+                "SELECT t.root, COUNT(*), MIN(m.read), MAX(m.flagged), MIN(m.answered), MIN(m.forwarded), " +
+                "SUM(m.attachment_count), MAX(m.date), MAX(m.internal_date), " +
+                "(SELECT m2.id FROM threads t2 JOIN messages m2 ON (m2.id = t2.message_id) " +
+                "WHERE t2.root = t.root AND m2.deleted = 0 AND m2.empty = 0 " +
+                "ORDER BY m2.date DESC, m2.id DESC LIMIT 1) " +
+                "FROM threads t JOIN messages m ON (m.id = t.message_id) " +
+                "WHERE t.root = " + root + " AND m.deleted = 0 AND m.empty = 0 " +
+                "GROUP BY t.root; ";
+    }
+}
@@ -77,6 +77,18 @@ public class Migrations {
                 MigrationTo60.migratePendingCommands(db);
             case 60:
                 MigrationTo61.removeErrorsFolder(db);
+            case 61:
+                MigrationTo62.addFolderSyncStateColumns(db);
+            case 62:
+                MigrationTo63.createHeaderFulltextIndex(db);
+            case 63:
+                MigrationTo64.addFolderCountTriggers(db);
+            case 64:
+                MigrationTo65.addMessagePartContentHash(db);
+            case 65:
+                MigrationTo66.addMessageIdIndex(db);
+            case 66:
+                MigrationTo67.createThreadSummaries(db);
         }
     }
 }
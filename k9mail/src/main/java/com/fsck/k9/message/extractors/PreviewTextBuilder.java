@@ -0,0 +1,269 @@
+package com.fsck.k9.message.extractors;
+
+
+import android.support.annotation.NonNull;
+
+
+/**
+ * Creates the preview of a message text in a single pass.
+ *
+ * <p>
+ * The text is processed line by line. Lines that are part of a signature, quoted text, or a quote header are dropped.
+ * Horizontal rules and URLs are shortened, and whitespace is collapsed. Processing stops as soon as the preview has
+ * reached its maximum length, so only the beginning of long texts is looked at.
+ * </p>
+ * <p>
+ * The rules are the ones previously applied by a chain of regular expressions. Where these matched on line
+ * boundaries, they used the same line terminators as {@link java.util.regex.Pattern#MULTILINE}.
+ * </p>
+ */
+class PreviewTextBuilder {
+    private static final int MIN_HORIZONTAL_RULE_LENGTH = 30;
+    private static final String SIGNATURE_DELIMITER = "-- ";
+    private static final String URL_REPLACEMENT = "...";
+    private static final char ELLIPSIS = '…';
+
+
+    private final int maxLength;
+    private final StringBuilder line = new StringBuilder();
+    private final StringBuilder horizontalRule = new StringBuilder();
+    private final StringBuilder word = new StringBuilder();
+    private final StringBuilder preview = new StringBuilder();
+    private int trimmedPreviewLength;
+    private boolean lastCharacterWasWhitespace;
+
+
+    PreviewTextBuilder(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    @NonNull
+    String build(@NonNull CharSequence text) {
+        line.setLength(0);
+        horizontalRule.setLength(0);
+        word.setLength(0);
+        preview.setLength(0);
+        trimmedPreviewLength = 0;
+        lastCharacterWasWhitespace = false;
+
+        processLines(text);
+
+        preview.setLength(trimmedPreviewLength);
+        if (trimmedPreviewLength > maxLength) {
+            preview.setLength(maxLength - 1);
+            preview.append(ELLIPSIS);
+        }
+
+        return preview.toString();
+    }
+
+    private void processLines(CharSequence text) {
+        int length = text.length();
+        for (int i = 0; i < length && !isPreviewFull(); i++) {
+            char c = text.charAt(i);
+            if (!isLineTerminator(c)) {
+                line.append(c);
+                continue;
+            }
+
+            // Everything following a correctly delimited signature ("-- \n") is dropped
+            if ((c == '\r' || c == '\n') && SIGNATURE_DELIMITER.contentEquals(line)) {
+                line.setLength(0);
+                break;
+            }
+
+            flushLine();
+            appendWithoutHorizontalRules(c);
+        }
+
+        if (!isPreviewFull()) {
+            flushLine();
+            flushHorizontalRule();
+            flushWord();
+        }
+    }
+
+    private void flushLine() {
+        if (!isHiddenLine(line)) {
+            int length = line.length();
+            for (int i = 0; i < length; i++) {
+                appendWithoutHorizontalRules(line.charAt(i));
+            }
+        }
+        line.setLength(0);
+    }
+
+    private void appendWithoutHorizontalRules(char c) {
+        if (isHorizontalRuleCharacter(c)) {
+            horizontalRule.append(c);
+            return;
+        }
+
+        flushHorizontalRule();
+        appendWithoutUrls(c);
+    }
+
+    private void flushHorizontalRule() {
+        int length = horizontalRule.length();
+        if (length >= MIN_HORIZONTAL_RULE_LENGTH) {
+            appendWithoutUrls(' ');
+        } else {
+            for (int i = 0; i < length; i++) {
+                appendWithoutUrls(horizontalRule.charAt(i));
+            }
+        }
+        horizontalRule.setLength(0);
+    }
+
+    private void appendWithoutUrls(char c) {
+        if (!isWhitespace(c)) {
+            word.append(c);
+            return;
+        }
+
+        flushWord();
+        appendCollapsingWhitespace(c);
+    }
+
+    /**
+     * URLs in the preview should just be shown as "..." - They're not clickable and they usually overwhelm the
+     * preview.
+     */
+    private void flushWord() {
+        int urlStart = findUrlStart(word);
+        int length = (urlStart == -1) ? word.length() : urlStart;
+        for (int i = 0; i < length; i++) {
+            appendCollapsingWhitespace(word.charAt(i));
+        }
+        if (urlStart != -1) {
+            for (int i = 0; i < URL_REPLACEMENT.length(); i++) {
+                appendCollapsingWhitespace(URL_REPLACEMENT.charAt(i));
+            }
+        }
+        word.setLength(0);
+    }
+
+    private void appendCollapsingWhitespace(char c) {
+        boolean whitespace = isWhitespace(c);
+        if (whitespace && lastCharacterWasWhitespace) {
+            return;
+        }
+        lastCharacterWasWhitespace = whitespace;
+
+        appendTrimmed(whitespace ? ' ' : c);
+    }
+
+    /**
+     * Drops leading whitespace and control characters. Trailing ones are removed in {@link #build(CharSequence)}.
+     */
+    private void appendTrimmed(char c) {
+        boolean blank = c <= ' ';
+        if (blank && trimmedPreviewLength == 0) {
+            return;
+        }
+
+        preview.append(c);
+        if (!blank) {
+            trimmedPreviewLength = preview.length();
+        }
+    }
+
+    private boolean isPreviewFull() {
+        return trimmedPreviewLength > maxLength;
+    }
+
+    private static boolean isHiddenLine(CharSequence line) {
+        int length = line.length();
+        if (length == 0) {
+            return false;
+        }
+
+        char first = line.charAt(0);
+        return isLineOfDashes(line) ||
+                first == '>' || first == '#' ||
+                isQuoteHeader(line) ||
+                isGenericQuoteHeader(line);
+    }
+
+    private static boolean isLineOfDashes(CharSequence line) {
+        return startsWith(line, "----", 0);
+    }
+
+    /**
+     * A line like "On 01/02/03 someone wrote:"
+     */
+    private static boolean isQuoteHeader(CharSequence line) {
+        int length = line.length();
+        if (!startsWith(line, "On ", 0)) {
+            return false;
+        }
+
+        return (length >= 8 && startsWith(line, "wrote", length - 5)) ||
+                (length >= 9 && startsWith(line, "wrote", length - 6));
+    }
+
+    /**
+     * A line ending in a word followed by a colon, like "Am 13.12.2015 um 23:42 schrieb Hans:"
+     */
+    private static boolean isGenericQuoteHeader(CharSequence line) {
+        int length = line.length();
+        return length >= 2 && line.charAt(length - 1) == ':' && isWordCharacter(line.charAt(length - 2));
+    }
+
+    private static int findUrlStart(CharSequence word) {
+        int length = word.length();
+        for (int i = 0; i + 4 < length; i++) {
+            if (!startsWith(word, "http", i)) {
+                continue;
+            }
+
+            // A URL needs at least one character after the scheme
+            int schemeEnd = (word.charAt(i + 4) == 's') ? i + 5 : i + 4;
+            if (startsWith(word, "://", schemeEnd) && schemeEnd + 3 < length) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static boolean startsWith(CharSequence text, String prefix, int offset) {
+        int prefixLength = prefix.length();
+        if (offset < 0 || offset + prefixLength > text.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < prefixLength; i++) {
+            if (text.charAt(offset + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The line terminators recognized by {@link java.util.regex.Pattern} when {@code UNIX_LINES} is not set. "\r\n"
+     * is treated as two terminators, which makes no difference for the rules applied here.
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Whitespace as matched by {@code \s} in {@link java.util.regex.Pattern}.
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Word characters as matched by {@code \w} in {@link java.util.regex.Pattern}.
+     */
+    private static boolean isWordCharacter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    private static boolean isHorizontalRuleCharacter(char c) {
+        return c == '-' || c == '=' || c == '_';
+    }
+}
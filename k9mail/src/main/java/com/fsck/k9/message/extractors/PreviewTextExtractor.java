@@ -17,6 +17,8 @@ class PreviewTextExtractor {
 
     @NonNull
     public String extractPreview(@NonNull Part textPart) throws PreviewExtractionException {
+        // Charset conversion (e.g. the iPhone Shift_JIS mapping) only works on whole strings, so the beginning of the
+        // part is decoded into a String first
         String text = MessageExtractor.getTextFromPart(textPart, MAX_CHARACTERS_CHECKED_FOR_PREVIEW);
         if (text == null) {
             throw new PreviewExtractionException("Couldn't get text from part");
@@ -41,29 +43,6 @@ class PreviewTextExtractor {
             return "";
         }
 
-        // Remove (correctly delimited by '-- \n') signatures
-        text = text.replaceAll("(?ms)^-- [\\r\\n]+.*", "");
-        // try to remove lines of dashes in the preview
-        text = text.replaceAll("(?m)^----.*?$", "");
-        // remove quoted text from the preview
-        text = text.replaceAll("(?m)^[#>].*$", "");
-        // Remove a common quote header from the preview
-        text = text.replaceAll("(?m)^On .*wrote.?$", "");
-        // Remove a more generic quote header from the preview
-        text = text.replaceAll("(?m)^.*\\w+:$", "");
-        // Remove horizontal rules.
-        text = text.replaceAll("\\s*([-=_]{30,}+)\\s*", " ");
-
-        // URLs in the preview should just be shown as "..." - They're not
-        // clickable and they usually overwhelm the preview
-        text = text.replaceAll("https?://\\S+", "...");
-        // Don't show newlines in the preview
-        text = text.replaceAll("(\\r|\\n)+", " ");
-        // Collapse whitespace in the preview
-        text = text.replaceAll("\\s+", " ");
-        // Remove any whitespace at the beginning and end of the string.
-        text = text.trim();
-
-        return (text.length() > MAX_PREVIEW_LENGTH) ? text.substring(0, MAX_PREVIEW_LENGTH - 1) + "…" : text;
+        return new PreviewTextBuilder(MAX_PREVIEW_LENGTH).build(text);
     }
 }
@@ -2,11 +2,14 @@ package com.fsck.k9.preferences;
 
 
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import android.content.ContentValues;
 import android.content.Context;
@@ -14,26 +17,49 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteStatement;
 import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
 
 import com.fsck.k9.helper.UrlEncodingHelper;
 import com.fsck.k9.helper.Utility;
 import com.fsck.k9.mail.filter.Base64;
 import timber.log.Timber;
 
+/**
+ * Key/value store backing the app's preferences.
+ *
+ * <p>
+ * All values are kept in memory. Changes are written through a database connection that stays open for the lifetime
+ * of this object, using statements that are compiled once. A transaction only records the keys it changes and applies
+ * them to the in-memory map after the database transaction was committed, so the cost of a commit depends on the
+ * number of changed keys rather than the number of stored keys.
+ * </p>
+ * <p>
+ * The changes of a transaction are applied to the map while holding the write lock of {@link #storageLock}, and
+ * readers take its read lock. So a reader sees either none or all of the changes of a transaction.
+ * </p>
+ */
 public class Storage {
     private static ConcurrentMap<Context, Storage> storages =
         new ConcurrentHashMap<Context, Storage>();
 
-    private volatile ConcurrentMap<String, String> storage = new ConcurrentHashMap<String, String>();
+    /**
+     * Only accessed while holding {@link #storageLock}.
+     */
+    private final Map<String, String> storage = new HashMap<String, String>();
+    private final ReadWriteLock storageLock = new ReentrantReadWriteLock();
 
     private final static int DB_VERSION = 2;
     private final static String DB_NAME = "preferences_storage";
 
-    private ThreadLocal<ConcurrentMap<String, String>> workingStorage
-    = new ThreadLocal<ConcurrentMap<String, String>>();
-    private ThreadLocal<SQLiteDatabase> workingDB =
-        new ThreadLocal<SQLiteDatabase>();
-    private ThreadLocal<List<String>> workingChangedKeys = new ThreadLocal<List<String>>();
+    /**
+     * Changes of the running transaction. A {@code null} value marks a removed key. Only accessed while holding
+     * {@link #writeLock}.
+     */
+    private Map<String, String> workingChanges;
+    private final Object writeLock = new Object();
+    private SQLiteDatabase database;
+    private SQLiteStatement insertStatement;
+    private SQLiteStatement deleteStatement;
 
 
     private Context context = null;
@@ -161,99 +187,136 @@ public class Storage {
         }
     }
 
-    private void loadValues() {
+    @VisibleForTesting
+    void loadValues() {
         long startTime = SystemClock.elapsedRealtime();
         Timber.i("Loading preferences from DB into Storage");
+        SQLiteDatabase db = getDatabase();
         Cursor cursor = null;
-        SQLiteDatabase mDb = null;
+        Lock lock = storageLock.writeLock();
+        lock.lock();
         try {
-            mDb = openDB();
-
-            cursor = mDb.rawQuery("SELECT primkey, value FROM preferences_storage", null);
+            cursor = db.rawQuery("SELECT primkey, value FROM preferences_storage", null);
             while (cursor.moveToNext()) {
                 String key = cursor.getString(0);
                 String value = cursor.getString(1);
-                Timber.d("Loading key '%s', value = '%s'", key, value);
                 storage.put(key, value);
             }
         } finally {
             Utility.closeQuietly(cursor);
-            if (mDb != null) {
-                mDb.close();
-            }
             long endTime = SystemClock.elapsedRealtime();
-            Timber.i("Preferences load took %d ms", endTime - startTime);
+            Timber.i("Preferences load took %d ms (%d keys)", endTime - startTime, storage.size());
+            lock.unlock();
         }
     }
 
-    private Storage(Context context) {
+    @VisibleForTesting
+    Storage(Context context) {
         this.context = context;
         loadValues();
     }
 
-    private void keyChange(String key) {
-        List<String> changedKeys = workingChangedKeys.get();
-        if (!changedKeys.contains(key)) {
-            changedKeys.add(key);
+    private SQLiteDatabase getDatabase() {
+        synchronized (writeLock) {
+            if (database == null || !database.isOpen()) {
+                database = openDB();
+                insertStatement = null;
+                deleteStatement = null;
+            }
+
+            return database;
         }
     }
 
     void put(Map<String, String> insertables) {
-        String sql = "INSERT INTO preferences_storage (primkey, value) VALUES (?, ?)";
-        SQLiteStatement stmt = workingDB.get().compileStatement(sql);
+        if (insertStatement == null) {
+            insertStatement = database.compileStatement(
+                    "INSERT INTO preferences_storage (primkey, value) VALUES (?, ?)");
+        }
 
         for (Map.Entry<String, String> entry : insertables.entrySet()) {
             String key = entry.getKey();
             String value = entry.getValue();
-            stmt.bindString(1, key);
-            stmt.bindString(2, value);
-            stmt.execute();
-            stmt.clearBindings();
-            liveUpdate(key, value);
+            insertStatement.bindString(1, key);
+            insertStatement.bindString(2, value);
+            insertStatement.execute();
+            insertStatement.clearBindings();
+            workingChanges.put(key, value);
         }
-        stmt.close();
-    }
-
-    private void liveUpdate(String key, String value) {
-        workingStorage.get().put(key, value);
-
-        keyChange(key);
     }
 
     void remove(String key) {
-        workingDB.get().delete("preferences_storage", "primkey = ?", new String[] { key });
-        workingStorage.get().remove(key);
+        if (deleteStatement == null) {
+            deleteStatement = database.compileStatement("DELETE FROM preferences_storage WHERE primkey = ?");
+        }
 
-        keyChange(key);
+        deleteStatement.bindString(1, key);
+        deleteStatement.execute();
+        deleteStatement.clearBindings();
+        workingChanges.put(key, null);
     }
 
+    /**
+     * Runs {@code dbWork} in a database transaction. Transactions are serialized. The changes made by
+     * {@link #put(Map)} and {@link #remove(String)} become visible to readers once the transaction was committed.
+     */
     void doInTransaction(Runnable dbWork) {
-        ConcurrentMap<String, String> newStorage = new ConcurrentHashMap<String, String>();
-        newStorage.putAll(storage);
-        workingStorage.set(newStorage);
+        synchronized (writeLock) {
+            SQLiteDatabase db = getDatabase();
+            Map<String, String> changes = new HashMap<String, String>();
+            workingChanges = changes;
+            try {
+                db.beginTransaction();
+                try {
+                    dbWork.run();
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            } finally {
+                workingChanges = null;
+            }
 
-        SQLiteDatabase mDb = openDB();
-        workingDB.set(mDb);
+            applyChanges(changes);
+        }
+    }
 
-        List<String> changedKeys = new ArrayList<String>();
-        workingChangedKeys.set(changedKeys);
+    private void applyChanges(Map<String, String> changes) {
+        Lock lock = storageLock.writeLock();
+        lock.lock();
+        try {
+            for (Map.Entry<String, String> entry : changes.entrySet()) {
+                String key = entry.getKey();
+                String value = entry.getValue();
+                if (value == null) {
+                    storage.remove(key);
+                } else {
+                    storage.put(key, value);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        mDb.beginTransaction();
+    private String getValue(String key) {
+        Lock lock = storageLock.readLock();
+        lock.lock();
         try {
-            dbWork.run();
-            mDb.setTransactionSuccessful();
-            storage = newStorage;
+            return storage.get(key);
         } finally {
-            workingDB.remove();
-            workingStorage.remove();
-            workingChangedKeys.remove();
-            mDb.endTransaction();
-            mDb.close();
+            lock.unlock();
         }
     }
 
     public boolean isEmpty() {
-        return storage.isEmpty();
+        Lock lock = storageLock.readLock();
+        lock.lock();
+        try {
+            return storage.isEmpty();
+        } finally {
+            lock.unlock();
+        }
     }
 
     public boolean contains(String key) {
@@ -261,19 +324,34 @@ public class Storage {
         // actually containsValue. But looking at the usage of this method,
         // it's clear that containsKey is what's intended. Investigate if this
         // was a bug previously. Looks like it was only used once, when upgrading
-        return storage.containsKey(key);
+        Lock lock = storageLock.readLock();
+        lock.lock();
+        try {
+            return storage.containsKey(key);
+        } finally {
+            lock.unlock();
+        }
     }
 
     public StorageEditor edit() {
         return new StorageEditor(this);
     }
 
+    /**
+     * Returns a copy of all values. Changes committed later are not reflected.
+     */
     public Map<String, String> getAll() {
-        return storage;
+        Lock lock = storageLock.readLock();
+        lock.lock();
+        try {
+            return Collections.unmodifiableMap(new HashMap<String, String>(storage));
+        } finally {
+            lock.unlock();
+        }
     }
 
     public boolean getBoolean(String key, boolean defValue) {
-        String val = storage.get(key);
+        String val = getValue(key);
         if (val == null) {
             return defValue;
         }
@@ -281,7 +359,7 @@ public class Storage {
     }
 
     public int getInt(String key, int defValue) {
-        String val = storage.get(key);
+        String val = getValue(key);
         if (val == null) {
             return defValue;
         }
@@ -294,7 +372,7 @@ public class Storage {
     }
 
     public long getLong(String key, long defValue) {
-        String val = storage.get(key);
+        String val = getValue(key);
         if (val == null) {
             return defValue;
         }
@@ -307,7 +385,7 @@ public class Storage {
     }
 
     public String getString(String key, String defValue) {
-        String val = storage.get(key);
+        String val = getValue(key);
         if (val == null) {
             return defValue;
         }
@@ -1,11 +1,11 @@
 package com.fsck.k9.preferences;
 
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import android.os.SystemClock;
 
@@ -15,14 +15,11 @@ import timber.log.Timber;
 public class StorageEditor {
     private Storage storage;
     private Map<String, String> changes = new HashMap<String, String>();
-    private List<String> removals = new ArrayList<String>();
-
-    Map<String, String> snapshot = new HashMap<String, String>();
+    private Set<String> removals = new HashSet<String>();
 
 
     StorageEditor(Storage storage) {
         this.storage = storage;
-        snapshot.putAll(storage.getAll());
     }
 
     public void copy(android.content.SharedPreferences input) {
@@ -61,7 +58,7 @@ public class StorageEditor {
                 for (Entry<String, String> entry : changes.entrySet()) {
                     String key = entry.getKey();
                     String newValue = entry.getValue();
-                    String oldValue = snapshot.get(key);
+                    String oldValue = storage.getString(key, null);
                     if (removals.contains(key) || !newValue.equals(oldValue)) {
                         insertables.put(key, newValue);
                     }
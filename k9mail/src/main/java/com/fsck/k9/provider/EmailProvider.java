@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import android.content.ContentProvider;
 import android.content.ContentResolver;
@@ -50,6 +51,11 @@ public class EmailProvider extends ContentProvider {
 
     public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY);
 
+    /**
+     * Query parameter limiting the number of rows returned for the message lists.
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
 
     /*
      * Constants that are used for the URI matching.
@@ -61,6 +67,7 @@ public class EmailProvider extends ContentProvider {
 
     private static final int STATS_BASE = 100;
     private static final int STATS = STATS_BASE;
+    private static final int STATS_FOLDERS = STATS_BASE + 1;
 
 
     private static final String MESSAGES_TABLE = "messages";
@@ -90,6 +97,28 @@ public class EmailProvider extends ContentProvider {
             MessageColumns.FORWARDED
     };
 
+    private static final String[] FIXUP_THREADED_MESSAGES_COLUMNS = {
+            MessageColumns.ID,
+            MessageColumns.UID,
+            MessageColumns.SUBJECT,
+            MessageColumns.MESSAGE_ID,
+            MessageColumns.SENDER_LIST,
+            MessageColumns.TO_LIST,
+            MessageColumns.CC_LIST,
+            MessageColumns.BCC_LIST,
+            MessageColumns.REPLY_TO_LIST,
+            MessageColumns.FLAGS,
+            MessageColumns.FOLDER_ID,
+            MessageColumns.PREVIEW_TYPE,
+            MessageColumns.PREVIEW
+    };
+
+    /**
+     * Conditions on folders as built by {@link SqlQueryBuilder}, combined with AND and OR.
+     */
+    private static final Pattern FOLDER_SELECTION = Pattern.compile(
+            "(\\s|\\(|\\)|AND|OR|0|1|(folder_id|integrate|display_class) (=|!=|LIKE|NOT LIKE) \\?)*");
+
     private static final String FOLDERS_TABLE = "folders";
 
     private static final String[] FOLDERS_COLUMNS = {
@@ -111,6 +140,8 @@ public class EmailProvider extends ContentProvider {
 
     private static final String THREADS_TABLE = "threads";
 
+    private static final String THREAD_SUMMARIES_TABLE = "thread_summaries";
+
     static {
         UriMatcher matcher = URI_MATCHER;
 
@@ -119,6 +150,7 @@ public class EmailProvider extends ContentProvider {
         matcher.addURI(AUTHORITY, "account/*/thread/#", MESSAGES_THREAD);
 
         matcher.addURI(AUTHORITY, "account/*/stats", STATS);
+        matcher.addURI(AUTHORITY, "account/*/stats/folders", STATS_FOLDERS);
     }
 
     public interface SpecialColumns {
@@ -176,6 +208,12 @@ public class EmailProvider extends ContentProvider {
         String DISPLAY_CLASS = "display_class";
     }
 
+    public interface ThreadSummaryColumns {
+        String ROOT = "root";
+        String MESSAGE_COUNT = "message_count";
+        String NEWEST_MESSAGE_ID = "newest_message_id";
+    }
+
     public interface ThreadColumns {
         String ID = "id";
         String MESSAGE_ID = "message_id";
@@ -234,11 +272,13 @@ public class EmailProvider extends ContentProvider {
                 }
 
                 String[] dbProjection = dbColumnNames.toArray(new String[0]);
+                String limit = getLimit(uri);
 
                 if (match == MESSAGES) {
-                    cursor = getMessages(accountUuid, dbProjection, selection, selectionArgs, sortOrder);
+                    cursor = getMessages(accountUuid, dbProjection, selection, selectionArgs, sortOrder, limit);
                 } else if (match == MESSAGES_THREADED) {
-                    cursor = getThreadedMessages(accountUuid, dbProjection, selection, selectionArgs, sortOrder);
+                    cursor = getThreadedMessages(accountUuid, dbProjection, selection, selectionArgs, sortOrder,
+                            limit);
                 } else if (match == MESSAGES_THREAD) {
                     String threadId = segments.get(3);
                     cursor = getThread(accountUuid, dbProjection, threadId, sortOrder);
@@ -253,11 +293,16 @@ public class EmailProvider extends ContentProvider {
                 cursor = new EmailProviderCacheCursor(accountUuid, cursor, getContext());
                 break;
             }
-            case STATS: {
+            case STATS:
+            case STATS_FOLDERS: {
                 List<String> segments = uri.getPathSegments();
                 String accountUuid = segments.get(1);
 
-                cursor = getAccountStats(accountUuid, projection, selection, selectionArgs);
+                if (match == STATS) {
+                    cursor = getAccountStats(accountUuid, projection, selection, selectionArgs);
+                } else {
+                    cursor = getFolderStats(accountUuid, projection, selection, selectionArgs);
+                }
 
                 Uri notificationUri = Uri.withAppendedPath(CONTENT_URI, "account/" + accountUuid + "/messages");
 
@@ -269,6 +314,19 @@ public class EmailProvider extends ContentProvider {
         return cursor;
     }
 
+    private static String getLimit(Uri uri) {
+        String limit = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+        if (limit == null) {
+            return null;
+        }
+
+        try {
+            return Integer.toString(Integer.parseInt(limit));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid limit: " + limit, e);
+        }
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         throw new RuntimeException("not implemented yet");
@@ -285,7 +343,7 @@ public class EmailProvider extends ContentProvider {
     }
 
     protected Cursor getMessages(String accountUuid, final String[] projection, final String selection,
-            final String[] selectionArgs, final String sortOrder) {
+            final String[] selectionArgs, final String sortOrder, final String limit) {
 
         Account account = getAccount(accountUuid);
         LockableDatabase database = getDatabase(account);
@@ -333,10 +391,15 @@ public class EmailProvider extends ContentProvider {
                         query.append(SqlQueryBuilder.addPrefixToSelection(FIXUP_MESSAGES_COLUMNS, "m.", where));
                         query.append(" ORDER BY ");
                         query.append(SqlQueryBuilder.addPrefixToSelection(FIXUP_MESSAGES_COLUMNS, "m.", sortOrder));
+                        if (limit != null) {
+                            query.append(" LIMIT ");
+                            query.append(limit);
+                        }
 
                         cursor = db.rawQuery(query.toString(), selectionArgs);
                     } else {
-                        cursor = db.query(MESSAGES_TABLE, projection, where, selectionArgs, null, null, sortOrder);
+                        cursor = db.query(MESSAGES_TABLE, projection, where, selectionArgs, null, null, sortOrder,
+                                limit);
                     }
 
                     return cursor;
@@ -350,7 +413,7 @@ public class EmailProvider extends ContentProvider {
     }
 
     protected Cursor getThreadedMessages(String accountUuid, final String[] projection, final String selection,
-            final String[] selectionArgs, final String sortOrder) {
+            final String[] selectionArgs, final String sortOrder, final String limit) {
 
         Account account = getAccount(accountUuid);
         LockableDatabase database = getDatabase(account);
@@ -362,56 +425,15 @@ public class EmailProvider extends ContentProvider {
                         UnavailableStorageException {
 
                     StringBuilder query = new StringBuilder();
-
-                    query.append("SELECT ");
-                    boolean first = true;
-                    for (String columnName : projection) {
-                        if (!first) {
-                            query.append(",");
-                        } else {
-                            first = false;
-                        }
-
-                        final String aggregationFunc = THREAD_AGGREGATION_FUNCS.get(columnName);
-
-                        if (MessageColumns.ID.equals(columnName)) {
-                            query.append("m." + MessageColumns.ID + " AS " + MessageColumns.ID);
-                        } else if (aggregationFunc != null) {
-                            query.append("a.");
-                            query.append(columnName);
-                            query.append(" AS ");
-                            query.append(columnName);
-                        } else {
-                            query.append(columnName);
-                        }
+                    if (isFolderSelection(selection)) {
+                        appendThreadSummaryQuery(projection, selection, sortOrder, query);
+                    } else {
+                        appendGroupedThreadQuery(projection, selection, sortOrder, query);
                     }
 
-                    query.append(" FROM (");
-
-                    createThreadedSubQuery(projection, selection, query);
-
-                    query.append(") a ");
-
-                    query.append("JOIN " + THREADS_TABLE + " t " +
-                            "ON (t." + ThreadColumns.ROOT + " = a.thread_root) " +
-                            "JOIN " + MESSAGES_TABLE + " m " +
-                            "ON (m." + MessageColumns.ID + " = t." + ThreadColumns.MESSAGE_ID + " AND " +
-                            "m." + InternalMessageColumns.EMPTY + "=0 AND " +
-                            "m." + InternalMessageColumns.DELETED + "=0 AND " +
-                            "m." + MessageColumns.DATE + " = a." + MessageColumns.DATE +
-                            ") ");
-
-                    if (Utility.arrayContainsAny(projection, (Object[]) FOLDERS_COLUMNS)) {
-                        query.append("JOIN " + FOLDERS_TABLE + " f " +
-                                "ON (m." + MessageColumns.FOLDER_ID + " = f." + FolderColumns.ID + ") ");
-                    }
-
-                    query.append(" GROUP BY " + ThreadColumns.ROOT);
-
-                    if (!TextUtils.isEmpty(sortOrder)) {
-                        query.append(" ORDER BY ");
-                        query.append(SqlQueryBuilder.addPrefixToSelection(
-                                FIXUP_AGGREGATED_MESSAGES_COLUMNS, "a.", sortOrder));
+                    if (limit != null) {
+                        query.append(" LIMIT ");
+                        query.append(limit);
                     }
 
                     return db.rawQuery(query.toString(), selectionArgs);
@@ -424,6 +446,142 @@ public class EmailProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Returns {@code true} if {@code selection} only contains conditions on folders, as built by
+     * {@link SqlQueryBuilder} for folder, account and unified inbox lists. Threads never span folders, so such a
+     * selection includes either all or none of the messages of a thread.
+     */
+    private static boolean isFolderSelection(String selection) {
+        return selection == null || FOLDER_SELECTION.matcher(selection).matches();
+    }
+
+    /**
+     * Reads the aggregated values and the newest message of each thread from the {@code thread_summaries} table.
+     * Only used for selections accepted by {@link #isFolderSelection(String)}, because the summaries always describe
+     * the whole thread.
+     */
+    private void appendThreadSummaryQuery(String[] projection, String selection, String sortOrder,
+            StringBuilder query) {
+        query.append("SELECT ");
+        boolean first = true;
+        for (String columnName : projection) {
+            if (!first) {
+                query.append(",");
+            } else {
+                first = false;
+            }
+
+            if (MessageColumns.ID.equals(columnName)) {
+                query.append("m." + MessageColumns.ID + " AS " + MessageColumns.ID);
+            } else if (ThreadColumns.ROOT.equals(columnName)) {
+                query.append("s." + ThreadSummaryColumns.ROOT + " AS " + ThreadColumns.ROOT);
+            } else if (SpecialColumns.THREAD_COUNT.equals(columnName)) {
+                query.append("s." + ThreadSummaryColumns.MESSAGE_COUNT + " AS " + SpecialColumns.THREAD_COUNT);
+            } else if (THREAD_AGGREGATION_FUNCS.containsKey(columnName)) {
+                query.append("s.");
+                query.append(columnName);
+                query.append(" AS ");
+                query.append(columnName);
+            } else {
+                query.append(columnName);
+            }
+        }
+
+        query.append(" FROM " + THREAD_SUMMARIES_TABLE + " s " +
+                "JOIN " + MESSAGES_TABLE + " m " +
+                "ON (m." + MessageColumns.ID + " = s." + ThreadSummaryColumns.NEWEST_MESSAGE_ID + ") ");
+
+        boolean joinFolders = Utility.arrayContainsAny(projection, (Object[]) FOLDERS_COLUMNS);
+        if (joinFolders) {
+            query.append("JOIN " + FOLDERS_TABLE + " f " +
+                    "ON (m." + MessageColumns.FOLDER_ID + " = f." + FolderColumns.ID + ") ");
+        }
+
+        query.append("WHERE s." + ThreadSummaryColumns.ROOT + " IN (");
+        createThreadRootSubQuery(selection, joinFolders, query);
+        query.append(")");
+
+        appendThreadedSortOrder("s.", sortOrder, query);
+    }
+
+    /**
+     * Selects the roots of all threads containing at least one message that matches {@code selection}.
+     */
+    private void createThreadRootSubQuery(String selection, boolean joinFolders, StringBuilder query) {
+        query.append("SELECT t." + ThreadColumns.ROOT +
+                " FROM " + MESSAGES_TABLE + " m " +
+                "JOIN " + THREADS_TABLE + " t " +
+                "ON (t." + ThreadColumns.MESSAGE_ID + " = m." + MessageColumns.ID + ")");
+
+        if (joinFolders) {
+            query.append(" JOIN " + FOLDERS_TABLE + " f " +
+                    "ON (m." + MessageColumns.FOLDER_ID + " = f." + FolderColumns.ID + ")");
+        }
+
+        query.append(" WHERE ");
+        if (!TextUtils.isEmpty(selection)) {
+            query.append("(");
+            query.append(selection);
+            query.append(") AND ");
+        }
+
+        query.append("m." + InternalMessageColumns.DELETED + " = 0 AND m." + InternalMessageColumns.EMPTY + " = 0");
+    }
+
+    /**
+     * Groups the messages matching {@code selection} by thread. The aggregated values only cover the matching
+     * messages, and the newest matching message represents the thread.
+     */
+    private void appendGroupedThreadQuery(String[] projection, String selection, String sortOrder,
+            StringBuilder query) {
+        query.append("SELECT ");
+        boolean first = true;
+        for (String columnName : projection) {
+            if (!first) {
+                query.append(",");
+            } else {
+                first = false;
+            }
+
+            final String aggregationFunc = THREAD_AGGREGATION_FUNCS.get(columnName);
+
+            if (MessageColumns.ID.equals(columnName)) {
+                query.append("m." + MessageColumns.ID + " AS " + MessageColumns.ID);
+            } else if (aggregationFunc != null) {
+                query.append("a.");
+                query.append(columnName);
+                query.append(" AS ");
+                query.append(columnName);
+            } else {
+                query.append(columnName);
+            }
+        }
+
+        query.append(" FROM (");
+
+        createThreadedSubQuery(projection, selection, query);
+
+        query.append(") a ");
+
+        query.append("JOIN " + THREADS_TABLE + " t " +
+                "ON (t." + ThreadColumns.ROOT + " = a.thread_root) " +
+                "JOIN " + MESSAGES_TABLE + " m " +
+                "ON (m." + MessageColumns.ID + " = t." + ThreadColumns.MESSAGE_ID + " AND " +
+                "m." + InternalMessageColumns.EMPTY + "=0 AND " +
+                "m." + InternalMessageColumns.DELETED + "=0 AND " +
+                "m." + MessageColumns.DATE + " = a." + MessageColumns.DATE +
+                ") ");
+
+        if (Utility.arrayContainsAny(projection, (Object[]) FOLDERS_COLUMNS)) {
+            query.append("JOIN " + FOLDERS_TABLE + " f " +
+                    "ON (m." + MessageColumns.FOLDER_ID + " = f." + FolderColumns.ID + ") ");
+        }
+
+        query.append(" GROUP BY " + ThreadColumns.ROOT);
+
+        appendThreadedSortOrder("a.", sortOrder, query);
+    }
+
     private void createThreadedSubQuery(String[] projection, String selection, StringBuilder query) {
         query.append("SELECT t." + ThreadColumns.ROOT + " AS thread_root");
         for (String columnName : projection) {
@@ -476,6 +634,23 @@ public class EmailProvider extends ContentProvider {
         query.append(" GROUP BY t." + ThreadColumns.ROOT);
     }
 
+    /**
+     * Aggregated columns are read from the table with the given prefix, all other message columns from
+     * {@code messages}. Joined tables share column names like {@code id}, so these need to be qualified.
+     */
+    private void appendThreadedSortOrder(String aggregatedPrefix, String sortOrder, StringBuilder query) {
+        if (TextUtils.isEmpty(sortOrder)) {
+            return;
+        }
+
+        String orderBy = SqlQueryBuilder.addPrefixToSelection(
+                FIXUP_AGGREGATED_MESSAGES_COLUMNS, aggregatedPrefix, sortOrder);
+        orderBy = SqlQueryBuilder.addPrefixToSelection(FIXUP_THREADED_MESSAGES_COLUMNS, "m.", orderBy);
+
+        query.append(" ORDER BY ");
+        query.append(orderBy);
+    }
+
     protected Cursor getThread(String accountUuid, final String[] projection, final String threadId,
             final String sortOrder) {
 
@@ -532,35 +707,13 @@ public class EmailProvider extends ContentProvider {
 
     private Cursor getAccountStats(String accountUuid, String[] columns, final String selection,
             final String[] selectionArgs) {
-
-        Account account = getAccount(accountUuid);
-        LockableDatabase database = getDatabase(account);
-
-        // Use default projection if none was given
-        String[] sourceProjection = (columns == null) ? STATS_DEFAULT_PROJECTION : columns;
-
         // Create SQL query string
-        final StringBuilder sql = new StringBuilder();
+        StringBuilder sql = new StringBuilder();
         sql.append("SELECT ");
 
         // Append projection for the database query
         // e.g. "SUM(read=0) AS unread_count, SUM(flagged) AS flagged_count"
-        boolean first = true;
-        for (String columnName : sourceProjection) {
-            if (!first) {
-                sql.append(',');
-            } else {
-                first = false;
-            }
-
-            if (StatsColumns.UNREAD_COUNT.equals(columnName)) {
-                sql.append("SUM(" + MessageColumns.READ + "=0) AS " + StatsColumns.UNREAD_COUNT);
-            } else if (StatsColumns.FLAGGED_COUNT.equals(columnName)) {
-                sql.append("SUM(" + MessageColumns.FLAGGED + ") AS " + StatsColumns.FLAGGED_COUNT);
-            } else {
-                throw new IllegalArgumentException("Column name not allowed: " + columnName);
-            }
-        }
+        appendStatsProjection(sql, columns, MessageColumns.READ + "=0", MessageColumns.FLAGGED);
 
         // Table selection
         sql.append(" FROM messages");
@@ -578,12 +731,75 @@ public class EmailProvider extends ContentProvider {
         }
 
         // Query the database and return the result cursor
+        return queryStats(accountUuid, sql.toString(), selectionArgs);
+    }
+
+    /**
+     * Sums up the message counts stored in the {@code folders} table.
+     *
+     * <p>
+     * Unlike {@link #getAccountStats(String, String[], String, String[])} this doesn't look at the messages, so the
+     * selection may only use folder columns. The folder ID is available as {@link MessageColumns#FOLDER_ID} so
+     * selections created by {@link SqlQueryBuilder} for folder conditions can be used.
+     * </p>
+     */
+    private Cursor getFolderStats(String accountUuid, String[] columns, final String selection,
+            final String[] selectionArgs) {
+        // Create SQL query string
+        StringBuilder sql = new StringBuilder();
+        sql.append("SELECT ");
+
+        // e.g. "SUM(unread_count) AS unread_count, SUM(flagged_count) AS flagged_count"
+        appendStatsProjection(sql, columns, FolderColumns.UNREAD_COUNT, FolderColumns.FLAGGED_COUNT);
+
+        sql.append(" FROM (SELECT " + FolderColumns.ID + " AS " + MessageColumns.FOLDER_ID + ", * FROM " +
+                FOLDERS_TABLE + ")");
+
+        if (!TextUtils.isEmpty(selection)) {
+            sql.append(" WHERE (");
+            sql.append(selection);
+            sql.append(")");
+        }
+
+        return queryStats(accountUuid, sql.toString(), selectionArgs);
+    }
+
+    /**
+     * Appends the projection of a stats query. The counts are calculated by summing up the given expressions.
+     */
+    private static void appendStatsProjection(StringBuilder sql, String[] columns, String unreadCountExpression,
+            String flaggedCountExpression) {
+        // Use default projection if none was given
+        String[] sourceProjection = (columns == null) ? STATS_DEFAULT_PROJECTION : columns;
+
+        boolean first = true;
+        for (String columnName : sourceProjection) {
+            if (!first) {
+                sql.append(',');
+            } else {
+                first = false;
+            }
+
+            if (StatsColumns.UNREAD_COUNT.equals(columnName)) {
+                sql.append("SUM(" + unreadCountExpression + ") AS " + StatsColumns.UNREAD_COUNT);
+            } else if (StatsColumns.FLAGGED_COUNT.equals(columnName)) {
+                sql.append("SUM(" + flaggedCountExpression + ") AS " + StatsColumns.FLAGGED_COUNT);
+            } else {
+                throw new IllegalArgumentException("Column name not allowed: " + columnName);
+            }
+        }
+    }
+
+    private Cursor queryStats(String accountUuid, final String sql, final String[] selectionArgs) {
+        Account account = getAccount(accountUuid);
+        LockableDatabase database = getDatabase(account);
+
         try {
             return database.execute(false, new DbCallback<Cursor>() {
                 @Override
                 public Cursor doDbWork(SQLiteDatabase db) throws WrappedException,
                         UnavailableStorageException {
-                    return db.rawQuery(sql.toString(), selectionArgs);
+                    return db.rawQuery(sql, selectionArgs);
                 }
             });
         } catch (UnavailableStorageException e) {
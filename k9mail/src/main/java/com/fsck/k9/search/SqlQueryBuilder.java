@@ -1,6 +1,7 @@
 package com.fsck.k9.search;
 
 import java.util.List;
+import java.util.regex.Pattern;
 
 import timber.log.Timber;
 
@@ -15,6 +16,9 @@ import com.fsck.k9.search.SearchSpecification.SearchField;
 
 
 public class SqlQueryBuilder {
+    private static final Pattern FULLTEXT_SEPARATOR = Pattern.compile("[\\x00-\\x2F\\x3A-\\x40\\x5B-\\x60\\x7B-\\x7F]+");
+
+
     public static void buildWhereClause(Account account, ConditionsTreeNode node,
             StringBuilder query, List<String> selectionArgs) {
         buildWhereClauseInternal(account, node, query, selectionArgs);
@@ -75,16 +79,23 @@ public class SqlQueryBuilder {
                     break;
                 }
                 case MESSAGE_CONTENTS: {
-                    String fulltextQueryString = condition.value;
                     if (condition.attribute != Attribute.CONTAINS) {
                         Timber.e("message contents can only be matched!");
                     }
-                    query.append("m.id IN (SELECT docid FROM messages_fulltext WHERE fulltext MATCH ?)");
-                    selectionArgs.add(fulltextQueryString);
+                    String matchExpression = buildFulltextMatchExpression("fulltext", condition.value);
+                    if (matchExpression == null) {
+                        // Nothing that could be in the index, e.g. only punctuation
+                        query.append("0");
+                    } else {
+                        query.append("m.id IN (SELECT docid FROM messages_fulltext WHERE messages_fulltext MATCH ?)");
+                        selectionArgs.add(matchExpression);
+                    }
                     break;
                 }
                 default: {
-                    appendCondition(condition, query, selectionArgs);
+                    if (!appendFulltextCondition(condition, query, selectionArgs)) {
+                        appendCondition(condition, query, selectionArgs);
+                    }
                 }
             }
         } else {
@@ -104,6 +115,89 @@ public class SqlQueryBuilder {
         appendExprRight(condition, query, selectionArgs);
     }
 
+    /**
+     * Uses the fulltext index for {@code CONTAINS} conditions on indexed header fields.
+     *
+     * <p>
+     * The index matches whole words, with the last word of the search string matching as prefix. Messages that are
+     * still waiting to be indexed are matched using {@code LIKE}.
+     * </p>
+     *
+     * @return {@code false} if the condition can't be answered by the index.
+     */
+    private static boolean appendFulltextCondition(SearchCondition condition, StringBuilder query,
+            List<String> selectionArgs) {
+        if (condition.attribute != Attribute.CONTAINS) {
+            return false;
+        }
+
+        String indexColumnName = getFulltextColumnName(condition.field);
+        if (indexColumnName == null) {
+            return false;
+        }
+
+        String matchExpression = buildFulltextMatchExpression(indexColumnName, condition.value);
+        if (matchExpression == null) {
+            return false;
+        }
+
+        query.append("(m.id IN (SELECT docid FROM messages_fulltext WHERE messages_fulltext MATCH ?) OR " +
+                "(m.id IN (SELECT message_id FROM fulltext_pending) AND ");
+        selectionArgs.add(matchExpression);
+        appendCondition(condition, query, selectionArgs);
+        query.append("))");
+
+        return true;
+    }
+
+    private static String getFulltextColumnName(SearchField field) {
+        switch (field) {
+            case SUBJECT: {
+                return "subject";
+            }
+            case SENDER: {
+                return "sender_list";
+            }
+            case TO: {
+                return "to_list";
+            }
+            case CC: {
+                return "cc_list";
+            }
+            default: {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Builds a phrase query for the words in {@code value} whose last word matches as prefix, e.g.
+     * {@code subject:"quarterly plan*"} for "Quarterly plan".
+     *
+     * @return The match expression or {@code null} if {@code value} doesn't contain any words.
+     */
+    static String buildFulltextMatchExpression(String columnName, String value) {
+        // Same token characters as SQLite's "simple" tokenizer
+        String[] words = FULLTEXT_SEPARATOR.split(value);
+
+        StringBuilder phrase = new StringBuilder();
+        for (String word : words) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (phrase.length() > 0) {
+                phrase.append(' ');
+            }
+            phrase.append(word);
+        }
+
+        if (phrase.length() == 0) {
+            return null;
+        }
+
+        return columnName + ":\"" + phrase + "*\"";
+    }
+
     private static long getFolderId(Account account, String folderName) {
         long folderId = 0;
         try {
@@ -0,0 +1,66 @@
+package com.fsck.k9;
+
+
+import java.util.Locale;
+
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.robolectric.shadows.ShadowLog;
+
+import static org.junit.Assume.assumeTrue;
+
+
+/**
+ * Base class for benchmarks of code that needs Robolectric, e.g. because it uses SQLite or shared preferences. Code
+ * that runs on a plain JVM is measured in the {@code k9mail-benchmarks} JMH module instead.
+ *
+ * <p>
+ * Benchmarks are skipped unless the {@code k9.benchmark} project property is set:
+ * <pre>
+ * ./gradlew :k9mail:testDebugUnitTest -Pk9.benchmark --tests '*Benchmark'
+ * </pre>
+ * Each call to {@link #measure(String, int, Task)} runs a task once and logs its duration and throughput with the tag
+ * {@value #LOG_TAG}. Robolectric's SQLite and file system perform differently from a device's. Only compare numbers
+ * measured on the same machine, e.g. before and after a change.
+ * </p>
+ */
+@RunWith(K9RobolectricTestRunner.class)
+public abstract class RobolectricBenchmark {
+    static final String ENABLE_PROPERTY = "k9.benchmark";
+    static final String LOG_TAG = "Benchmark";
+
+
+    @Before
+    public void assumeBenchmarksEnabled() {
+        assumeTrue("Benchmarks only run with -P" + ENABLE_PROPERTY, Boolean.getBoolean(ENABLE_PROPERTY));
+        ShadowLog.stream = System.out;
+    }
+
+    /**
+     * Runs {@code task} and logs how long it took.
+     *
+     * @param description
+     *         What is being measured.
+     * @param operations
+     *         The number of operations performed by {@code task}, used to calculate the throughput.
+     *
+     * @return The duration in nanoseconds.
+     */
+    protected long measure(String description, int operations, Task task) throws Exception {
+        long start = System.nanoTime();
+        task.run();
+        long duration = Math.max(System.nanoTime() - start, 1);
+
+        Log.i(LOG_TAG, String.format(Locale.US, "%s: %.2f ms, %.1f operations/s", description,
+                duration / 1000000.0, operations * 1000000000.0 / duration));
+
+        return duration;
+    }
+
+
+    protected interface Task {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,55 @@
+package com.fsck.k9.cache;
+
+
+import java.util.List;
+import java.util.UUID;
+
+import com.fsck.k9.RobolectricBenchmark;
+import com.fsck.k9.provider.EmailProvider.MessageColumns;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import static com.fsck.k9.cache.EmailProviderCacheTest.createMessageIds;
+
+
+public class EmailProviderCacheBenchmark extends RobolectricBenchmark {
+    private static final int MESSAGE_COUNT = 10000;
+
+
+    private EmailProviderCache cache;
+    private List<Long> messageIds;
+
+
+    @Before
+    public void setUp() throws Exception {
+        cache = EmailProviderCache.getCache(UUID.randomUUID().toString(), RuntimeEnvironment.application);
+        messageIds = createMessageIds(MESSAGE_COUNT);
+    }
+
+    @Test
+    public void markRead() throws Exception {
+        measure("Set read flag of " + MESSAGE_COUNT + " messages", MESSAGE_COUNT, new Task() {
+            @Override
+            public void run() throws Exception {
+                cache.setValueForMessages(messageIds, MessageColumns.READ, "1");
+            }
+        });
+
+        measure("Get read flag of " + MESSAGE_COUNT + " messages", MESSAGE_COUNT, new Task() {
+            @Override
+            public void run() throws Exception {
+                for (Long messageId : messageIds) {
+                    cache.getValueForMessage(messageId, MessageColumns.READ);
+                }
+            }
+        });
+
+        measure("Remove read flag of " + MESSAGE_COUNT + " messages", MESSAGE_COUNT, new Task() {
+            @Override
+            public void run() throws Exception {
+                cache.removeValueForMessages(messageIds, MessageColumns.READ);
+            }
+        });
+    }
+}
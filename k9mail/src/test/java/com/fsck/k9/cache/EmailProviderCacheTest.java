@@ -1,9 +1,16 @@
 package com.fsck.k9.cache;
 
 
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.support.v4.content.LocalBroadcastManager;
+
 import com.fsck.k9.K9RobolectricTestRunner;
 import com.fsck.k9.mailstore.LocalFolder;
 import com.fsck.k9.mailstore.LocalMessage;
+import com.fsck.k9.provider.EmailProvider.MessageColumns;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -11,8 +18,11 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
@@ -139,4 +149,75 @@ public class EmailProviderCacheTest {
         assertFalse(result);
     }
 
+    @Test
+    public void getValueForMessage_withFlagColumn_returnsValueSetForMessage() {
+        cache.setValueForMessages(Collections.singletonList(1L), MessageColumns.READ, "1");
+        cache.setValueForMessages(Collections.singletonList(1L), MessageColumns.FLAGGED, "0");
+
+        assertEquals("1", cache.getValueForMessage(1L, MessageColumns.READ));
+        assertEquals("0", cache.getValueForMessage(1L, MessageColumns.FLAGGED));
+        assertNull(cache.getValueForMessage(1L, MessageColumns.ANSWERED));
+    }
+
+    @Test
+    public void getValueForMessage_withFlagColumnRemoved_keepsOtherFlags() {
+        cache.setValueForMessages(Collections.singletonList(1L), MessageColumns.READ, "1");
+        cache.setValueForMessages(Collections.singletonList(1L), MessageColumns.FLAGGED, "1");
+        cache.removeValueForMessages(Collections.singletonList(1L), MessageColumns.READ);
+
+        assertNull(cache.getValueForMessage(1L, MessageColumns.READ));
+        assertEquals("1", cache.getValueForMessage(1L, MessageColumns.FLAGGED));
+    }
+
+    @Test
+    public void getValueForMessage_withNonBinaryValueForFlagColumn_returnsValue() {
+        cache.setValueForMessages(Collections.singletonList(1L), MessageColumns.READ, "1");
+        cache.setValueForMessages(Collections.singletonList(1L), MessageColumns.READ, "2");
+
+        assertEquals("2", cache.getValueForMessage(1L, MessageColumns.READ));
+    }
+
+    @Test
+    public void getValueForMessage_withManyMessages_returnsValuesSetForMessages() {
+        List<Long> messageIds = createMessageIds(1000);
+        cache.setValueForMessages(messageIds, MessageColumns.READ, "1");
+        cache.removeValueForMessages(messageIds.subList(0, 500), MessageColumns.READ);
+
+        for (int i = 0; i < 1000; i++) {
+            String expected = (i < 500) ? null : "1";
+            assertEquals(expected, cache.getValueForMessage(messageIds.get(i), MessageColumns.READ));
+        }
+    }
+
+    @Test
+    public void setValueForMessages_calledRepeatedly_sendsSingleBroadcast() {
+        final int[] broadcastCount = { 0 };
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                broadcastCount[0]++;
+            }
+        };
+        LocalBroadcastManager broadcastManager = LocalBroadcastManager.getInstance(RuntimeEnvironment.application);
+        broadcastManager.registerReceiver(receiver, new IntentFilter(EmailProviderCache.ACTION_CACHE_UPDATED));
+        ShadowLooper.pauseMainLooper();
+
+        cache.setValueForMessages(Collections.singletonList(1L), MessageColumns.READ, "1");
+        cache.setValueForMessages(Collections.singletonList(2L), MessageColumns.READ, "1");
+        cache.setValueForThreads(Collections.singletonList(3L), MessageColumns.READ, "1");
+        ShadowLooper.unPauseMainLooper();
+
+        assertEquals(1, broadcastCount[0]);
+        broadcastManager.unregisterReceiver(receiver);
+    }
+
+
+    static List<Long> createMessageIds(int count) {
+        List<Long> messageIds = new ArrayList<>(count);
+        for (long i = 1; i <= count; i++) {
+            messageIds.add(i);
+        }
+        return messageIds;
+    }
+
 }
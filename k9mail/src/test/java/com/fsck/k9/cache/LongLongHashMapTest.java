@@ -0,0 +1,92 @@
+package com.fsck.k9.cache;
+
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class LongLongHashMapTest {
+    private final LongLongHashMap map = new LongLongHashMap();
+
+
+    @Test
+    public void get_withUnknownKey_shouldReturnDefaultValue() {
+        assertEquals(-1L, map.get(1L, -1L));
+        assertFalse(map.containsKey(1L));
+    }
+
+    @Test
+    public void put_shouldReplaceExistingValue() {
+        map.put(1L, 10L);
+        map.put(1L, 20L);
+
+        assertEquals(20L, map.get(1L, -1L));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void remove_shouldKeepCollidingKeysReachable() {
+        // Keys that are multiples of the capacity are likely to share probe sequences
+        for (long key = 0; key < 10; key++) {
+            map.put(key * 16, key);
+        }
+
+        assertTrue(map.remove(32L));
+
+        assertFalse(map.containsKey(32L));
+        for (long key = 0; key < 10; key++) {
+            if (key != 2) {
+                assertEquals(key, map.get(key * 16, -1L));
+            }
+        }
+    }
+
+    @Test
+    public void remove_withUnknownKey_shouldReturnFalse() {
+        map.put(1L, 1L);
+
+        assertFalse(map.remove(2L));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void randomOperations_shouldMatchHashMap() {
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(2000) - 1000;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, map.remove(key));
+            } else {
+                long value = random.nextLong();
+                expected.put(key, value);
+                map.put(key, value);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals((long) entry.getValue(), map.get(entry.getKey(), 0L));
+        }
+    }
+
+    @Test
+    public void clear_shouldRemoveAllEntries() {
+        for (long key = 0; key < 100; key++) {
+            map.put(key, key);
+        }
+
+        map.clear();
+
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(1L));
+    }
+}
@@ -0,0 +1,164 @@
+package com.fsck.k9.controller;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.controller.CommandScheduler.Command;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class CommandSchedulerTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+
+    private CommandScheduler scheduler;
+    private final List<String> executedCommands = Collections.synchronizedList(new ArrayList<String>());
+
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new CommandScheduler("Test", 2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.stop();
+    }
+
+    @Test
+    public void put_withSameLane_shouldRunCommandsInOrder() throws Exception {
+        CountDownLatch done = new CountDownLatch(3);
+        scheduler.put("account", createCommand("first", false, done));
+        scheduler.put("account", createCommand("second", false, done));
+        scheduler.put("account", createCommand("third", false, done));
+
+        awaitLatch(done);
+
+        assertEquals(asList("first", "second", "third"), executedCommands);
+    }
+
+    @Test
+    public void put_withBlockedLane_shouldRunOtherLanes() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.put("slowAccount", createBlockingCommand(release));
+
+        scheduler.put("otherAccount", createCommand("other", false, done));
+
+        awaitLatch(done);
+        release.countDown();
+        assertEquals(Collections.singletonList("other"), executedCommands);
+    }
+
+    @Test
+    public void put_withForegroundCommand_shouldRunBeforeQueuedBackgroundCommands() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        scheduler.put("account", createBlockingCommand(release));
+        scheduler.put("account", createCommand("background1", false, done));
+        scheduler.put("account", createCommand("background2", false, done));
+        scheduler.put("account", createCommand("foreground", true, done));
+
+        release.countDown();
+        awaitLatch(done);
+
+        assertEquals(asList("foreground", "background1", "background2"), executedCommands);
+    }
+
+    @Test
+    public void getStats_shouldReturnQueueDepth() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.put("account", createBlockingCommand(release, started));
+        scheduler.put("account", createCommand("queued1", false, null));
+        scheduler.put("account", createCommand("queued2", false, null));
+        awaitLatch(started);
+
+        CommandQueueStats stats = scheduler.getStats("account");
+
+        release.countDown();
+        assertEquals(2, stats.getQueueDepth());
+        assertEquals(0, stats.getCompletedCommands());
+    }
+
+    @Test
+    public void getStats_shouldCountFinishedCommands() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.put("account", createCommand("finished", false, null));
+        scheduler.put("account", createBlockingCommand(release, started));
+        awaitLatch(started);
+
+        CommandQueueStats stats = scheduler.getStats("account");
+
+        release.countDown();
+        assertEquals(1, stats.getCompletedCommands());
+    }
+
+    @Test
+    public void getStats_withUnknownLane_shouldReturnEmptyStats() throws Exception {
+        CommandQueueStats stats = scheduler.getStats("unknown");
+
+        assertEquals(0, stats.getQueueDepth());
+        assertEquals(0, stats.getCompletedCommands());
+    }
+
+
+    private Command createCommand(final String description, boolean foreground, final CountDownLatch done) {
+        Command command = new Command();
+        command.description = description;
+        command.isForegroundPriority = foreground;
+        command.runnable = new Runnable() {
+            @Override
+            public void run() {
+                executedCommands.add(description);
+                if (done != null) {
+                    done.countDown();
+                }
+            }
+        };
+
+        return command;
+    }
+
+    private Command createBlockingCommand(CountDownLatch release) {
+        return createBlockingCommand(release, null);
+    }
+
+    private Command createBlockingCommand(final CountDownLatch release, final CountDownLatch started) {
+        Command command = new Command();
+        command.description = "blocking";
+        command.runnable = new Runnable() {
+            @Override
+            public void run() {
+                if (started != null) {
+                    started.countDown();
+                }
+                try {
+                    release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        return command;
+    }
+
+    private void awaitLatch(CountDownLatch latch) throws InterruptedException {
+        assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+}
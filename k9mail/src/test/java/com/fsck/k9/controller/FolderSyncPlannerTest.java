@@ -0,0 +1,133 @@
+package com.fsck.k9.controller;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.mailstore.LocalFolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class FolderSyncPlannerTest {
+    private static final String INBOX = "INBOX";
+
+
+    private ExecutorService executor;
+    private FolderSyncPlanner planner;
+
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        planner = new FolderSyncPlanner(executor);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void sortByPriority_shouldPutInboxFirstThenTopGroupThenNewestMessage() throws Exception {
+        LocalFolder old = createFolder("Old", false, 100L);
+        LocalFolder recent = createFolder("Recent", false, 300L);
+        LocalFolder topGroup = createFolder("Important", true, 50L);
+        LocalFolder inbox = createFolder(INBOX, true, 200L);
+
+        List<LocalFolder> folders = FolderSyncPlanner.sortByPriority(asList(old, recent, topGroup, inbox), INBOX);
+
+        assertEquals(asList(inbox, topGroup, recent, old), folders);
+    }
+
+    @Test
+    public void synchronize_withOneParallelSync_shouldRunFoldersInOrderOnCallingThread() throws Exception {
+        final Thread callingThread = Thread.currentThread();
+        final List<String> synchronizedFolders = new ArrayList<>();
+        List<LocalFolder> folders = asList(
+                createFolder("a", false, 0L), createFolder("b", false, 0L), createFolder("c", false, 0L));
+
+        planner.synchronize(folders, 1, new FolderSyncPlanner.FolderSync() {
+            @Override
+            public void synchronizeFolder(LocalFolder folder) {
+                assertEquals(callingThread, Thread.currentThread());
+                synchronizedFolders.add(folder.getName());
+            }
+        });
+
+        assertEquals(asList("a", "b", "c"), synchronizedFolders);
+    }
+
+    @Test
+    public void synchronize_shouldNotExceedMaxParallelSyncs() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final List<String> synchronizedFolders = Collections.synchronizedList(new ArrayList<String>());
+        List<LocalFolder> folders = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            folders.add(createFolder("folder" + i, false, 0L));
+        }
+
+        planner.synchronize(folders, 3, new FolderSyncPlanner.FolderSync() {
+            @Override
+            public void synchronizeFolder(LocalFolder folder) {
+                int current = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), current));
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                synchronizedFolders.add(folder.getName());
+                running.decrementAndGet();
+            }
+        });
+
+        assertEquals(10, synchronizedFolders.size());
+        assertTrue(maxRunning.get() <= 3);
+        assertTrue(maxRunning.get() > 1);
+    }
+
+    @Test
+    public void synchronize_withFailingFolder_shouldContinueWithOtherFolders() throws Exception {
+        final List<String> synchronizedFolders = new ArrayList<>();
+        List<LocalFolder> folders = asList(createFolder("broken", false, 0L), createFolder("ok", false, 0L));
+
+        planner.synchronize(folders, 1, new FolderSyncPlanner.FolderSync() {
+            @Override
+            public void synchronizeFolder(LocalFolder folder) {
+                if (folder.getName().equals("broken")) {
+                    throw new RuntimeException("Test");
+                }
+                synchronizedFolders.add(folder.getName());
+            }
+        });
+
+        assertEquals(Collections.singletonList("ok"), synchronizedFolders);
+    }
+
+
+    private LocalFolder createFolder(String name, boolean inTopGroup, long newestMessageDate) throws Exception {
+        LocalFolder folder = mock(LocalFolder.class);
+        when(folder.getName()).thenReturn(name);
+        when(folder.isInTopGroup()).thenReturn(inTopGroup);
+        when(folder.getNewestMessageDate()).thenReturn(newestMessageDate);
+        return folder;
+    }
+}
@@ -38,7 +38,6 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyListOf;
-import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.times;
@@ -118,13 +117,8 @@ public class MessageDownloaderTest {
         }).when(remoteFolder).fetch(
                 anyListOf(Message.class), any(FetchProfile.class),
                 any(MessageRetrievalListener.class));
-        doAnswer(new Answer() {
-            @Override
-            public LocalMessage answer(InvocationOnMock invocation) throws Throwable {
-                ((Runnable) invocation.getArguments()[1]).run();
-                return smallLocalMessage;
-            }
-        }).when(localFolder).storeSmallMessage(eq(smallRemoteMessage), any(Runnable.class));
+        when(localFolder.storeSmallMessages(Collections.singletonList(smallRemoteMessage)))
+                .thenReturn(Collections.singletonList(smallLocalMessage));
     }
 
     @SuppressWarnings("unchecked")
@@ -190,6 +184,22 @@ public class MessageDownloaderTest {
         assertTrue(fetchProfileCaptor.getAllValues().get(1).contains(Item.BODY));
     }
 
+    @Test
+    public void downloadMessages_withSmallRecentUnsyncedVisibleMessage_storesMessageInBatch()
+            throws MessagingException {
+        configureSmallMessageFetch();
+        List<Message> inputMessages = Collections.singletonList(smallRemoteMessage);
+        Set<MessagingListener> listeners = Collections.singleton(listener);
+        String folderName = remoteFolder.getName();
+
+        messageDownloader.downloadMessages(controller, notificationController,
+                appContext, account, remoteFolder, localFolder,
+                inputMessages, false, true, listeners);
+
+        verify(localFolder).storeSmallMessages(Collections.singletonList(smallRemoteMessage));
+        verify(listener).synchronizeMailboxNewMessage(account, folderName, smallLocalMessage);
+    }
+
     @Test
     public void downloadMessages_withLargeRecentUnsyncedVisibleMessage_downloadsEnvelopeForMessage()
             throws MessagingException {
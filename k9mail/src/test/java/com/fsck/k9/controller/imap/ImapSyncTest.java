@@ -17,6 +17,8 @@ import com.fsck.k9.controller.MessagingListener;
 import com.fsck.k9.controller.SimpleMessagingListener;
 import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.FolderChanges;
+import com.fsck.k9.mail.FolderSyncState;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
@@ -296,6 +298,25 @@ public class ImapSyncTest {
         assertEquals(FetchProfile.Item.BODY_SANE, fetchProfileCaptor.getAllValues().get(3).get(0));
     }
 
+    @Test
+    public void sync_withoutNewMessagesAndWithKnownDeletions_shouldDownloadIncompleteMessages() throws Exception {
+        messageCountInRemoteFolder(1);
+        configureRemoteStoreWithFolder();
+        folderUnchangedSinceLastSync();
+        Message remoteMessage = mock(Message.class);
+        when(remoteMessage.getUid()).thenReturn(MESSAGE_UID1);
+        when(remoteFolder.getMessage(MESSAGE_UID1)).thenReturn(remoteMessage);
+        when(localFolder.getIncompleteMessageUids()).thenReturn(Collections.singletonList(MESSAGE_UID1));
+
+        imapSync.sync(account, FOLDER_NAME, listener, null);
+
+        verify(remoteFolder, never()).getMessages(anyInt(), anyInt(), any(Date.class),
+                any(MessageRetrievalListener.class));
+        verify(remoteFolder, atLeastOnce()).fetch(messageListCaptor.capture(), any(FetchProfile.class),
+                any(MessageRetrievalListener.class));
+        assertEquals(Collections.singletonList(remoteMessage), messageListCaptor.getAllValues().get(0));
+    }
+
     private void respondToFetchEnvelopesWithMessage(final Message message) throws MessagingException {
         doAnswer(new Answer() {
             @Override
@@ -344,6 +365,14 @@ public class ImapSyncTest {
         return localMessage;
     }
 
+    private void folderUnchangedSinceLastSync() throws MessagingException {
+        FolderSyncState syncState = new FolderSyncState(1L, 2L, 3L);
+        when(localFolder.getLastSyncState()).thenReturn(syncState);
+        when(remoteFolder.getSyncState()).thenReturn(syncState);
+        when(remoteFolder.getChangesSince(syncState)).thenReturn(
+                new FolderChanges<>(Collections.<Message>emptyList(), Collections.<String>emptyList(), true));
+    }
+
     private void hasUnsyncedRemoteMessage() throws MessagingException {
         String messageUid = "UID";
         Message remoteMessage = mock(Message.class);
@@ -189,6 +189,19 @@ public class SendPendingMessagesTaskTest {
         verify(transport).sendMessage(localMessageToSend1);
     }
 
+    @Test
+    public void sendPendingMessagesSynchronous_shouldSendMessagesInOneBatch() throws MessagingException {
+        setupAccountWithMessageToSend();
+
+        new SendPendingMessagesTask(controller, appContext, notificationController,
+                transportProvider, sendCount, account, listeners).sendPendingMessagesSynchronous();
+
+        InOrder ordering = inOrder(transport);
+        ordering.verify(transport).beginBatch();
+        ordering.verify(transport).sendMessage(localMessageToSend1);
+        ordering.verify(transport).endBatch();
+    }
+
     @Test
     public void sendPendingMessagesSynchronous_shouldSetAndRemoveSendInProgressFlag() throws MessagingException {
         setupAccountWithMessageToSend();
@@ -0,0 +1,211 @@
+package com.fsck.k9.helper;
+
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class MergeCursorTest {
+    private static final String[] COLUMNS = { "_id", "date" };
+
+
+    private int comparatorCalls = 0;
+
+
+    @Test
+    public void moveToNext_shouldReturnRowsInMergeOrder() throws Exception {
+        MergeCursor cursor = createMergeCursor(new long[] { 1, 4, 7 }, new long[] { 2, 3, 9 }, new long[] { 5 });
+
+        assertEquals(asList(1L, 2L, 3L, 4L, 5L, 7L, 9L), readDates(cursor));
+        assertTrue(cursor.isAfterLast());
+    }
+
+    @Test
+    public void moveToNext_withEqualValues_shouldPreferEarlierCursor() throws Exception {
+        MergeCursor cursor = createMergeCursor(new long[] { 1, 2 }, new long[] { 1, 2 });
+
+        List<Long> ids = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            ids.add(cursor.getLong(0));
+        }
+
+        assertEquals(asList(0L, 100L, 1L, 101L), ids);
+    }
+
+    @Test
+    public void moveToPosition_shouldMatchSequentialOrder() throws Exception {
+        MergeCursor cursor = createMergeCursor(new long[] { 1, 4, 7 }, new long[] { 2, 3, 9 }, new long[] { 5 });
+
+        assertTrue(cursor.moveToPosition(5));
+        assertEquals(7L, cursor.getLong(1));
+        assertTrue(cursor.moveToPosition(1));
+        assertEquals(2L, cursor.getLong(1));
+        assertTrue(cursor.moveToNext());
+        assertEquals(3L, cursor.getLong(1));
+        assertTrue(cursor.moveToLast());
+        assertEquals(9L, cursor.getLong(1));
+        assertTrue(cursor.moveToPrevious());
+        assertEquals(7L, cursor.getLong(1));
+    }
+
+    @Test
+    public void moveToPosition_outOfRange_shouldReturnFalse() throws Exception {
+        MergeCursor cursor = createMergeCursor(new long[] { 1 }, new long[] { 2 });
+
+        assertFalse(cursor.moveToPosition(2));
+        assertTrue(cursor.isAfterLast());
+        assertFalse(cursor.moveToPosition(-1));
+        assertTrue(cursor.isBeforeFirst());
+    }
+
+    @Test
+    public void moveToPosition_withIndexedPosition_shouldNotCallComparator() throws Exception {
+        MergeCursor cursor = createMergeCursor(new long[] { 1, 4, 7 }, new long[] { 2, 3, 9 }, new long[] { 5 });
+        cursor.moveToLast();
+        int callsAfterIndexing = comparatorCalls;
+
+        cursor.moveToFirst();
+        cursor.moveToPosition(4);
+        cursor.moveToLast();
+
+        assertEquals(callsAfterIndexing, comparatorCalls);
+        assertEquals(9L, cursor.getLong(1));
+    }
+
+    @Test
+    public void getCount_withLimit_shouldOnlyReturnFirstRowsOfMergedResult() throws Exception {
+        Cursor[] cursors = { createCursor(0, new long[] { 1, 4, 7 }), createCursor(100, new long[] { 2, 3, 9 }) };
+        MergeCursor cursor = new MergeCursor(cursors, createComparator(), 4);
+
+        assertEquals(4, cursor.getCount());
+        assertEquals(asList(1L, 2L, 3L, 4L), readDates(cursor));
+        assertFalse(cursor.moveToPosition(4));
+    }
+
+    @Test
+    public void getCount_withLimitAboveRowCount_shouldReturnAllRows() throws Exception {
+        MergeCursor cursor = createMergeCursorWithLimit(10, new long[] { 1, 4 }, new long[] { 2 });
+
+        assertEquals(3, cursor.getCount());
+        assertEquals(asList(1L, 2L, 4L), readDates(cursor));
+    }
+
+    @Test
+    public void moveToPosition_pastLimit_shouldMoveAfterLast() throws Exception {
+        MergeCursor cursor = createMergeCursorWithLimit(4, new long[] { 1, 4, 7 }, new long[] { 2, 3, 9 });
+
+        assertFalse(cursor.moveToPosition(5));
+        assertTrue(cursor.isAfterLast());
+        assertTrue(cursor.moveToPrevious());
+        assertTrue(cursor.isLast());
+        assertEquals(4L, cursor.getLong(1));
+    }
+
+    @Test
+    public void moveToLast_withLimit_shouldMoveToLastRowWithinLimit() throws Exception {
+        MergeCursor cursor = createMergeCursorWithLimit(4, new long[] { 1, 4, 7 }, new long[] { 2, 3, 9 });
+
+        assertTrue(cursor.moveToLast());
+        assertEquals(4L, cursor.getLong(1));
+        assertFalse(cursor.moveToNext());
+        assertTrue(cursor.isAfterLast());
+    }
+
+    @Test
+    public void move_pastLimit_shouldReturnFalse() throws Exception {
+        MergeCursor cursor = createMergeCursorWithLimit(4, new long[] { 1, 4, 7 }, new long[] { 2, 3, 9 });
+        cursor.moveToPosition(2);
+
+        assertFalse(cursor.move(2));
+        assertTrue(cursor.isAfterLast());
+        assertTrue(cursor.move(-3));
+        assertEquals(2L, cursor.getLong(1));
+    }
+
+    @Test
+    public void getCount_withUniqueIdColumnAndLimit_shouldApplyLimit() throws Exception {
+        MergeCursor cursor = new MergeCursorWithUniqueId(
+                new Cursor[] { createCursor(0, new long[] { 1, 3 }), createCursor(100, new long[] { 2, 4 }) },
+                createComparator(), 3);
+
+        assertEquals(3, cursor.getCount());
+        assertTrue(cursor.moveToLast());
+        assertEquals(1L, cursor.getLong(cursor.getColumnIndex("_id")));
+    }
+
+    @Test
+    public void getLong_withUniqueIdColumn_shouldEncodeCursorIndex() throws Exception {
+        MergeCursor cursor = new MergeCursorWithUniqueId(
+                new Cursor[] { createCursor(0, new long[] { 2 }), createCursor(100, new long[] { 1 }) },
+                createComparator());
+
+        cursor.moveToPosition(1);
+
+        assertEquals(0L, cursor.getLong(cursor.getColumnIndex("_id")));
+        cursor.moveToPosition(0);
+        assertEquals((1L << 48) + 100L, cursor.getLong(cursor.getColumnIndex("_id")));
+    }
+
+
+    private MergeCursor createMergeCursor(long[]... dates) {
+        Cursor[] cursors = new Cursor[dates.length];
+        for (int i = 0; i < dates.length; i++) {
+            cursors[i] = createCursor(i * 100, dates[i]);
+        }
+
+        return new MergeCursor(cursors, createComparator());
+    }
+
+    private MergeCursor createMergeCursorWithLimit(int limit, long[]... dates) {
+        Cursor[] cursors = new Cursor[dates.length];
+        for (int i = 0; i < dates.length; i++) {
+            cursors[i] = createCursor(i * 100, dates[i]);
+        }
+
+        return new MergeCursor(cursors, createComparator(), limit);
+    }
+
+    private Cursor createCursor(long firstId, long[] dates) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < dates.length; i++) {
+            cursor.addRow(new Object[] { firstId + i, dates[i] });
+        }
+
+        return cursor;
+    }
+
+    private Comparator<Cursor> createComparator() {
+        return new Comparator<Cursor>() {
+            @Override
+            public int compare(Cursor lhs, Cursor rhs) {
+                comparatorCalls++;
+                long lhsDate = lhs.getLong(1);
+                long rhsDate = rhs.getLong(1);
+                return (lhsDate < rhsDate) ? -1 : ((lhsDate == rhsDate) ? 0 : 1);
+            }
+        };
+    }
+
+    private List<Long> readDates(Cursor cursor) {
+        List<Long> dates = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            dates.add(cursor.getLong(1));
+        }
+
+        return dates;
+    }
+}
@@ -0,0 +1,165 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import android.content.Context;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.AccountStats;
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.controller.MessagingController;
+import com.fsck.k9.controller.MessagingListener;
+import com.fsck.k9.controller.imap.ImapMessageStore;
+import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.PushReceiver;
+import com.fsck.k9.mail.filter.PeekableInputStream;
+import com.fsck.k9.mail.store.StoreConfig;
+import com.fsck.k9.mailstore.LocalFolder;
+import com.fsck.k9.mailstore.LocalStore;
+import com.fsck.k9.notification.NotificationController;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+/**
+ * Checks that a change reported for a folder watched by {@link ImapFolderPusher} results in a successful
+ * synchronization of that folder by the app.
+ */
+@RunWith(K9RobolectricTestRunner.class)
+public class ImapFolderPusherSyncTest {
+    private static final String WATCHED_FOLDER_NAME = "Folder";
+
+
+    private Context context;
+    private ImapStore imapStore;
+    private Account account;
+    private MessagingListener listener;
+    private ImapMessageStore imapMessageStore;
+    private Folder syncedFolder;
+
+
+    @Before
+    public void setUp() throws Exception {
+        context = RuntimeEnvironment.application;
+        configureImapStore();
+        configureAccount();
+
+        MessagingController controller = mock(MessagingController.class);
+        when(controller.getListeners(any(MessagingListener.class))).thenAnswer(new Answer<Set<MessagingListener>>() {
+            @Override
+            public Set<MessagingListener> answer(InvocationOnMock invocation) throws Throwable {
+                return new HashSet<>(Collections.singletonList((MessagingListener) invocation.getArguments()[0]));
+            }
+        });
+        listener = mock(MessagingListener.class);
+        imapMessageStore = new ImapMessageStore(mock(NotificationController.class), controller, context);
+    }
+
+    @Test
+    public void processStoredStatusResponses_withChangedWatchedFolder_shouldSyncFolderSuccessfully()
+            throws Exception {
+        ImapFolderPusher pusher = createPusher();
+        pusher.handleUntaggedResponse(createImapResponse("* STATUS \"Folder\" (MESSAGES 1 UIDNEXT 2)"));
+
+        pusher.processStoredStatusResponses();
+
+        verify(listener).synchronizeMailboxFinished(account, WATCHED_FOLDER_NAME, 1, 0);
+        verify(listener, never()).synchronizeMailboxFailed(eq(account), eq(WATCHED_FOLDER_NAME), anyString());
+    }
+
+    @Test
+    public void processStoredStatusResponses_shouldCloseWatchedFolderAfterSync() throws Exception {
+        ImapFolderPusher pusher = createPusher();
+        pusher.handleUntaggedResponse(createImapResponse("* STATUS \"Folder\" (MESSAGES 1 UIDNEXT 2)"));
+
+        pusher.processStoredStatusResponses();
+
+        assertFalse(syncedFolder.isOpen());
+    }
+
+
+    private ImapFolderPusher createPusher() throws Exception {
+        PushReceiver pushReceiver = mock(PushReceiver.class);
+        when(pushReceiver.getContext()).thenReturn(context);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                Folder folder = (Folder) invocation.getArguments()[0];
+                assertTrue(folder.isOpen());
+                syncedFolder = folder;
+
+                // Same as MessagingControllerPushReceiver.syncFolder()
+                imapMessageStore.sync(account, folder.getName(), listener, folder);
+                return null;
+            }
+        }).when(pushReceiver).syncFolder(any(Folder.class));
+
+        ImapFolderPusher pusher = new ImapFolderPusher(imapStore, "INBOX",
+                Collections.singletonList(WATCHED_FOLDER_NAME), pushReceiver);
+        assertFalse(pusher.isOpen());
+
+        return pusher;
+    }
+
+    private void configureImapStore() throws Exception {
+        StoreConfig storeConfig = mock(StoreConfig.class);
+        when(storeConfig.getInboxFolderName()).thenReturn("INBOX");
+        when(storeConfig.isPushPollOnConnect()).thenReturn(true);
+
+        ImapConnection imapConnection = mock(ImapConnection.class);
+        when(imapConnection.executeSimpleCommand("EXAMINE \"Folder\"")).thenReturn(Arrays.asList(
+                createImapResponse("* FLAGS (\\Answered \\Flagged \\Deleted \\Seen \\Draft)"),
+                createImapResponse("* 1 EXISTS"),
+                createImapResponse("* OK [UIDVALIDITY 1125022061] UIDs valid"),
+                createImapResponse("* OK [UIDNEXT 2] Predicted next UID"),
+                createImapResponse("2 OK [READ-ONLY] Examine completed.")));
+
+        imapStore = mock(ImapStore.class);
+        when(imapStore.getStoreConfig()).thenReturn(storeConfig);
+        when(imapStore.getCombinedPrefix()).thenReturn("");
+        when(imapStore.getFolderNameCodec()).thenReturn(FolderNameCodec.newInstance());
+        when(imapStore.getConnection()).thenReturn(imapConnection);
+    }
+
+    private void configureAccount() throws Exception {
+        LocalFolder localFolder = mock(LocalFolder.class);
+        when(localFolder.getName()).thenReturn(WATCHED_FOLDER_NAME);
+        LocalStore localStore = mock(LocalStore.class);
+        when(localStore.getFolder(WATCHED_FOLDER_NAME)).thenReturn(localFolder);
+        when(localStore.getPersonalNamespaces(false)).thenReturn(Collections.singletonList(localFolder));
+
+        account = mock(Account.class);
+        when(account.isAvailable(context)).thenReturn(true);
+        when(account.getLocalStore()).thenReturn(localStore);
+        when(account.getStats(any(Context.class))).thenReturn(mock(AccountStats.class));
+        when(account.getEmail()).thenReturn("user@host.com");
+    }
+
+    private static ImapResponse createImapResponse(String response) throws IOException {
+        byte[] input = (response + "\r\n").getBytes();
+        ImapResponseParser parser = new ImapResponseParser(new PeekableInputStream(new ByteArrayInputStream(input)));
+
+        return parser.readResponse();
+    }
+}
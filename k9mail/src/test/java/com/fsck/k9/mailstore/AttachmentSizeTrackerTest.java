@@ -0,0 +1,161 @@
+package com.fsck.k9.mailstore;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.fsck.k9.Clock;
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.preferences.Storage;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class AttachmentSizeTrackerTest {
+    private static final String ACCOUNT_UUID = "00000000-0000-4000-0000-000000000000";
+    private static final long NOW = 1500000000000L;
+
+
+    private Storage storage;
+    private Clock clock;
+    private File attachmentDirectory;
+
+
+    @Before
+    public void setUp() throws Exception {
+        storage = Preferences.getPreferences(RuntimeEnvironment.application).getStorage();
+        clock = mock(Clock.class);
+        when(clock.getTime()).thenReturn(NOW);
+
+        attachmentDirectory = File.createTempFile("attachments", "");
+        assertTrue(attachmentDirectory.delete());
+        assertTrue(attachmentDirectory.mkdir());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(attachmentDirectory);
+        storage.edit()
+                .remove(AttachmentSizeTracker.getSizeKey(ACCOUNT_UUID))
+                .remove(AttachmentSizeTracker.getReconciledKey(ACCOUNT_UUID))
+                .commit();
+    }
+
+    @Test
+    public void getSize_withoutSavedSize_shouldCalculateSize() throws Exception {
+        createFile("1", 100);
+        createFile("2", 23);
+        AttachmentSizeTracker tracker = createTracker();
+
+        long size = tracker.getSize();
+
+        assertEquals(123L, size);
+        assertEquals(123L, storage.getLong(AttachmentSizeTracker.getSizeKey(ACCOUNT_UUID), -1L));
+        assertEquals(NOW, storage.getLong(AttachmentSizeTracker.getReconciledKey(ACCOUNT_UUID), 0L));
+    }
+
+    @Test
+    public void getSize_afterFilesWereAddedAndRemoved_shouldNotLookAtFiles() throws Exception {
+        AttachmentSizeTracker tracker = createTracker();
+        tracker.getSize();
+        createFile("untracked", 1000);
+
+        tracker.fileAdded(300);
+        tracker.fileRemoved(100);
+
+        assertEquals(200L, tracker.getSize());
+    }
+
+    @Test
+    public void getSize_withSavedSize_shouldUseSavedSize() throws Exception {
+        createTracker().getSize();
+        AttachmentSizeTracker tracker = createTracker();
+        tracker.fileAdded(42);
+        tracker.getSize();
+        createFile("untracked", 1000);
+
+        long size = createTracker().getSize();
+
+        assertEquals(42L, size);
+    }
+
+    @Test
+    public void fileRemoved_withMoreBytesThanTracked_shouldNotGoBelowZero() throws Exception {
+        AttachmentSizeTracker tracker = createTracker();
+        tracker.getSize();
+
+        tracker.fileRemoved(100);
+
+        assertEquals(0L, tracker.getSize());
+    }
+
+    @Test
+    public void getSize_afterInvalidate_shouldCalculateSize() throws Exception {
+        AttachmentSizeTracker tracker = createTracker();
+        tracker.getSize();
+        createFile("1", 10);
+
+        tracker.invalidate();
+        tracker.fileAdded(5);
+
+        assertEquals(10L, tracker.getSize());
+    }
+
+    @Test
+    public void reconcile_shouldCorrectDrift() throws Exception {
+        AttachmentSizeTracker tracker = createTracker();
+        tracker.getSize();
+        tracker.fileAdded(500);
+        createFile("1", 64);
+
+        tracker.reconcile();
+
+        assertEquals(64L, tracker.getSize());
+    }
+
+    @Test
+    public void isReconcileDue_shouldDependOnTimeOfLastReconciliation() throws Exception {
+        AttachmentSizeTracker tracker = createTracker();
+        assertTrue(tracker.isReconcileDue());
+
+        tracker.reconcile();
+        assertFalse(tracker.isReconcileDue());
+
+        when(clock.getTime()).thenReturn(NOW + AttachmentSizeTracker.RECONCILE_INTERVAL_MILLIS);
+        assertTrue(tracker.isReconcileDue());
+    }
+
+
+    private AttachmentSizeTracker createTracker() {
+        return new AttachmentSizeTracker(storage, clock, ACCOUNT_UUID, new AttachmentSizeTracker.SizeCalculator() {
+            @Override
+            public long calculateSize() {
+                return FileUtils.sizeOfDirectory(attachmentDirectory);
+            }
+        });
+    }
+
+    private void createFile(String name, int length) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(new File(attachmentDirectory, name));
+        try {
+            outputStream.write(new byte[length]);
+        } finally {
+            outputStream.close();
+        }
+    }
+}
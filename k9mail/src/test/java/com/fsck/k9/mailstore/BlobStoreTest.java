@@ -0,0 +1,160 @@
+package com.fsck.k9.mailstore;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class BlobStoreTest {
+    private static final String ACCOUNT_1 = "account1";
+    private static final String ACCOUNT_2 = "account2";
+    private static final String DATA = "data of a message part";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+
+    private File directory;
+    private BlobStore blobStore;
+
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("blobs", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+
+        blobStore = new BlobStore(new File(directory, "store"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void computeHash_shouldReturnSha256() throws Exception {
+        File file = createFile("abc");
+
+        String hash = BlobStore.computeHash(file);
+
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", hash);
+    }
+
+    @Test
+    public void add_shouldMoveFileIntoStore() throws Exception {
+        File file = createFile(DATA);
+        String hash = BlobStore.computeHash(file);
+
+        boolean firstReference = blobStore.add(file, hash, ACCOUNT_1);
+
+        assertTrue(firstReference);
+        assertFalse(file.exists());
+        assertEquals(DATA, FileUtils.readFileToString(blobStore.getFile(hash), UTF_8));
+    }
+
+    @Test
+    public void add_withExistingBlob_shouldDeleteFile() throws Exception {
+        String hash = addBlob(ACCOUNT_1);
+        File file = createFile(DATA);
+
+        boolean firstReference = blobStore.add(file, hash, ACCOUNT_2);
+
+        assertTrue(firstReference);
+        assertFalse(file.exists());
+        assertEquals(singletonList(hash), blobStore.getReferencedHashes(ACCOUNT_2));
+    }
+
+    @Test
+    public void add_withExistingReference_shouldReturnFalse() throws Exception {
+        String hash = addBlob(ACCOUNT_1);
+
+        boolean firstReference = blobStore.add(createFile(DATA), hash, ACCOUNT_1);
+
+        assertFalse(firstReference);
+    }
+
+    @Test
+    public void release_withOtherAccountReferencingBlob_shouldKeepBlob() throws Exception {
+        String hash = addBlob(ACCOUNT_1);
+        addBlob(ACCOUNT_2);
+
+        long releasedLength = blobStore.release(hash, ACCOUNT_1);
+
+        assertEquals(DATA.length(), releasedLength);
+        assertTrue(blobStore.getFile(hash).exists());
+        assertTrue(blobStore.getReferencedHashes(ACCOUNT_1).isEmpty());
+    }
+
+    @Test
+    public void release_withLastReference_shouldDeleteBlob() throws Exception {
+        String hash = addBlob(ACCOUNT_1);
+
+        blobStore.release(hash, ACCOUNT_1);
+
+        assertFalse(blobStore.getFile(hash).getParentFile().exists());
+    }
+
+    @Test
+    public void release_withoutReference_shouldReturnZero() throws Exception {
+        String hash = addBlob(ACCOUNT_1);
+
+        long releasedLength = blobStore.release(hash, ACCOUNT_2);
+
+        assertEquals(0L, releasedLength);
+        assertTrue(blobStore.getFile(hash).exists());
+    }
+
+    @Test
+    public void getReferencedSize_shouldOnlyCountBlobsOfAccount() throws Exception {
+        addBlob(ACCOUNT_1);
+        File file = createFile("other data");
+        blobStore.add(file, "otherhash", ACCOUNT_2);
+
+        assertEquals(DATA.length(), blobStore.getReferencedSize(ACCOUNT_1));
+    }
+
+    @Test
+    public void moveReferences_shouldCopyBlobToTarget() throws Exception {
+        String hash = addBlob(ACCOUNT_1);
+        addBlob(ACCOUNT_2);
+        BlobStore target = new BlobStore(new File(directory, "target"));
+
+        blobStore.moveReferences(ACCOUNT_1, target);
+
+        assertEquals(DATA, FileUtils.readFileToString(target.getFile(hash), UTF_8));
+        assertEquals(singletonList(hash), target.getReferencedHashes(ACCOUNT_1));
+        assertTrue(blobStore.getReferencedHashes(ACCOUNT_1).isEmpty());
+        assertTrue(blobStore.getFile(hash).exists());
+    }
+
+
+    private String addBlob(String accountUuid) throws IOException {
+        File file = createFile(DATA);
+        String hash = BlobStore.computeHash(file);
+        blobStore.add(file, hash, accountUuid);
+
+        return hash;
+    }
+
+    private File createFile(String content) throws IOException {
+        File file = File.createTempFile("part", null, directory);
+        FileUtils.writeStringToFile(file, content, UTF_8);
+
+        return file;
+    }
+}
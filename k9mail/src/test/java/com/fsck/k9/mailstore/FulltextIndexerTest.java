@@ -0,0 +1,164 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.mail.Folder.FolderType;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.internet.MimeMessage;
+import com.fsck.k9.mail.internet.MimeMessageHelper;
+import com.fsck.k9.mail.internet.TextBody;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import com.fsck.k9.mailstore.LockableDatabase.WrappedException;
+import com.fsck.k9.search.ConditionsTreeNode;
+import com.fsck.k9.search.SearchSpecification.Attribute;
+import com.fsck.k9.search.SearchSpecification.SearchCondition;
+import com.fsck.k9.search.SearchSpecification.SearchField;
+import com.fsck.k9.search.SqlQueryBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSQLiteConnection;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class FulltextIndexerTest {
+    private LocalStore localStore;
+    private LocalFolder folder;
+
+
+    @Before
+    public void setUp() throws Exception {
+        ShadowSQLiteConnection.reset();
+
+        Preferences preferences = Preferences.getPreferences(RuntimeEnvironment.application);
+        preferences.loadAccounts();
+        Account account = preferences.newAccount();
+
+        localStore = LocalStore.getInstance(account, RuntimeEnvironment.application);
+        folder = localStore.getFolder("Folder");
+        folder.create(FolderType.HOLDS_MESSAGES);
+        folder.open(LocalFolder.OPEN_MODE_RW);
+    }
+
+    @Test
+    public void saveMessage_shouldMakeHeadersAndBodySearchable() throws Exception {
+        long messageId = storeMessage("Quarterly planning notes", "alice@example.org", "Budget is attached");
+
+        assertEquals(singletonList(messageId), search(SearchField.SUBJECT, "quarterly plan"));
+        assertEquals(singletonList(messageId), search(SearchField.SENDER, "alice@exam"));
+        assertEquals(singletonList(messageId), search(SearchField.MESSAGE_CONTENTS, "budget"));
+        assertTrue(search(SearchField.SUBJECT, "notes quarterly").isEmpty());
+    }
+
+    @Test
+    public void search_withPendingMessage_shouldFallBackToLike() throws Exception {
+        long messageId = storeMessage("Quarterly planning notes", "alice@example.org", "Budget is attached");
+        removeFromIndexAndQueue(messageId);
+
+        assertEquals(singletonList(messageId), search(SearchField.SUBJECT, "planning"));
+        assertTrue(search(SearchField.MESSAGE_CONTENTS, "budget").isEmpty());
+    }
+
+    @Test
+    public void indexPendingFulltextMessages_shouldIndexQueuedMessages() throws Exception {
+        long messageId = storeMessage("Quarterly planning notes", "alice@example.org", "Budget is attached");
+        removeFromIndexAndQueue(messageId);
+
+        localStore.indexPendingFulltextMessages();
+
+        assertEquals(0, countRows("fulltext_pending"));
+        assertEquals(singletonList(messageId), search(SearchField.MESSAGE_CONTENTS, "budget"));
+    }
+
+    @Test
+    public void indexPendingFulltextMessages_withMissingMessage_shouldRemoveQueueEntry() throws Exception {
+        execute("INSERT INTO fulltext_pending (message_id) VALUES (4711)");
+
+        localStore.indexPendingFulltextMessages();
+
+        assertEquals(0, countRows("fulltext_pending"));
+        assertEquals(0, countRows("messages_fulltext"));
+    }
+
+
+    private long storeMessage(String subject, String from, String text) throws Exception {
+        MimeMessage message = new MimeMessage();
+        message.setUid("uid-" + subject.hashCode());
+        message.setSubject(subject);
+        message.setHeader("From", from);
+        message.setHeader("Content-Type", "text/plain");
+        MimeMessageHelper.setBody(message, new TextBody(text));
+
+        List<LocalMessage> localMessages = folder.storeSmallMessages(singletonList(message));
+
+        return localMessages.get(0).getDatabaseId();
+    }
+
+    private void removeFromIndexAndQueue(long messageId) throws Exception {
+        execute("DELETE FROM messages_fulltext WHERE docid = " + messageId);
+        execute("INSERT INTO fulltext_pending (message_id) VALUES (" + messageId + ")");
+    }
+
+    private List<Long> search(SearchField field, String value) throws Exception {
+        StringBuilder where = new StringBuilder();
+        List<String> selectionArgs = new ArrayList<>();
+        ConditionsTreeNode conditions = new ConditionsTreeNode(new SearchCondition(field, Attribute.CONTAINS, value));
+        SqlQueryBuilder.buildWhereClause(null, conditions, where, selectionArgs);
+
+        final String query = "SELECT m.id FROM messages m WHERE " + where;
+        final String[] args = selectionArgs.toArray(new String[selectionArgs.size()]);
+        return localStore.getDatabase().execute(false, new DbCallback<List<Long>>() {
+            @Override
+            public List<Long> doDbWork(SQLiteDatabase db) throws WrappedException {
+                List<Long> messageIds = new ArrayList<>();
+                Cursor cursor = db.rawQuery(query, args);
+                try {
+                    while (cursor.moveToNext()) {
+                        messageIds.add(cursor.getLong(0));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                return messageIds;
+            }
+        });
+    }
+
+    private int countRows(final String table) throws MessagingException {
+        return localStore.getDatabase().execute(false, new DbCallback<Integer>() {
+            @Override
+            public Integer doDbWork(SQLiteDatabase db) throws WrappedException {
+                Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + table, null);
+                try {
+                    cursor.moveToFirst();
+                    return cursor.getInt(0);
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
+    private void execute(final String sql) throws MessagingException {
+        localStore.getDatabase().execute(false, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) throws WrappedException {
+                db.execSQL(sql);
+                return null;
+            }
+        });
+    }
+}
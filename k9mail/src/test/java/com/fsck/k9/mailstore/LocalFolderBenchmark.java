@@ -0,0 +1,101 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.List;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.RobolectricBenchmark;
+import com.fsck.k9.mail.Folder.FolderType;
+import com.fsck.k9.mail.Message;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSQLiteConnection;
+
+import static com.fsck.k9.mailstore.LocalFolderTest.createMessages;
+import static com.fsck.k9.mailstore.LocalFolderTest.createThreadMessages;
+
+
+public class LocalFolderBenchmark extends RobolectricBenchmark {
+    private static final int MESSAGE_COUNT = 500;
+    private static final int BATCH_SIZE = 50;
+    private static final int ARCHIVE_MESSAGE_COUNT = 50000;
+    private static final int ARCHIVE_THREAD_LENGTH = 30;
+
+
+    private LocalStore localStore;
+
+
+    @Before
+    public void setUp() throws Exception {
+        ShadowSQLiteConnection.reset();
+
+        Preferences preferences = Preferences.getPreferences(RuntimeEnvironment.application);
+        preferences.loadAccounts();
+        Account account = preferences.newAccount();
+
+        localStore = LocalStore.getInstance(account, RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void storeSmallMessage() throws Exception {
+        final LocalFolder folder = createFolder("Single");
+        final List<Message> messages = createMessages("single", MESSAGE_COUNT);
+
+        measure("storeSmallMessage()", MESSAGE_COUNT, new Task() {
+            @Override
+            public void run() throws Exception {
+                for (Message message : messages) {
+                    folder.storeSmallMessage(message, new Runnable() {
+                        @Override
+                        public void run() {
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    @Test
+    public void storeSmallMessages() throws Exception {
+        final LocalFolder folder = createFolder("Batch");
+        final List<Message> messages = createMessages("batch", MESSAGE_COUNT);
+
+        measure("storeSmallMessages() with batches of " + BATCH_SIZE, MESSAGE_COUNT, new Task() {
+            @Override
+            public void run() throws Exception {
+                storeInBatches(folder, messages);
+            }
+        });
+    }
+
+    @Test
+    public void storeSmallMessages_withMailingListArchive() throws Exception {
+        final LocalFolder folder = createFolder("Archive");
+        final List<Message> messages = createThreadMessages("archive", ARCHIVE_MESSAGE_COUNT, ARCHIVE_THREAD_LENGTH);
+
+        measure("Mailing list archive with threads of " + ARCHIVE_THREAD_LENGTH + " messages", ARCHIVE_MESSAGE_COUNT,
+                new Task() {
+                    @Override
+                    public void run() throws Exception {
+                        storeInBatches(folder, messages);
+                    }
+                });
+    }
+
+
+    private LocalFolder createFolder(String name) throws Exception {
+        LocalFolder folder = localStore.getFolder(name);
+        folder.create(FolderType.HOLDS_MESSAGES);
+        folder.open(LocalFolder.OPEN_MODE_RW);
+
+        return folder;
+    }
+
+    private void storeInBatches(LocalFolder folder, List<Message> messages) throws Exception {
+        for (int i = 0; i < messages.size(); i += BATCH_SIZE) {
+            folder.storeSmallMessages(messages.subList(i, Math.min(i + BATCH_SIZE, messages.size())));
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package com.fsck.k9.mailstore;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.Preferences;
+import com.fsck.k9.mail.FetchProfile;
+import com.fsck.k9.mail.Flag;
+import com.fsck.k9.mail.Folder.FolderType;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.internet.MimeMessage;
+import com.fsck.k9.mail.internet.MessageExtractor;
+import com.fsck.k9.mail.internet.MimeMessageHelper;
+import com.fsck.k9.mail.internet.TextBody;
+import com.fsck.k9.mailstore.LockableDatabase.DbCallback;
+import com.fsck.k9.mailstore.LockableDatabase.WrappedException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSQLiteConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class LocalFolderTest {
+    private Account account;
+    private LocalStore localStore;
+
+
+    @Before
+    public void setUp() throws Exception {
+        ShadowSQLiteConnection.reset();
+
+        Preferences preferences = Preferences.getPreferences(RuntimeEnvironment.application);
+        preferences.loadAccounts();
+        account = preferences.newAccount();
+
+        localStore = LocalStore.getInstance(account, RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void storeSmallMessages_shouldStoreAllMessages() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        List<Message> messages = createMessages("uid", 3);
+
+        List<LocalMessage> localMessages = folder.storeSmallMessages(messages);
+
+        assertEquals(3, localMessages.size());
+        assertEquals(3, folder.getMessageCount());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(messages.get(i).getUid(), localMessages.get(i).getUid());
+        }
+    }
+
+    @Test
+    public void storeSmallMessages_shouldMarkMessagesAsFullyDownloaded() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        List<Message> messages = createMessages("uid", 2);
+
+        folder.storeSmallMessages(messages);
+
+        for (Message message : messages) {
+            LocalMessage localMessage = folder.getMessage(message.getUid());
+            assertTrue(localMessage.isSet(Flag.X_DOWNLOADED_FULL));
+        }
+    }
+
+    @Test
+    public void storeSmallMessages_withExistingMessage_shouldReplaceMessage() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        folder.storeSmallMessages(createMessages("uid", 1));
+
+        folder.storeSmallMessages(createMessages("uid", 1));
+
+        assertEquals(1, folder.getMessageCount());
+    }
+
+    @Test
+    public void getIncompleteMessageUids_shouldReturnMessagesNotDownloaded() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        folder.storeSmallMessages(createMessages("downloaded", 2));
+        folder.appendMessages(createMessages("incomplete", 1));
+
+        List<String> result = folder.getIncompleteMessageUids();
+
+        assertEquals(Collections.singletonList("incomplete0"), result);
+    }
+
+    @Test
+    public void getUnreadMessageCount_shouldCountStoredMessages() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+
+        folder.storeSmallMessages(createMessages("uid", 3));
+
+        assertEquals(3, folder.getUnreadMessageCount());
+        assertEquals(0, folder.getFlaggedMessageCount());
+    }
+
+    @Test
+    public void setFlags_shouldUpdateCounts() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        List<LocalMessage> messages = folder.storeSmallMessages(createMessages("uid", 3));
+
+        folder.setFlags(messages.subList(0, 2), EnumSet.of(Flag.SEEN, Flag.FLAGGED), true);
+
+        assertEquals(1, folder.getUnreadMessageCount());
+        assertEquals(2, folder.getFlaggedMessageCount());
+    }
+
+    @Test
+    public void moveMessages_shouldUpdateCountsOfBothFolders() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        LocalFolder destinationFolder = createFolder("Destination");
+        List<LocalMessage> messages = folder.storeSmallMessages(createMessages("uid", 3));
+
+        folder.moveMessages(messages.subList(0, 1), destinationFolder);
+
+        assertEquals(2, folder.getUnreadMessageCount());
+        assertEquals(1, destinationFolder.getUnreadMessageCount());
+    }
+
+    @Test
+    public void destroyMessages_shouldUpdateCounts() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        List<LocalMessage> messages = folder.storeSmallMessages(createMessages("uid", 3));
+
+        folder.destroyMessages(messages.subList(0, 2));
+
+        assertEquals(1, folder.getUnreadMessageCount());
+    }
+
+    @Test
+    public void destroyMessages_withUnreadMessageThatHasChild_shouldUpdateCounts() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        folder.storeSmallMessages(createThreadMessages("uid", 2, 2));
+
+        folder.destroyMessages(Collections.singletonList(folder.getMessage("uid0")));
+
+        assertEquals(1, folder.getUnreadMessageCount());
+        assertTrue(localStore.checkFolderCounts());
+    }
+
+    @Test
+    public void destroyMessages_shouldRemoveCachedMessageView() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        LocalMessage message = folder.storeSmallMessages(createMessages("uid", 1)).get(0);
+        MessageViewCache messageViewCache = MessageViewCache.getInstance(RuntimeEnvironment.application);
+        messageViewCache.put(message, "<p>html</p>");
+
+        folder.destroyMessages(Collections.singletonList(message));
+
+        assertNull(messageViewCache.get(message));
+    }
+
+    @Test
+    public void checkFolderCounts_withCorrectCounts_shouldReturnTrue() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        folder.storeSmallMessages(createMessages("uid", 3));
+
+        assertTrue(localStore.checkFolderCounts());
+    }
+
+    @Test
+    public void checkFolderCounts_withWrongCounts_shouldRecalculateCounts() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        folder.storeSmallMessages(createMessages("uid", 3));
+        localStore.getDatabase().execute(false, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(SQLiteDatabase db) throws WrappedException {
+                db.execSQL("UPDATE folders SET unread_count = 42, flagged_count = NULL");
+                return null;
+            }
+        });
+
+        assertFalse(localStore.checkFolderCounts());
+
+        assertEquals(3, folder.getUnreadMessageCount());
+        assertEquals(0, folder.getFlaggedMessageCount());
+        assertTrue(localStore.checkFolderCounts());
+    }
+
+    @Test
+    public void storeSmallMessages_withSameLargeBody_shouldStoreBodyOnce() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        String text = createLargeText();
+
+        folder.storeSmallMessages(createMessages("uid", 2, text));
+
+        BlobStore blobStore = localStore.getBlobStore();
+        List<String> hashes = blobStore.getReferencedHashes(account.getUuid());
+        assertEquals(1, hashes.size());
+        assertEquals(text, loadBodyText(folder, "uid0"));
+        assertEquals(text, loadBodyText(folder, "uid1"));
+    }
+
+    @Test
+    public void storeSmallMessages_withBrokenMessage_shouldStoreOtherMessages() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        List<Message> messages = createMessages("uid", 3);
+        messages.set(1, createBrokenMessage("uid1", createLargeText() + "broken"));
+
+        List<LocalMessage> localMessages = folder.storeSmallMessages(messages);
+
+        assertEquals(3, localMessages.size());
+        assertEquals("uid0", localMessages.get(0).getUid());
+        assertNull(localMessages.get(1));
+        assertEquals("uid2", localMessages.get(2).getUid());
+        assertNull(folder.getMessage("uid1"));
+        assertEquals(2, folder.getMessageCount());
+    }
+
+    @Test
+    public void storeSmallMessages_withBrokenMessage_shouldNotKeepItsBlob() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        List<Message> messages = createMessages("uid", 2, createLargeText());
+        messages.add(createBrokenMessage("uid2", createLargeText() + "broken"));
+
+        folder.storeSmallMessages(messages);
+
+        assertEquals(1, localStore.getBlobStore().getReferencedHashes(account.getUuid()).size());
+    }
+
+    @Test
+    public void destroyMessages_shouldReleaseBlobWithLastReference() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        folder.storeSmallMessages(createMessages("uid", 2, createLargeText()));
+        BlobStore blobStore = localStore.getBlobStore();
+        String hash = blobStore.getReferencedHashes(account.getUuid()).get(0);
+
+        folder.destroyMessages(Collections.singletonList(folder.getMessage("uid0")));
+        assertTrue(blobStore.getFile(hash).exists());
+
+        folder.destroyMessages(Collections.singletonList(folder.getMessage("uid1")));
+        assertFalse(blobStore.getFile(hash).exists());
+        assertTrue(blobStore.getReferencedHashes(account.getUuid()).isEmpty());
+    }
+
+    @Test
+    public void destroyMessage_withTransactionRolledBack_shouldKeepBlob() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        String text = createLargeText();
+        folder.storeSmallMessages(createMessages("uid", 1, text));
+        final LocalMessage message = folder.getMessage("uid0");
+
+        try {
+            localStore.getDatabase().execute(true, new DbCallback<Void>() {
+                @Override
+                public Void doDbWork(SQLiteDatabase db) throws WrappedException {
+                    try {
+                        message.destroy();
+                    } catch (MessagingException e) {
+                        throw new WrappedException(e);
+                    }
+                    throw new WrappedException(new MessagingException("Roll back"));
+                }
+            });
+            fail("Expected transaction to be rolled back");
+        } catch (WrappedException e) {
+            assertEquals("Roll back", e.getCause().getMessage());
+        }
+
+        assertEquals(text, loadBodyText(folder, "uid0"));
+    }
+
+    @Test
+    public void storeSmallMessages_withThreadInBatch_shouldUseSameRoot() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        List<Message> messages = createThreadMessages("uid", 5, 5);
+
+        folder.storeSmallMessages(messages);
+
+        long root = getThreadRoot(folder, "uid0");
+        for (int i = 1; i < 5; i++) {
+            assertEquals(root, getThreadRoot(folder, "uid" + i));
+        }
+    }
+
+    @Test
+    public void storeSmallMessages_withReplyBeforeParent_shouldUseSameRoot() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        List<Message> messages = createThreadMessages("uid", 3, 3);
+        Collections.reverse(messages);
+
+        folder.storeSmallMessages(messages);
+
+        assertEquals(3, folder.getMessageCount());
+        long root = getThreadRoot(folder, "uid0");
+        assertEquals(root, getThreadRoot(folder, "uid1"));
+        assertEquals(root, getThreadRoot(folder, "uid2"));
+    }
+
+    @Test
+    public void storeSmallMessages_withThreadSpanningBatches_shouldUseSameRoot() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        List<Message> messages = createThreadMessages("uid", 4, 4);
+
+        folder.storeSmallMessages(messages.subList(0, 2));
+        folder.storeSmallMessages(messages.subList(2, 4));
+
+        long root = getThreadRoot(folder, "uid0");
+        assertEquals(root, getThreadRoot(folder, "uid3"));
+    }
+
+    @Test
+    public void storeSmallMessages_withThread_shouldMaintainThreadSummary() throws Exception {
+        LocalFolder folder = createFolder("Folder");
+        folder.storeSmallMessages(createThreadMessages("uid", 3, 3));
+        long root = getThreadRoot(folder, "uid0");
+
+        assertEquals("3,0,0", getThreadSummary(root));
+
+        LocalMessage message = folder.getMessage("uid1");
+        folder.setFlags(Collections.singletonList(message), EnumSet.of(Flag.SEEN, Flag.FLAGGED), true);
+
+        assertEquals("3,0,1", getThreadSummary(root));
+    }
+
+
+    private LocalFolder createFolder(String name) throws Exception {
+        LocalFolder folder = localStore.getFolder(name);
+        folder.create(FolderType.HOLDS_MESSAGES);
+        folder.open(LocalFolder.OPEN_MODE_RW);
+
+        return folder;
+    }
+
+    static List<Message> createMessages(String uidPrefix, int count) throws Exception {
+        return createMessages(uidPrefix, count, null);
+    }
+
+    static List<Message> createMessages(String uidPrefix, int count, String text) throws Exception {
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            MimeMessage message = new MimeMessage();
+            message.setUid(uidPrefix + i);
+            message.setSubject("Message " + i);
+            message.setMessageId("<" + uidPrefix + i + "@example.org>");
+            message.setHeader("Content-Type", "text/plain");
+            MimeMessageHelper.setBody(message, new TextBody(text != null ? text : "Body of message " + i));
+            messages.add(message);
+        }
+
+        return messages;
+    }
+
+    /**
+     * Creates a message that can't be stored because it fails after its body has been written.
+     */
+    private Message createBrokenMessage(String uid, String text) throws Exception {
+        MimeMessage message = new MimeMessage() {
+            @Override
+            public Date getSentDate() {
+                throw new IllegalStateException("Broken message");
+            }
+        };
+        message.setUid(uid);
+        message.setSubject("Broken message");
+        message.setHeader("Content-Type", "text/plain");
+        MimeMessageHelper.setBody(message, new TextBody(text));
+
+        return message;
+    }
+
+    /**
+     * Creates messages that form threads of {@code threadLength} messages. Every message references all previous
+     * messages of its thread, like replies on a mailing list do.
+     */
+    static List<Message> createThreadMessages(String uidPrefix, int count, int threadLength) throws Exception {
+        List<Message> messages = createMessages(uidPrefix, count);
+        StringBuilder references = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            Message message = messages.get(i);
+            if (i % threadLength == 0) {
+                references.setLength(0);
+            } else {
+                message.setHeader("References", references.toString().trim());
+                message.setHeader("In-Reply-To", "<" + uidPrefix + (i - 1) + "@example.org>");
+            }
+            references.append(' ').append(message.getMessageId());
+        }
+
+        return messages;
+    }
+
+    private long getThreadRoot(final LocalFolder folder, final String uid) throws Exception {
+        return localStore.getDatabase().execute(false, new DbCallback<Long>() {
+            @Override
+            public Long doDbWork(SQLiteDatabase db) throws WrappedException {
+                Cursor cursor = db.rawQuery("SELECT t.id, t.root FROM threads t " +
+                        "JOIN messages m ON (t.message_id = m.id) WHERE m.folder_id = ? AND m.uid = ?",
+                        new String[] { Long.toString(folder.getDatabaseId()), uid });
+                try {
+                    assertTrue(cursor.moveToFirst());
+                    return cursor.isNull(1) ? cursor.getLong(0) : cursor.getLong(1);
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
+    private String getThreadSummary(final long root) throws Exception {
+        return localStore.getDatabase().execute(false, new DbCallback<String>() {
+            @Override
+            public String doDbWork(SQLiteDatabase db) throws WrappedException {
+                Cursor cursor = db.rawQuery("SELECT message_count, read, flagged " +
+                        "FROM thread_summaries WHERE root = ?", new String[] { Long.toString(root) });
+                try {
+                    assertTrue(cursor.moveToFirst());
+                    return cursor.getInt(0) + "," + cursor.getInt(1) + "," + cursor.getInt(2);
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
+    private String createLargeText() {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 64 * 1024) {
+            text.append("All work and no play makes Jack a dull boy.\r\n");
+        }
+
+        return text.toString();
+    }
+
+    private String loadBodyText(LocalFolder folder, String uid) throws Exception {
+        LocalMessage message = folder.getMessage(uid);
+        FetchProfile fetchProfile = new FetchProfile();
+        fetchProfile.add(FetchProfile.Item.BODY);
+        folder.fetch(Collections.singletonList(message), fetchProfile, null);
+
+        return MessageExtractor.getTextFromPart(message);
+    }
+}
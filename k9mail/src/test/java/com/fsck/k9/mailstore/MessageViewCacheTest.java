@@ -0,0 +1,219 @@
+package com.fsck.k9.mailstore;
+
+
+import java.io.File;
+
+import com.fsck.k9.Account;
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.mail.Flag;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MessageViewCacheTest {
+    private static final String ACCOUNT_UUID = "00000000-0000-4000-0000-000000000000";
+    private static final String FOLDER_NAME = "Folder";
+    private static final String HTML = "<p>sanitized html</p>";
+    private static final long MAX_SIZE = 3 * HTML.length();
+
+
+    private File directory;
+    private Account account;
+    private LocalFolder folder;
+    private MessageViewCache messageViewCache;
+
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("message_view", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+
+        account = mock(Account.class);
+        when(account.getUuid()).thenReturn(ACCOUNT_UUID);
+        folder = mock(LocalFolder.class);
+        when(folder.getName()).thenReturn(FOLDER_NAME);
+
+        messageViewCache = new MessageViewCache(directory, MAX_SIZE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void get_withoutEntry_shouldReturnNullAndCountMiss() throws Exception {
+        String html = messageViewCache.get(createMessage("uid1"));
+
+        assertNull(html);
+        assertEquals(0, messageViewCache.getHitCount());
+        assertEquals(1, messageViewCache.getMissCount());
+    }
+
+    @Test
+    public void get_afterPut_shouldReturnHtmlAndCountHit() throws Exception {
+        messageViewCache.put(createMessage("uid1"), HTML);
+
+        String html = messageViewCache.get(createMessage("uid1"));
+
+        assertEquals(HTML, html);
+        assertEquals(1, messageViewCache.getHitCount());
+        assertEquals(0, messageViewCache.getMissCount());
+    }
+
+    @Test
+    public void get_withNewInstance_shouldReadEntryFromDisk() throws Exception {
+        messageViewCache.put(createMessage("uid1"), HTML);
+
+        String html = new MessageViewCache(directory, MAX_SIZE).get(createMessage("uid1"));
+
+        assertEquals(HTML, html);
+    }
+
+    @Test
+    public void get_afterPartsChanged_shouldReturnNull() throws Exception {
+        messageViewCache.put(createMessage("uid1"), HTML);
+        LocalMessage changedMessage = createMessage("uid1");
+        when(changedMessage.getMimeType()).thenReturn("text/html");
+
+        String html = messageViewCache.get(changedMessage);
+
+        assertNull(html);
+    }
+
+    @Test
+    public void get_withOtherMessageUsingSameDatabaseId_shouldReturnNull() throws Exception {
+        LocalMessage message = createMessage("uid1");
+        when(message.getDatabaseId()).thenReturn(1L);
+        messageViewCache.put(message, HTML);
+        LocalMessage otherMessage = createMessage("uid2");
+        when(otherMessage.getDatabaseId()).thenReturn(1L);
+
+        String html = messageViewCache.get(otherMessage);
+
+        assertNull(html);
+    }
+
+    @Test
+    public void createKey_shouldDependOnMessageIdHeader() throws Exception {
+        LocalMessage message = createMessage("uid1");
+        String key = MessageViewCache.createKey(message);
+
+        when(message.getMessageId()).thenReturn("<other@example.org>");
+
+        assertNotEquals(key, MessageViewCache.createKey(message));
+    }
+
+    @Test
+    public void createKey_shouldDependOnDownloadState() throws Exception {
+        LocalMessage message = createMessage("uid1");
+        String partialKey = MessageViewCache.createKey(message);
+
+        when(message.isSet(Flag.X_DOWNLOADED_FULL)).thenReturn(true);
+
+        assertNotEquals(partialKey, MessageViewCache.createKey(message));
+    }
+
+    @Test
+    public void put_shouldReplaceOlderEntryOfSameMessage() throws Exception {
+        messageViewCache.put(createMessage("uid1"), HTML);
+        LocalMessage changedMessage = createMessage("uid1");
+        when(changedMessage.isSet(Flag.X_DOWNLOADED_FULL)).thenReturn(true);
+
+        messageViewCache.put(changedMessage, HTML);
+
+        assertEquals(HTML.length(), messageViewCache.getSize());
+        assertEquals(1, directory.list().length);
+    }
+
+    @Test
+    public void put_withCacheFull_shouldRemoveLeastRecentlyUsedEntry() throws Exception {
+        messageViewCache.put(createMessage("uid1"), HTML);
+        messageViewCache.put(createMessage("uid2"), HTML);
+        messageViewCache.put(createMessage("uid3"), HTML);
+        messageViewCache.get(createMessage("uid1"));
+
+        messageViewCache.put(createMessage("uid4"), HTML);
+
+        assertEquals(MAX_SIZE, messageViewCache.getSize());
+        assertEquals(HTML, messageViewCache.get(createMessage("uid1")));
+        assertNull(messageViewCache.get(createMessage("uid2")));
+    }
+
+    @Test
+    public void removeMessage_shouldDeleteEntryOfMessage() throws Exception {
+        messageViewCache.put(createMessage("uid1"), HTML);
+        messageViewCache.put(createMessage("uid2"), HTML);
+
+        messageViewCache.removeMessage(ACCOUNT_UUID, FOLDER_NAME, "uid1");
+
+        assertNull(messageViewCache.get(createMessage("uid1")));
+        assertEquals(HTML, messageViewCache.get(createMessage("uid2")));
+    }
+
+    @Test
+    public void removeFolder_shouldDeleteEntriesOfFolder() throws Exception {
+        messageViewCache.put(createMessage("uid1"), HTML);
+        messageViewCache.put(createMessage("uid2"), HTML);
+
+        messageViewCache.removeFolder(ACCOUNT_UUID, FOLDER_NAME);
+
+        assertEquals(0L, messageViewCache.getSize());
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void removeFolder_withOtherFolder_shouldKeepEntries() throws Exception {
+        messageViewCache.put(createMessage("uid1"), HTML);
+
+        messageViewCache.removeFolder(ACCOUNT_UUID, "Other");
+
+        assertEquals(HTML, messageViewCache.get(createMessage("uid1")));
+    }
+
+    @Test
+    public void removeAccount_shouldDeleteEntriesOfAccount() throws Exception {
+        messageViewCache.put(createMessage("uid1"), HTML);
+
+        messageViewCache.removeAccount(ACCOUNT_UUID);
+
+        assertEquals(0L, messageViewCache.getSize());
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void clear_shouldDeleteAllEntries() throws Exception {
+        messageViewCache.put(createMessage("uid1"), HTML);
+
+        messageViewCache.clear();
+
+        assertEquals(0L, messageViewCache.getSize());
+        assertEquals(0, directory.list().length);
+    }
+
+
+    private LocalMessage createMessage(String uid) {
+        LocalMessage message = mock(LocalMessage.class);
+        when(message.getAccount()).thenReturn(account);
+        when(message.getFolder()).thenReturn(folder);
+        when(message.getUid()).thenReturn(uid);
+        when(message.getMessageId()).thenReturn("<" + uid + "@example.org>");
+        when(message.getMimeType()).thenReturn("text/plain");
+
+        return message;
+    }
+}
@@ -80,7 +80,8 @@ public class MessageViewInfoExtractorTest {
         HtmlProcessor htmlProcessor = createFakeHtmlProcessor();
         attachmentInfoExtractor = spy(AttachmentInfoExtractor.getInstance());
         calendarInfoExtractor = spy(ICalendarInfoExtractor.getInstance());
-        messageViewInfoExtractor = new MessageViewInfoExtractor(context, attachmentInfoExtractor, calendarInfoExtractor, htmlProcessor);
+        messageViewInfoExtractor = new MessageViewInfoExtractor(context, attachmentInfoExtractor, calendarInfoExtractor,
+                htmlProcessor, null);
     }
 
     @Test
@@ -96,7 +97,7 @@ public class MessageViewInfoExtractorTest {
         // Prepare fixture
         HtmlProcessor htmlProcessor = mock(HtmlProcessor.class);
         MessageViewInfoExtractor messageViewInfoExtractor =
-                new MessageViewInfoExtractor(context, null, null, htmlProcessor);
+                new MessageViewInfoExtractor(context, null, null, htmlProcessor, null);
         String value = "--sanitized html--";
         when(htmlProcessor.processForDisplay(anyString())).thenReturn(value);
 
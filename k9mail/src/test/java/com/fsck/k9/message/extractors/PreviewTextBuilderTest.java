@@ -0,0 +1,143 @@
+package com.fsck.k9.message.extractors;
+
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class PreviewTextBuilderTest {
+    private static final int MAX_PREVIEW_LENGTH = 512;
+    private static final String[] TEXT_FRAGMENTS = {
+            "-", "=", "_", "-- ", "----", "\r", "\n", "\r\n", " ", "\t", "\u000B", "\f", "\u0085", "\u2028", "\u2029",
+            "\u0001", "#", ">", "On ", "wrote", "x", ":", "a:", "http", "https", "://", "s", "h", "\u00e9", "word",
+            "===============", "------------------", "_______________"
+    };
+    private static final String MESSAGE_TEXT = "" +
+            "Hello Bob,\r\n" +
+            "\r\n" +
+            "the quarterly numbers are at https://example.org/reports/q3 and look fine.\r\n" +
+            "==============================\r\n" +
+            "\r\n" +
+            "On Mon, Jan 1, 2018 at 10:00 AM, Alice <alice@example.org> wrote:\r\n" +
+            "> Could you send me the numbers?\r\n" +
+            "> Thanks\r\n";
+
+
+    private final PreviewTextBuilder previewTextBuilder = new PreviewTextBuilder(MAX_PREVIEW_LENGTH);
+
+
+    @Test
+    public void build_withMessageText() {
+        String preview = previewTextBuilder.build(MESSAGE_TEXT);
+
+        assertEquals("Hello Bob, the quarterly numbers are at ... and look fine.", preview);
+    }
+
+    @Test
+    public void build_withSignatureDelimitedByCarriageReturn_shouldStripSignature() {
+        String preview = previewTextBuilder.build("Some text\r-- \rSignature");
+
+        assertEquals("Some text", preview);
+    }
+
+    @Test
+    public void build_withSignatureDelimiterWithoutLineBreak_shouldKeepText() {
+        String preview = previewTextBuilder.build("Some text\r\n-- Signature");
+
+        assertEquals("Some text -- Signature", preview);
+    }
+
+    @Test
+    public void build_withHorizontalRuleInUrl_shouldSplitUrl() {
+        String preview = previewTextBuilder.build("http://example.org/" + repeat('=', 30) + "/path");
+
+        assertEquals("... /path", preview);
+    }
+
+    @Test
+    public void build_withSchemeOnly_shouldKeepText() {
+        String preview = previewTextBuilder.build("see http:// for details");
+
+        assertEquals("see http:// for details", preview);
+    }
+
+    @Test
+    public void build_withQuoteHeaderEndingInCharacter_shouldStripLine() {
+        String preview = previewTextBuilder.build("On Monday Alice wrote;\nreply");
+
+        assertEquals("reply", preview);
+    }
+
+    @Test
+    public void build_withLeadingAndTrailingControlCharacters_shouldTrim() {
+        String preview = previewTextBuilder.build("\u0001 text \u0002");
+
+        assertEquals("text", preview);
+    }
+
+    @Test
+    public void build_withLongText_shouldStopAtMaxLength() {
+        String preview = previewTextBuilder.build(repeat('a', 100000));
+
+        assertEquals(repeat('a', MAX_PREVIEW_LENGTH - 1) + "…", preview);
+    }
+
+    @Test
+    public void build_withTextOfMaxLength_shouldNotTruncate() {
+        String text = repeat('a', MAX_PREVIEW_LENGTH);
+
+        String preview = previewTextBuilder.build(text + " \r\n");
+
+        assertEquals(text, preview);
+    }
+
+    @Test
+    public void build_withRandomText_shouldMatchRegularExpressions() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20000; i++) {
+            String text = createRandomText(random, (i % 100 == 0) ? 400 : 30);
+
+            assertEquals(text, stripTextWithRegularExpressions(text), previewTextBuilder.build(text));
+        }
+    }
+
+
+    private static String createRandomText(Random random, int maxFragments) {
+        StringBuilder text = new StringBuilder();
+        int fragments = random.nextInt(maxFragments);
+        for (int i = 0; i < fragments; i++) {
+            text.append(TEXT_FRAGMENTS[random.nextInt(TEXT_FRAGMENTS.length)]);
+        }
+        return text.toString();
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * The rules as they were implemented before {@link PreviewTextBuilder}.
+     */
+    private static String stripTextWithRegularExpressions(String text) {
+        text = text.replaceAll("(?ms)^-- [\\r\\n]+.*", "");
+        text = text.replaceAll("(?m)^----.*?$", "");
+        text = text.replaceAll("(?m)^[#>].*$", "");
+        text = text.replaceAll("(?m)^On .*wrote.?$", "");
+        text = text.replaceAll("(?m)^.*\\w+:$", "");
+        text = text.replaceAll("\\s*([-=_]{30,}+)\\s*", " ");
+        text = text.replaceAll("https?://\\S+", "...");
+        text = text.replaceAll("(\\r|\\n)+", " ");
+        text = text.replaceAll("\\s+", " ");
+        text = text.trim();
+
+        return (text.length() > MAX_PREVIEW_LENGTH) ? text.substring(0, MAX_PREVIEW_LENGTH - 1) + "…" : text;
+    }
+}
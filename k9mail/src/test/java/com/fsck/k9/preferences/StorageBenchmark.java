@@ -0,0 +1,63 @@
+package com.fsck.k9.preferences;
+
+
+import java.util.UUID;
+
+import android.content.Context;
+
+import com.fsck.k9.RobolectricBenchmark;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+
+public class StorageBenchmark extends RobolectricBenchmark {
+    private static final int ACCOUNT_COUNT = 20;
+    private static final int KEYS_PER_ACCOUNT = 80;
+    private static final int ITERATIONS = 20;
+
+
+    private Context context;
+    private Storage storage;
+
+
+    @Before
+    public void setUp() throws Exception {
+        context = RuntimeEnvironment.application;
+        storage = new Storage(context);
+
+        StorageEditor editor = storage.edit();
+        for (int account = 0; account < ACCOUNT_COUNT; account++) {
+            String uuid = UUID.randomUUID().toString();
+            for (int key = 0; key < KEYS_PER_ACCOUNT; key++) {
+                editor.putString(uuid + ".setting" + key, "value of setting " + key);
+            }
+        }
+        editor.commit();
+    }
+
+    @Test
+    public void loadValues() throws Exception {
+        measure("Load " + ACCOUNT_COUNT * KEYS_PER_ACCOUNT + " keys", ITERATIONS, new Task() {
+            @Override
+            public void run() throws Exception {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    new Storage(context);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void commit_withSingleKey() throws Exception {
+        measure("Commit a single key next to " + ACCOUNT_COUNT * KEYS_PER_ACCOUNT + " keys", ITERATIONS,
+                new Task() {
+                    @Override
+                    public void run() throws Exception {
+                        for (int i = 0; i < ITERATIONS; i++) {
+                            storage.edit().putInt("folder.setting", i).commit();
+                        }
+                    }
+                });
+    }
+}
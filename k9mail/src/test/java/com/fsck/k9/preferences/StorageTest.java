@@ -0,0 +1,98 @@
+package com.fsck.k9.preferences;
+
+
+import java.util.Collections;
+import java.util.Map;
+
+import android.content.Context;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class StorageTest {
+    private Context context;
+    private Storage storage;
+
+
+    @Before
+    public void setUp() throws Exception {
+        context = RuntimeEnvironment.application;
+        storage = new Storage(context);
+    }
+
+    @Test
+    public void commit_shouldMakeValuesVisible() throws Exception {
+        boolean success = storage.edit()
+                .putString("key", "value")
+                .putInt("number", 23)
+                .commit();
+
+        assertTrue(success);
+        assertEquals("value", storage.getString("key", null));
+        assertEquals(23, storage.getInt("number", 0));
+    }
+
+    @Test
+    public void commit_shouldPersistValues() throws Exception {
+        storage.edit().putString("key", "value").commit();
+
+        Storage reloadedStorage = new Storage(context);
+
+        assertEquals("value", reloadedStorage.getString("key", null));
+    }
+
+    @Test
+    public void remove_shouldDeletePersistedValue() throws Exception {
+        storage.edit().putString("key", "value").putString("other", "value").commit();
+
+        storage.edit().remove("key").commit();
+
+        assertFalse(storage.contains("key"));
+        assertTrue(storage.contains("other"));
+        Storage reloadedStorage = new Storage(context);
+        assertNull(reloadedStorage.getString("key", null));
+        assertEquals("value", reloadedStorage.getString("other", null));
+    }
+
+    @Test
+    public void commit_withRemoveAndPutOfSameKey_shouldKeepNewValue() throws Exception {
+        storage.edit().putString("key", "old").commit();
+
+        storage.edit().remove("key").putString("key", "old").commit();
+
+        assertEquals("old", storage.getString("key", null));
+        assertEquals("old", new Storage(context).getString("key", null));
+    }
+
+    @Test
+    public void commit_withChangeByOtherEditor_shouldWriteValue() throws Exception {
+        storage.edit().putString("key", "a").commit();
+        StorageEditor editor = storage.edit();
+        storage.edit().putString("key", "b").commit();
+
+        editor.putString("key", "a").commit();
+
+        assertEquals("a", storage.getString("key", null));
+        assertEquals("a", new Storage(context).getString("key", null));
+    }
+
+    @Test
+    public void getAll_shouldNotReflectLaterCommits() throws Exception {
+        storage.edit().putString("key", "a").commit();
+        Map<String, String> values = storage.getAll();
+
+        storage.edit().putString("key", "b").putString("other", "c").commit();
+
+        assertEquals(Collections.singletonMap("key", "a"), values);
+    }
+}
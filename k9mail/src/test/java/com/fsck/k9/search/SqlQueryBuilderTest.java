@@ -0,0 +1,103 @@
+package com.fsck.k9.search;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fsck.k9.K9RobolectricTestRunner;
+import com.fsck.k9.search.SearchSpecification.Attribute;
+import com.fsck.k9.search.SearchSpecification.SearchCondition;
+import com.fsck.k9.search.SearchSpecification.SearchField;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+@RunWith(K9RobolectricTestRunner.class)
+public class SqlQueryBuilderTest {
+    @Test
+    public void buildFulltextMatchExpression_shouldCreatePrefixPhraseQuery() throws Exception {
+        String expression = SqlQueryBuilder.buildFulltextMatchExpression("subject", "Quarterly plan");
+
+        assertEquals("subject:\"Quarterly plan*\"", expression);
+    }
+
+    @Test
+    public void buildFulltextMatchExpression_shouldSplitWordsLikeTokenizer() throws Exception {
+        String expression = SqlQueryBuilder.buildFulltextMatchExpression("sender_list", " alice@example.org\"");
+
+        assertEquals("sender_list:\"alice example org*\"", expression);
+    }
+
+    @Test
+    public void buildFulltextMatchExpression_shouldKeepNonAsciiCharacters() throws Exception {
+        String expression = SqlQueryBuilder.buildFulltextMatchExpression("subject", "Grüße");
+
+        assertEquals("subject:\"Grüße*\"", expression);
+    }
+
+    @Test
+    public void buildFulltextMatchExpression_withoutWords_shouldReturnNull() throws Exception {
+        String expression = SqlQueryBuilder.buildFulltextMatchExpression("subject", " @-* ");
+
+        assertNull(expression);
+    }
+
+    @Test
+    public void buildWhereClause_withSubjectContains_shouldUseFulltextIndex() throws Exception {
+        StringBuilder query = new StringBuilder();
+        List<String> selectionArgs = new ArrayList<>();
+
+        SqlQueryBuilder.buildWhereClause(null, createCondition(SearchField.SUBJECT, Attribute.CONTAINS, "plan"),
+                query, selectionArgs);
+
+        assertEquals("(m.id IN (SELECT docid FROM messages_fulltext WHERE messages_fulltext MATCH ?) OR " +
+                "(m.id IN (SELECT message_id FROM fulltext_pending) AND subject LIKE ?))", query.toString());
+        assertEquals(asList("subject:\"plan*\"", "%plan%"), selectionArgs);
+    }
+
+    @Test
+    public void buildWhereClause_withSubjectStartsWith_shouldUseLike() throws Exception {
+        StringBuilder query = new StringBuilder();
+        List<String> selectionArgs = new ArrayList<>();
+
+        SqlQueryBuilder.buildWhereClause(null, createCondition(SearchField.SUBJECT, Attribute.STARTSWITH, "plan"),
+                query, selectionArgs);
+
+        assertEquals("subject LIKE ?", query.toString());
+    }
+
+    @Test
+    public void buildWhereClause_withBccContains_shouldUseLike() throws Exception {
+        StringBuilder query = new StringBuilder();
+        List<String> selectionArgs = new ArrayList<>();
+
+        SqlQueryBuilder.buildWhereClause(null, createCondition(SearchField.BCC, Attribute.CONTAINS, "alice"),
+                query, selectionArgs);
+
+        assertEquals("bcc_list LIKE ?", query.toString());
+        assertEquals(singletonList("%alice%"), selectionArgs);
+    }
+
+    @Test
+    public void buildWhereClause_withMessageContents_shouldMatchFulltextColumn() throws Exception {
+        StringBuilder query = new StringBuilder();
+        List<String> selectionArgs = new ArrayList<>();
+
+        SqlQueryBuilder.buildWhereClause(null,
+                createCondition(SearchField.MESSAGE_CONTENTS, Attribute.CONTAINS, "budget"), query, selectionArgs);
+
+        assertEquals("m.id IN (SELECT docid FROM messages_fulltext WHERE messages_fulltext MATCH ?)",
+                query.toString());
+        assertEquals(singletonList("fulltext:\"budget*\""), selectionArgs);
+    }
+
+
+    private ConditionsTreeNode createCondition(SearchField field, Attribute attribute, String value) {
+        return new ConditionsTreeNode(new SearchCondition(field, attribute, value));
+    }
+}